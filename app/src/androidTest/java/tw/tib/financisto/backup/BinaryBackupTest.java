@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2012 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package tw.tib.financisto.backup;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.net.Uri;
+import android.preference.PreferenceManager;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import tw.tib.financisto.db.DatabaseAdapter;
+import tw.tib.financisto.model.Account;
+import tw.tib.financisto.model.Currency;
+import tw.tib.financisto.model.Payee;
+import tw.tib.financisto.model.Transaction;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Writes and reads the {@link BinaryBackup} format, then restores the same data
+ * from a text backup and from a binary one, plain and gzipped, expecting identical tables.
+ * The data of the app under test is kept in a text backup and restored at the end.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BinaryBackupTest {
+
+    private static final String BINARY_BACKUP_FORMAT = "binary_backup_format";
+
+    private static final long[] LONGS = {0, 1, -1, 63, -64, 64, 127, 128, 16383, 16384,
+            Integer.MAX_VALUE, Integer.MIN_VALUE, 1L << 35, -(1L << 49), Long.MAX_VALUE, Long.MIN_VALUE};
+
+    private static final String UNICODE = "Café «€» Żółć 東京 🚀";
+
+    private Context context;
+    private DatabaseAdapter db;
+    private SharedPreferences preferences;
+    private boolean wasBinary;
+    private File userData;
+
+    @Before
+    public void setUp() throws Exception {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        db = new DatabaseAdapter(context);
+        preferences = PreferenceManager.getDefaultSharedPreferences(context);
+        wasBinary = preferences.getBoolean(BINARY_BACKUP_FORMAT, false);
+        userData = writeFile("user_data.backup", export(false, true));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        try {
+            restore(userData);
+        } finally {
+            preferences.edit().putBoolean(BINARY_BACKUP_FORMAT, wasBinary).commit();
+            userData.delete();
+        }
+    }
+
+    @Test
+    public void should_read_what_was_written() throws IOException {
+        Map<String, String> header = new LinkedHashMap<>();
+        header.put("PACKAGE", "tw.tib.financisto");
+        header.put("NOTE", UNICODE);
+        header.put("", "");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; i++) {
+            sb.append(UNICODE);
+        }
+        String longString = sb.toString();
+        byte[] blob = new byte[100000];
+        for (int i = 0; i < blob.length; i++) {
+            blob[i] = (byte) i;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (BinaryBackupWriter w = new BinaryBackupWriter(out, header)) {
+            w.startTable("numbers", new String[]{"long", "double"});
+            for (int i = 0; i < LONGS.length; i++) {
+                w.startRow();
+                w.writeLong(LONGS[i]);
+                w.writeDouble(i % 2 == 0 ? LONGS[i] / 3.0 : -Double.MIN_VALUE * i);
+            }
+            w.startTable("values", new String[]{"empty", "null", UNICODE, "long_string", "blob", "empty_blob"});
+            w.startRow();
+            w.writeString("");
+            w.writeNull();
+            w.writeString(UNICODE);
+            w.writeString(longString);
+            w.writeBlob(blob);
+            w.writeBlob(new byte[0]);
+            w.startRow();
+            for (int i = 0; i < 6; i++) {
+                w.writeNull();
+            }
+        }
+
+        BinaryBackupReader r = new BinaryBackupReader(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(header, r.getHeader());
+        for (int i = 0; i < LONGS.length; i++) {
+            assertTrue(r.nextRow());
+            assertEquals("numbers", r.getTableName());
+            assertArrayEquals(new String[]{"long", "double"}, r.getColumns());
+            assertEquals(LONGS[i], r.getValue(0));
+            assertEquals(i % 2 == 0 ? LONGS[i] / 3.0 : -Double.MIN_VALUE * i, r.getValue(1));
+        }
+        assertTrue(r.nextRow());
+        assertEquals("values", r.getTableName());
+        assertEquals(UNICODE, r.getColumns()[2]);
+        assertEquals("", r.getValue(0));
+        assertNull(r.getValue(1));
+        assertEquals(UNICODE, r.getValue(2));
+        assertEquals(longString, r.getValue(3));
+        assertArrayEquals(blob, (byte[]) r.getValue(4));
+        assertArrayEquals(new byte[0], (byte[]) r.getValue(5));
+        assertTrue(r.nextRow());
+        for (int i = 0; i < 6; i++) {
+            assertNull(r.getValue(i));
+        }
+        assertFalse(r.nextRow());
+    }
+
+    @Test
+    public void should_fail_on_broken_binary_backups() throws IOException {
+        try {
+            new BinaryBackupReader(new ByteArrayInputStream("PACKAGE:tw.tib.financisto\n".getBytes(StandardCharsets.UTF_8)));
+            fail("Text backup read as binary");
+        } catch (IOException expected) {
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (BinaryBackupWriter w = new BinaryBackupWriter(out, new LinkedHashMap<>())) {
+            w.startTable("t", new String[]{"a"});
+            w.startRow();
+            w.writeString(UNICODE);
+        }
+        byte[] bytes = out.toByteArray();
+        BinaryBackupReader r = new BinaryBackupReader(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 4)));
+        try {
+            r.nextRow();
+            fail("Truncated row read");
+        } catch (EOFException expected) {
+        }
+    }
+
+    @Test
+    public void should_detect_binary_backups_by_magic_bytes() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new BinaryBackupWriter(out, new LinkedHashMap<>()).close();
+        assertDetected(true, out.toByteArray());
+        assertDetected(false, "PACKAGE:tw.tib.financisto\n".getBytes(StandardCharsets.UTF_8));
+        assertDetected(false, Arrays.copyOf(BinaryBackup.MAGIC, BinaryBackup.MAGIC.length - 1));
+        assertDetected(false, new byte[0]);
+    }
+
+    @Test
+    public void should_restore_the_same_data_from_text_and_binary_backups() throws Exception {
+        createData();
+        byte[] text = export(false, false);
+        assertFalse(BinaryBackup.isBinaryBackup(new PushbackInputStream(new ByteArrayInputStream(text), 4)));
+        restore(writeFile("text.backup", text));
+        List<List<Object>> restoredFromText = dumpTables();
+        assertTrue(containsValue(restoredFromText, UNICODE));
+        assertTrue(containsValue(restoredFromText, Long.MAX_VALUE / 7));
+        assertTrue(containsValue(restoredFromText, Long.MIN_VALUE / 7));
+
+        byte[] binary = export(true, false);
+        assertTrue(BinaryBackup.isBinaryBackup(new PushbackInputStream(new ByteArrayInputStream(binary), 4)));
+        restore(writeFile("binary.backup", binary));
+        assertEquals(restoredFromText, dumpTables());
+
+        restore(writeFile("binary_gzip.backup", export(true, true)));
+        assertEquals(restoredFromText, dumpTables());
+
+        restore(writeFile("text_gzip.backup", export(false, true)));
+        assertEquals(restoredFromText, dumpTables());
+    }
+
+    private void createData() {
+        Currency c = new Currency();
+        c.name = "ZZZ";
+        c.title = UNICODE;
+        c.symbol = "€";
+        c.isDefault = true;
+        db.saveOrUpdate(c);
+        Account a = new Account();
+        a.title = UNICODE;
+        a.currency = c;
+        a.note = null;
+        db.saveAccount(a);
+        Account b = new Account();
+        b.title = "Large";
+        b.currency = c;
+        b.limitAmount = Long.MAX_VALUE;
+        db.saveAccount(b);
+        Payee payee = db.findOrInsertEntityByTitle(Payee.class, UNICODE);
+        long[] amounts = {0, -1, 128, Long.MAX_VALUE / 7, Long.MIN_VALUE / 7};
+        for (int i = 0; i < amounts.length; i++) {
+            Transaction t = new Transaction();
+            t.fromAccountId = i % 2 == 0 ? a.id : b.id;
+            t.fromAmount = amounts[i];
+            t.payeeId = i % 2 == 0 ? payee.id : 0;
+            t.note = i % 2 == 0 ? UNICODE + " " + i : null;
+            t.dateTime = 1500000000000L + i;
+            t.latitude = 52.2297 + i / 3.0;
+            t.longitude = -21.0122 - i / 7.0;
+            db.insertOrUpdate(t);
+        }
+    }
+
+    private byte[] export(boolean binary, boolean gzip) throws Exception {
+        preferences.edit().putBoolean(BINARY_BACKUP_FORMAT, binary).commit();
+        DatabaseExport export = new DatabaseExport(context, db.db(), gzip);
+        if (gzip) {
+            return export.generateBackupBytes();
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        export.generateBackup(out);
+        return out.toByteArray();
+    }
+
+    private void restore(File backup) throws Exception {
+        try {
+            DatabaseImport.createFromFileBackup(context, db, Uri.fromFile(backup)).importDatabase();
+        } finally {
+            if (backup != userData) {
+                backup.delete();
+            }
+        }
+    }
+
+    private File writeFile(String name, byte[] bytes) throws IOException {
+        File file = new File(context.getCacheDir(), name);
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(bytes);
+        }
+        return file;
+    }
+
+    /**
+     * Every row of every backup table with the values in their sqlite types,
+     * sorted within a table as not all of them have an id
+     */
+    private List<List<Object>> dumpTables() {
+        List<List<Object>> rows = new ArrayList<>();
+        for (String tableName : Backup.BACKUP_TABLES) {
+            List<List<Object>> tableRows = new ArrayList<>();
+            try (Cursor c = db.db().rawQuery("select * from " + tableName, null)) {
+                while (c.moveToNext()) {
+                    List<Object> row = new ArrayList<>();
+                    row.add(tableName);
+                    for (int i = 0; i < c.getColumnCount(); i++) {
+                        switch (c.getType(i)) {
+                            case Cursor.FIELD_TYPE_INTEGER:
+                                row.add(c.getLong(i));
+                                break;
+                            case Cursor.FIELD_TYPE_FLOAT:
+                                row.add(c.getDouble(i));
+                                break;
+                            case Cursor.FIELD_TYPE_STRING:
+                                row.add(c.getString(i));
+                                break;
+                            case Cursor.FIELD_TYPE_BLOB:
+                                row.add(Arrays.toString(c.getBlob(i)));
+                                break;
+                            default:
+                                row.add(null);
+                        }
+                    }
+                    tableRows.add(row);
+                }
+            }
+            Collections.sort(tableRows, (r1, r2) -> String.valueOf(r1).compareTo(String.valueOf(r2)));
+            rows.addAll(tableRows);
+        }
+        return rows;
+    }
+
+    private static boolean containsValue(List<List<Object>> rows, Object value) {
+        for (List<Object> row : rows) {
+            if (row.contains(value)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void assertDetected(boolean expected, byte[] bytes) throws IOException {
+        PushbackInputStream in = new PushbackInputStream(new ByteArrayInputStream(bytes), BinaryBackup.MAGIC.length);
+        assertEquals(expected, BinaryBackup.isBinaryBackup(in));
+        byte[] left = new byte[bytes.length + 1];
+        int n = 0;
+        int read;
+        while ((read = in.read(left, n, left.length - n)) > 0) {
+            n += read;
+        }
+        assertArrayEquals("the stream must be left unchanged", bytes, Arrays.copyOf(left, n));
+    }
+
+}
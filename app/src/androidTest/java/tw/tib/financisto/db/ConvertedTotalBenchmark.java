@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2012 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package tw.tib.financisto.db;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import gnu.trove.map.hash.TLongObjectHashMap;
+import tw.tib.financisto.model.Currency;
+import tw.tib.financisto.rates.ExchangeRate;
+import tw.tib.financisto.rates.HistoryExchangeRates;
+import tw.tib.financisto.utils.CurrencyCache;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Converts 100k rows to the home currency with the per row BigDecimal path, {@link TransactionsTotalCalculator#getAmountFromCursor},
+ * and with {@link TransactionsTotalCalculator.ConvertedTotal}, checking that both give the same income, expenses and balance.
+ * Rows are in the home currency, transfers to it, in the home original currency or in one of three foreign currencies
+ * with a daily rate over a year, like the rows reports read. Times are in the log.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ConvertedTotalBenchmark {
+
+    private static final String TAG = "ConvertedTotalBenchmark";
+
+    private static final int ROWS = 100000;
+    private static final int DAYS = 365;
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private static final long START = 1700000000000L;
+
+    // far from the ids of the real currencies, which are reloaded in tearDown
+    private static final long HOME_CURRENCY_ID = 1000000;
+    private static final long[] FOREIGN_CURRENCY_IDS = {1000001, 1000002, 1000003};
+    private static final double[] FOREIGN_RATES = {31.4159, 0.0271, 1.0843};
+
+    private final TLongObjectHashMap<Currency> currencies = new TLongObjectHashMap<>();
+
+    private Context context;
+    private DatabaseAdapter db;
+    private Currency homeCurrency;
+    private HistoryExchangeRates rates;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        homeCurrency = newCurrency(HOME_CURRENCY_ID);
+        for (long id : FOREIGN_CURRENCY_IDS) {
+            newCurrency(id);
+        }
+        db = new DatabaseAdapter(context) {
+            @Override
+            public <T> T get(Class<T> clazz, Object id) {
+                if (clazz == Currency.class && currencies.containsKey((Long) id)) {
+                    return clazz.cast(currencies.get((Long) id));
+                }
+                return super.get(clazz, id);
+            }
+        };
+        rates = new HistoryExchangeRates(homeCurrency);
+        for (int i = 0; i < FOREIGN_CURRENCY_IDS.length; i++) {
+            for (int day = 0; day < DAYS; day++) {
+                ExchangeRate r = new ExchangeRate();
+                r.fromCurrencyId = FOREIGN_CURRENCY_IDS[i];
+                r.toCurrencyId = HOME_CURRENCY_ID;
+                r.date = START + day * DAY;
+                r.rate = FOREIGN_RATES[i] * (1 + (day % 30) / 1000.0);
+                rates.addRate(r);
+            }
+        }
+    }
+
+    @After
+    public void tearDown() {
+        CurrencyCache.initialize(new DatabaseAdapter(context));
+    }
+
+    @Test
+    public void should_sum_like_big_decimals() throws Exception {
+        Cursor c = createCursor();
+        try {
+            // warm up both paths, the rate index is built on first use
+            sumBigDecimals(c);
+            sumConvertedTotal(c);
+            long t0 = System.nanoTime();
+            BigDecimal[] expected = sumBigDecimals(c);
+            long t1 = System.nanoTime();
+            TransactionsTotalCalculator.ConvertedTotal actual = sumConvertedTotal(c);
+            long t2 = System.nanoTime();
+            Log.i(TAG, String.format("%d rows: %d ms with BigDecimal per row, %d ms with ConvertedTotal",
+                    ROWS, (t1 - t0) / 1000000, (t2 - t1) / 1000000));
+            assertEquals(expected[0].longValue(), actual.getIncome());
+            assertEquals(expected[1].longValue(), actual.getExpenses());
+            assertEquals(expected[0].add(expected[1]).longValue(), actual.getBalance());
+            assertEquals(0, expected[0].compareTo(actual.getIncomeAmount()));
+            assertEquals(0, expected[1].compareTo(actual.getExpensesAmount()));
+        } finally {
+            c.close();
+        }
+    }
+
+    private BigDecimal[] sumBigDecimals(Cursor c) throws UnableToCalculateRateException {
+        BigDecimal income = BigDecimal.ZERO;
+        BigDecimal expenses = BigDecimal.ZERO;
+        c.moveToPosition(-1);
+        while (c.moveToNext()) {
+            BigDecimal amount = TransactionsTotalCalculator.getAmountFromCursor(db, c, homeCurrency, rates, 0);
+            if (amount.signum() > 0) {
+                income = income.add(amount);
+            } else {
+                expenses = expenses.add(amount);
+            }
+        }
+        return new BigDecimal[]{income, expenses};
+    }
+
+    private TransactionsTotalCalculator.ConvertedTotal sumConvertedTotal(Cursor c) throws UnableToCalculateRateException {
+        TransactionsTotalCalculator.ConvertedTotal total = new TransactionsTotalCalculator.ConvertedTotal(db, homeCurrency, rates);
+        c.moveToPosition(-1);
+        while (c.moveToNext()) {
+            total.add(c, 0);
+        }
+        return total;
+    }
+
+    private static Cursor createCursor() {
+        Random random = new Random(42);
+        MatrixCursor c = new MatrixCursor(TransactionsTotalCalculator.HOME_CURRENCY_PROJECTION, ROWS);
+        for (int row = 0; row < ROWS; row++) {
+            long datetime = START + (long) random.nextInt(DAYS) * DAY + random.nextInt((int) DAY);
+            long foreignCurrencyId = FOREIGN_CURRENCY_IDS[random.nextInt(FOREIGN_CURRENCY_IDS.length)];
+            long amount = (random.nextInt(2000000) - 1500000) * (random.nextInt(20) == 0 ? 1000L : 1L);
+            switch (row % 10) {
+                case 0: case 1: case 2: case 3:
+                    c.addRow(new Object[]{datetime, HOME_CURRENCY_ID, amount, 0, 0, 0, 0});
+                    break;
+                case 4:
+                    c.addRow(new Object[]{datetime, foreignCurrencyId, -Math.abs(amount), HOME_CURRENCY_ID, Math.abs(amount) / 3, 0, 0});
+                    break;
+                case 5:
+                    c.addRow(new Object[]{datetime, foreignCurrencyId, amount, 0, 0, HOME_CURRENCY_ID, amount / 7});
+                    break;
+                default:
+                    c.addRow(new Object[]{datetime, foreignCurrencyId, amount, 0, 0, 0, 0});
+            }
+        }
+        return c;
+    }
+
+    private Currency newCurrency(long id) {
+        Currency c = new Currency();
+        c.id = id;
+        c.name = "C" + id;
+        c.title = "Currency " + id;
+        c.symbol = "¤";
+        currencies.put(id, c);
+        return c;
+    }
+
+}
@@ -0,0 +1,255 @@
+/*
+ * Copyright (c) 2012 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package tw.tib.financisto.db;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import tw.tib.financisto.blotter.BlotterFilter;
+import tw.tib.financisto.datetime.DateUtils;
+import tw.tib.financisto.filter.Criteria;
+import tw.tib.financisto.filter.DateTimeCriteria;
+import tw.tib.financisto.filter.WhereFilter;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the blotter, total and report queries against a fresh database created by
+ * {@link DatabaseSchemaEvolution} and fails if any of them reads a whole table which grows with transactions.
+ * A table scan is an OpenRead cursor on the root page of a table which is rewound,
+ * that covers the temporary automatic indexes too, which EXPLAIN QUERY PLAN reports as searches.
+ * Without sqlite_stat1 the planner assumes big tables, so an empty database gives the same plans as a real one.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryPlanTest {
+
+    private static final String DATABASE_NAME = "query_plan_test.db";
+
+    // categories, accounts, payees and the like are small enough to be read as a whole
+    private static final Set<String> LARGE_TABLES = new HashSet<>(Arrays.asList(
+            DatabaseHelper.TRANSACTION_TABLE, DatabaseHelper.TRANSACTION_ATTRIBUTE_TABLE,
+            DatabaseHelper.REPORT_AGGREGATE_TABLE, DatabaseHelper.SCHEDULE_INDEX_TABLE, "running_balance"));
+
+    private static final String BLOTTER_ORDER = BlotterFilter.SORT_NEWER_TO_OLDER + "," + BlotterFilter.SORT_NEWER_TO_OLDER_BY_ID;
+
+    private static final String[] REPORT_VIEWS = {DatabaseHelper.V_REPORT_CATEGORY, DatabaseHelper.V_REPORT_PERIOD,
+            DatabaseHelper.V_REPORT_LOCATIONS, DatabaseHelper.V_REPORT_PROJECTS, DatabaseHelper.V_REPORT_PAYEES};
+
+    private static final String SQLITE_QUERY = "SQLiteQuery: ";
+
+    private final List<String> queries = new ArrayList<>();
+
+    private Context context;
+    private DatabaseSchemaEvolution helper;
+    private SQLiteDatabase db;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DATABASE_NAME);
+        // every query run through the database is recorded to be explained later
+        helper = new DatabaseSchemaEvolution(context, DATABASE_NAME, (database, driver, editTable, query) -> {
+            queries.add(query.toString());
+            return new SQLiteCursor(driver, editTable, query);
+        }, Database.DATABASE_VERSION);
+        db = helper.getWritableDatabase();
+        ReportAggregate.rebuild(context, db);
+        queries.clear();
+    }
+
+    @After
+    public void tearDown() {
+        helper.close();
+        context.deleteDatabase(DATABASE_NAME);
+    }
+
+    @Test
+    public void should_not_scan_for_blotters() {
+        for (WhereFilter filter : filters()) {
+            query(DatabaseAdapter.getBlotterView(filter, false), DatabaseHelper.BlotterColumns.NORMAL_PROJECTION, filter, null, BLOTTER_ORDER, null);
+            query(DatabaseHelper.V_BLOTTER_WITH_SPLITS, DatabaseHelper.BlotterColumns.NORMAL_PROJECTION, filter, null, BLOTTER_ORDER, null);
+            query(DatabaseAdapter.getBlotterView(filter, false), new String[]{"count(*)"}, filter, null, null, null);
+
+            WhereFilter accountFilter = DatabaseAdapter.enhanceFilterForAccountBlotter(filter);
+            accountFilter.put(Criteria.eq(BlotterFilter.FROM_ACCOUNT_ID, "1"));
+            query(DatabaseAdapter.getBlotterView(accountFilter, true), DatabaseHelper.BlotterColumns.NORMAL_PROJECTION, accountFilter, null, BLOTTER_ORDER, null);
+        }
+        // a keyset page, the same as DatabaseAdapter.getBlotterPage
+        WhereFilter filter = WhereFilter.empty();
+        filter.put(Criteria.raw(BlotterFilter.DATETIME + "<? OR (" + BlotterFilter.DATETIME + "=? AND _id<=?)"));
+        query(DatabaseHelper.V_BLOTTER, DatabaseHelper.BlotterColumns.NORMAL_PROJECTION, filter, null, BLOTTER_ORDER, "0,50");
+        assertNoTableScans();
+    }
+
+    @Test
+    public void should_not_scan_for_totals() {
+        for (WhereFilter filter : filters()) {
+            // the same as TransactionsTotalCalculator
+            WhereFilter totals = WhereFilter.copyOf(filter);
+            totals.eq("from_account_is_include_into_totals", "1");
+            totals.neq("category_id", "-1");
+            query(DatabaseHelper.V_BLOTTER_FOR_ACCOUNT_WITH_SPLITS, TransactionsTotalCalculator.BALANCE_PROJECTION, totals,
+                    TransactionsTotalCalculator.BALANCE_GROUPBY, null, null);
+            query(DatabaseHelper.V_BLOTTER_FOR_ACCOUNT_WITH_SPLITS, TransactionsTotalCalculator.HOME_CURRENCY_PROJECTION, totals, null, null, null);
+
+            WhereFilter account = DatabaseAdapter.enhanceFilterForAccountBlotter(filter);
+            account.put(Criteria.eq(BlotterFilter.FROM_ACCOUNT_ID, "1"));
+            query(DatabaseHelper.V_BLOTTER_FOR_ACCOUNT_WITH_SPLITS, TransactionsTotalCalculator.BALANCE_PROJECTION, account,
+                    TransactionsTotalCalculator.BALANCE_GROUPBY, null, null);
+            query(DatabaseHelper.V_BLOTTER_FOR_ACCOUNT_WITH_SPLITS, TransactionsTotalCalculator.HOME_CURRENCY_PROJECTION, account, null, null, null);
+        }
+        // running balances, the same as DatabaseAdapter
+        rawQuery("select balance from running_balance where account_id = ? and datetime <= ? order by datetime desc, transaction_id desc limit 1", "1", "0");
+        rawQuery("select balance from running_balance where account_id=? order by datetime desc, transaction_id desc limit 1", "1");
+        rawQuery("select balance from running_balance where account_id=? and transaction_id=?", "1", "1");
+        rawQuery("select datetime from running_balance where account_id=? order by datetime desc limit 1", "1");
+        assertNoTableScans();
+    }
+
+    @Test
+    public void should_not_scan_for_reports() {
+        for (WhereFilter filter : filters()) {
+            for (String view : REPORT_VIEWS) {
+                close(ReportAggregate.query(db, view, DatabaseHelper.ReportColumns.NORMAL_PROJECTION, filter, "_id"));
+            }
+            close(ReportAggregate.query(db, DatabaseHelper.V_REPORT_SUB_CATEGORY, DatabaseHelper.SubCategoryReportColumns.NORMAL_PROJECTION,
+                    filter, DatabaseHelper.SubCategoryReportColumns.LEFT));
+        }
+        assertNoTableScans();
+    }
+
+    /**
+     * Filters of the blotter and the reports: none, whole days which reports read from the aggregate,
+     * part of a day which they don't, and the ones usually combined with a period
+     */
+    private static List<WhereFilter> filters() {
+        long now = System.currentTimeMillis();
+        long start = DateUtils.atMidnight(now - 30L * 24 * 3600 * 1000);
+        List<WhereFilter> filters = new ArrayList<>();
+        filters.add(WhereFilter.empty());
+        filters.add(withPeriod(start, DateUtils.atDayEnd(now)));
+        filters.add(withPeriod(start + 1, now));
+        WhereFilter category = withPeriod(start, DateUtils.atDayEnd(now));
+        category.put(Criteria.btw(BlotterFilter.CATEGORY_LEFT, "1024", "2048"));
+        filters.add(category);
+        WhereFilter payee = withPeriod(start, DateUtils.atDayEnd(now));
+        payee.put(Criteria.eq(BlotterFilter.PAYEE_ID, "1"));
+        filters.add(payee);
+        WhereFilter account = withPeriod(start, DateUtils.atDayEnd(now));
+        account.put(Criteria.eq(BlotterFilter.FROM_ACCOUNT_ID, "1"));
+        filters.add(account);
+        WhereFilter project = WhereFilter.empty();
+        project.put(Criteria.eq(BlotterFilter.PROJECT_ID, "1"));
+        filters.add(project);
+        WhereFilter location = WhereFilter.empty();
+        location.put(Criteria.eq(BlotterFilter.LOCATION_ID, "1"));
+        filters.add(location);
+        return filters;
+    }
+
+    private static WhereFilter withPeriod(long start, long end) {
+        WhereFilter filter = WhereFilter.empty();
+        filter.put(new DateTimeCriteria(start, end));
+        return filter;
+    }
+
+    private void query(String view, String[] projection, WhereFilter filter, String groupBy, String orderBy, String limit) {
+        String selection = filter.getSelection();
+        close(db.query(view, projection, selection.isEmpty() ? null : selection, filter.getSelectionArgs(), groupBy, null, orderBy, limit));
+    }
+
+    private void rawQuery(String sql, String... args) {
+        close(db.rawQuery(sql, args));
+    }
+
+    private static void close(Cursor c) {
+        c.moveToFirst();
+        c.close();
+    }
+
+    private void assertNoTableScans() {
+        List<String> executed = new ArrayList<>(queries);
+        assertTrue("No queries recorded", executed.size() > 0);
+        Map<Long, String> tables = new HashMap<>();
+        try (Cursor c = db.rawQuery("select rootpage, name from sqlite_master where type='table'", null)) {
+            while (c.moveToNext()) {
+                tables.put(c.getLong(0), c.getString(1));
+            }
+        }
+        for (String query : executed) {
+            if (!query.startsWith(SQLITE_QUERY)) {
+                fail("Unexpected query description " + query);
+            }
+            String sql = query.substring(SQLITE_QUERY.length());
+            Set<String> scanned = findTableScans(sql, tables);
+            scanned.retainAll(LARGE_TABLES);
+            if (!scanned.isEmpty()) {
+                fail("Full scan of " + scanned + " in\n" + sql + "\n" + explainQueryPlan(sql));
+            }
+        }
+    }
+
+    /**
+     * Reads the program of the statement, query parameters are left unbound
+     */
+    private Set<String> findTableScans(String sql, Map<Long, String> tables) {
+        Map<Long, String> cursors = new HashMap<>();
+        Set<String> scanned = new HashSet<>();
+        try (Cursor c = db.rawQuery("EXPLAIN " + sql, null)) {
+            int opcode = c.getColumnIndexOrThrow("opcode");
+            int p1 = c.getColumnIndexOrThrow("p1");
+            int p2 = c.getColumnIndexOrThrow("p2");
+            int p3 = c.getColumnIndexOrThrow("p3");
+            while (c.moveToNext()) {
+                String op = c.getString(opcode);
+                if (op.startsWith("Open")) {
+                    // cursor numbers are reused by subqueries
+                    cursors.remove(c.getLong(p1));
+                    if ("OpenRead".equals(op) && c.getLong(p3) == 0 && tables.containsKey(c.getLong(p2))) {
+                        cursors.put(c.getLong(p1), tables.get(c.getLong(p2)));
+                    }
+                } else if (("Rewind".equals(op) || "Last".equals(op)) && cursors.containsKey(c.getLong(p1))) {
+                    scanned.add(cursors.get(c.getLong(p1)));
+                }
+            }
+        }
+        return scanned;
+    }
+
+    private String explainQueryPlan(String sql) {
+        StringBuilder sb = new StringBuilder();
+        try (Cursor c = db.rawQuery("EXPLAIN QUERY PLAN " + sql, null)) {
+            int detail = c.getColumnIndexOrThrow("detail");
+            while (c.moveToNext()) {
+                sb.append(c.getString(detail)).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+}
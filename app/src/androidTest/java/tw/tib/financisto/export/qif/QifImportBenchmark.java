@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2011 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package tw.tib.financisto.export.qif;
+
+import android.content.Context;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Pairs the transfers of a synthetic QIF file with 10 accounts of 20k transactions each,
+ * the way {@link QifImport#doImport()} does and the way the import used to with all the transactions in memory,
+ * see {@link QifTransferIndexTest}. Both must keep the same transactions, times are in the log.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QifImportBenchmark {
+
+    private static final String TAG = "QifImportBenchmark";
+
+    private static final int ACCOUNTS = 10;
+    private static final int TRANSACTIONS = 20000;
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        file = new File(context.getCacheDir(), "qif_import_benchmark.qif");
+        Writer w = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
+        try {
+            QifTransferIndexTest.generateQif(w, ACCOUNTS, TRANSACTIONS, 28, 1000000, 42);
+        } finally {
+            w.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void should_pair_transfers_of_a_large_file() throws IOException {
+        long t0 = System.nanoTime();
+        List<QifAccount> accounts = new ArrayList<>();
+        QifTransferIndex transfers = new QifTransferIndex();
+        QifParser parser = openParser();
+        try {
+            QifImport.readDictionaries(parser, accounts, transfers);
+        } finally {
+            parser.close();
+        }
+        long t1 = System.nanoTime();
+        transfers.reduce(accounts);
+        long t2 = System.nanoTime();
+        List<List<String>> actual = new ArrayList<>();
+        parser = openParser();
+        try {
+            QifParser.Event e;
+            while ((e = parser.next()) != null) {
+                if (e == QifParser.Event.ACCOUNT) {
+                    actual.add(new ArrayList<String>(TRANSACTIONS));
+                } else if (e == QifParser.Event.TRANSACTION) {
+                    QifTransaction t = parser.getTransaction();
+                    if (transfers.resolve(t)) {
+                        actual.get(actual.size() - 1).add(QifTransferIndexTest.describe(t));
+                    }
+                }
+            }
+        } finally {
+            parser.close();
+        }
+        long t3 = System.nanoTime();
+
+        parser = openParser();
+        try {
+            parser.parse();
+        } finally {
+            parser.close();
+        }
+        long t4 = System.nanoTime();
+        QifTransferIndexTest.reduceTransfers(parser.accounts);
+        QifTransferIndexTest.convertUnknownTransfers(parser.accounts);
+        long t5 = System.nanoTime();
+
+        Log.i(TAG, String.format("%d x %d transactions, %d KB: first pass %d ms, pairing %d ms, second pass %d ms; "
+                        + "in memory: parsing %d ms, pairing %d ms",
+                ACCOUNTS, TRANSACTIONS, file.length() / 1024, (t1 - t0) / 1000000, (t2 - t1) / 1000000,
+                (t3 - t2) / 1000000, (t4 - t3) / 1000000, (t5 - t4) / 1000000));
+        assertEquals(ACCOUNTS, actual.size());
+        for (int i = 0; i < ACCOUNTS; i++) {
+            List<QifTransaction> transactions = parser.accounts.get(i).transactions;
+            List<String> expected = new ArrayList<>(transactions.size());
+            for (QifTransaction t : transactions) {
+                expected.add(QifTransferIndexTest.describe(t));
+            }
+            assertEquals("Account " + i, expected, actual.get(i));
+        }
+    }
+
+    private QifParser openParser() throws IOException {
+        return new QifParser(new QifBufferedReader(new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), "UTF-8"))), QifDateFormat.US_FORMAT);
+    }
+
+}
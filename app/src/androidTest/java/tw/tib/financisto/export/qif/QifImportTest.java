@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2011 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package tw.tib.financisto.export.qif;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+@RunWith(AndroidJUnit4.class)
+public class QifImportTest {
+
+    private static final String QIF =
+            "!Type:Cat\n" +
+            "NSalary\n" +
+            "I\n" +
+            "^\n" +
+            "NBonus\n" +
+            "I\n" +
+            "^\n" +
+            "NFood\n" +
+            "E\n" +
+            "^\n" +
+            "!Account\n" +
+            "NMy Cash\n" +
+            "TCash\n" +
+            "^\n" +
+            "!Type:Cash\n" +
+            "D08/02/2011\n" +
+            "T1,000.00\n" +
+            "LSalary\n" +
+            "^\n" +
+            "D08/03/2011\n" +
+            "T-10.00\n" +
+            "LFood\n" +
+            "^\n" +
+            "D08/04/2011\n" +
+            "T-5.00\n" +
+            "LGifts\n" +
+            "^\n";
+
+    @Test
+    public void should_keep_declared_categories_in_the_first_pass() throws IOException {
+        QifParser parser = new QifParser(new QifBufferedReader(new BufferedReader(new StringReader(QIF))), QifDateFormat.US_FORMAT);
+        List<QifAccount> accounts = new ArrayList<>();
+        QifImport.readDictionaries(parser, accounts, new QifTransferIndex());
+
+        assertEquals(1, accounts.size());
+        Map<String, QifCategory> categories = new HashMap<>();
+        for (QifCategory c : parser.categories) {
+            categories.put(c.name, c);
+        }
+        assertEquals(4, categories.size());
+        // used by a transaction, which alone would make it an expense
+        assertTrue(categories.get("Salary").isIncome);
+        // declared but never used
+        assertTrue(categories.get("Bonus").isIncome);
+        assertFalse(categories.get("Food").isIncome);
+        // only found in a transaction
+        assertFalse(categories.get("Gifts").isIncome);
+    }
+
+}
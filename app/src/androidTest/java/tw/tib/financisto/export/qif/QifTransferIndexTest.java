@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2011 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package tw.tib.financisto.export.qif;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static tw.tib.financisto.utils.Utils.isEmpty;
+
+/**
+ * Pairs transfers of random QIF files with {@link QifTransferIndex}, the way {@link QifImport#doImport()} does,
+ * and with the reduceTransfers and convertUnknownTransfers which used to run on all the transactions in memory,
+ * expecting the same transactions to be kept and converted. Dates and amounts are picked from a few values,
+ * so that many transfers have the same key and the order in which they are taken matters.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QifTransferIndexTest {
+
+    private static final String UNKNOWN_ACCOUNT = "Nowhere";
+
+    @Test
+    public void should_pair_transfers_like_reduce_transfers() throws IOException {
+        for (int seed = 1; seed <= 20; seed++) {
+            StringWriter qif = new StringWriter();
+            generateQif(qif, 5, 300, 10, 20, seed);
+            List<List<String>> expected = importInMemory(new StringReader(qif.toString()));
+            List<List<String>> actual = importInTwoPasses(new StringReader(qif.toString()), new StringReader(qif.toString()));
+            assertEquals("Seed " + seed, expected, actual);
+        }
+    }
+
+    /**
+     * Writes a QIF file with the given number of accounts and transactions in each of them:
+     * regular transactions, both sides of transfers, transfers without the other side or to an unknown account
+     * and splits with transfers in them
+     */
+    static void generateQif(Writer w, int accounts, int transactionsPerAccount, int days, int amounts, long seed) throws IOException {
+        Random random = new Random(seed);
+        List<List<String>> transactions = new ArrayList<>(accounts);
+        for (int i = 0; i < accounts; i++) {
+            transactions.add(new ArrayList<String>(transactionsPerAccount));
+        }
+        int full = 0;
+        while (full < accounts) {
+            full = 0;
+            for (int i = 0; i < accounts; i++) {
+                List<String> from = transactions.get(i);
+                if (from.size() >= transactionsPerAccount) {
+                    full++;
+                    continue;
+                }
+                int j = (i + 1 + random.nextInt(accounts - 1)) % accounts;
+                List<String> to = transactions.get(j);
+                String date = String.format(Locale.US, "%02d/%02d/2011", 1 + random.nextInt(12), 1 + random.nextInt(days));
+                long amount = 1 + random.nextInt(amounts);
+                int kind = random.nextInt(20);
+                if (kind < 6 && to.size() < transactionsPerAccount) {
+                    from.add(transaction(date, -amount, "[" + accountTitle(j) + "]", null));
+                    to.add(transaction(date, amount, "[" + accountTitle(i) + "]", null));
+                } else if (kind < 8 && to.size() < transactionsPerAccount) {
+                    from.add(transaction(date, -amount - 1, "Food", "S[" + accountTitle(j) + "]\n$-" + money(amount) + "\nSFood\n$-0.01\n"));
+                    to.add(transaction(date, amount, "[" + accountTitle(i) + "]", null));
+                } else if (kind < 9) {
+                    from.add(transaction(date, -amount, "[" + accountTitle(j) + "]", null));
+                } else if (kind < 10) {
+                    from.add(transaction(date, amount, "[" + accountTitle(j) + "]", null));
+                } else if (kind < 11) {
+                    from.add(transaction(date, -amount, "[" + UNKNOWN_ACCOUNT + "]", null));
+                } else if (kind < 12) {
+                    from.add(transaction(date, amount, "Salary", "SSalary\n$" + money(amount - 1) + "\nS[" + accountTitle(j) + "]\n$0.01\n"));
+                } else {
+                    from.add(transaction(date, random.nextBoolean() ? amount : -amount, random.nextBoolean() ? "Food" : "Salary", null));
+                }
+            }
+        }
+        for (int i = 0; i < accounts; i++) {
+            w.write("!Account\nN" + accountTitle(i) + "\nTBank\n^\n!Type:Bank\n");
+            for (String t : transactions.get(i)) {
+                w.write(t);
+            }
+        }
+    }
+
+    private static String accountTitle(int i) {
+        return "Account " + i;
+    }
+
+    private static String transaction(String date, long amount, String category, String splits) {
+        return "D" + date + "\nT" + money(amount) + "\nL" + category + "\nMNote\n" + (splits != null ? splits : "") + "^\n";
+    }
+
+    private static String money(long amount) {
+        return String.format(Locale.US, "%s%d.%02d", amount < 0 ? "-" : "", Math.abs(amount) / 100, Math.abs(amount) % 100);
+    }
+
+    /**
+     * Kept transactions per account, the way the import used to find them
+     */
+    private static List<List<String>> importInMemory(Reader qif) throws IOException {
+        QifParser parser = new QifParser(new QifBufferedReader(new BufferedReader(qif)), QifDateFormat.US_FORMAT);
+        parser.parse();
+        parser.close();
+        reduceTransfers(parser.accounts);
+        convertUnknownTransfers(parser.accounts);
+        List<List<String>> result = new ArrayList<>();
+        for (QifAccount account : parser.accounts) {
+            List<String> transactions = new ArrayList<>(account.transactions.size());
+            for (QifTransaction t : account.transactions) {
+                transactions.add(describe(t));
+            }
+            result.add(transactions);
+        }
+        return result;
+    }
+
+    /**
+     * Kept transactions per account, the way {@link QifImport#doImport()} finds them
+     */
+    private static List<List<String>> importInTwoPasses(Reader firstPass, Reader secondPass) throws IOException {
+        List<QifAccount> accounts = new ArrayList<>();
+        QifTransferIndex transfers = new QifTransferIndex();
+        QifParser parser = new QifParser(new QifBufferedReader(new BufferedReader(firstPass)), QifDateFormat.US_FORMAT);
+        QifImport.readDictionaries(parser, accounts, transfers);
+        parser.close();
+        transfers.reduce(accounts);
+        List<List<String>> result = new ArrayList<>();
+        parser = new QifParser(new QifBufferedReader(new BufferedReader(secondPass)), QifDateFormat.US_FORMAT);
+        QifParser.Event e;
+        while ((e = parser.next()) != null) {
+            if (e == QifParser.Event.ACCOUNT) {
+                result.add(new ArrayList<String>());
+            } else if (e == QifParser.Event.TRANSACTION) {
+                QifTransaction t = parser.getTransaction();
+                if (transfers.resolve(t)) {
+                    result.get(result.size() - 1).add(describe(t));
+                }
+            }
+        }
+        parser.close();
+        return result;
+    }
+
+    static String describe(QifTransaction t) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(t.date.getTime()).append(' ').append(t.amount).append(' ').append(t.toAccount).append(' ').append(t.memo);
+        if (t.splits != null) {
+            for (QifTransaction split : t.splits) {
+                sb.append(" | ").append(describe(split));
+            }
+        }
+        return sb.toString();
+    }
+
+    // the transfer pairing as it was before QifTransferIndex
+
+    static void reduceTransfers(List<QifAccount> accounts) {
+        Map<String, QifAccount> accountTitleToAccount = new HashMap<>();
+        for (QifAccount account : accounts) {
+            accountTitleToAccount.put(account.memo, account);
+        }
+        for (QifAccount fromAccount : accounts) {
+            reduceTransfers(accountTitleToAccount, fromAccount, fromAccount.transactions);
+        }
+    }
+
+    private static void reduceTransfers(Map<String, QifAccount> accountTitleToAccount, QifAccount fromAccount, List<QifTransaction> transactions) {
+        for (QifTransaction fromTransaction : transactions) {
+            if (fromTransaction.isTransfer() && fromTransaction.amount < 0) {
+                boolean found = false;
+                QifAccount toAccount = accountTitleToAccount.get(fromTransaction.toAccount);
+                if (toAccount != null) {
+                    Iterator<QifTransaction> iterator = toAccount.transactions.iterator();
+                    while (iterator.hasNext()) {
+                        QifTransaction toTransaction = iterator.next();
+                        if (twoSidesOfTheSameTransfer(fromAccount, fromTransaction, toAccount, toTransaction)) {
+                            iterator.remove();
+                            found = true;
+                            break;
+                        }
+                    }
+                }
+                if (!found) {
+                    convertIntoRegularTransaction(fromTransaction);
+                }
+            }
+            if (fromTransaction.splits != null) {
+                reduceTransfers(accountTitleToAccount, fromAccount, fromTransaction.splits);
+            }
+        }
+    }
+
+    static void convertUnknownTransfers(List<QifAccount> accounts) {
+        for (QifAccount fromAccount : accounts) {
+            convertUnknownTransfers(fromAccount, fromAccount.transactions);
+        }
+    }
+
+    private static void convertUnknownTransfers(QifAccount fromAccount, List<QifTransaction> transactions) {
+        for (QifTransaction transaction : transactions) {
+            if (transaction.isTransfer() && transaction.amount >= 0) {
+                convertIntoRegularTransaction(transaction);
+            }
+            if (transaction.splits != null) {
+                convertUnknownTransfers(fromAccount, transaction.splits);
+            }
+        }
+    }
+
+    private static void convertIntoRegularTransaction(QifTransaction fromTransaction) {
+        fromTransaction.memo = prependMemo("Transfer: " + fromTransaction.toAccount, fromTransaction);
+        fromTransaction.toAccount = null;
+    }
+
+    private static String prependMemo(String prefix, QifTransaction fromTransaction) {
+        if (isEmpty(fromTransaction.memo)) {
+            return prefix;
+        } else {
+            return prefix + " | " + fromTransaction.memo;
+        }
+    }
+
+    private static boolean twoSidesOfTheSameTransfer(QifAccount fromAccount, QifTransaction fromTransaction, QifAccount toAccount, QifTransaction toTransaction) {
+        return toTransaction.isTransfer()
+                && toTransaction.toAccount.equals(fromAccount.memo) && fromTransaction.toAccount.equals(toAccount.memo)
+                && fromTransaction.date.equals(toTransaction.date) && fromTransaction.amount == -toTransaction.amount;
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2012 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package tw.tib.financisto.model;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Places categories the way DatabaseAdapter does: after the last child of the parent,
+ * falling back to renumbering the whole tree when {@link CategoryTree#findSlot(long, long, int)} finds no room
+ */
+@RunWith(AndroidJUnit4.class)
+public class CategoryTreeTest {
+
+    // same as the no category in DatabaseAdapter
+    private static final int NO_CATEGORY_LEFT = CategoryTree.GAP;
+    private static final int NO_CATEGORY_RIGHT = Integer.MAX_VALUE / 2;
+
+    private CategoryTree<Category> tree;
+    private long nextId = 1;
+
+    @Before
+    public void setUp() {
+        tree = new CategoryTree<>();
+        for (int i = 0; i < 30; i++) {
+            Category root = newCategory();
+            tree.add(root);
+            for (int j = 0; j < 9; j++) {
+                root.addChild(newCategory());
+            }
+        }
+        tree.reIndexWithGaps(NO_CATEGORY_LEFT + CategoryTree.GAP, NO_CATEGORY_RIGHT - CategoryTree.GAP);
+        assertNested(tree, NO_CATEGORY_LEFT, NO_CATEGORY_RIGHT);
+    }
+
+    @Test
+    public void should_insert_many_siblings_and_nested_children_without_renumbering() {
+        Category leaf = tree.getAt(3).children.getAt(4);
+        Category[] siblings = new Category[60];
+        for (int i = 0; i < siblings.length; i++) {
+            siblings[i] = insert(leaf);
+        }
+        Category child = null;
+        for (int i = 0; i < 10; i++) {
+            for (int j = 0; j < 20; j++) {
+                child = insert(siblings[i]);
+            }
+        }
+        for (int i = 0; i < 10; i++) {
+            insert(child);
+        }
+        assertNested(tree, NO_CATEGORY_LEFT, NO_CATEGORY_RIGHT);
+    }
+
+    @Test
+    public void should_insert_deeply_nested_children_without_renumbering() {
+        Category parent = tree.getAt(5).children.getAt(2);
+        for (int i = 0; i < 5; i++) {
+            parent = insert(parent);
+        }
+        assertNested(tree, NO_CATEGORY_LEFT, NO_CATEGORY_RIGHT);
+    }
+
+    @Test
+    public void should_insert_many_top_categories_without_renumbering() {
+        for (int i = 0; i < 200; i++) {
+            insert(null);
+        }
+        assertNested(tree, NO_CATEGORY_LEFT, NO_CATEGORY_RIGHT);
+    }
+
+    @Test
+    public void should_keep_room_for_children_after_reordering() {
+        tree.sortByTitle();
+        Category parent = tree.getAt(0).children.getAt(0);
+        for (int i = 0; i < 20; i++) {
+            insert(parent);
+        }
+        assertNested(tree, NO_CATEGORY_LEFT, NO_CATEGORY_RIGHT);
+    }
+
+    private Category newCategory() {
+        Category c = new Category(nextId);
+        c.title = "Category " + nextId++;
+        return c;
+    }
+
+    private Category insert(Category parent) {
+        int left = parent != null ? parent.left : NO_CATEGORY_LEFT;
+        int right = parent != null ? parent.right : NO_CATEGORY_RIGHT;
+        CategoryTree<Category> siblings = parent != null ? parent.children : tree;
+        long previous = left;
+        if (siblings != null && !siblings.isEmpty()) {
+            previous = Math.max(previous, siblings.getAt(siblings.size() - 1).right);
+        }
+        int[] slot = CategoryTree.findSlot(previous, right, 2);
+        assertNotNull("Renumbering needed", slot);
+        Category c = newCategory();
+        c.left = slot[0];
+        c.right = slot[0] + slot[1];
+        if (parent != null) {
+            parent.addChild(c);
+        } else {
+            tree.add(c);
+        }
+        return c;
+    }
+
+    private static void assertNested(CategoryTree<Category> tree, int left, int right) {
+        int previous = left;
+        for (Category c : tree) {
+            assertTrue(c.title, previous < c.left && c.left < c.right && c.right < right);
+            if (c.hasChildren()) {
+                assertNested(c.children, c.left, c.right);
+            }
+            previous = c.right;
+        }
+    }
+
+}
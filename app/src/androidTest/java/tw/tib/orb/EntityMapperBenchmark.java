@@ -0,0 +1,226 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     Denis Solonenko - initial API and implementation
+ ******************************************************************************/
+package tw.tib.orb;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import tw.tib.financisto.model.Account;
+import tw.tib.financisto.model.AccountForSearch;
+import tw.tib.financisto.model.Attribute;
+import tw.tib.financisto.model.Budget;
+import tw.tib.financisto.model.Category;
+import tw.tib.financisto.model.Currency;
+import tw.tib.financisto.model.EntityMappers_;
+import tw.tib.financisto.model.MyLocation;
+import tw.tib.financisto.model.Payee;
+import tw.tib.financisto.model.Project;
+import tw.tib.financisto.model.SmsTemplate;
+import tw.tib.financisto.model.Transaction;
+import tw.tib.financisto.model.TransactionAttributeInfo;
+import tw.tib.financisto.model.TransactionInfo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+/**
+ * Loads 10k rows of every entity with its generated mapper and with the reflective fallback,
+ * checking that both produce the same entities and content values. Times are in the log.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EntityMapperBenchmark {
+
+	private static final String TAG = "EntityMapperBenchmark";
+
+	private static final int ROWS = 10000;
+
+	private static final Class<?>[] ENTITIES = {Account.class, AccountForSearch.class, Attribute.class, Budget.class,
+			Category.class, Currency.class, MyLocation.class, Payee.class, Project.class, SmsTemplate.class,
+			Transaction.class, TransactionAttributeInfo.class, TransactionInfo.class};
+
+	@After
+	public void tearDown() {
+		EntityMappers_.registerAll();
+	}
+
+	@Test
+	public void should_map_entities_like_reflection() throws Exception {
+		for (Class<?> clazz : ENTITIES) {
+			benchmark(clazz);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private void benchmark(Class<?> clazz) throws Exception {
+		EntityMappers_.registerAll();
+		assertNotNull(clazz + " has no generated mapper", EntityManager.getEntityDefinitionOrThrow(clazz).mapper);
+		Cursor c = createCursor(EntityManager.getEntityDefinitionOrThrow(clazz));
+		try {
+			load(c, clazz);
+			long t0 = System.nanoTime();
+			List<?> generated = load(c, clazz);
+			long t1 = System.nanoTime();
+			List<ContentValues> generatedValues = write(clazz, generated);
+			long t2 = System.nanoTime();
+
+			EntityManager.registerMapper((Class<Object>) clazz, new ReflectionOnly());
+			load(c, clazz);
+			long t3 = System.nanoTime();
+			List<?> reflected = load(c, clazz);
+			long t4 = System.nanoTime();
+			List<ContentValues> reflectedValues = write(clazz, reflected);
+			long t5 = System.nanoTime();
+
+			Log.i(TAG, String.format("%s x %d: read %d ms vs %d ms by reflection, write %d ms vs %d ms",
+					clazz.getSimpleName(), ROWS, (t1 - t0) / 1000000, (t4 - t3) / 1000000,
+					(t2 - t1) / 1000000, (t5 - t4) / 1000000));
+			for (int i = 0; i < ROWS; i++) {
+				assertEquals(clazz.getSimpleName() + " row " + i, reflectedValues.get(i), generatedValues.get(i));
+			}
+		} finally {
+			c.close();
+		}
+	}
+
+	private static List<?> load(Cursor c, Class<?> clazz) {
+		List<Object> list = new ArrayList<>(ROWS);
+		c.moveToPosition(-1);
+		while (c.moveToNext()) {
+			list.add(EntityManager.loadFromCursor(c, clazz));
+		}
+		return list;
+	}
+
+	/**
+	 * Same as EntityManager.getContentValues, which goes through the mapper when there is one
+	 */
+	private static List<ContentValues> write(Class<?> clazz, List<?> entities) throws Exception {
+		EntityDefinition ed = EntityManager.getEntityDefinitionOrThrow(clazz);
+		List<ContentValues> list = new ArrayList<>(entities.size());
+		for (Object e : entities) {
+			ContentValues values = new ContentValues();
+			if (ed.mapper != null) {
+				ed.mapper.write(e, values);
+			} else {
+				for (int i = 0; i < ed.fields.length; i++) {
+					FieldInfo fi = ed.fields[i];
+					Object value = ed.getValue(e, i);
+					if (fi.type.isPrimitive()) {
+						fi.type.setValue(values, fi.columnName, value);
+					} else if (value == null) {
+						values.putNull(fi.columnName);
+					} else {
+						EntityDefinition eed = EntityManager.getEntityDefinitionOrThrow(value.getClass());
+						eed.idField.type.setValue(values, fi.columnName, eed.getValue(value, eed.idIndex));
+					}
+				}
+			}
+			list.add(values);
+		}
+		return list;
+	}
+
+	/**
+	 * Columns named the way EntityDefinition.sqlQuery names them, joined entities included
+	 */
+	private static Cursor createCursor(EntityDefinition ed) {
+		List<String> columns = new ArrayList<>();
+		List<FieldType> types = new ArrayList<>();
+		addColumns(ed, "e", columns, types);
+		MatrixCursor c = new MatrixCursor(columns.toArray(new String[0]), ROWS);
+		for (int row = 0; row < ROWS; row++) {
+			Object[] values = new Object[columns.size()];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = valueOf(types.get(i), row);
+			}
+			c.addRow(values);
+		}
+		return c;
+	}
+
+	private static void addColumns(EntityDefinition ed, String prefix, List<String> columns, List<FieldType> types) {
+		columns.add(prefix + "__id");
+		types.add(FieldType.LONG);
+		for (FieldInfo fi : ed.fields) {
+			if (fi.type.isPrimitive()) {
+				columns.add(prefix + "_" + fi.columnName);
+				types.add(fi.type);
+			} else {
+				addColumns(EntityManager.getEntityDefinitionOrThrow(fi.field.getType()), prefix + fi.index, columns, types);
+			}
+		}
+	}
+
+	private static Object valueOf(FieldType type, int row) {
+		if (type == FieldType.STRING) {
+			return "Row " + row;
+		} else if (type == FieldType.DOUBLE || type == FieldType.FLOAT) {
+			return row + 0.5;
+		} else if (type == FieldType.BOOLEAN) {
+			return row % 2;
+		} else if (type == FieldType.DATE) {
+			return 1500000000000L + row;
+		} else if (type instanceof FieldType.ENUM) {
+			Enum<?>[] values = ((FieldType.ENUM) type).enumType.getEnumConstants();
+			return values[row % values.length].name();
+		}
+		return row + 1;
+	}
+
+	/**
+	 * Knows no fields, so EntityManager falls back to reflection
+	 */
+	private static class ReflectionOnly implements EntityMapper<Object> {
+
+		@Override
+		public Object newInstance() {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public String[] fields() {
+			return new String[0];
+		}
+
+		@Override
+		public void read(Object entity, int slot, Cursor c, int column) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public Object get(Object entity, int slot) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void set(Object entity, int slot, Object value) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public void write(Object entity, ContentValues values) {
+			throw new UnsupportedOperationException();
+		}
+
+	}
+
+}
@@ -0,0 +1,327 @@
+create table if not exists report_aggregate (
+	day long not null,
+	account_id long not null,
+	counter_account_id long not null,
+	category_id long not null,
+	project_id long not null,
+	payee_id long not null,
+	location_id long not null,
+	original_currency_id long not null,
+	is_transfer long not null,
+	status text not null,
+	is_split integer not null,
+	amount_sign integer not null,
+	from_amount integer not null default 0,
+	to_amount integer not null default 0,
+	original_from_amount integer not null default 0,
+	transaction_count integer not null default 0,
+	primary key (day, account_id, counter_account_id, category_id, project_id, payee_id, location_id, original_currency_id, is_transfer, status, is_split, amount_sign)
+);
+
+insert into report_aggregate(day,account_id,counter_account_id,category_id,project_id,payee_id,location_id,original_currency_id,is_transfer,status,is_split,amount_sign,from_amount,to_amount,original_from_amount,transaction_count)
+select strftime('%s', t.datetime/1000, 'unixepoch', 'localtime', 'start of day', 'utc')*1000,
+	t.from_account_id,
+	t.to_account_id,
+	t.category_id,
+	t.project_id,
+	ifnull(t.payee_id,0),
+	t.location_id,
+	ifnull(t.original_currency_id,0),
+	t.to_account_id,
+	ifnull(t.status,''),
+	t.parent_id>0,
+	t.from_amount>0,
+	sum(t.from_amount), sum(t.to_amount), sum(ifnull(t.original_from_amount,0)), count(*)
+from transactions t
+where t.is_template=0
+group by 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12;
+
+insert into report_aggregate(day,account_id,counter_account_id,category_id,project_id,payee_id,location_id,original_currency_id,is_transfer,status,is_split,amount_sign,from_amount,to_amount,original_from_amount,transaction_count)
+select strftime('%s', t.datetime/1000, 'unixepoch', 'localtime', 'start of day', 'utc')*1000,
+	t.to_account_id,
+	t.from_account_id,
+	t.category_id,
+	t.project_id,
+	ifnull(t.payee_id,0),
+	t.location_id,
+	ifnull(t.original_currency_id,0),
+	-1,
+	ifnull(t.status,''),
+	t.parent_id>0,
+	t.to_amount>0,
+	sum(t.to_amount), sum(t.from_amount), sum(ifnull(t.original_from_amount,0)), count(*)
+from transactions t
+where t.is_template=0 and t.to_account_id>0
+group by 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12;
+
+create trigger if not exists report_aggregate_insert after insert on transactions
+when new.is_template=0
+begin
+	insert or ignore into report_aggregate(day,account_id,counter_account_id,category_id,project_id,payee_id,location_id,original_currency_id,is_transfer,status,is_split,amount_sign)
+		select strftime('%s', new.datetime/1000, 'unixepoch', 'localtime', 'start of day', 'utc')*1000,
+		new.from_account_id,
+		new.to_account_id,
+		new.category_id,
+		new.project_id,
+		ifnull(new.payee_id,0),
+		new.location_id,
+		ifnull(new.original_currency_id,0),
+		new.to_account_id,
+		ifnull(new.status,''),
+		new.parent_id>0,
+		new.from_amount>0;
+	update report_aggregate set
+		from_amount=from_amount+new.from_amount,
+		to_amount=to_amount+new.to_amount,
+		original_from_amount=original_from_amount+ifnull(new.original_from_amount,0),
+		transaction_count=transaction_count+1
+	where day=strftime('%s', new.datetime/1000, 'unixepoch', 'localtime', 'start of day', 'utc')*1000
+		and account_id=new.from_account_id
+		and counter_account_id=new.to_account_id
+		and category_id=new.category_id
+		and project_id=new.project_id
+		and payee_id=ifnull(new.payee_id,0)
+		and location_id=new.location_id
+		and original_currency_id=ifnull(new.original_currency_id,0)
+		and is_transfer=new.to_account_id
+		and status=ifnull(new.status,'')
+		and is_split=new.parent_id>0
+		and amount_sign=new.from_amount>0;
+	insert or ignore into report_aggregate(day,account_id,counter_account_id,category_id,project_id,payee_id,location_id,original_currency_id,is_transfer,status,is_split,amount_sign)
+		select strftime('%s', new.datetime/1000, 'unixepoch', 'localtime', 'start of day', 'utc')*1000,
+		new.to_account_id,
+		new.from_account_id,
+		new.category_id,
+		new.project_id,
+		ifnull(new.payee_id,0),
+		new.location_id,
+		ifnull(new.original_currency_id,0),
+		-1,
+		ifnull(new.status,''),
+		new.parent_id>0,
+		new.to_amount>0
+		where new.to_account_id>0;
+	update report_aggregate set
+		from_amount=from_amount+new.to_amount,
+		to_amount=to_amount+new.from_amount,
+		original_from_amount=original_from_amount+ifnull(new.original_from_amount,0),
+		transaction_count=transaction_count+1
+	where day=strftime('%s', new.datetime/1000, 'unixepoch', 'localtime', 'start of day', 'utc')*1000
+		and account_id=new.to_account_id
+		and counter_account_id=new.from_account_id
+		and category_id=new.category_id
+		and project_id=new.project_id
+		and payee_id=ifnull(new.payee_id,0)
+		and location_id=new.location_id
+		and original_currency_id=ifnull(new.original_currency_id,0)
+		and is_transfer=-1
+		and status=ifnull(new.status,'')
+		and is_split=new.parent_id>0
+		and amount_sign=new.to_amount>0
+		and new.to_account_id>0;
+end;
+
+create trigger if not exists report_aggregate_delete after delete on transactions
+when old.is_template=0
+begin
+	update report_aggregate set
+		from_amount=from_amount-old.from_amount,
+		to_amount=to_amount-old.to_amount,
+		original_from_amount=original_from_amount-ifnull(old.original_from_amount,0),
+		transaction_count=transaction_count-1
+	where day=strftime('%s', old.datetime/1000, 'unixepoch', 'localtime', 'start of day', 'utc')*1000
+		and account_id=old.from_account_id
+		and counter_account_id=old.to_account_id
+		and category_id=old.category_id
+		and project_id=old.project_id
+		and payee_id=ifnull(old.payee_id,0)
+		and location_id=old.location_id
+		and original_currency_id=ifnull(old.original_currency_id,0)
+		and is_transfer=old.to_account_id
+		and status=ifnull(old.status,'')
+		and is_split=old.parent_id>0
+		and amount_sign=old.from_amount>0;
+	delete from report_aggregate
+	where day=strftime('%s', old.datetime/1000, 'unixepoch', 'localtime', 'start of day', 'utc')*1000
+		and account_id=old.from_account_id
+		and counter_account_id=old.to_account_id
+		and category_id=old.category_id
+		and project_id=old.project_id
+		and payee_id=ifnull(old.payee_id,0)
+		and location_id=old.location_id
+		and original_currency_id=ifnull(old.original_currency_id,0)
+		and is_transfer=old.to_account_id
+		and status=ifnull(old.status,'')
+		and is_split=old.parent_id>0
+		and amount_sign=old.from_amount>0
+		and transaction_count=0;
+	update report_aggregate set
+		from_amount=from_amount-old.to_amount,
+		to_amount=to_amount-old.from_amount,
+		original_from_amount=original_from_amount-ifnull(old.original_from_amount,0),
+		transaction_count=transaction_count-1
+	where day=strftime('%s', old.datetime/1000, 'unixepoch', 'localtime', 'start of day', 'utc')*1000
+		and account_id=old.to_account_id
+		and counter_account_id=old.from_account_id
+		and category_id=old.category_id
+		and project_id=old.project_id
+		and payee_id=ifnull(old.payee_id,0)
+		and location_id=old.location_id
+		and original_currency_id=ifnull(old.original_currency_id,0)
+		and is_transfer=-1
+		and status=ifnull(old.status,'')
+		and is_split=old.parent_id>0
+		and amount_sign=old.to_amount>0
+		and old.to_account_id>0;
+	delete from report_aggregate
+	where day=strftime('%s', old.datetime/1000, 'unixepoch', 'localtime', 'start of day', 'utc')*1000
+		and account_id=old.to_account_id
+		and counter_account_id=old.from_account_id
+		and category_id=old.category_id
+		and project_id=old.project_id
+		and payee_id=ifnull(old.payee_id,0)
+		and location_id=old.location_id
+		and original_currency_id=ifnull(old.original_currency_id,0)
+		and is_transfer=-1
+		and status=ifnull(old.status,'')
+		and is_split=old.parent_id>0
+		and amount_sign=old.to_amount>0
+		and transaction_count=0
+		and old.to_account_id>0;
+end;
+
+create trigger if not exists report_aggregate_update_old after update of parent_id, datetime, from_account_id, to_account_id, category_id, project_id, payee_id, location_id, original_currency_id, from_amount, to_amount, original_from_amount, status, is_template on transactions
+when old.is_template=0
+begin
+	update report_aggregate set
+		from_amount=from_amount-old.from_amount,
+		to_amount=to_amount-old.to_amount,
+		original_from_amount=original_from_amount-ifnull(old.original_from_amount,0),
+		transaction_count=transaction_count-1
+	where day=strftime('%s', old.datetime/1000, 'unixepoch', 'localtime', 'start of day', 'utc')*1000
+		and account_id=old.from_account_id
+		and counter_account_id=old.to_account_id
+		and category_id=old.category_id
+		and project_id=old.project_id
+		and payee_id=ifnull(old.payee_id,0)
+		and location_id=old.location_id
+		and original_currency_id=ifnull(old.original_currency_id,0)
+		and is_transfer=old.to_account_id
+		and status=ifnull(old.status,'')
+		and is_split=old.parent_id>0
+		and amount_sign=old.from_amount>0;
+	delete from report_aggregate
+	where day=strftime('%s', old.datetime/1000, 'unixepoch', 'localtime', 'start of day', 'utc')*1000
+		and account_id=old.from_account_id
+		and counter_account_id=old.to_account_id
+		and category_id=old.category_id
+		and project_id=old.project_id
+		and payee_id=ifnull(old.payee_id,0)
+		and location_id=old.location_id
+		and original_currency_id=ifnull(old.original_currency_id,0)
+		and is_transfer=old.to_account_id
+		and status=ifnull(old.status,'')
+		and is_split=old.parent_id>0
+		and amount_sign=old.from_amount>0
+		and transaction_count=0;
+	update report_aggregate set
+		from_amount=from_amount-old.to_amount,
+		to_amount=to_amount-old.from_amount,
+		original_from_amount=original_from_amount-ifnull(old.original_from_amount,0),
+		transaction_count=transaction_count-1
+	where day=strftime('%s', old.datetime/1000, 'unixepoch', 'localtime', 'start of day', 'utc')*1000
+		and account_id=old.to_account_id
+		and counter_account_id=old.from_account_id
+		and category_id=old.category_id
+		and project_id=old.project_id
+		and payee_id=ifnull(old.payee_id,0)
+		and location_id=old.location_id
+		and original_currency_id=ifnull(old.original_currency_id,0)
+		and is_transfer=-1
+		and status=ifnull(old.status,'')
+		and is_split=old.parent_id>0
+		and amount_sign=old.to_amount>0
+		and old.to_account_id>0;
+	delete from report_aggregate
+	where day=strftime('%s', old.datetime/1000, 'unixepoch', 'localtime', 'start of day', 'utc')*1000
+		and account_id=old.to_account_id
+		and counter_account_id=old.from_account_id
+		and category_id=old.category_id
+		and project_id=old.project_id
+		and payee_id=ifnull(old.payee_id,0)
+		and location_id=old.location_id
+		and original_currency_id=ifnull(old.original_currency_id,0)
+		and is_transfer=-1
+		and status=ifnull(old.status,'')
+		and is_split=old.parent_id>0
+		and amount_sign=old.to_amount>0
+		and transaction_count=0
+		and old.to_account_id>0;
+end;
+
+create trigger if not exists report_aggregate_update_new after update of parent_id, datetime, from_account_id, to_account_id, category_id, project_id, payee_id, location_id, original_currency_id, from_amount, to_amount, original_from_amount, status, is_template on transactions
+when new.is_template=0
+begin
+	insert or ignore into report_aggregate(day,account_id,counter_account_id,category_id,project_id,payee_id,location_id,original_currency_id,is_transfer,status,is_split,amount_sign)
+		select strftime('%s', new.datetime/1000, 'unixepoch', 'localtime', 'start of day', 'utc')*1000,
+		new.from_account_id,
+		new.to_account_id,
+		new.category_id,
+		new.project_id,
+		ifnull(new.payee_id,0),
+		new.location_id,
+		ifnull(new.original_currency_id,0),
+		new.to_account_id,
+		ifnull(new.status,''),
+		new.parent_id>0,
+		new.from_amount>0;
+	update report_aggregate set
+		from_amount=from_amount+new.from_amount,
+		to_amount=to_amount+new.to_amount,
+		original_from_amount=original_from_amount+ifnull(new.original_from_amount,0),
+		transaction_count=transaction_count+1
+	where day=strftime('%s', new.datetime/1000, 'unixepoch', 'localtime', 'start of day', 'utc')*1000
+		and account_id=new.from_account_id
+		and counter_account_id=new.to_account_id
+		and category_id=new.category_id
+		and project_id=new.project_id
+		and payee_id=ifnull(new.payee_id,0)
+		and location_id=new.location_id
+		and original_currency_id=ifnull(new.original_currency_id,0)
+		and is_transfer=new.to_account_id
+		and status=ifnull(new.status,'')
+		and is_split=new.parent_id>0
+		and amount_sign=new.from_amount>0;
+	insert or ignore into report_aggregate(day,account_id,counter_account_id,category_id,project_id,payee_id,location_id,original_currency_id,is_transfer,status,is_split,amount_sign)
+		select strftime('%s', new.datetime/1000, 'unixepoch', 'localtime', 'start of day', 'utc')*1000,
+		new.to_account_id,
+		new.from_account_id,
+		new.category_id,
+		new.project_id,
+		ifnull(new.payee_id,0),
+		new.location_id,
+		ifnull(new.original_currency_id,0),
+		-1,
+		ifnull(new.status,''),
+		new.parent_id>0,
+		new.to_amount>0
+		where new.to_account_id>0;
+	update report_aggregate set
+		from_amount=from_amount+new.to_amount,
+		to_amount=to_amount+new.from_amount,
+		original_from_amount=original_from_amount+ifnull(new.original_from_amount,0),
+		transaction_count=transaction_count+1
+	where day=strftime('%s', new.datetime/1000, 'unixepoch', 'localtime', 'start of day', 'utc')*1000
+		and account_id=new.to_account_id
+		and counter_account_id=new.from_account_id
+		and category_id=new.category_id
+		and project_id=new.project_id
+		and payee_id=ifnull(new.payee_id,0)
+		and location_id=new.location_id
+		and original_currency_id=ifnull(new.original_currency_id,0)
+		and is_transfer=-1
+		and status=ifnull(new.status,'')
+		and is_split=new.parent_id>0
+		and amount_sign=new.to_amount>0
+		and new.to_account_id>0;
+end;
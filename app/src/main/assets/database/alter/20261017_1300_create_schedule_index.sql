@@ -0,0 +1,5 @@
+create table if not exists schedule_index (
+	transaction_id long not null primary key,
+	recurrence text,
+	next_occurrence long not null
+);
@@ -0,0 +1,19 @@
+create index if not exists transaction_tpl_pid_dt_idx ON transactions (is_template, parent_id, datetime desc);
+
+create index if not exists transaction_from_act_dt_idx ON transactions (from_account_id, is_template, datetime desc);
+
+create index if not exists transaction_to_act_dt_idx ON transactions (to_account_id, is_template, datetime desc);
+
+create index if not exists running_balance_act_dt_idx ON running_balance (account_id, datetime desc, transaction_id desc, balance);
+
+create index if not exists category_left_right_idx ON category (left, right);
+
+drop index if exists idx_is_template;
+
+drop index if exists transaction_from_act_idx;
+
+drop index if exists transaction_to_act_idx;
+
+drop index if exists running_balance_act_idx;
+
+drop index if exists category_left_idx;
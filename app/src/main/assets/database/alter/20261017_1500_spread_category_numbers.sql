@@ -0,0 +1,4 @@
+CREATE TEMP TABLE category_scale AS SELECT MIN(left) AS m, MAX(1024, 536870911 / (MAX(right) - MIN(left) + 2)) AS k FROM category WHERE _id > 0;
+UPDATE category SET left = (left - (SELECT m FROM category_scale) + 2) * (SELECT k FROM category_scale), right = (right - (SELECT m FROM category_scale) + 2) * (SELECT k FROM category_scale) WHERE _id > 0;
+UPDATE category SET left = 1024, right = 1073741823 WHERE _id = 0;
+DROP TABLE category_scale;
@@ -0,0 +1,3 @@
+create table if not exists report_aggregate_zone (
+	fingerprint text not null
+);
@@ -0,0 +1,9 @@
+create index if not exists report_aggregate_account_day_idx ON report_aggregate (account_id, day);
+
+create index if not exists report_aggregate_category_day_idx ON report_aggregate (category_id, day);
+
+create index if not exists report_aggregate_project_day_idx ON report_aggregate (project_id, day);
+
+create index if not exists report_aggregate_payee_day_idx ON report_aggregate (payee_id, day);
+
+create index if not exists report_aggregate_location_day_idx ON report_aggregate (location_id, day);
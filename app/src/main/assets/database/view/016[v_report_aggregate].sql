@@ -0,0 +1,31 @@
+CREATE VIEW v_report_aggregate AS
+SELECT
+	r.day as datetime,
+	a._id as from_account_id,
+	a.is_include_into_totals as from_account_is_include_into_totals,
+	c._id as from_account_currency_id,
+	a2._id as to_account_id,
+	a2.currency_id as to_account_currency_id,
+	cat._id as category_id,
+	cat.left as category_left,
+	cat.right as category_right,
+	p._id as project_id,
+	loc._id as location_id,
+	pp._id as payee_id,
+	r.from_amount as from_amount,
+	r.to_amount as to_amount,
+	r.original_currency_id as original_currency_id,
+	r.original_from_amount as original_from_amount,
+	r.status as status,
+	r.is_split as is_split,
+	r.is_transfer as is_transfer,
+	r.amount_sign as amount_sign
+FROM
+	report_aggregate as r
+	INNER JOIN account as a ON a._id=r.account_id
+	INNER JOIN currency as c ON c._id=a.currency_id
+	INNER JOIN category as cat ON cat._id=r.category_id
+	LEFT OUTER JOIN account as a2 ON a2._id=r.counter_account_id
+	LEFT OUTER JOIN locations as loc ON loc._id=r.location_id
+	LEFT OUTER JOIN project as p ON p._id=r.project_id
+	LEFT OUTER JOIN payee as pp ON pp._id=r.payee_id;
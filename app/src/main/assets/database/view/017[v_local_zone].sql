@@ -0,0 +1,7 @@
+CREATE VIEW v_local_zone AS
+WITH RECURSIVE sample(t) AS (
+	SELECT 946728000
+	UNION ALL
+	SELECT t+2629800 FROM sample WHERE t<2208988800
+)
+SELECT group_concat(strftime('%s', t, 'unixepoch', 'localtime')-t, ',') AS fingerprint FROM sample;
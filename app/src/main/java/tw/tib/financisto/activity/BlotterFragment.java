@@ -57,8 +57,12 @@ import greendroid.widget.QuickActionWidget;
 import tw.tib.financisto.R;
 import tw.tib.financisto.adapter.BlotterListAdapter;
 import tw.tib.financisto.adapter.TransactionsListAdapter;
+import tw.tib.financisto.adapter.async.BlotterCursor;
+import tw.tib.financisto.adapter.async.BlotterItemSource;
 import tw.tib.financisto.blotter.AccountTotalCalculationTask;
 import tw.tib.financisto.blotter.BlotterFilter;
+import tw.tib.financisto.blotter.BlotterRowPresenter;
+import tw.tib.financisto.blotter.BlotterScrollMonitor;
 import tw.tib.financisto.blotter.BlotterTotalCalculationTask;
 import tw.tib.financisto.blotter.TotalCalculationTask;
 import tw.tib.financisto.dialog.TransactionInfoDialog;
@@ -72,6 +76,7 @@ import tw.tib.financisto.model.Budget;
 import tw.tib.financisto.model.Transaction;
 import tw.tib.financisto.model.TransactionAttribute;
 import tw.tib.financisto.rates.ExchangeRate;
+import tw.tib.financisto.utils.IntegrityCheckReportAggregate;
 import tw.tib.financisto.utils.IntegrityCheckRunningBalance;
 import tw.tib.financisto.utils.MenuItemInfo;
 import tw.tib.financisto.utils.MyPreferences;
@@ -82,6 +87,7 @@ import tw.tib.orb.EntityManager;
 
 public class BlotterFragment extends AbstractListFragment<Cursor> implements BlotterOperations.BlotterOperationsCallback {
     private static final String TAG = "BlotterFragment";
+    private static final int BLOTTER_PAGE_SIZE = 100;
     public static final String SAVE_FILTER = "saveFilter";
     public static final String EXTRA_FILTER_ACCOUNTS = "filterAccounts";
     public static final String GO_TO_TRANSACTION = "goToTransaction";
@@ -116,6 +122,9 @@ public class BlotterFragment extends AbstractListFragment<Cursor> implements Blo
 
     private TotalCalculationTask calculationTask;
 
+    protected BlotterRowPresenter rowPresenter;
+    private final BlotterScrollMonitor scrollMonitor = new BlotterScrollMonitor();
+
     protected boolean saveFilter;
     protected WhereFilter blotterFilter = WhereFilter.empty();
 
@@ -188,6 +197,7 @@ public class BlotterFragment extends AbstractListFragment<Cursor> implements Blo
     @Override
     public void onViewCreated(@NonNull View view, @Nullable Bundle savedInstanceState) {
         super.onViewCreated(view, savedInstanceState);
+        getListView().setOnScrollListener(scrollMonitor);
 
         if (!this.saveFilter) {
             var toolbar = (Toolbar) view.findViewById(R.id.toolbar);
@@ -910,7 +920,18 @@ public class BlotterFragment extends AbstractListFragment<Cursor> implements Blo
         long t2 = System.nanoTime();
         Log.d(TAG, "getLastTransactionId() = " + lastTxId + ", " + format("%,d", (t2 - t1)) + " ns");
         long accountId = blotterFilterCopy.getAccountId();
-        if (accountId != -1) {
+        WhereFilter sortFilter = accountId != -1
+                ? DatabaseAdapter.enhanceFilterForAccountBlotter(blotterFilterCopy) : blotterFilterCopy;
+        BlotterRowPresenter presenter = newRowPresenter(accountId);
+        rowPresenter = presenter;
+        if (db.isBlotterKeysetOrdered(sortFilter)) {
+            BlotterItemSource source = new BlotterItemSource(db, blotterFilterCopy, accountId != -1, BLOTTER_PAGE_SIZE);
+            // rows are formatted in the loading thread, so binding them doesn't have to
+            source.setPageListener(presenter::prepare);
+            c = new BlotterCursor(source);
+            // read the first page here rather than on the first bind
+            c.moveToFirst();
+        } else if (accountId != -1) {
             c = db.getBlotterForAccount(blotterFilterCopy);
         } else {
             c = db.getBlotter(blotterFilterCopy);
@@ -920,16 +941,24 @@ public class BlotterFragment extends AbstractListFragment<Cursor> implements Blo
         return c;
     }
 
+    /**
+     * @return presenter for the rows of the next cursor, the current one while it formats rows the same way
+     */
+    protected BlotterRowPresenter newRowPresenter(long accountId) {
+        return BlotterRowPresenter.reuse(rowPresenter, getContext(), db, accountId != -1);
+    }
+
     @Override
     protected ListAdapter createAdapter(Cursor cursor) {
         ListAdapter a;
         long t1 = System.currentTimeMillis();
         long accountId = blotterFilter.getAccountId();
         if (accountId != -1) {
-            a = new TransactionsListAdapter(getContext(), db, cursor);
+            a = new TransactionsListAdapter(getContext(), db, cursor, rowPresenter);
         } else {
-            a = new BlotterListAdapter(getContext(), db, cursor);
+            a = new BlotterListAdapter(getContext(), db, cursor, rowPresenter);
         }
+        scrollMonitor.setPresenter(rowPresenter);
         if (a.getCount() == 0) {
             emptyText.setVisibility(View.VISIBLE);
         }
@@ -1085,7 +1114,8 @@ public class BlotterFragment extends AbstractListFragment<Cursor> implements Blo
 
     @Override
     public void integrityCheck() {
-        new IntegrityCheckTask(this).execute(new IntegrityCheckRunningBalance(getContext(), db));
+        new IntegrityCheckTask(this).execute(new IntegrityCheckRunningBalance(getContext(), db),
+                new IntegrityCheckReportAggregate(getContext(), db));
     }
 
     public boolean onBackPressed()
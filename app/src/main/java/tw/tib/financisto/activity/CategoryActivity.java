@@ -340,7 +340,7 @@ public class CategoryActivity extends AbstractActivity implements CategorySelect
 							.setMessage(R.string.sms_delete_alert)
 							.setPositiveButton(R.string.delete,
 									(arg0, arg1) -> {
-										db.delete(SmsTemplate.class, clickedItemId);
+										db.deleteSmsTemplate(clickedItemId);
 
 										smsTemplatesLayout.removeView((View) v.getParent());
 									})
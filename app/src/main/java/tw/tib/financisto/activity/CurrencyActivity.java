@@ -27,7 +27,6 @@ import tw.tib.financisto.R;
 import tw.tib.financisto.db.DatabaseAdapter;
 import tw.tib.financisto.model.Currency;
 import tw.tib.financisto.model.SymbolFormat;
-import tw.tib.financisto.utils.CurrencyCache;
 import tw.tib.financisto.utils.MyPreferences;
 import tw.tib.financisto.utils.PinProtection;
 
@@ -123,7 +122,6 @@ public class CurrencyActivity extends Activity {
 				currency.symbolFormat = symbolFormats[symbolFormat.getSelectedItemPosition()];
 				currency.numberFormat = text(numberFormat);
 				long id = db.saveOrUpdate(currency);
-				CurrencyCache.initialize(db);
 				Intent data = new Intent();
 				data.putExtra(CURRENCY_ID_EXTRA, id);
 				setResult(RESULT_OK, data);
@@ -35,7 +35,12 @@ public class IntegrityCheckTask extends AsyncTask<IntegrityCheck, Void, Integrit
     protected IntegrityCheck.Result doInBackground(IntegrityCheck... objects) {
         View textView = getResultView();
         if (textView != null) {
-            return objects[0].check();
+            for (IntegrityCheck check : objects) {
+                IntegrityCheck.Result result = check.check();
+                if (result.level != IntegrityCheck.Level.OK) {
+                    return result;
+                }
+            }
         }
         return IntegrityCheck.Result.OK;
     }
@@ -24,11 +24,13 @@ import org.greenrobot.eventbus.Subscribe;
 import org.greenrobot.eventbus.ThreadMode;
 
 import java.util.HashMap;
+import java.util.concurrent.Executors;
 
 import tw.tib.financisto.R;
 import tw.tib.financisto.bus.GreenRobotBus;
 import tw.tib.financisto.bus.RefreshCurrentTab;
 import tw.tib.financisto.bus.SwitchToMenuTabEvent;
+import tw.tib.financisto.db.CategoryIndex;
 import tw.tib.financisto.db.DatabaseAdapter;
 import tw.tib.financisto.db.DatabaseHelper;
 import tw.tib.financisto.dialog.WebViewDialog;
@@ -180,6 +182,7 @@ public class MainActivity extends AppCompatActivity {
                 x.setTransactionSuccessful();
             } finally {
                 x.endTransaction();
+                CategoryIndex.invalidate();
             }
             t2 = System.currentTimeMillis();
             if (MyPreferences.shouldUpdateHomeCurrency(this)) {
@@ -193,6 +196,10 @@ public class MainActivity extends AppCompatActivity {
             if (MyPreferences.shouldUpdateAccountsLastTransactionDate(this)) {
                 db.updateAccountsLastTransactionDate();
             }
+            if (!db.isReportAggregateInCurrentZone()) {
+                // reports read the raw views until the rebuild is committed
+                Executors.newSingleThreadExecutor().execute(db::rebuildReportAggregate);
+            }
         } finally {
             db.close();
         }
@@ -24,6 +24,7 @@ import androidx.core.view.WindowInsetsCompat;
 
 import tw.tib.financisto.R;
 import tw.tib.financisto.adapter.BlotterListAdapter;
+import tw.tib.financisto.blotter.BlotterRowPresenter;
 import tw.tib.financisto.filter.WhereFilter;
 import tw.tib.financisto.db.DatabaseAdapter;
 import tw.tib.financisto.utils.EnumUtils;
@@ -200,7 +201,13 @@ public class MassOpFragment extends BlotterFragment {
             emptyText.setVisibility(View.VISIBLE);
         }
         progressBar.setVisibility(View.GONE);
-        return new BlotterListAdapter(getContext(), db, R.layout.blotter_mass_op_list_item, cursor, true);
+        return new BlotterListAdapter(getContext(), db, R.layout.blotter_mass_op_list_item, cursor, true, rowPresenter);
+    }
+
+    @Override
+    protected BlotterRowPresenter newRowPresenter(long accountId) {
+        // transactions of a single account are shown as in the main blotter
+        return BlotterRowPresenter.reuse(rowPresenter, getContext(), db, false);
     }
 
     private enum MassOp implements LocalizableEnum{
@@ -258,7 +265,6 @@ public class MassOpFragment extends BlotterFragment {
             @Override
             public void apply(DatabaseAdapter db, long[] ids) {
                 db.deleteSelectedTransactions(ids);
-                db.rebuildRunningBalances();
             }
             @Override
             public int getColor() {
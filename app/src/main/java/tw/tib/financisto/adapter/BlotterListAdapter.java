@@ -15,67 +15,64 @@ import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.Color;
 import android.graphics.drawable.Drawable;
-import android.text.format.DateUtils;
 import android.view.View;
-import android.view.View.OnClickListener;
 import android.view.ViewGroup;
 import android.widget.CheckBox;
 import android.widget.ImageView;
 import android.widget.ResourceCursorAdapter;
 import android.widget.TextView;
 
-import java.util.Calendar;
-import java.util.Date;
-import java.util.HashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
 import tw.tib.financisto.R;
+import tw.tib.financisto.adapter.async.BlotterCursor;
+import tw.tib.financisto.blotter.BlotterRow;
+import tw.tib.financisto.blotter.BlotterRowModel;
+import tw.tib.financisto.blotter.BlotterRowPresenter;
 import tw.tib.financisto.db.DatabaseAdapter;
-import tw.tib.financisto.db.DatabaseHelper.BlotterColumns;
-import static tw.tib.financisto.model.Category.isSplit;
-import static tw.tib.financisto.model.Project.NO_PROJECT_ID;
-
-import tw.tib.financisto.model.CategoryEntity;
-import tw.tib.financisto.model.Currency;
 import tw.tib.financisto.model.TransactionStatus;
-import tw.tib.financisto.recur.Recurrence;
-import tw.tib.financisto.utils.CurrencyCache;
 import tw.tib.financisto.utils.MyPreferences;
-
-import tw.tib.financisto.utils.TransactionTitleUtils;
 import tw.tib.financisto.utils.Utils;
 
 public class BlotterListAdapter extends ResourceCursorAdapter {
 
-    private final Date dt = new Date();
-
-    protected final StringBuilder sb = new StringBuilder();
     protected final Drawable icBlotterIncome;
     protected final Drawable icBlotterExpense;
     protected final Drawable icBlotterTransfer;
     protected final Drawable icBlotterSplit;
     protected final Utils u;
     protected final DatabaseAdapter db;
-    protected final TransactionTitleUtils transactionTitleUtils;
+    protected final BlotterRowPresenter presenter;
     private final int colors[];
 
     private final int projectColor;
+    private final int weekendColor = Color.rgb(224, 112, 112);
 
     private boolean allChecked = true;
-    private final HashMap<Long, Boolean> checkedItems = new HashMap<Long, Boolean>();
+    private final TLongObjectHashMap<Boolean> checkedItems = new TLongObjectHashMap<>();
 
     private final boolean showRunningBalance;
-    private final boolean showProject;
-    private final boolean colorizeWeekendDate;
-    private final boolean showTimeOfDay;
 
     public BlotterListAdapter(Context context, DatabaseAdapter db, Cursor c) {
         this(context, db, R.layout.blotter_list_item, c, false);
     }
 
+    public BlotterListAdapter(Context context, DatabaseAdapter db, Cursor c, BlotterRowPresenter presenter) {
+        this(context, db, R.layout.blotter_list_item, c, false, presenter);
+    }
+
     public BlotterListAdapter(Context context, DatabaseAdapter db, int layoutId, Cursor c) {
         this(context, db, layoutId, c, false);
     }
 
     public BlotterListAdapter(Context context, DatabaseAdapter db, int layoutId, Cursor c, boolean autoRequery) {
+        this(context, db, layoutId, c, autoRequery, new BlotterRowPresenter(context, db));
+    }
+
+    /**
+     * @param presenter formats the rows, it may keep them formatted from the previous cursor
+     */
+    public BlotterListAdapter(Context context, DatabaseAdapter db, int layoutId, Cursor c, boolean autoRequery,
+                              BlotterRowPresenter presenter) {
         super(context, layoutId, c, autoRequery);
         this.icBlotterIncome = context.getResources().getDrawable(R.drawable.ic_action_arrow_left_bottom);
         this.icBlotterExpense = context.getResources().getDrawable(R.drawable.ic_action_arrow_right_top);
@@ -85,11 +82,8 @@ public class BlotterListAdapter extends ResourceCursorAdapter {
         this.colors = initializeColors(context);
         this.projectColor = context.getResources().getColor(R.color.project_color);
         this.showRunningBalance = MyPreferences.isShowRunningBalance(context);
-        this.showProject = MyPreferences.isShowProjectInBlotter(context);
-        this.colorizeWeekendDate = MyPreferences.isColorizeWeekendDate(context);
-        this.showTimeOfDay = MyPreferences.isBlotterShowTimeOfDay(context);
-        this.transactionTitleUtils = new TransactionTitleUtils(context, MyPreferences.isColorizeBlotterItem(context));
         this.db = db;
+        this.presenter = presenter;
     }
 
     private int[] initializeColors(Context context) {
@@ -115,7 +109,10 @@ public class BlotterListAdapter extends ResourceCursorAdapter {
     }
 
     private void createHolder(View view) {
-        BlotterViewHolder h = new BlotterViewHolder(view);
+        final BlotterViewHolder h = new BlotterViewHolder(view);
+        if (h.checkBox != null) {
+            h.checkBox.setOnClickListener(v -> updateCheckedState(h.checkId, allChecked ^ h.checkBox.isChecked()));
+        }
         view.setTag(h);
     }
 
@@ -126,174 +123,90 @@ public class BlotterListAdapter extends ResourceCursorAdapter {
     }
 
     protected void bindView(final BlotterViewHolder v, Context context, Cursor cursor) {
-        long toAccountId = cursor.getLong(BlotterColumns.to_account_id.ordinal());
-        int isTemplate = cursor.getInt(BlotterColumns.is_template.ordinal());
-        TextView noteView = isTemplate == 1 ? v.bottomView : v.centerView;
-        if (toAccountId > 0) {
-            v.topView.setText(R.string.transfer);
-
-            String fromAccountTitle = cursor.getString(BlotterColumns.from_account_title.ordinal());
-            String toAccountTitle = cursor.getString(BlotterColumns.to_account_title.ordinal());
-            String note = cursor.getString(BlotterColumns.note.ordinal());
-            long categoryId = cursor.getLong(BlotterColumns.category_id.ordinal());
-            String category = getCategoryTitle(cursor, categoryId);
-
-            CharSequence text = transactionTitleUtils.generateTransactionTitle(true,
-                    null, u.getTransferTitleText(fromAccountTitle, toAccountTitle), note,
-                    null, categoryId, category);
-            noteView.setText(text);
-            noteView.setTextColor(Color.WHITE);
-
-            long fromCurrencyId = cursor.getLong(BlotterColumns.from_account_currency_id.ordinal());
-            Currency fromCurrency = CurrencyCache.getCurrency(db, fromCurrencyId);
-            long toCurrencyId = cursor.getLong(BlotterColumns.to_account_currency_id.ordinal());
-            Currency toCurrency = CurrencyCache.getCurrency(db, toCurrencyId);
-
-            long fromAmount = cursor.getLong(BlotterColumns.from_amount.ordinal());
-            long toAmount = cursor.getLong(BlotterColumns.to_amount.ordinal());
-            long fromBalance = cursor.getLong(BlotterColumns.from_account_balance.ordinal());
-            long toBalance = cursor.getLong(BlotterColumns.to_account_balance.ordinal());
-            u.setTransferAmountText(v.rightCenterView, fromCurrency, fromAmount, toCurrency, toAmount);
-            if (v.rightView != null) {
-                u.setTransferBalanceText(v.rightView, fromCurrency, fromBalance, toCurrency, toBalance);
-            }
-            v.iconView.setImageDrawable(icBlotterTransfer);
-            v.iconView.setColorFilter(u.transferColor);
-        } else {
-            String fromAccountTitle = cursor.getString(BlotterColumns.from_account_title.ordinal());
-            v.topView.setText(fromAccountTitle);
-            setTransactionTitleText(cursor, noteView);
-            sb.setLength(0);
-            long fromCurrencyId = cursor.getLong(BlotterColumns.from_account_currency_id.ordinal());
-            Currency fromCurrency = CurrencyCache.getCurrency(db, fromCurrencyId);
-            long amount = cursor.getLong(BlotterColumns.from_amount.ordinal());
-            long originalCurrencyId = cursor.getLong(BlotterColumns.original_currency_id.ordinal());
-            if (originalCurrencyId > 0) {
-                Currency originalCurrency = CurrencyCache.getCurrency(db, originalCurrencyId);
-                long originalAmount = cursor.getLong(BlotterColumns.original_from_amount.ordinal());
-                u.setAmountText(sb, v.rightCenterView, originalCurrency, originalAmount, fromCurrency, amount, true);
-            } else {
-                u.setAmountText(sb, v.rightCenterView, fromCurrency, amount, true);
-            }
-            long categoryId = cursor.getLong(BlotterColumns.category_id.ordinal());
-            if (isSplit(categoryId)) {
-                v.iconView.setImageDrawable(icBlotterSplit);
-                v.iconView.setColorFilter(u.splitColor);
-            } else if (amount == 0) {
-                int categoryType = cursor.getInt(BlotterColumns.category_type.ordinal());
-                if (categoryType == CategoryEntity.TYPE_INCOME) {
-                    v.iconView.setImageDrawable(icBlotterIncome);
-                    v.iconView.setColorFilter(u.positiveColor);
-                } else if (categoryType == CategoryEntity.TYPE_EXPENSE) {
-                    v.iconView.setImageDrawable(icBlotterExpense);
-                    v.iconView.setColorFilter(u.negativeColor);
-                }
-            } else {
-                if (amount > 0) {
-                    v.iconView.setImageDrawable(icBlotterIncome);
-                    v.iconView.setColorFilter(u.positiveColor);
-                } else if (amount < 0) {
-                    v.iconView.setImageDrawable(icBlotterExpense);
-                    v.iconView.setColorFilter(u.negativeColor);
-                }
-            }
-
-//            long t6 = System.nanoTime();
-//            Log.d(getClass().getSimpleName(), "bindView iconView " + (t6 - t5) / 1000 + " us");
+        bindModel(v, presenter.get(rowOf(cursor)));
+    }
 
-            if (v.rightView != null) {
-                long balance = cursor.getLong(BlotterColumns.from_account_balance.ordinal());
-                v.rightView.setText(Utils.amountToString(fromCurrency, balance, false));
-            }
+    /**
+     * Only copies the model into the views, everything is formatted by the presenter
+     */
+    protected void bindModel(BlotterViewHolder v, BlotterRowModel m) {
+        TextView noteView = m.titleAtBottom ? v.bottomView : v.centerView;
+        v.topView.setText(m.top);
+        noteView.setText(m.title);
+        noteView.setTextColor(Color.WHITE);
+        v.rightCenterView.setText(m.amount);
+        v.rightCenterView.setTextColor(m.amountColor);
+        if (v.rightView != null) {
+            v.rightView.setText(m.balance);
         }
+        setIcon(v, m);
 
         if (v.top2View != null) {
-            long projectId = cursor.getLong(BlotterColumns.project_id.ordinal());
-            if (projectId == NO_PROJECT_ID || showProject == false) {
-                v.top2View.setVisibility(View.INVISIBLE);
-            } else {
-                v.top2View.setVisibility(View.VISIBLE);
-                v.top2View.setTextColor(projectColor);
-                v.top2View.setText(cursor.getString(BlotterColumns.project.ordinal()));
-            }
+            bindProject(v, m);
         }
 
-        setIndicatorColor(v, cursor);
-        if (isTemplate == 1) {
-            String templateName = cursor.getString(BlotterColumns.template_name.ordinal());
-            v.centerView.setText(templateName);
-        } else {
-            String recurrence = cursor.getString(BlotterColumns.recurrence.ordinal());
-            if (isTemplate == 2 && recurrence != null) {
-                Recurrence r = Recurrence.parse(recurrence);
-                v.bottomView.setText(r.toInfoString(context));
-                v.bottomView.setTextColor(v.topView.getTextColors().getDefaultColor());
+        setIndicatorColor(v, m);
+        if (m.titleAtBottom) {
+            v.centerView.setText(m.templateName);
+        } else if (m.bottomStyle == BlotterRowModel.BOTTOM_TEXT) {
+            v.bottomView.setText(m.bottom);
+            v.bottomView.setTextColor(v.topView.getTextColors().getDefaultColor());
+        } else if (m.bottomStyle != BlotterRowModel.BOTTOM_NONE) {
+            v.bottomView.setText(m.bottom);
+            if (isFuture(m)) {
+                u.setFutureTextColor(v.bottomView);
+            } else if (m.weekend) {
+                v.bottomView.setTextColor(weekendColor);
             } else {
-                long date = cursor.getLong(BlotterColumns.datetime.ordinal());
-                dt.setTime(date);
-                int dateTimeFlags = DateUtils.FORMAT_SHOW_DATE|DateUtils.FORMAT_SHOW_WEEKDAY|DateUtils.FORMAT_ABBREV_WEEKDAY|DateUtils.FORMAT_ABBREV_MONTH;
-                if (showTimeOfDay) {
-                    dateTimeFlags |= DateUtils.FORMAT_SHOW_TIME;
-                }
-                String t = DateUtils.formatDateTime(context, dt.getTime(), dateTimeFlags);
-                v.bottomView.setText(t);
-
-                if (isTemplate == 0 && date > System.currentTimeMillis()) {
-                    u.setFutureTextColor(v.bottomView);
-                } else {
-                    Calendar cal = Calendar.getInstance();
-                    cal.setTimeInMillis(date);
-                    int dayOfWeek = cal.get(Calendar.DAY_OF_WEEK);
-                    if (colorizeWeekendDate && (dayOfWeek == Calendar.SUNDAY || dayOfWeek == Calendar.SATURDAY)) {
-                        v.bottomView.setTextColor(Color.rgb(224, 112, 112));
-                    } else {
-                        v.bottomView.setTextColor(v.topView.getTextColors().getDefaultColor());
-                    }
-                }
+                v.bottomView.setTextColor(v.topView.getTextColors().getDefaultColor());
             }
         }
         removeRightViewIfNeeded(v);
         if (v.checkBox != null) {
-            final long parent = cursor.getLong(BlotterColumns.parent_id.ordinal());
-            final long id = parent > 0 ? parent : cursor.getLong(BlotterColumns._id.ordinal());
-            v.checkBox.setOnClickListener(new OnClickListener() {
-                @Override
-                public void onClick(View arg0) {
-                    updateCheckedState(id, allChecked ^ v.checkBox.isChecked());
-                }
-            });
-            boolean isChecked = getCheckedState(id);
-            v.checkBox.setChecked(isChecked);
+            v.checkId = m.checkId;
+            v.checkBox.setChecked(getCheckedState(m.checkId));
         }
     }
 
-    private void setTransactionTitleText(Cursor cursor, TextView noteView) {
-        sb.setLength(0);
-        String payee = cursor.getString(BlotterColumns.payee.ordinal());
-        String note = cursor.getString(BlotterColumns.note.ordinal());
-        long locationId = cursor.getLong(BlotterColumns.location_id.ordinal());
-        String location = getLocationTitle(cursor, locationId);
-        long categoryId = cursor.getLong(BlotterColumns.category_id.ordinal());
-        String category = getCategoryTitle(cursor, categoryId);
-        CharSequence text = transactionTitleUtils.generateTransactionTitle(false, payee, null, note, location, categoryId, category);
-        noteView.setText(text);
-        noteView.setTextColor(Color.WHITE);
+    protected static boolean isFuture(BlotterRowModel m) {
+        return m.bottomStyle == BlotterRowModel.BOTTOM_DATE_OR_FUTURE && m.dateTime > System.currentTimeMillis();
+    }
+
+    void bindProject(BlotterViewHolder v, BlotterRowModel m) {
+        if (m.project == null) {
+            v.top2View.setVisibility(View.INVISIBLE);
+        } else {
+            v.top2View.setVisibility(View.VISIBLE);
+            v.top2View.setTextColor(projectColor);
+            v.top2View.setText(m.project);
+        }
     }
 
-    private String getCategoryTitle(Cursor cursor, long categoryId) {
-        String category = "";
-        if (categoryId != 0) {
-            category = cursor.getString(BlotterColumns.category_title.ordinal());
+    void setIcon(BlotterViewHolder v, BlotterRowModel m) {
+        switch (m.icon) {
+            case BlotterRowModel.ICON_INCOME:
+                v.iconView.setImageDrawable(icBlotterIncome);
+                break;
+            case BlotterRowModel.ICON_EXPENSE:
+                v.iconView.setImageDrawable(icBlotterExpense);
+                break;
+            case BlotterRowModel.ICON_TRANSFER:
+                v.iconView.setImageDrawable(icBlotterTransfer);
+                break;
+            case BlotterRowModel.ICON_SPLIT:
+                v.iconView.setImageDrawable(icBlotterSplit);
+                break;
+            default:
+                return;
         }
-        return category;
+        v.iconView.setColorFilter(m.iconColor);
     }
 
-    private String getLocationTitle(Cursor cursor, long locationId) {
-        String location = "";
-        if (locationId > 0) {
-            location = cursor.getString(BlotterColumns.location.ordinal());
+    private static BlotterRow rowOf(Cursor cursor) {
+        if (cursor instanceof BlotterCursor) {
+            return ((BlotterCursor) cursor).getRow();
         }
-        return location;
+        return BlotterRow.fromCursor(cursor);
     }
 
     void removeRightViewIfNeeded(BlotterViewHolder v) {
@@ -302,9 +215,8 @@ public class BlotterListAdapter extends ResourceCursorAdapter {
         }
     }
 
-    void setIndicatorColor(BlotterViewHolder v, Cursor cursor) {
-        TransactionStatus status = TransactionStatus.valueOf(cursor.getString(BlotterColumns.status.ordinal()));
-        v.indicator.setBackgroundColor(colors[status.ordinal()]);
+    void setIndicatorColor(BlotterViewHolder v, BlotterRowModel m) {
+        v.indicator.setBackgroundColor(colors[m.status]);
     }
 
     private boolean getCheckedState(long id) {
@@ -347,6 +259,7 @@ public class BlotterListAdapter extends ResourceCursorAdapter {
         public final TextView rightView;
         public final ImageView iconView;
         public final CheckBox checkBox;
+        public long checkId;
 
         public BlotterViewHolder(View view) {
             layout = view.findViewById(R.id.layout);
@@ -378,7 +291,7 @@ public class BlotterListAdapter extends ResourceCursorAdapter {
                 }
             }
         } else {
-            for (Long id : checkedItems.keySet()) {
+            for (long id : checkedItems.keys()) {
                 ids[k++] = id;
             }
         }
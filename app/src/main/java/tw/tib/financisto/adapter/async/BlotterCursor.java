@@ -0,0 +1,94 @@
+package tw.tib.financisto.adapter.async;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+import tw.tib.financisto.blotter.BlotterRow;
+import tw.tib.financisto.db.DatabaseHelper.BlotterColumns;
+
+/**
+ * Read-only cursor over {@link BlotterItemSource}, so that list adapters
+ * which bind blotter rows from a cursor can show the blotter page by page
+ */
+public class BlotterCursor extends AbstractCursor {
+
+    private final BlotterItemSource source;
+    private BlotterRow row;
+
+    public BlotterCursor(BlotterItemSource source) {
+        this.source = source;
+    }
+
+    /**
+     * @return the row at the current position
+     */
+    public BlotterRow getRow() {
+        return row;
+    }
+
+    @Override
+    public int getCount() {
+        return source.getCount();
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return BlotterColumns.NORMAL_PROJECTION;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        row = source.getItem(newPosition);
+        return row != null;
+    }
+
+    @Override
+    public String getString(int column) {
+        return row.getString(column);
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) row.getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) row.getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        return row.getLong(column);
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return row.getLong(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        return row.getLong(column);
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return row.isNull(column);
+    }
+
+    @Override
+    public int getType(int column) {
+        if (row.isNull(column)) {
+            return Cursor.FIELD_TYPE_NULL;
+        }
+        return row.isText(column) ? Cursor.FIELD_TYPE_STRING : Cursor.FIELD_TYPE_INTEGER;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        source.close();
+    }
+
+}
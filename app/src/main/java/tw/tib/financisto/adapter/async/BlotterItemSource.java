@@ -0,0 +1,259 @@
+package tw.tib.financisto.adapter.async;
+
+import android.database.Cursor;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import tw.tib.financisto.blotter.BlotterRow;
+import tw.tib.financisto.db.DatabaseAdapter;
+import tw.tib.financisto.db.DatabaseHelper.BlotterColumns;
+import tw.tib.financisto.filter.WhereFilter;
+
+/**
+ * Blotter read in pages of rows ordered by (datetime, _id).
+ * A page is queried right after the last key of the previous one instead of using an offset,
+ * so reading any page costs the same. The next page is loaded in background
+ * when reading gets close to the end of the current one.
+ * Only {@link #MAX_PAGES} pages of rows are kept, the keys of all the pages read so far are kept.
+ */
+public class BlotterItemSource implements ItemSource<BlotterRow> {
+
+    private static final String TAG = "BlotterItemSource";
+
+    private static final int MAX_PAGES = 8;
+    private static final String[] KEY_PROJECTION = {BlotterColumns.datetime.name(), BlotterColumns._id.name()};
+
+    private static final ExecutorService PREFETCH = Executors.newSingleThreadExecutor();
+
+    private final DatabaseAdapter db;
+    private final WhereFilter filter;
+    private final String view;
+    private final boolean descending;
+    private final int pageSize;
+
+    private final Object loadLock = new Object();
+
+    private volatile PageListener pageListener;
+
+    // guarded by this
+    private int count = -1;
+    private int generation;
+    private final Set<Integer> prefetching = new HashSet<>();
+    private final Map<Integer, BlotterRow[]> pages = new LinkedHashMap<Integer, BlotterRow[]>(MAX_PAGES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, BlotterRow[]> eldest) {
+            return size() > MAX_PAGES;
+        }
+    };
+
+    // guarded by loadLock, last key of every page read so far
+    private final List<PageEnd> ends = new ArrayList<>();
+
+    /**
+     * @param forAccount the blotter of a single account, see {@link DatabaseAdapter#getBlotterForAccount(WhereFilter)}
+     */
+    public BlotterItemSource(DatabaseAdapter db, WhereFilter filter, boolean forAccount, int pageSize) {
+        this.db = db;
+        this.filter = forAccount ? DatabaseAdapter.enhanceFilterForAccountBlotter(filter) : WhereFilter.copyOf(filter);
+        this.view = DatabaseAdapter.getBlotterView(this.filter, forAccount);
+        this.descending = db.isBlotterDescending(this.filter);
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * @param listener called in the loading thread for every page read from the database
+     */
+    public void setPageListener(PageListener listener) {
+        this.pageListener = listener;
+    }
+
+    @Override
+    public Class<BlotterRow> clazz() {
+        return BlotterRow.class;
+    }
+
+    @Override
+    public synchronized int getCount() {
+        if (count < 0) {
+            count = db.getBlotterCount(view, filter);
+        }
+        return count;
+    }
+
+    @Override
+    public BlotterRow getItem(int position) {
+        int page = position / pageSize;
+        int i = position % pageSize;
+        BlotterRow[] rows = getPage(page);
+        if (i >= pageSize * 3 / 4) {
+            prefetch(page + 1);
+        }
+        return i < rows.length ? rows[i] : null;
+    }
+
+    @Override
+    public void close() {
+        // the same lock order as loading, so a load in progress finishes before keys are dropped
+        synchronized (loadLock) {
+            synchronized (this) {
+                generation++;
+                count = -1;
+                pages.clear();
+            }
+            ends.clear();
+        }
+    }
+
+    @Override
+    public void setConstraint(CharSequence constraint) {
+    }
+
+    private BlotterRow[] getPage(int page) {
+        int gen;
+        synchronized (this) {
+            BlotterRow[] rows = pages.get(page);
+            if (rows != null) {
+                return rows;
+            }
+            gen = generation;
+        }
+        BlotterRow[] rows;
+        synchronized (loadLock) {
+            synchronized (this) {
+                rows = pages.get(page);
+                if (rows != null) {
+                    return rows;
+                }
+            }
+            long t0 = System.currentTimeMillis();
+            rows = loadPage(page);
+            synchronized (this) {
+                if (gen == generation) {
+                    pages.put(page, rows);
+                }
+            }
+            Log.d(TAG, "Loaded page " + page + " of " + rows.length + " rows in " + (System.currentTimeMillis() - t0) + "ms");
+        }
+        PageListener listener = pageListener;
+        if (listener != null) {
+            listener.onPageLoaded(rows);
+        }
+        return rows;
+    }
+
+    private void prefetch(final int page) {
+        synchronized (this) {
+            if (count >= 0 && page * pageSize >= count || pages.containsKey(page) || !prefetching.add(page)) {
+                return;
+            }
+        }
+        PREFETCH.execute(() -> {
+            try {
+                getPage(page);
+            } catch (Exception e) {
+                Log.w(TAG, "Unable to prefetch page " + page, e);
+            } finally {
+                synchronized (BlotterItemSource.this) {
+                    prefetching.remove(page);
+                }
+            }
+        });
+    }
+
+    private BlotterRow[] loadPage(int page) {
+        // a jump over pages never read before only needs their keys
+        while (ends.size() < page) {
+            if (!readKeys(ends.size())) {
+                return new BlotterRow[0];
+            }
+        }
+        List<BlotterRow> rows = new ArrayList<>(pageSize);
+        try (Cursor c = queryPage(page, BlotterColumns.NORMAL_PROJECTION)) {
+            while (c.moveToNext()) {
+                rows.add(BlotterRow.fromCursor(c));
+            }
+        }
+        if (ends.size() == page && !rows.isEmpty()) {
+            PageEnd end = endOf(page, rows.size(), i -> rows.get(i).getDateTime(), i -> rows.get(i).getId());
+            ends.add(end);
+        }
+        return rows.toArray(new BlotterRow[0]);
+    }
+
+    private boolean readKeys(int page) {
+        try (Cursor c = queryPage(page, KEY_PROJECTION)) {
+            int n = c.getCount();
+            if (n == 0) {
+                return false;
+            }
+            long[] dates = new long[n];
+            long[] ids = new long[n];
+            for (int i = 0; c.moveToNext(); i++) {
+                dates[i] = c.getLong(0);
+                ids[i] = c.getLong(1);
+            }
+            ends.add(endOf(page, n, i -> dates[i], i -> ids[i]));
+            return true;
+        }
+    }
+
+    private Cursor queryPage(int page, String[] projection) {
+        if (page == 0) {
+            return db.getBlotterPage(view, filter, projection, descending, null, 0, pageSize);
+        }
+        PageEnd after = ends.get(page - 1);
+        return db.getBlotterPage(view, filter, projection, descending,
+                new long[]{after.dateTime, after.id}, after.ties, pageSize);
+    }
+
+    /**
+     * Rows with exactly the same key as the last one have to be skipped by the next page,
+     * even if they started on one of the previous pages
+     */
+    private PageEnd endOf(int page, int n, KeyGetter dates, KeyGetter ids) {
+        long dateTime = dates.get(n - 1);
+        long id = ids.get(n - 1);
+        int ties = 0;
+        for (int i = n - 1; i >= 0 && dates.get(i) == dateTime && ids.get(i) == id; i--) {
+            ties++;
+        }
+        if (ties == n && page > 0) {
+            PageEnd previous = ends.get(page - 1);
+            if (previous.dateTime == dateTime && previous.id == id) {
+                ties += previous.ties;
+            }
+        }
+        return new PageEnd(dateTime, id, ties);
+    }
+
+    public interface PageListener {
+        void onPageLoaded(BlotterRow[] rows);
+    }
+
+    private interface KeyGetter {
+        long get(int i);
+    }
+
+    private static class PageEnd {
+
+        final long dateTime;
+        final long id;
+        final int ties;
+
+        PageEnd(long dateTime, long id, int ties) {
+            this.dateTime = dateTime;
+            this.id = id;
+            this.ties = ties;
+        }
+
+    }
+
+}
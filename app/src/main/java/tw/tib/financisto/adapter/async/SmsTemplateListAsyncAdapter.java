@@ -237,7 +237,7 @@ public class SmsTemplateListAsyncAdapter extends AsyncAdapter<SmsTemplate, SmsTe
 
         @Override
         protected Integer doInBackground(Long... ids) {
-            return db.delete(SmsTemplate.class, ids[0]);
+            return db.deleteSmsTemplate(ids[0]);
         }
 
         @Override
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2012 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package tw.tib.financisto.backup;
+
+import java.io.IOException;
+import java.io.PushbackInputStream;
+
+/**
+ * Compact binary backup format, an alternative to the text one.
+ * <pre>
+ * backup  := MAGIC version:varint header block* END
+ * header  := count:varint (key:string value:string)*
+ * block   := TABLE name:string count:varint column:string*
+ *          | ROW value*              (one value per column of the last table)
+ * value   := NULL | LONG zigzag:varint | DOUBLE 8 bytes | STRING string | BLOB length:varint bytes
+ * string  := length:varint utf-8 bytes
+ * </pre>
+ * The stream can be gzipped as a whole, the same as the text format.
+ */
+public final class BinaryBackup {
+
+    static final byte[] MAGIC = {'F', 'B', 'A', 'K'};
+    static final int FORMAT_VERSION = 1;
+
+    static final int END = 0;
+    static final int TABLE = 1;
+    static final int ROW = 2;
+
+    static final int NULL = 0;
+    static final int LONG = 1;
+    static final int DOUBLE = 2;
+    static final int STRING = 3;
+    static final int BLOB = 4;
+
+    private BinaryBackup() {
+    }
+
+    /**
+     * Peeks at the beginning of the stream, the stream is left unchanged
+     */
+    public static boolean isBinaryBackup(PushbackInputStream in) throws IOException {
+        byte[] head = new byte[MAGIC.length];
+        int n = 0;
+        while (n < head.length) {
+            int read = in.read(head, n, head.length - n);
+            if (read < 0) {
+                break;
+            }
+            n += read;
+        }
+        if (n > 0) {
+            in.unread(head, 0, n);
+        }
+        if (n < head.length) {
+            return false;
+        }
+        for (int i = 0; i < head.length; i++) {
+            if (head[i] != MAGIC[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (c) 2012 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package tw.tib.financisto.backup;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static tw.tib.financisto.backup.BinaryBackup.*;
+
+/**
+ * Reads {@link BinaryBackup} format row by row.
+ * Values of the current row are {@link Long}, {@link Double}, {@link String}, byte[] or null.
+ */
+public class BinaryBackupReader {
+
+    private final InputStream in;
+    private final Map<String, String> header = new LinkedHashMap<>();
+
+    private byte[] buffer = new byte[256];
+    private String tableName;
+    private String[] columns;
+    private Object[] values;
+
+    public BinaryBackupReader(InputStream in) throws IOException {
+        this.in = new BufferedInputStream(in, 65536);
+        for (byte b : MAGIC) {
+            if (readByte() != (b & 0xFF)) {
+                throw new IOException("Not a binary backup");
+            }
+        }
+        long version = readVarLong();
+        if (version > FORMAT_VERSION) {
+            throw new IOException("Unsupported binary backup version " + version);
+        }
+        long count = readVarLong();
+        for (long i = 0; i < count; i++) {
+            header.put(readStringValue(), readStringValue());
+        }
+    }
+
+    public Map<String, String> getHeader() {
+        return header;
+    }
+
+    /**
+     * @return false when there are no more rows
+     */
+    public boolean nextRow() throws IOException {
+        while (true) {
+            int tag = in.read();
+            switch (tag) {
+                case -1:
+                case END:
+                    return false;
+                case TABLE:
+                    tableName = readStringValue();
+                    columns = new String[(int) readVarLong()];
+                    for (int i = 0; i < columns.length; i++) {
+                        columns[i] = readStringValue();
+                    }
+                    values = new Object[columns.length];
+                    break;
+                case ROW:
+                    if (columns == null) {
+                        throw new IOException("Row outside of a table");
+                    }
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = readValue();
+                    }
+                    return true;
+                default:
+                    throw new IOException("Unknown block " + tag);
+            }
+        }
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    public String[] getColumns() {
+        return columns;
+    }
+
+    public Object getValue(int i) {
+        return values[i];
+    }
+
+    private Object readValue() throws IOException {
+        int type = readByte();
+        switch (type) {
+            case NULL:
+                return null;
+            case LONG:
+                long v = readVarLong();
+                return (v >>> 1) ^ -(v & 1);
+            case DOUBLE:
+                long bits = 0;
+                for (int i = 0; i < 8; i++) {
+                    bits = (bits << 8) | readByte();
+                }
+                return Double.longBitsToDouble(bits);
+            case STRING:
+                return readStringValue();
+            case BLOB:
+                byte[] blob = new byte[(int) readVarLong()];
+                readFully(blob, blob.length);
+                return blob;
+            default:
+                throw new IOException("Unknown value type " + type);
+        }
+    }
+
+    private String readStringValue() throws IOException {
+        int length = (int) readVarLong();
+        if (buffer.length < length) {
+            buffer = new byte[Math.max(length, buffer.length * 2)];
+        }
+        readFully(buffer, length);
+        return new String(buffer, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private long readVarLong() throws IOException {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+            if (shift > 63) {
+                throw new IOException("Malformed varint");
+            }
+        }
+    }
+
+    private int readByte() throws IOException {
+        int b = in.read();
+        if (b < 0) {
+            throw new EOFException();
+        }
+        return b;
+    }
+
+    private void readFully(byte[] bytes, int length) throws IOException {
+        int n = 0;
+        while (n < length) {
+            int read = in.read(bytes, n, length - n);
+            if (read < 0) {
+                throw new EOFException();
+            }
+            n += read;
+        }
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2012 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package tw.tib.financisto.backup;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import static tw.tib.financisto.backup.BinaryBackup.*;
+
+/**
+ * Writes {@link BinaryBackup} format. Values of a row are written one by one
+ * right after {@link #startRow()}, in the order of the columns of the current table.
+ */
+public class BinaryBackupWriter implements Closeable {
+
+    private final OutputStream out;
+    private final byte[] buffer = new byte[10];
+
+    public BinaryBackupWriter(OutputStream out, Map<String, String> header) throws IOException {
+        this.out = new BufferedOutputStream(out, 65536);
+        this.out.write(MAGIC);
+        writeVarLong(FORMAT_VERSION);
+        writeVarLong(header.size());
+        for (Map.Entry<String, String> e : header.entrySet()) {
+            writeStringValue(e.getKey());
+            writeStringValue(e.getValue());
+        }
+    }
+
+    public void startTable(String tableName, String[] columns) throws IOException {
+        out.write(TABLE);
+        writeStringValue(tableName);
+        writeVarLong(columns.length);
+        for (String column : columns) {
+            writeStringValue(column);
+        }
+    }
+
+    public void startRow() throws IOException {
+        out.write(ROW);
+    }
+
+    public void writeNull() throws IOException {
+        out.write(NULL);
+    }
+
+    public void writeLong(long value) throws IOException {
+        out.write(LONG);
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    public void writeDouble(double value) throws IOException {
+        out.write(DOUBLE);
+        long bits = Double.doubleToLongBits(value);
+        for (int i = 0; i < 8; i++) {
+            buffer[i] = (byte) (bits >>> (56 - 8 * i));
+        }
+        out.write(buffer, 0, 8);
+    }
+
+    public void writeString(String value) throws IOException {
+        out.write(STRING);
+        writeStringValue(value);
+    }
+
+    public void writeBlob(byte[] value) throws IOException {
+        out.write(BLOB);
+        writeVarLong(value.length);
+        out.write(value);
+    }
+
+    /**
+     * Writes the end marker and closes the underlying stream
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            out.write(END);
+            out.flush();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void writeStringValue(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(bytes.length);
+        out.write(bytes);
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        int n = 0;
+        while ((value & ~0x7FL) != 0) {
+            buffer[n++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[n++] = (byte) value;
+        out.write(buffer, 0, n);
+    }
+
+}
@@ -21,10 +21,14 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import tw.tib.financisto.export.Export;
+import tw.tib.financisto.utils.MyPreferences;
 import tw.tib.financisto.utils.Utils;
 import android.content.Context;
 import android.content.pm.PackageInfo;
@@ -36,11 +40,13 @@ public class DatabaseExport extends Export {
 	
 	private final Context context;
 	private final SQLiteDatabase db;
+	private final boolean binary;
 
     public DatabaseExport(Context context, SQLiteDatabase db, boolean useGZip) {
         super(context, useGZip);
 		this.context = context;
 		this.db = db;
+		this.binary = MyPreferences.isBinaryBackupFormat(context);
 	}
 
 	@Override
@@ -48,16 +54,33 @@ public class DatabaseExport extends Export {
 		return ".backup";
 	}
 
+	@Override
+	protected void generateBackup(OutputStream outputStream) throws Exception {
+		if (binary) {
+			generateBinaryBackup(outputStream);
+		} else {
+			super.generateBackup(outputStream);
+		}
+	}
+
 	@Override
 	protected void writeHeader(BufferedWriter bw) throws IOException, NameNotFoundException  {
-		PackageInfo pi = Utils.getPackageInfo(context);
-		bw.write("PACKAGE:");bw.write(pi.packageName);bw.write("\n");
-		bw.write("VERSION_CODE:");bw.write(String.valueOf(pi.versionCode));bw.write("\n");
-		bw.write("VERSION_NAME:");bw.write(pi.versionName);bw.write("\n");
-		bw.write("DATABASE_VERSION:");bw.write(String.valueOf(db.getVersion()));bw.write("\n");
+		for (Map.Entry<String, String> e : createHeader().entrySet()) {
+			bw.write(e.getKey());bw.write(":");bw.write(e.getValue());bw.write("\n");
+		}
 		bw.write("#START\n");
 	}
 
+	private Map<String, String> createHeader() throws NameNotFoundException {
+		PackageInfo pi = Utils.getPackageInfo(context);
+		Map<String, String> header = new LinkedHashMap<>();
+		header.put("PACKAGE", pi.packageName);
+		header.put("VERSION_CODE", String.valueOf(pi.versionCode));
+		header.put("VERSION_NAME", pi.versionName);
+		header.put("DATABASE_VERSION", String.valueOf(db.getVersion()));
+		return header;
+	}
+
 	public static void copy(File source, File dest) throws IOException {
 	     FileChannel in = null, out = null;
 	     try {          
@@ -87,13 +110,15 @@ public class DatabaseExport extends Export {
 		bw.write("#END");
 	}
 
+	private String exportTableSql(String tableName) {
+		return "select * from " + tableName
+				+ (tableHasSystemIds(tableName) ? " WHERE _id > 0 " : " ")
+				+ (tableHasOrder(tableName) ? " order by " + DEF_SORT_COL + " asc" : "");
+	}
+
 	private void exportTable(BufferedWriter bw, String tableName) throws IOException {
-		final boolean orderedTable = tableHasOrder(tableName);
 		final boolean customOrdered = ACCOUNT_TABLE.equals(tableName);
-		String sql = "select * from " + tableName
-				+ (tableHasSystemIds(tableName) ? " WHERE _id > 0 " : " ")
-				+ (orderedTable ? " order by " + DEF_SORT_COL + " asc" : "");
-		try (Cursor c = db.rawQuery(sql, null)) {
+		try (Cursor c = db.rawQuery(exportTableSql(tableName), null)) {
 			String[] columnNames = c.getColumnNames();
 			int cols = columnNames.length;
 			while (c.moveToNext()) {
@@ -115,6 +140,58 @@ public class DatabaseExport extends Export {
 		}
 	}
 
+	private void generateBinaryBackup(OutputStream outputStream) throws IOException, NameNotFoundException {
+		try (BinaryBackupWriter w = new BinaryBackupWriter(outputStream, createHeader())) {
+			for (String tableName : BACKUP_TABLES) {
+				exportTable(w, tableName);
+			}
+		}
+	}
+
+	/**
+	 * Column names are written once per table, values keep their sqlite types
+	 */
+	private void exportTable(BinaryBackupWriter w, String tableName) throws IOException {
+		final boolean customOrdered = ACCOUNT_TABLE.equals(tableName);
+		try (Cursor c = db.rawQuery(exportTableSql(tableName), null)) {
+			String[] columnNames = c.getColumnNames();
+			int[] columns = new int[columnNames.length];
+			int cols = 0;
+			for (int i=0; i<columnNames.length; i++) {
+				if (!DEF_SORT_COL.equals(columnNames[i]) || customOrdered) {
+					columns[cols++] = i;
+				}
+			}
+			String[] exported = new String[cols];
+			for (int i=0; i<cols; i++) {
+				exported[i] = columnNames[columns[i]];
+			}
+			w.startTable(tableName, exported);
+			while (c.moveToNext()) {
+				w.startRow();
+				for (int j=0; j<cols; j++) {
+					final int i = columns[j];
+					switch (c.getType(i)) {
+						case Cursor.FIELD_TYPE_INTEGER:
+							w.writeLong(c.getLong(i));
+							break;
+						case Cursor.FIELD_TYPE_FLOAT:
+							w.writeDouble(c.getDouble(i));
+							break;
+						case Cursor.FIELD_TYPE_STRING:
+							w.writeString(c.getString(i));
+							break;
+						case Cursor.FIELD_TYPE_BLOB:
+							w.writeBlob(c.getBlob(i));
+							break;
+						default:
+							w.writeNull();
+					}
+				}
+			}
+		}
+	}
+
     private static String removeNewLine(String value) {
         return value.replace('\n', ' ');
     }
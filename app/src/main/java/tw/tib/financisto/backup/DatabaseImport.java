@@ -10,13 +10,16 @@
  ******************************************************************************/
 package tw.tib.financisto.backup;
 
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.provider.OpenableColumns;
 import android.util.Log;
 import com.dropbox.core.util.IOUtil;
 
+import tw.tib.financisto.export.ProgressListener;
 import tw.tib.financisto.export.drive.GoogleDriveFileInfo;
 import tw.tib.financisto.export.drive.GoogleDriveRESTClient;
 import tw.tib.financisto.db.Database;
@@ -26,8 +29,12 @@ import tw.tib.financisto.export.dropbox.Dropbox;
 
 import java.io.*;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.zip.GZIPInputStream;
 
 import static tw.tib.financisto.backup.Backup.RESTORE_SCRIPTS;
@@ -36,46 +43,92 @@ import static tw.tib.financisto.db.DatabaseHelper.ATTRIBUTES_TABLE;
 import static tw.tib.financisto.db.DatabaseHelper.LOCATIONS_TABLE;
 import static tw.tib.orb.EntityManager.DEF_SORT_COL;
 
+/**
+ * Restores a backup in a single pass over the stream, text or {@link BinaryBackup} format.
+ * Table columns are read once per table and every distinct set of columns
+ * gets its own compiled insert statement, so a row costs just the binds and the insert.
+ */
 public class DatabaseImport extends FullDatabaseImport {
 
+    private static final String TAG = "DatabaseImport";
+
     private final DatabaseSchemaEvolution schemaEvolution;
-    private final InputStream backupStream;
+    private final CountingInputStream backupStream;
+    private final long backupSize;
+
+    // table name -> known columns
+    private final Map<String, Set<String>> tableColumns = new HashMap<>();
+    // table name and sorted column names -> insert statement
+    private final Map<String, SQLiteStatement> insertStatements = new HashMap<>();
+    private final StringBuilder statementKey = new StringBuilder();
+
+    private ProgressListener progressListener;
+    private int lastProgress = -1;
+    private long rowNum;
+    private long restoredRows;
 
     public static DatabaseImport createFromFileBackup(Context context, DatabaseAdapter dbAdapter, Uri backupFileUri) throws FileNotFoundException {
         InputStream inputStream = context.getContentResolver().openInputStream(backupFileUri);
-        return new DatabaseImport(context, dbAdapter, inputStream);
+        return new DatabaseImport(context, dbAdapter, inputStream, getFileSize(context, backupFileUri));
     }
 
     public static DatabaseImport createFromGoogleDriveBackup(Context context, DatabaseAdapter db, GoogleDriveRESTClient googleDriveRESTClient, GoogleDriveFileInfo backupFile)
             throws Exception {
         InputStream inputStream = googleDriveRESTClient.getFileAsStream(backupFile.id);
         InputStream in = new GZIPInputStream(inputStream);
-        return new DatabaseImport(context, db, in);
+        return new DatabaseImport(context, db, in, 0);
     }
 
     public static DatabaseImport createFromDropboxBackup(Context context, DatabaseAdapter dbAdapter, Dropbox dropbox, String backupFile)
             throws Exception {
         InputStream inputStream = dropbox.getBackupFileAsStream(backupFile);
         InputStream in = new GZIPInputStream(inputStream);
-        return new DatabaseImport(context, dbAdapter, in);
+        return new DatabaseImport(context, dbAdapter, in, 0);
     }
 
-    private DatabaseImport(Context context, DatabaseAdapter dbAdapter, InputStream backupStream) {
+    private static long getFileSize(Context context, Uri uri) {
+        try (Cursor c = context.getContentResolver().query(uri, new String[]{OpenableColumns.SIZE}, null, null, null)) {
+            if (c != null && c.moveToFirst() && !c.isNull(0)) {
+                return c.getLong(0);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Unable to get size of " + uri, e);
+        }
+        return 0;
+    }
+
+    private DatabaseImport(Context context, DatabaseAdapter dbAdapter, InputStream backupStream, long backupSize) {
         super(context, dbAdapter);
         this.schemaEvolution = new DatabaseSchemaEvolution(context, Database.DATABASE_NAME, null, Database.DATABASE_VERSION);
-        this.backupStream = backupStream;
+        this.backupStream = new CountingInputStream(backupStream);
+        this.backupSize = backupSize;
+    }
+
+    /**
+     * Progress is reported by the bytes consumed from the backup stream,
+     * so only backups of known size (local files) report it
+     */
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
     }
 
     @Override
     protected void restoreDatabase() throws IOException {
-        InputStream s = decompressStream(backupStream);
-        InputStreamReader isr = new InputStreamReader(s, "UTF-8");
-        BufferedReader br = new BufferedReader(isr, 65535);
+        PushbackInputStream s = new PushbackInputStream(decompressStream(backupStream), BinaryBackup.MAGIC.length);
+        long t0 = System.currentTimeMillis();
         try {
-            recoverDatabase(br);
+            long rows;
+            if (BinaryBackup.isBinaryBackup(s)) {
+                rows = recoverDatabase(new BinaryBackupReader(s));
+            } else {
+                InputStreamReader isr = new InputStreamReader(s, "UTF-8");
+                rows = recoverDatabase(new BufferedReader(isr, 65535));
+            }
+            Log.i(TAG, "Restored " + rows + " rows from " + backupStream.count + " bytes in " + (System.currentTimeMillis() - t0) + "ms");
             runRestoreAlterscripts();
         } finally {
-            IOUtil.closeInput(br);
+            closeStatements();
+            IOUtil.closeInput(s);
         }
     }
 
@@ -91,26 +144,16 @@ public class DatabaseImport extends FullDatabaseImport {
             return pb;
     }
 
-    private void recoverDatabase(BufferedReader br) throws IOException {
+    private long recoverDatabase(BufferedReader br) throws IOException {
         boolean insideEntity = false;
-        ContentValues values = new ContentValues();
+        Map<String, Object> values = new TreeMap<>();
         String line;
         String tableName = null;
-        long rowNum = 0;
         while ((line = br.readLine()) != null) {
             if (line.startsWith("$")) {
                 if ("$$".equals(line)) {
                     if (tableName != null && values.size() > 0) {
-                        if (shouldRestoreTable(tableName)) {
-                            cleanupValues(tableName, values);
-                            if (values.size() > 0) {
-                                // if old dump format - then just adding sequential default order
-                                if (tableHasOrder(tableName) && !values.containsKey(DEF_SORT_COL)) {
-                                    values.put(DEF_SORT_COL, ++rowNum);
-                                }
-                                db.insert(tableName, null, values);
-                            }
-                        }
+                        restoreRow(tableName, values);
                         tableName = null;
                         insideEntity = false;
 
@@ -134,6 +177,109 @@ public class DatabaseImport extends FullDatabaseImport {
                 }
             }
         }
+        return restoredRows;
+    }
+
+    private long recoverDatabase(BinaryBackupReader reader) throws IOException {
+        Log.i(TAG, "Binary backup " + reader.getHeader());
+        Map<String, Object> values = new TreeMap<>();
+        while (reader.nextRow()) {
+            String[] columns = reader.getColumns();
+            values.clear();
+            for (int i = 0; i < columns.length; i++) {
+                Object value = reader.getValue(i);
+                // nulls are not written to text backups either
+                if (value != null) {
+                    values.put(columns[i], value);
+                }
+            }
+            if (values.size() > 0) {
+                restoreRow(reader.getTableName(), values);
+            }
+        }
+        return restoredRows;
+    }
+
+    private void restoreRow(String tableName, Map<String, Object> values) {
+        if (shouldRestoreTable(tableName)) {
+            cleanupValues(tableName, values);
+            if (values.size() > 0) {
+                // if old dump format - then just adding sequential default order
+                if (tableHasOrder(tableName) && !values.containsKey(DEF_SORT_COL)) {
+                    values.put(DEF_SORT_COL, ++rowNum);
+                }
+                insert(tableName, values);
+                if (++restoredRows % 1000 == 0) {
+                    reportProgress();
+                }
+            }
+        }
+    }
+
+    private void insert(String tableName, Map<String, Object> values) {
+        SQLiteStatement statement = getInsertStatement(tableName, values);
+        int i = 1;
+        for (Object value : values.values()) {
+            if (value instanceof Long) {
+                statement.bindLong(i++, (Long) value);
+            } else if (value instanceof Double) {
+                statement.bindDouble(i++, (Double) value);
+            } else if (value instanceof byte[]) {
+                statement.bindBlob(i++, (byte[]) value);
+            } else {
+                statement.bindString(i++, String.valueOf(value));
+            }
+        }
+        try {
+            statement.executeInsert();
+        } catch (SQLException e) {
+            // the same as SQLiteDatabase.insert does: log and go on with the next row
+            Log.e(TAG, "Error inserting " + values + " into " + tableName, e);
+        }
+    }
+
+    private SQLiteStatement getInsertStatement(String tableName, Map<String, Object> values) {
+        StringBuilder key = statementKey;
+        key.setLength(0);
+        key.append(tableName);
+        for (String column : values.keySet()) {
+            key.append(',').append(column);
+        }
+        String k = key.toString();
+        SQLiteStatement statement = insertStatements.get(k);
+        if (statement == null) {
+            StringBuilder sql = new StringBuilder("insert into ").append(tableName).append(" (");
+            StringBuilder params = new StringBuilder();
+            for (String column : values.keySet()) {
+                if (params.length() > 0) {
+                    sql.append(',');
+                    params.append(',');
+                }
+                sql.append(column);
+                params.append('?');
+            }
+            sql.append(") values (").append(params).append(')');
+            statement = db.compileStatement(sql.toString());
+            insertStatements.put(k, statement);
+        }
+        return statement;
+    }
+
+    private void closeStatements() {
+        for (SQLiteStatement statement : insertStatements.values()) {
+            statement.close();
+        }
+        insertStatements.clear();
+    }
+
+    private void reportProgress() {
+        if (progressListener != null && backupSize > 0) {
+            int progress = (int) Math.min(100, 100 * backupStream.count / backupSize);
+            if (progress != lastProgress) {
+                lastProgress = progress;
+                progressListener.onProgress(progress);
+            }
+        }
     }
 
     private void runRestoreAlterscripts() throws IOException {
@@ -146,9 +292,9 @@ public class DatabaseImport extends FullDatabaseImport {
         return true;
     }
 
-    private void cleanupValues(String tableName, ContentValues values) {
+    private void cleanupValues(String tableName, Map<String, Object> values) {
         // remove system entities
-        Integer id = values.getAsInteger("_id");
+        Long id = parseId(values.get("_id"));
         if (id != null && id <= 0) {
             Log.w("Financisto", "Removing system entity: " + values);
             values.clear();
@@ -159,20 +305,16 @@ public class DatabaseImport extends FullDatabaseImport {
         values.remove("remote_key");
         if (LOCATIONS_TABLE.equals(tableName)) {
             if (values.containsKey("name")) {
-                values.put("title", values.getAsString("name"));
+                values.put("title", values.get("name"));
             }
         } else if (ATTRIBUTES_TABLE.equals(tableName)) {
             if (values.containsKey("name")) {
-                values.put("title", values.getAsString("name"));
+                values.put("title", values.get("name"));
                 values.remove("name");
             }
         }
         // remove unknown columns
-        String sql = "select * from " + tableName + " WHERE 1=0";
-        try (Cursor c = db.rawQuery(sql, null)) {
-            final String[] columnNames = c.getColumnNames();
-            removeUnknownColumns(values, columnNames, tableName);
-        }
+        removeUnknownColumns(values, getColumns(tableName), tableName);
 
         /*
         if ("account".equals(tableName)) {
@@ -186,14 +328,73 @@ public class DatabaseImport extends FullDatabaseImport {
         */
     }
 
-    private void removeUnknownColumns(ContentValues values, String[] columnNames, String tableName) {
-        Set<String> possibleKeys = new HashSet<>(Arrays.asList(columnNames));
-        Set<String> keys = new HashSet<>(values.keySet());
-        for (String key : keys) {
+    private static Long parseId(Object id) {
+        if (id == null || id instanceof Long) {
+            return (Long) id;
+        }
+        try {
+            return Long.valueOf(id.toString().trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private Set<String> getColumns(String tableName) {
+        Set<String> columns = tableColumns.get(tableName);
+        if (columns == null) {
+            String sql = "select * from " + tableName + " WHERE 1=0";
+            try (Cursor c = db.rawQuery(sql, null)) {
+                columns = new HashSet<>(Arrays.asList(c.getColumnNames()));
+            }
+            tableColumns.put(tableName, columns);
+        }
+        return columns;
+    }
+
+    private void removeUnknownColumns(Map<String, Object> values, Set<String> possibleKeys, String tableName) {
+        Iterator<String> keys = values.keySet().iterator();
+        while (keys.hasNext()) {
+            String key = keys.next();
             if (!possibleKeys.contains(key)) {
-                values.remove(key);
+                keys.remove();
                 Log.i(getClass().getSimpleName(), "Removing "+key+" from backup values for "+tableName);
             }
         }
     }
-}
\ No newline at end of file
+
+    private static class CountingInputStream extends FilterInputStream {
+
+        long count;
+
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+
+    }
+
+}
@@ -15,10 +15,15 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
+import tw.tib.financisto.db.BudgetSpendEngine;
+import tw.tib.financisto.db.CategoryIndex;
 import tw.tib.financisto.db.DatabaseAdapter;
+import tw.tib.financisto.db.DatabaseHelper;
 import tw.tib.financisto.service.RecurrenceScheduler;
+import tw.tib.financisto.service.SmsTemplateMatcher;
 import tw.tib.financisto.utils.CurrencyCache;
 import tw.tib.financisto.utils.IntegrityFix;
+import tw.tib.financisto.utils.MyPreferences;
 
 public abstract class FullDatabaseImport {
 
@@ -43,7 +48,12 @@ public abstract class FullDatabaseImport {
         }
         new IntegrityFix(dbAdapter).fix();
         CurrencyCache.initialize(dbAdapter);
+        dbAdapter.invalidateRatesCache();
+        BudgetSpendEngine.invalidate();
+        CategoryIndex.invalidate();
+        SmsTemplateMatcher.invalidate();
         scheduleAll();
+        MyPreferences.requestReportAggregateCheck(context);
     }
 
     protected abstract void restoreDatabase() throws IOException;
@@ -57,12 +67,13 @@ public abstract class FullDatabaseImport {
     protected List<String> tablesToClean() {
         List<String> list = new ArrayList<>(Arrays.asList(Backup.BACKUP_TABLES));
         list.add("running_balance");
+        list.add(DatabaseHelper.SCHEDULE_INDEX_TABLE);
         return list;
     }
 
     private void scheduleAll() {
         RecurrenceScheduler scheduler = new RecurrenceScheduler(dbAdapter);
-        scheduler.scheduleAll(context);
+        scheduler.rescheduleAll(context);
     }
 
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2012 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package tw.tib.financisto.blotter;
+
+import android.content.Context;
+import android.text.format.DateUtils;
+
+import tw.tib.financisto.db.DatabaseAdapter;
+import tw.tib.financisto.db.DatabaseHelper.BlotterColumns;
+import tw.tib.financisto.model.Currency;
+import tw.tib.financisto.utils.Utils;
+
+/**
+ * Rows of the blotter of a single account, transfers show the other account only
+ */
+public class AccountBlotterRowPresenter extends BlotterRowPresenter {
+
+    private static final int DATE_FLAGS = DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_WEEKDAY
+            | DateUtils.FORMAT_ABBREV_WEEKDAY | DateUtils.FORMAT_SHOW_TIME | DateUtils.FORMAT_ABBREV_MONTH;
+
+    public AccountBlotterRowPresenter(Context context, DatabaseAdapter db) {
+        super(context, db);
+    }
+
+    @Override
+    protected BlotterRowModel present(BlotterRow row) {
+        BlotterRowModel m = newModel(row);
+        long toAccountId = row.getLong(BlotterColumns.to_account_id.ordinal());
+        long fromAmount = row.getLong(BlotterColumns.from_amount.ordinal());
+        String transfer = null;
+        if (toAccountId > 0) {
+            m.top = transferTitle;
+            String toAccount = row.getString(BlotterColumns.to_account_title.ordinal());
+            if (fromAmount > 0) {
+                transfer = toAccount + " \u00BB";
+            } else {
+                transfer = "\u00AB " + toAccount;
+            }
+        } else {
+            m.top = row.getString(BlotterColumns.from_account_title.ordinal());
+            m.whiteTitle = true;
+        }
+
+        long categoryId = row.getLong(BlotterColumns.category_id.ordinal());
+        String payee = row.getString(BlotterColumns.payee.ordinal());
+        String note = row.getString(BlotterColumns.note.ordinal());
+        m.title = generateTitle(toAccountId > 0, payee, transfer, note, getLocationTitle(row),
+                categoryId, getCategoryTitle(row, categoryId));
+
+        Currency c = getCurrency(row, BlotterColumns.from_account_currency_id);
+        m.amount = getAmountText(row, c, fromAmount);
+        m.amountColor = u.getAmountColor(fromAmount);
+        setAmountIcon(m, fromAmount);
+
+        setDate(m, row, DATE_FLAGS, true);
+
+        long balance = row.getLong(BlotterColumns.from_account_balance.ordinal());
+        m.balance = Utils.amountToString(c, balance, false);
+        return m;
+    }
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2012 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package tw.tib.financisto.blotter;
+
+import android.database.Cursor;
+
+import tw.tib.financisto.db.DatabaseHelper.BlotterColumns;
+
+/**
+ * Immutable copy of a blotter row, columns are in the order of {@link BlotterColumns#NORMAL_PROJECTION}.
+ * Numbers are kept as longs and texts as strings, so a row doesn't hold a cursor window.
+ */
+public final class BlotterRow {
+
+    public static final int COLUMN_COUNT = BlotterColumns.values().length;
+
+    private final long[] numbers;
+    private final String[] texts;
+    private final long nulls;
+    private final long stamp;
+
+    private BlotterRow(long[] numbers, String[] texts, long nulls) {
+        this.numbers = numbers;
+        this.texts = texts;
+        this.nulls = nulls;
+        this.stamp = stampOf(numbers, texts, nulls);
+    }
+
+    public static BlotterRow fromCursor(Cursor c) {
+        long[] numbers = new long[COLUMN_COUNT];
+        String[] texts = null;
+        long nulls = 0;
+        for (int i = 0; i < COLUMN_COUNT; i++) {
+            switch (c.getType(i)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    nulls |= 1L << i;
+                    break;
+                case Cursor.FIELD_TYPE_STRING:
+                    if (texts == null) {
+                        texts = new String[COLUMN_COUNT];
+                    }
+                    texts[i] = c.getString(i);
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    numbers[i] = (long) c.getDouble(i);
+                    break;
+                default:
+                    numbers[i] = c.getLong(i);
+                    break;
+            }
+        }
+        return new BlotterRow(numbers, texts, nulls);
+    }
+
+    public long getId() {
+        return numbers[BlotterColumns._id.ordinal()];
+    }
+
+    public long getDateTime() {
+        return numbers[BlotterColumns.datetime.ordinal()];
+    }
+
+    /**
+     * Hash of all the values of the row, it changes when the transaction or anything shown with it
+     * (titles, running balance, status) is updated
+     */
+    public long getStamp() {
+        return stamp;
+    }
+
+    public boolean isNull(int column) {
+        return (nulls & (1L << column)) != 0;
+    }
+
+    public boolean isText(int column) {
+        return texts != null && texts[column] != null;
+    }
+
+    public long getLong(int column) {
+        if (isText(column)) {
+            try {
+                return Long.parseLong(texts[column]);
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        return numbers[column];
+    }
+
+    public String getString(int column) {
+        if (isNull(column)) {
+            return null;
+        }
+        return isText(column) ? texts[column] : String.valueOf(numbers[column]);
+    }
+
+    private static long stampOf(long[] numbers, String[] texts, long nulls) {
+        long h = nulls;
+        for (int i = 0; i < numbers.length; i++) {
+            h = 31 * h + numbers[i];
+            if (texts != null && texts[i] != null) {
+                h = 31 * h + texts[i].hashCode();
+            }
+        }
+        return h;
+    }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2012 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package tw.tib.financisto.blotter;
+
+/**
+ * Everything a blotter list item shows, already formatted.
+ * Filled once by {@link BlotterRowPresenter} and never changed after it is cached.
+ */
+public class BlotterRowModel {
+
+    public static final int ICON_NONE = 0;
+    public static final int ICON_INCOME = 1;
+    public static final int ICON_EXPENSE = 2;
+    public static final int ICON_TRANSFER = 3;
+    public static final int ICON_SPLIT = 4;
+
+    /** bottom line is left as is */
+    public static final int BOTTOM_NONE = 0;
+    /** bottom line is a text in the default color */
+    public static final int BOTTOM_TEXT = 1;
+    /** bottom line is the date, colored as weekend */
+    public static final int BOTTOM_DATE = 2;
+    /** bottom line is the date, colored as weekend or as future when it is after now */
+    public static final int BOTTOM_DATE_OR_FUTURE = 3;
+
+    public final long id;
+    public final long stamp;
+
+    /** transaction to check in mass operations, the parent for splits */
+    public long checkId;
+
+    public CharSequence top;
+    /** null when the project is not shown */
+    public CharSequence project;
+
+    public CharSequence title;
+    public boolean whiteTitle;
+    /** templates show the title in the bottom line and the template name in the center */
+    public boolean titleAtBottom;
+    public CharSequence templateName;
+
+    public CharSequence amount;
+    public int amountColor;
+    public CharSequence balance;
+
+    public int icon;
+    public int iconColor;
+
+    public int status;
+
+    public int bottomStyle;
+    public CharSequence bottom;
+    public long dateTime;
+    public boolean weekend;
+
+    public BlotterRowModel(long id, long stamp) {
+        this.id = id;
+        this.stamp = stamp;
+    }
+
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright (c) 2012 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package tw.tib.financisto.blotter;
+
+import android.content.Context;
+import android.text.format.DateUtils;
+
+import java.util.Calendar;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import tw.tib.financisto.R;
+import tw.tib.financisto.db.DatabaseAdapter;
+import tw.tib.financisto.db.DatabaseHelper.BlotterColumns;
+import tw.tib.financisto.model.CategoryEntity;
+import tw.tib.financisto.model.Currency;
+import tw.tib.financisto.model.TransactionStatus;
+import tw.tib.financisto.recur.Recurrence;
+import tw.tib.financisto.utils.CurrencyCache;
+import tw.tib.financisto.utils.MyPreferences;
+import tw.tib.financisto.utils.TransactionTitleUtils;
+import tw.tib.financisto.utils.Utils;
+
+import static tw.tib.financisto.model.Category.isSplit;
+import static tw.tib.financisto.model.Project.NO_PROJECT_ID;
+
+/**
+ * Formats blotter rows into {@link BlotterRowModel} and keeps the recent ones by transaction id.
+ * <p>
+ * A cached model is used only while the row has the same {@link BlotterRow#getStamp() stamp},
+ * so an edited transaction is formatted again on the next load and all the others are not.
+ * Amounts depend on the currencies too, so a presenter is not reused after a currency has changed.
+ * Texts are built with the given context, which carries the language chosen in the app,
+ * so a presenter is only reused for the same context and locale.
+ * {@link #prepare(BlotterRow[])} is meant to be called in background for every page read,
+ * then binding a list item only copies the model into the views.
+ */
+public class BlotterRowPresenter {
+
+    private static final int MAX_MODELS = 1024;
+
+    private static final int DATE_FLAGS = DateUtils.FORMAT_SHOW_DATE | DateUtils.FORMAT_SHOW_WEEKDAY
+            | DateUtils.FORMAT_ABBREV_WEEKDAY | DateUtils.FORMAT_ABBREV_MONTH;
+
+    protected final Context context;
+    protected final Locale locale;
+    protected final DatabaseAdapter db;
+    protected final Utils u;
+    protected final boolean showProject;
+    protected final boolean colorizeWeekendDate;
+    protected final boolean showTimeOfDay;
+    protected final boolean colorizeItem;
+    protected final String transferTitle;
+    protected final long currencyVersion;
+
+    // guarded by this, formatting helpers are not thread safe
+    private final TransactionTitleUtils transactionTitleUtils;
+    private final StringBuilder sb = new StringBuilder();
+    private final Calendar calendar = Calendar.getInstance();
+
+    // guarded by models
+    private final Map<Long, BlotterRowModel> models = new LinkedHashMap<Long, BlotterRowModel>(MAX_MODELS, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, BlotterRowModel> eldest) {
+            return size() > MAX_MODELS;
+        }
+    };
+    private int hits;
+    private int misses;
+    private int prepared;
+
+    public BlotterRowPresenter(Context context, DatabaseAdapter db) {
+        this.context = context;
+        this.locale = context.getResources().getConfiguration().locale;
+        this.db = db;
+        this.u = new Utils(context);
+        this.showProject = MyPreferences.isShowProjectInBlotter(context);
+        this.colorizeWeekendDate = MyPreferences.isColorizeWeekendDate(context);
+        this.showTimeOfDay = MyPreferences.isBlotterShowTimeOfDay(context);
+        this.colorizeItem = MyPreferences.isColorizeBlotterItem(context);
+        this.transactionTitleUtils = new TransactionTitleUtils(context, colorizeItem);
+        this.transferTitle = context.getString(R.string.transfer);
+        this.currencyVersion = CurrencyCache.getVersion();
+    }
+
+    /**
+     * @return the same presenter if it formats rows the same way as a new one would, a new presenter otherwise
+     */
+    public static BlotterRowPresenter reuse(BlotterRowPresenter presenter, Context context, DatabaseAdapter db, boolean forAccount) {
+        BlotterRowPresenter p = forAccount ? new AccountBlotterRowPresenter(context, db) : new BlotterRowPresenter(context, db);
+        if (presenter != null && presenter.getClass() == p.getClass() && presenter.db == db
+                && presenter.context == context && presenter.sameOptions(p)) {
+            return presenter;
+        }
+        return p;
+    }
+
+    /**
+     * Called on the UI thread for every bound list item
+     */
+    public BlotterRowModel get(BlotterRow row) {
+        BlotterRowModel m = getCached(row);
+        synchronized (models) {
+            if (m != null) {
+                hits++;
+                return m;
+            }
+            misses++;
+        }
+        return presentAndCache(row);
+    }
+
+    /**
+     * Formats the rows which are not cached yet, called in background
+     */
+    public void prepare(BlotterRow[] rows) {
+        for (BlotterRow row : rows) {
+            if (getCached(row) == null) {
+                presentAndCache(row);
+                synchronized (models) {
+                    prepared++;
+                }
+            }
+        }
+    }
+
+    public void invalidate() {
+        synchronized (models) {
+            models.clear();
+        }
+    }
+
+    /**
+     * @return "hits/misses/prepared" since the last call
+     */
+    public String resetStats() {
+        synchronized (models) {
+            String s = hits + "/" + misses + "/" + prepared;
+            hits = misses = prepared = 0;
+            return s;
+        }
+    }
+
+    private BlotterRowModel getCached(BlotterRow row) {
+        synchronized (models) {
+            BlotterRowModel m = models.get(row.getId());
+            return m != null && m.stamp == row.getStamp() ? m : null;
+        }
+    }
+
+    private BlotterRowModel presentAndCache(BlotterRow row) {
+        BlotterRowModel m;
+        synchronized (this) {
+            m = present(row);
+        }
+        synchronized (models) {
+            models.put(m.id, m);
+        }
+        return m;
+    }
+
+    protected boolean sameOptions(BlotterRowPresenter p) {
+        return showProject == p.showProject && colorizeWeekendDate == p.colorizeWeekendDate
+                && showTimeOfDay == p.showTimeOfDay && colorizeItem == p.colorizeItem
+                && currencyVersion == p.currencyVersion && locale.equals(p.locale);
+    }
+
+    protected BlotterRowModel present(BlotterRow row) {
+        BlotterRowModel m = newModel(row);
+        long toAccountId = row.getLong(BlotterColumns.to_account_id.ordinal());
+        int isTemplate = (int) row.getLong(BlotterColumns.is_template.ordinal());
+        m.titleAtBottom = isTemplate == 1;
+        m.whiteTitle = true;
+        long categoryId = row.getLong(BlotterColumns.category_id.ordinal());
+        String category = getCategoryTitle(row, categoryId);
+        String note = row.getString(BlotterColumns.note.ordinal());
+        String fromAccountTitle = row.getString(BlotterColumns.from_account_title.ordinal());
+        Currency fromCurrency = getCurrency(row, BlotterColumns.from_account_currency_id);
+        long fromAmount = row.getLong(BlotterColumns.from_amount.ordinal());
+        long fromBalance = row.getLong(BlotterColumns.from_account_balance.ordinal());
+        if (toAccountId > 0) {
+            m.top = transferTitle;
+            String toAccountTitle = row.getString(BlotterColumns.to_account_title.ordinal());
+            m.title = generateTitle(true, null, u.getTransferTitleText(fromAccountTitle, toAccountTitle), note,
+                    null, categoryId, category);
+
+            Currency toCurrency = getCurrency(row, BlotterColumns.to_account_currency_id);
+            long toAmount = row.getLong(BlotterColumns.to_amount.ordinal());
+            long toBalance = row.getLong(BlotterColumns.to_account_balance.ordinal());
+            m.amount = u.getTransferAmountText(fromCurrency, fromAmount, toCurrency, toAmount);
+            m.amountColor = u.getAmountColor(0);
+            m.balance = u.getTransferBalanceText(fromCurrency, fromBalance, toCurrency, toBalance);
+            m.icon = BlotterRowModel.ICON_TRANSFER;
+            m.iconColor = u.transferColor;
+        } else {
+            m.top = fromAccountTitle;
+            String payee = row.getString(BlotterColumns.payee.ordinal());
+            m.title = generateTitle(false, payee, null, note, getLocationTitle(row), categoryId, category);
+            m.amount = getAmountText(row, fromCurrency, fromAmount);
+            m.amountColor = u.getAmountColor(fromAmount);
+            if (isSplit(categoryId)) {
+                m.icon = BlotterRowModel.ICON_SPLIT;
+                m.iconColor = u.splitColor;
+            } else if (fromAmount == 0) {
+                int categoryType = (int) row.getLong(BlotterColumns.category_type.ordinal());
+                if (categoryType == CategoryEntity.TYPE_INCOME) {
+                    setIncomeIcon(m);
+                } else if (categoryType == CategoryEntity.TYPE_EXPENSE) {
+                    setExpenseIcon(m);
+                }
+            } else {
+                setAmountIcon(m, fromAmount);
+            }
+            m.balance = Utils.amountToString(fromCurrency, fromBalance, false);
+        }
+        if (isTemplate == 1) {
+            m.templateName = row.getString(BlotterColumns.template_name.ordinal());
+        } else {
+            String recurrence = row.getString(BlotterColumns.recurrence.ordinal());
+            if (isTemplate == 2 && recurrence != null) {
+                m.bottomStyle = BlotterRowModel.BOTTOM_TEXT;
+                m.bottom = Recurrence.parse(recurrence).toInfoString(context);
+            } else {
+                int flags = showTimeOfDay ? DATE_FLAGS | DateUtils.FORMAT_SHOW_TIME : DATE_FLAGS;
+                setDate(m, row, flags, isTemplate == 0);
+            }
+        }
+        return m;
+    }
+
+    protected BlotterRowModel newModel(BlotterRow row) {
+        BlotterRowModel m = new BlotterRowModel(row.getId(), row.getStamp());
+        long parentId = row.getLong(BlotterColumns.parent_id.ordinal());
+        m.checkId = parentId > 0 ? parentId : m.id;
+        long projectId = row.getLong(BlotterColumns.project_id.ordinal());
+        if (showProject && projectId != NO_PROJECT_ID) {
+            m.project = row.getString(BlotterColumns.project.ordinal());
+        }
+        m.status = TransactionStatus.valueOf(row.getString(BlotterColumns.status.ordinal())).ordinal();
+        return m;
+    }
+
+    protected CharSequence generateTitle(boolean isTransfer, String payee, String transfer, String note, String location,
+                                         long categoryId, String category) {
+        return transactionTitleUtils.generateTransactionTitle(isTransfer, payee, transfer, note, location, categoryId, category);
+    }
+
+    protected String getAmountText(BlotterRow row, Currency currency, long amount) {
+        long originalCurrencyId = row.getLong(BlotterColumns.original_currency_id.ordinal());
+        if (originalCurrencyId > 0) {
+            Currency originalCurrency = CurrencyCache.getCurrency(db, originalCurrencyId);
+            long originalAmount = row.getLong(BlotterColumns.original_from_amount.ordinal());
+            sb.setLength(0);
+            return Utils.getAmountText(sb, originalCurrency, originalAmount, currency, amount, true);
+        }
+        return Utils.amountToString(currency, amount, true);
+    }
+
+    protected void setDate(BlotterRowModel m, BlotterRow row, int flags, boolean showFuture) {
+        long date = row.getDateTime();
+        m.dateTime = date;
+        m.bottom = DateUtils.formatDateTime(context, date, flags);
+        m.bottomStyle = showFuture ? BlotterRowModel.BOTTOM_DATE_OR_FUTURE : BlotterRowModel.BOTTOM_DATE;
+        if (colorizeWeekendDate) {
+            calendar.setTimeInMillis(date);
+            int dayOfWeek = calendar.get(Calendar.DAY_OF_WEEK);
+            m.weekend = dayOfWeek == Calendar.SUNDAY || dayOfWeek == Calendar.SATURDAY;
+        }
+    }
+
+    protected void setAmountIcon(BlotterRowModel m, long amount) {
+        if (amount > 0) {
+            setIncomeIcon(m);
+        } else if (amount < 0) {
+            setExpenseIcon(m);
+        }
+    }
+
+    private void setIncomeIcon(BlotterRowModel m) {
+        m.icon = BlotterRowModel.ICON_INCOME;
+        m.iconColor = u.positiveColor;
+    }
+
+    private void setExpenseIcon(BlotterRowModel m) {
+        m.icon = BlotterRowModel.ICON_EXPENSE;
+        m.iconColor = u.negativeColor;
+    }
+
+    protected Currency getCurrency(BlotterRow row, BlotterColumns column) {
+        return CurrencyCache.getCurrency(db, row.getLong(column.ordinal()));
+    }
+
+    protected static String getCategoryTitle(BlotterRow row, long categoryId) {
+        String category = "";
+        if (categoryId != 0) {
+            category = row.getString(BlotterColumns.category_title.ordinal());
+        }
+        return category;
+    }
+
+    protected static String getLocationTitle(BlotterRow row) {
+        String location = "";
+        if (row.getLong(BlotterColumns.location_id.ordinal()) > 0) {
+            location = row.getString(BlotterColumns.location.ordinal());
+        }
+        return location;
+    }
+
+}
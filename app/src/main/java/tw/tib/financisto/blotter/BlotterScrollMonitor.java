@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2012 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package tw.tib.financisto.blotter;
+
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.Display;
+import android.widget.AbsListView;
+
+/**
+ * Measures frame times while the blotter is scrolled and logs them together with
+ * the row model hits and misses when the scroll stops.
+ * A miss means a row was formatted on the UI thread while binding.
+ */
+public class BlotterScrollMonitor implements AbsListView.OnScrollListener, Choreographer.FrameCallback {
+
+    private static final String TAG = "BlotterScrollMonitor";
+
+    private static final long DEFAULT_FRAME_NANOS = 16_666_667;
+
+    private BlotterRowPresenter presenter;
+
+    private boolean scrolling;
+    private long frameBudget = DEFAULT_FRAME_NANOS;
+    private long lastFrame;
+    private int frames;
+    private int slowFrames;
+    private long maxFrame;
+    private long totalTime;
+
+    public void setPresenter(BlotterRowPresenter presenter) {
+        this.presenter = presenter;
+    }
+
+    @Override
+    public void onScrollStateChanged(AbsListView view, int scrollState) {
+        if (scrollState != SCROLL_STATE_IDLE) {
+            if (!scrolling) {
+                scrolling = true;
+                Display display = view.getDisplay();
+                frameBudget = display != null && display.getRefreshRate() > 0
+                        ? (long) (1_000_000_000L / display.getRefreshRate()) : DEFAULT_FRAME_NANOS;
+                if (presenter != null) {
+                    presenter.resetStats();
+                }
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        } else if (scrolling) {
+            scrolling = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+            report();
+        }
+    }
+
+    @Override
+    public void onScroll(AbsListView view, int firstVisibleItem, int visibleItemCount, int totalItemCount) {
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!scrolling) {
+            return;
+        }
+        if (lastFrame > 0) {
+            long frame = frameTimeNanos - lastFrame;
+            frames++;
+            totalTime += frame;
+            if (frame > frameBudget) {
+                slowFrames++;
+            }
+            if (frame > maxFrame) {
+                maxFrame = frame;
+            }
+        }
+        lastFrame = frameTimeNanos;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    private void report() {
+        if (frames > 0) {
+            Log.d(TAG, "Scrolled " + frames + " frames, " + slowFrames + " over " + frameBudget / 1000 + "us"
+                    + ", avg " + totalTime / frames / 1000 + "us, max " + maxFrame / 1000 + "us"
+                    + (presenter != null ? ", row models hits/misses/prepared " + presenter.resetStats() : ""));
+        }
+        lastFrame = 0;
+        frames = slowFrames = 0;
+        maxFrame = totalTime = 0;
+    }
+
+}
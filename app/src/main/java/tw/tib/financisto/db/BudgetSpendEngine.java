@@ -0,0 +1,367 @@
+/*
+ * Copyright (c) 2012 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package tw.tib.financisto.db;
+
+import android.database.Cursor;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import tw.tib.financisto.db.DatabaseHelper.BlotterColumns;
+import tw.tib.financisto.model.Budget;
+import tw.tib.financisto.model.Category;
+import tw.tib.financisto.model.MyEntity;
+import tw.tib.financisto.model.Project;
+
+/**
+ * Spent amounts of many budgets from a single scan of the blotter.
+ * <p>
+ * Rows are summed by account, currency, category, project, sign and date bucket, where the buckets
+ * are cut by the start and end dates of all the budgets, so every bucket is either entirely in the
+ * period of a budget or entirely out of it. Every budget then adds up the groups it matches,
+ * the same way {@link Budget#createWhereFilter} would filter the rows.
+ * <p>
+ * Results are cached per budget. A cached amount is used while the budget is defined the same way
+ * and no transaction of its accounts has changed since, see {@link #accountChanged(long)}.
+ */
+public class BudgetSpendEngine {
+
+    private static final String TAG = "BudgetSpendEngine";
+
+    private static final int ACCOUNT = 0;
+    private static final int CURRENCY = 1;
+    private static final int CATEGORY = 2;
+    private static final int CATEGORY_LEFT = 3;
+    private static final int PROJECT = 4;
+    private static final int NEGATIVE = 5;
+    private static final int BUCKET = 6;
+    private static final int SPENT = 7;
+
+    private static final long NULL = Long.MIN_VALUE;
+
+    // all guarded by CACHE
+    private static final Map<Long, CachedSpend> CACHE = new HashMap<>();
+    private static final TLongObjectHashMap<Long> ACCOUNT_VERSIONS = new TLongObjectHashMap<>();
+    private static long counter;
+    private static long anyAccountVersion;
+    private static long globalVersion;
+
+    private final DatabaseAdapter db;
+
+    public BudgetSpendEngine(DatabaseAdapter db) {
+        this.db = db;
+    }
+
+    /**
+     * Called for every account of a transaction which is inserted, updated or deleted
+     */
+    public static void accountChanged(long accountId) {
+        if (accountId <= 0) {
+            return;
+        }
+        synchronized (CACHE) {
+            anyAccountVersion = ++counter;
+            ACCOUNT_VERSIONS.put(accountId, anyAccountVersion);
+        }
+    }
+
+    /**
+     * Drops all the cached amounts, called after changes made past {@link #accountChanged(long)}:
+     * deleted accounts, categories and projects, purged transactions or a restored database
+     */
+    public static void invalidate() {
+        synchronized (CACHE) {
+            globalVersion = ++counter;
+            CACHE.clear();
+        }
+    }
+
+    /**
+     * @return spent amount of every budget in the same order
+     */
+    public long[] fetchSpent(List<Budget> budgets, Map<Long, Category> categories, Map<Long, Project> projects) {
+        long t0 = System.currentTimeMillis();
+        long[] spent = new long[budgets.size()];
+        List<Query> misses = new ArrayList<>();
+        synchronized (CACHE) {
+            for (int i = 0; i < spent.length; i++) {
+                Budget b = budgets.get(i);
+                Query q = new Query(i, b, categories, projects, versionOf(b));
+                CachedSpend cached = b.id > 0 ? CACHE.get(b.id) : null;
+                if (cached != null && cached.version == q.version && cached.definition.equals(q.definition)) {
+                    spent[i] = cached.spent;
+                } else {
+                    misses.add(q);
+                }
+            }
+        }
+        if (!misses.isEmpty()) {
+            evaluate(misses);
+            synchronized (CACHE) {
+                for (Query q : misses) {
+                    spent[q.index] = q.spent;
+                    if (q.budgetId > 0) {
+                        CACHE.put(q.budgetId, new CachedSpend(q.definition, q.version, q.spent));
+                    }
+                }
+            }
+        }
+        Log.d(TAG, "Spent of " + budgets.size() + " budget(s), " + misses.size() + " calculated in "
+                + (System.currentTimeMillis() - t0) + "ms");
+        return spent;
+    }
+
+    // guarded by CACHE
+    private static long versionOf(Budget b) {
+        if (b.currency == null && b.account != null) {
+            Long v = ACCOUNT_VERSIONS.get(b.account.id);
+            return Math.max(globalVersion, v != null ? v : 0);
+        }
+        // a budget by currency depends on all accounts
+        return Math.max(globalVersion, anyAccountVersion);
+    }
+
+    private void evaluate(List<Query> queries) {
+        long[] thresholds = thresholdsOf(queries);
+        for (Query q : queries) {
+            q.setBuckets(thresholds);
+        }
+        StringBuilder sql = new StringBuilder("SELECT ")
+                .append(BlotterColumns.from_account_id).append(",")
+                .append(BlotterColumns.from_account_currency_id).append(",")
+                .append(BlotterColumns.category_id).append(",")
+                .append(BlotterColumns.category_left).append(",")
+                .append(BlotterColumns.project_id).append(",")
+                .append(BlotterColumns.from_amount).append("<0 AS negative,");
+        if (thresholds.length == 0) {
+            sql.append("0");
+        } else {
+            for (int i = 0; i < thresholds.length; i++) {
+                if (i > 0) {
+                    sql.append("+");
+                }
+                sql.append("(").append(BlotterColumns.datetime).append(">").append(thresholds[i]).append(")");
+            }
+        }
+        sql.append(" AS bucket, SUM(").append(BlotterColumns.from_amount).append(")")
+                .append(" FROM ").append(DatabaseHelper.V_BLOTTER_FOR_ACCOUNT_WITH_SPLITS);
+        appendPeriod(sql, queries);
+        sql.append(" GROUP BY ")
+                .append(BlotterColumns.from_account_id).append(",")
+                .append(BlotterColumns.from_account_currency_id).append(",")
+                .append(BlotterColumns.category_id).append(",")
+                .append(BlotterColumns.category_left).append(",")
+                .append(BlotterColumns.project_id).append(",negative,bucket");
+        int groups = 0;
+        try (Cursor c = db.db().rawQuery(sql.toString(), null)) {
+            long[] group = new long[SPENT];
+            while (c.moveToNext()) {
+                for (int i = 0; i < group.length; i++) {
+                    group[i] = c.isNull(i) ? NULL : c.getLong(i);
+                }
+                long sum = c.getLong(SPENT);
+                for (Query q : queries) {
+                    if (q.matches(group)) {
+                        q.spent += sum;
+                    }
+                }
+                groups++;
+            }
+        }
+        Log.d(TAG, "Read " + groups + " group(s) for " + queries.size() + " budget(s) in " + thresholds.length + " date cut(s)");
+    }
+
+    /**
+     * Restricts the scan to the union of the periods when every budget has a start or an end date
+     */
+    private static void appendPeriod(StringBuilder sql, List<Query> queries) {
+        long from = Long.MAX_VALUE, to = Long.MIN_VALUE;
+        for (Query q : queries) {
+            from = Math.min(from, q.startDate > 0 ? q.startDate : Long.MIN_VALUE);
+            to = Math.max(to, q.endDate > 0 ? q.endDate : Long.MAX_VALUE);
+        }
+        String datetime = BlotterColumns.datetime.name();
+        if (from != Long.MIN_VALUE && to != Long.MAX_VALUE) {
+            sql.append(" WHERE ").append(datetime).append(">=").append(from)
+                    .append(" AND ").append(datetime).append("<=").append(to);
+        } else if (from != Long.MIN_VALUE) {
+            sql.append(" WHERE ").append(datetime).append(">=").append(from);
+        } else if (to != Long.MAX_VALUE) {
+            sql.append(" WHERE ").append(datetime).append("<=").append(to);
+        }
+    }
+
+    /**
+     * datetime >= start is datetime > start-1, datetime <= end is not datetime > end
+     */
+    private static long[] thresholdsOf(List<Query> queries) {
+        TLongArrayList thresholds = new TLongArrayList();
+        for (Query q : queries) {
+            if (q.startDate > 0) {
+                thresholds.add(q.startDate - 1);
+            }
+            if (q.endDate > 0) {
+                thresholds.add(q.endDate);
+            }
+        }
+        long[] sorted = thresholds.toArray();
+        Arrays.sort(sorted);
+        int n = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (n == 0 || sorted[n - 1] != sorted[i]) {
+                sorted[n++] = sorted[i];
+            }
+        }
+        return Arrays.copyOf(sorted, n);
+    }
+
+    private static class Query {
+
+        final int index;
+        final long budgetId;
+        final String definition;
+        final long version;
+
+        final long currencyId;
+        final long accountId;
+        final long[] categoryIds;
+        final long[] categoryLefts;
+        final long[] categoryRights;
+        final long[] projectIds;
+        final boolean expanded;
+        final boolean includeCredit;
+        final long startDate;
+        final long endDate;
+
+        int firstBucket;
+        int lastBucket;
+        long spent;
+
+        Query(int index, Budget b, Map<Long, Category> categories, Map<Long, Project> projects, long version) {
+            this.index = index;
+            this.budgetId = b.id;
+            this.version = version;
+            this.currencyId = b.currency != null ? b.currency.id : NULL;
+            this.accountId = b.currency == null && b.account != null ? b.account.id : NULL;
+            long[] ids = MyEntity.splitIds(b.categories);
+            if (ids != null && b.includeSubcategories) {
+                TLongArrayList equal = new TLongArrayList();
+                TLongArrayList lefts = new TLongArrayList();
+                TLongArrayList rights = new TLongArrayList();
+                for (long id : ids) {
+                    Category c = categories.get(id);
+                    if (c != null) {
+                        lefts.add(c.left);
+                        rights.add(c.right);
+                    } else {
+                        equal.add(id);
+                    }
+                }
+                this.categoryIds = equal.toArray();
+                this.categoryLefts = lefts.toArray();
+                this.categoryRights = rights.toArray();
+            } else {
+                this.categoryIds = ids != null ? ids : new long[0];
+                this.categoryLefts = new long[0];
+                this.categoryRights = new long[0];
+            }
+            long[] pids = MyEntity.splitIds(b.projects);
+            this.projectIds = pids != null ? pids : new long[0];
+            this.expanded = b.expanded;
+            this.includeCredit = b.includeCredit;
+            this.startDate = b.startDate;
+            this.endDate = b.endDate;
+            this.definition = currencyId + "|" + accountId + "|" + Arrays.toString(categoryIds)
+                    + "|" + Arrays.toString(categoryLefts) + "|" + Arrays.toString(categoryRights)
+                    + "|" + Arrays.toString(projectIds) + "|" + expanded + "|" + includeCredit
+                    + "|" + startDate + "|" + endDate;
+        }
+
+        void setBuckets(long[] thresholds) {
+            firstBucket = startDate > 0 ? Arrays.binarySearch(thresholds, startDate - 1) + 1 : 0;
+            lastBucket = endDate > 0 ? Arrays.binarySearch(thresholds, endDate) : thresholds.length;
+        }
+
+        boolean matches(long[] g) {
+            if (currencyId != NULL && g[CURRENCY] != currencyId) {
+                return false;
+            }
+            if (accountId != NULL && g[ACCOUNT] != accountId) {
+                return false;
+            }
+            if (!includeCredit && g[NEGATIVE] != 1) {
+                return false;
+            }
+            int bucket = (int) g[BUCKET];
+            if (bucket < firstBucket || bucket > lastBucket) {
+                return false;
+            }
+            boolean hasCategories = categoryIds.length > 0 || categoryLefts.length > 0;
+            boolean hasProjects = projectIds.length > 0;
+            if (hasCategories && hasProjects) {
+                return expanded
+                        ? matchesCategory(g) || matchesProject(g)
+                        : matchesCategory(g) && matchesProject(g);
+            } else if (hasCategories) {
+                return matchesCategory(g);
+            } else if (hasProjects) {
+                return matchesProject(g);
+            }
+            return true;
+        }
+
+        private boolean matchesCategory(long[] g) {
+            for (long id : categoryIds) {
+                if (g[CATEGORY] == id) {
+                    return true;
+                }
+            }
+            long left = g[CATEGORY_LEFT];
+            if (left != NULL) {
+                for (int i = 0; i < categoryLefts.length; i++) {
+                    if (left >= categoryLefts[i] && left <= categoryRights[i]) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+
+        private boolean matchesProject(long[] g) {
+            for (long id : projectIds) {
+                if (g[PROJECT] == id) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+    }
+
+    private static class CachedSpend {
+
+        final String definition;
+        final long version;
+        final long spent;
+
+        CachedSpend(String definition, long version, long spent) {
+            this.definition = definition;
+            this.version = version;
+            this.spent = spent;
+        }
+
+    }
+
+}
@@ -48,8 +48,10 @@ public class BudgetsTotalCalculator {
         try {
             Map<Long, Category> categories = MyEntity.asMap(db.getCategoriesList(true));
             Map<Long, Project> projects = MyEntity.asMap(db.getAllProjectsList(true));
-            for (final Budget b : budgets) {
-                final long spent = db.fetchBudgetBalance(categories, projects, b);
+            long[] spentByBudget = new BudgetSpendEngine(db).fetchSpent(budgets, categories, projects);
+            for (int i = 0; i < spentByBudget.length; i++) {
+                final Budget b = budgets.get(i);
+                final long spent = spentByBudget[i];
                 final String categoriesText = getChecked(categories, b.categories);
                 final String projectsText = getChecked(projects, b.projects);
                 b.spent = spent;
@@ -94,14 +96,14 @@ public class BudgetsTotalCalculator {
             BigDecimal balance = BigDecimal.ZERO;
             ExchangeRateProvider rates = db.getLatestRates();
             Currency homeCurrency = db.getHomeCurrency();
-            for (Budget b : budgets) {
-                Currency currency = b.getBudgetCurrency();
-                ExchangeRate r = rates.getRate(currency, homeCurrency);
+            // one rate per currency, not per budget
+            for (Total t : calculateTotals()) {
+                ExchangeRate r = rates.getRate(t.currency, homeCurrency);
                 if (r == ExchangeRate.NA) {
-                    return new Total(homeCurrency, TotalError.lastRateError(currency));
+                    return new Total(homeCurrency, TotalError.lastRateError(t.currency));
                 } else {
-                    amount = amount.add(convert(r, b.spent));
-                    balance = balance.add(convert(r, b.amount+b.spent));
+                    amount = amount.add(convert(r, t.amount));
+                    balance = balance.add(convert(r, t.balance));
                 }
             }
             Total total = new Total(homeCurrency, true);
@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 2012 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package tw.tib.financisto.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import tw.tib.financisto.db.DatabaseHelper.CategoryViewColumns;
+import tw.tib.financisto.model.Category;
+
+/**
+ * Immutable index of all the categories, built from a single scan of the category view.
+ * Categories are kept in the order of their lefts, so the subtree of a category is a contiguous
+ * range found by binary search, and every category knows its parent and its full path.
+ * Callers get new {@link Category} objects, which they are free to change.
+ * <p>
+ * The index is shared by all readers until a category is changed, every change must call {@link #invalidate()}.
+ */
+public final class CategoryIndex {
+
+    private static final String TAG = "CategoryIndex";
+
+    private static final AtomicLong VERSION = new AtomicLong();
+    private static final AtomicLong REBUILDS = new AtomicLong();
+    private static final AtomicReference<CategoryIndex> CURRENT = new AtomicReference<>();
+
+    private final long version;
+    // ordered by left
+    private final Node[] nodes;
+    private final int[] lefts;
+    private final TLongObjectMap<Node> byId;
+
+    private CategoryIndex(long version, Node[] nodes) {
+        this.version = version;
+        this.nodes = nodes;
+        this.lefts = new int[nodes.length];
+        this.byId = new TLongObjectHashMap<>(nodes.length);
+        for (int i = 0; i < nodes.length; i++) {
+            lefts[i] = nodes[i].left;
+            byId.put(nodes[i].id, nodes[i]);
+        }
+    }
+
+    public static void invalidate() {
+        VERSION.incrementAndGet();
+    }
+
+    /**
+     * Invalidates the index only if the last used location or project of the category has changed,
+     * so that saving a transaction doesn't rebuild it every time
+     */
+    public static void lastUsedChanged(long categoryId, long locationId, long projectId) {
+        CategoryIndex index = CURRENT.get();
+        if (index != null && index.version == VERSION.get()) {
+            Node n = index.byId.get(categoryId);
+            if (n == null || (n.lastLocationId == locationId && n.lastProjectId == projectId)) {
+                return;
+            }
+        }
+        invalidate();
+    }
+
+    public static long getRebuilds() {
+        return REBUILDS.get();
+    }
+
+    public static String getStats() {
+        return "version=" + VERSION.get() + ", rebuilds=" + REBUILDS.get();
+    }
+
+    /**
+     * @return the current index, built on first use after a change
+     */
+    static CategoryIndex get(SQLiteDatabase db) {
+        long version = VERSION.get();
+        CategoryIndex index = CURRENT.get();
+        if (index != null && index.version == version) {
+            return index;
+        }
+        index = build(db, version);
+        while (true) {
+            CategoryIndex current = CURRENT.get();
+            if (current != null && current.version > version) {
+                return index;
+            }
+            if (CURRENT.compareAndSet(current, index)) {
+                return index;
+            }
+        }
+    }
+
+    private static CategoryIndex build(SQLiteDatabase db, long version) {
+        long t0 = System.currentTimeMillis();
+        List<Node> nodes = new ArrayList<>();
+        ArrayDeque<Node> ancestors = new ArrayDeque<>();
+        try (Cursor c = db.query(DatabaseHelper.V_CATEGORY, CategoryViewColumns.NORMAL_PROJECTION,
+                null, null, null, null, CategoryViewColumns.left.name())) {
+            while (c.moveToNext()) {
+                int left = c.getInt(CategoryViewColumns.left.ordinal());
+                while (!ancestors.isEmpty() && ancestors.peek().right < left) {
+                    ancestors.pop();
+                }
+                Node node = new Node(c, nodes.size(), ancestors.peek());
+                nodes.add(node);
+                ancestors.push(node);
+            }
+        }
+        REBUILDS.incrementAndGet();
+        Log.d(TAG, "Built index of " + nodes.size() + " categories in " + (System.currentTimeMillis() - t0) + "ms, " + getStats());
+        return new CategoryIndex(version, nodes.toArray(new Node[0]));
+    }
+
+    public Category get(long id) {
+        Node n = byId.get(id);
+        return n != null ? n.toCategory() : null;
+    }
+
+    /**
+     * @return category with the parent set to a category with only the id, like {@link DatabaseAdapter#getCategoryWithParent(long)}
+     */
+    public Category getWithParent(long id) {
+        Node n = byId.get(id);
+        if (n == null) {
+            return null;
+        }
+        Category category = n.toCategory();
+        if (n.parent != null) {
+            category.parent = new Category(n.parent.id);
+        }
+        return category;
+    }
+
+    public Category getByLeft(int left) {
+        int i = Arrays.binarySearch(lefts, left);
+        return i >= 0 ? nodes[i].toCategory() : null;
+    }
+
+    /**
+     * @return the deepest category whose interval contains the given left, like a transaction's category_left
+     */
+    public Category findContaining(int left) {
+        Node n = findContaining(left, left);
+        return n != null ? n.toCategory() : null;
+    }
+
+    /**
+     * @return titles of the categories from the top one down to the one with the given interval, no category excluded
+     */
+    public List<String> getPath(int left, int right) {
+        Node n = findContaining(left, right);
+        if (n == null) {
+            return new ArrayList<>();
+        }
+        List<String> path = new ArrayList<>(n.path.length);
+        Collections.addAll(path, n.path);
+        return path;
+    }
+
+    /**
+     * @return the category and all its ancestors, from the top one down
+     */
+    public List<Category> getAncestors(long id) {
+        List<Category> list = new ArrayList<>();
+        for (Node n = byId.get(id); n != null; n = n.parent) {
+            list.add(n.toCategory());
+        }
+        Collections.reverse(list);
+        return list;
+    }
+
+    /**
+     * @return the category and all its descendants, ordered by left
+     */
+    public List<Category> getSubtree(long id) {
+        Node n = byId.get(id);
+        List<Category> list = new ArrayList<>();
+        if (n != null) {
+            for (int i = n.index; i < nodes.length && nodes[i].left <= n.right; i++) {
+                list.add(nodes[i].toCategory());
+            }
+        }
+        return list;
+    }
+
+    /**
+     * @return all the categories ordered by left, split category included
+     */
+    public List<Category> list() {
+        List<Category> list = new ArrayList<>(nodes.length);
+        for (Node n : nodes) {
+            list.add(n.toCategory());
+        }
+        return list;
+    }
+
+    public List<Category> list(boolean includeNoCategory) {
+        return list(null, includeNoCategory);
+    }
+
+    /**
+     * @return categories ordered by left, except the given one and its descendants
+     */
+    public List<Category> listWithoutSubtree(long id, boolean includeNoCategory) {
+        return list(byId.get(id), includeNoCategory);
+    }
+
+    private List<Category> list(Node excluded, boolean includeNoCategory) {
+        int from = nodes.length;
+        int to = nodes.length;
+        if (excluded != null) {
+            from = excluded.index;
+            to = from;
+            while (to < nodes.length && nodes[to].left <= excluded.right) {
+                to++;
+            }
+        }
+        long minId = includeNoCategory ? Category.NO_CATEGORY_ID : Category.NO_CATEGORY_ID + 1;
+        List<Category> list = new ArrayList<>(nodes.length - (to - from));
+        for (int i = 0; i < nodes.length; i++) {
+            if (i >= from && i < to) {
+                continue;
+            }
+            if (nodes[i].id >= minId) {
+                list.add(nodes[i].toCategory());
+            }
+        }
+        return list;
+    }
+
+    public List<Long> getIdsByLefts(int[] lefts) {
+        int[] sorted = lefts.clone();
+        Arrays.sort(sorted);
+        List<Long> ids = new ArrayList<>(sorted.length);
+        for (int k = 0; k < sorted.length; k++) {
+            if (k > 0 && sorted[k] == sorted[k - 1]) {
+                continue;
+            }
+            int i = Arrays.binarySearch(this.lefts, sorted[k]);
+            if (i >= 0) {
+                ids.add(nodes[i].id);
+            }
+        }
+        return ids;
+    }
+
+    private Node findContaining(int left, int right) {
+        int i = Arrays.binarySearch(lefts, left);
+        if (i < 0) {
+            i = -i - 2;
+        }
+        if (i < 0) {
+            return null;
+        }
+        Node n = nodes[i];
+        while (n != null && n.right < right) {
+            n = n.parent;
+        }
+        return n;
+    }
+
+    private static final class Node {
+
+        final long id;
+        final String title;
+        final int level;
+        final int left;
+        final int right;
+        final int type;
+        final long lastLocationId;
+        final long lastProjectId;
+        final int index;
+        final Node parent;
+        final String[] path;
+
+        Node(Cursor c, int index, Node parent) {
+            this.id = c.getLong(CategoryViewColumns._id.ordinal());
+            this.title = c.getString(CategoryViewColumns.title.ordinal());
+            this.level = c.getInt(CategoryViewColumns.level.ordinal());
+            this.left = c.getInt(CategoryViewColumns.left.ordinal());
+            this.right = c.getInt(CategoryViewColumns.right.ordinal());
+            this.type = c.getInt(CategoryViewColumns.type.ordinal());
+            this.lastLocationId = c.getLong(CategoryViewColumns.last_location_id.ordinal());
+            this.lastProjectId = c.getLong(CategoryViewColumns.last_project_id.ordinal());
+            this.index = index;
+            this.parent = parent;
+            String[] parentPath = parent != null ? parent.path : new String[0];
+            if (id > 0) {
+                this.path = Arrays.copyOf(parentPath, parentPath.length + 1);
+                this.path[parentPath.length] = title;
+            } else {
+                this.path = parentPath;
+            }
+        }
+
+        Category toCategory() {
+            Category c = new Category();
+            c.id = id;
+            c.title = title;
+            c.level = level;
+            c.left = left;
+            c.right = right;
+            c.type = type;
+            c.lastLocationId = lastLocationId;
+            c.lastProjectId = lastProjectId;
+            return c;
+        }
+
+    }
+
+}
@@ -26,7 +26,9 @@ import tw.tib.financisto.datetime.DateUtils;
 import tw.tib.financisto.filter.Criteria;
 import tw.tib.financisto.filter.WhereFilter;
 import tw.tib.financisto.model.Currency;
+import tw.tib.financisto.service.SmsTemplateMatcher;
 import tw.tib.financisto.utils.ArrUtils;
+import tw.tib.financisto.utils.CurrencyCache;
 import tw.tib.financisto.utils.MyPreferences;
 import tw.tib.financisto.utils.StringUtil;
 import tw.tib.financisto.model.Account;
@@ -38,12 +40,14 @@ import tw.tib.financisto.model.MyLocation;
 import tw.tib.financisto.model.Payee;
 import tw.tib.financisto.model.Project;
 import tw.tib.financisto.model.RestoredTransaction;
+import tw.tib.financisto.model.ScheduledOccurrence;
 import tw.tib.financisto.model.SmsTemplate;
 import tw.tib.financisto.model.SystemAttribute;
 import tw.tib.financisto.model.Total;
 import tw.tib.financisto.model.TotalError;
 import tw.tib.financisto.model.Transaction;
 import tw.tib.financisto.model.TransactionAttribute;
+import tw.tib.financisto.model.TransactionInfo;
 import tw.tib.financisto.model.TransactionStatus;
 import tw.tib.financisto.rates.ExchangeRate;
 import tw.tib.financisto.rates.ExchangeRateProvider;
@@ -67,6 +71,8 @@ public class DatabaseAdapter extends MyEntityManager {
 
     private boolean updateAccountBalance = true;
 
+    private final RunningBalanceEngine runningBalances = new RunningBalanceEngine();
+    private boolean deferRunningBalances = false;
     public DatabaseAdapter(Context context) {
         super(context);
     }
@@ -99,6 +105,7 @@ public class DatabaseAdapter extends MyEntityManager {
         db.beginTransaction();
         try {
             String[] sid = new String[]{String.valueOf(id)};
+            BudgetSpendEngine.invalidate();
             db.execSQL(UPDATE_ORPHAN_TRANSACTIONS_1, sid);
             db.execSQL(UPDATE_ORPHAN_TRANSACTIONS_2, sid);
             db.delete(DatabaseHelper.TRANSACTION_ATTRIBUTE_TABLE, DatabaseHelper.TransactionAttributeColumns.TRANSACTION_ID
@@ -130,8 +137,17 @@ public class DatabaseAdapter extends MyEntityManager {
     }
 
     public Cursor getBlotter(WhereFilter filter) {
-        String view = filter.isEmpty() ? DatabaseHelper.V_BLOTTER : DatabaseHelper.V_BLOTTER_FLAT_SPLITS;
-        return getBlotter(view, filter);
+        return getBlotter(getBlotterView(filter, false), filter);
+    }
+
+    /**
+     * @param forAccount the blotter of a single account, see {@link #getBlotterForAccount(WhereFilter)}
+     */
+    public static String getBlotterView(WhereFilter filter, boolean forAccount) {
+        if (forAccount) {
+            return DatabaseHelper.V_BLOTTER_FOR_ACCOUNT_WITH_SPLITS;
+        }
+        return filter.isEmpty() ? DatabaseHelper.V_BLOTTER : DatabaseHelper.V_BLOTTER_FLAT_SPLITS;
     }
 
     public Cursor getBlotterWithSplits(WhereFilter filter) {
@@ -140,7 +156,7 @@ public class DatabaseAdapter extends MyEntityManager {
 
     public Cursor getBlotterForAccount(WhereFilter filter) {
         WhereFilter accountFilter = enhanceFilterForAccountBlotter(filter);
-        return getBlotter(DatabaseHelper.V_BLOTTER_FOR_ACCOUNT_WITH_SPLITS, accountFilter);
+        return getBlotter(getBlotterView(accountFilter, true), accountFilter);
     }
 
     public static WhereFilter enhanceFilterForAccountBlotter(WhereFilter filter) {
@@ -166,6 +182,9 @@ public class DatabaseAdapter extends MyEntityManager {
         }
     }
 
+    private static final String BLOTTER_KEYSET_DESC = BlotterFilter.SORT_NEWER_TO_OLDER + "," + BlotterFilter.SORT_NEWER_TO_OLDER_BY_ID;
+    private static final String BLOTTER_KEYSET_ASC = BlotterFilter.SORT_OLDER_TO_NEWER + "," + BlotterFilter.SORT_OLDER_TO_NEWER_BY_ID;
+
     private String getBlotterSortOrder(WhereFilter filter) {
         String sortOrder = filter.getSortOrder();
         if (sortOrder == null || sortOrder.length() == 0) {
@@ -180,6 +199,49 @@ public class DatabaseAdapter extends MyEntityManager {
         return sortOrder;
     }
 
+    /**
+     * @return true if the blotter is ordered by datetime and _id only, so it can be read in keyset pages
+     */
+    public boolean isBlotterKeysetOrdered(WhereFilter filter) {
+        String sortOrder = getBlotterSortOrder(filter);
+        return BLOTTER_KEYSET_DESC.equals(sortOrder) || BLOTTER_KEYSET_ASC.equals(sortOrder);
+    }
+
+    public boolean isBlotterDescending(WhereFilter filter) {
+        return BLOTTER_KEYSET_DESC.equals(getBlotterSortOrder(filter));
+    }
+
+    public int getBlotterCount(String view, WhereFilter filter) {
+        String selection = filter.getSelection();
+        String sql = "SELECT COUNT(*) FROM " + view + (selection.isEmpty() ? "" : " WHERE " + selection);
+        try (Cursor c = db().rawQuery(sql, filter.getSelectionArgs())) {
+            return c.moveToFirst() ? c.getInt(0) : 0;
+        }
+    }
+
+    /**
+     * Reads the blotter page which starts right after the given (datetime, _id) key.
+     * Rows with the same key as the last one read before are skipped by the offset.
+     *
+     * @param after datetime and _id of the last row read before or null for the first page
+     * @param skip  how many rows with exactly that key have already been read
+     */
+    public Cursor getBlotterPage(String view, WhereFilter filter, String[] projection, boolean descending,
+                                 long[] after, int skip, int limit) {
+        String selection = filter.getSelection();
+        String[] selectionArgs = filter.getSelectionArgs();
+        if (after != null) {
+            String op = descending ? "<" : ">";
+            String keyset = "(" + DatabaseHelper.BlotterColumns.datetime + op + "? OR (" + DatabaseHelper.BlotterColumns.datetime + "=? AND "
+                    + DatabaseHelper.BlotterColumns._id + op + "=?))";
+            selection = selection.isEmpty() ? keyset : "(" + selection + ") AND " + keyset;
+            String dt = String.valueOf(after[0]);
+            selectionArgs = ArrUtils.joinArrays(selectionArgs, new String[]{dt, dt, String.valueOf(after[1])});
+        }
+        return db().query(view, projection, selection.isEmpty() ? null : selection, selectionArgs, null, null,
+                descending ? BLOTTER_KEYSET_DESC : BLOTTER_KEYSET_ASC, skip + "," + limit);
+    }
+
     public Cursor getAllTemplates(WhereFilter filter, String sortBy) {
         long t0 = System.currentTimeMillis();
         try {
@@ -230,6 +292,7 @@ public class DatabaseAdapter extends MyEntityManager {
         db.execSQL(PAYEE_LAST_CATEGORY_UPDATE, new Object[]{t.categoryId, t.payeeId});
         db.execSQL(CATEGORY_LAST_LOCATION_UPDATE, new Object[]{t.locationId, t.categoryId});
         db.execSQL(CATEGORY_LAST_PROJECT_UPDATE, new Object[]{t.projectId, t.categoryId});
+        CategoryIndex.lastUsedChanged(t.categoryId, t.locationId, t.projectId);
     }
 
     public long duplicateTransaction(long id) {
@@ -478,6 +541,7 @@ public class DatabaseAdapter extends MyEntityManager {
     private long insertTransaction(Transaction t) {
         t.updatedOn = System.currentTimeMillis();
         long id = db().insert(DatabaseHelper.TRANSACTION_TABLE, null, t.toValues());
+        transactionChanged(t);
         if (updateAccountBalance) {
             if (!t.isTemplateLike()) {
                 if (t.isSplitChild()) {
@@ -509,6 +573,7 @@ public class DatabaseAdapter extends MyEntityManager {
         Transaction oldT = null;
         if (t.isNotTemplateLike()) {
             oldT = getTransaction(t.id);
+            transactionChanged(oldT);
             updateAccountBalance(oldT.fromAccountId, oldT.fromAmount, t.fromAccountId, t.fromAmount);
             updateAccountBalance(oldT.toAccountId, oldT.toAmount, t.toAccountId, t.toAmount);
             updateRunningBalance(oldT, t);
@@ -521,6 +586,7 @@ public class DatabaseAdapter extends MyEntityManager {
         t.updatedOn = System.currentTimeMillis();
         db().update(DatabaseHelper.TRANSACTION_TABLE, t.toValues(), DatabaseHelper.TransactionColumns._id + "=?",
                 new String[]{String.valueOf(t.id)});
+        transactionChanged(t);
         if (oldT != null) {
             updateAccountLastTransactionDate(oldT.fromAccountId);
             updateAccountLastTransactionDate(oldT.toAccountId);
@@ -546,6 +612,7 @@ public class DatabaseAdapter extends MyEntityManager {
 
     public void deleteTransactionNoDbTransaction(long id) {
         Transaction t = getTransaction(id);
+        transactionChanged(t);
         if (t.isNotTemplateLike()) {
             revertFromAccountBalance(t);
             revertToAccountBalance(t);
@@ -560,10 +627,16 @@ public class DatabaseAdapter extends MyEntityManager {
         deleteSplitsForParentTransaction(id);
     }
 
+    private static void transactionChanged(Transaction t) {
+        BudgetSpendEngine.accountChanged(t.fromAccountId);
+        BudgetSpendEngine.accountChanged(t.toAccountId);
+    }
+
     private void deleteSplitsForParentTransaction(long parentId) {
         List<Transaction> splits = getSplitsForTransaction(parentId);
         SQLiteDatabase db = db();
         for (Transaction split : splits) {
+            transactionChanged(split);
             if (split.isTransfer()) {
                 revertToAccountBalance(split);
             }
@@ -618,6 +691,10 @@ public class DatabaseAdapter extends MyEntityManager {
         if (accountId <= 0) {
             return;
         }
+        if (deferRunningBalances) {
+            runningBalances.markDirty(accountId, datetime);
+            return;
+        }
         long previousTransactionBalance = fetchAccountBalanceAtTheTime(accountId, datetime);
         SQLiteDatabase db = db();
         db.execSQL(INSERT_RUNNING_BALANCE, new Object[]{accountId, transactionId, datetime, previousTransactionBalance + amount});
@@ -637,11 +714,41 @@ public class DatabaseAdapter extends MyEntityManager {
         if (accountId <= 0) {
             return;
         }
+        if (deferRunningBalances) {
+            runningBalances.markDirty(accountId, dateTime);
+            return;
+        }
         SQLiteDatabase db = db();
         db.execSQL(DELETE_RUNNING_BALANCE, new Object[]{accountId, transactionId});
         db.execSQL(UPDATE_RUNNING_BALANCE, new Object[]{-amount, accountId, dateTime});
     }
 
+    /**
+     * Starts collecting dirty ranges instead of updating running_balance row by row.
+     * Must be followed by {@link #flushRunningBalances()} in the same db transaction.
+     */
+    public void deferRunningBalances() {
+        deferRunningBalances = true;
+    }
+
+    /**
+     * Recomputes running_balance for the collected dirty ranges and switches back to row by row updates
+     */
+    public void flushRunningBalances() {
+        deferRunningBalances = false;
+        for (long accountId : runningBalances.flush(db())) {
+            updateAccountLastTransactionDate(accountId);
+        }
+    }
+
+    /**
+     * Drops the collected dirty ranges, to be called when the surrounding db transaction is rolled back
+     */
+    public void discardRunningBalances() {
+        deferRunningBalances = false;
+        runningBalances.reset();
+    }
+
     private long fetchAccountBalanceAtTheTime(long accountId, long datetime) {
         return DatabaseUtils.rawFetchLongValue(this, "select balance from running_balance where account_id = ? and datetime <= ? order by datetime desc, transaction_id desc limit 1",
                 new String[]{String.valueOf(accountId), String.valueOf(datetime)});
@@ -668,6 +775,7 @@ public class DatabaseAdapter extends MyEntityManager {
             return id;
         } finally {
             db.endTransaction();
+            CategoryIndex.invalidate();
         }
     }
 
@@ -685,26 +793,18 @@ public class DatabaseAdapter extends MyEntityManager {
     }
 
     private long insertCategory(Category category) {
-        CategoryTree<Category> tree = getCategoriesTree(false);
         long parentId = category.getParentId();
-        if (parentId == Category.NO_CATEGORY_ID) {
-            if (!tree.isEmpty()) {
-                return insertAsLast(category, tree);
-            }
-        } else {
-            Map<Long, Category> map = tree.asMap();
-            Category parent = map.get(parentId);
-            if (parent != null && parent.hasChildren()) {
-                CategoryTree<Category> children = parent.children;
-                return insertAsLast(category, children);
-            }
+        int[] slot = findCategorySlot(parentId, 2);
+        if (slot == null) {
+            renumberCategories(loadCategoriesTree());
+            slot = findCategorySlot(parentId, 2);
         }
-        return insertChildCategory(parentId, category);
-    }
-
-    private long insertAsLast(Category category, CategoryTree<Category> tree) {
-        long mateId = tree.getAt(tree.size() - 1).id;
-        return insertMateCategory(mateId, category);
+        ContentValues values = new ContentValues();
+        values.put(DatabaseHelper.CategoryColumns.title.name(), category.title);
+        values.put(DatabaseHelper.CategoryColumns.left.name(), slot[0]);
+        values.put(DatabaseHelper.CategoryColumns.right.name(), slot[0] + slot[1]);
+        values.put(DatabaseHelper.CategoryColumns.type.name(), getActualCategoryType(parentId, category));
+        return db().insert(DatabaseHelper.CATEGORY_TABLE, null, values);
     }
 
     private long updateCategory(Category category) {
@@ -719,127 +819,176 @@ public class DatabaseAdapter extends MyEntityManager {
     }
 
     private void moveCategory(Category category) {
-        CategoryTree<Category> tree = getCategoriesTree(false);
-        Map<Long, Category> map = tree.asMap();
-        Category oldCategory = map.get(category.id);
-        if (oldCategory != null) {
-            Category oldParent = map.get(oldCategory.getParentId());
-            if (oldParent != null) {
-                oldParent.removeChild(oldCategory);
-            } else {
-                tree.remove(oldCategory);
+        long parentId = category.getParentId();
+        int[] bounds = moveCategorySubtree(category.id, parentId);
+        if (bounds == null) {
+            bounds = moveCategoryInTree(category.id, parentId);
+        }
+        if (bounds != null) {
+            int newCategoryType = getActualCategoryType(parentId, category);
+            updateCategory(category.id, category.title, newCategoryType);
+            updateChildCategoriesType(newCategoryType, bounds[0], bounds[1]);
+            BudgetSpendEngine.invalidate();
+        }
+    }
+
+    /**
+     * Moves the subtree into a gap after the last child of the new parent, renumbering only the subtree
+     *
+     * @return new left and right of the category or null when there is no gap large enough
+     */
+    private int[] moveCategorySubtree(long categoryId, long parentId) {
+        int[] old = getCategoryBounds(categoryId);
+        if (old == null) {
+            return null;
+        }
+        SQLiteDatabase db = db();
+        try (Cursor c = db.query(DatabaseHelper.CATEGORY_TABLE, new String[]{DatabaseHelper.CategoryColumns._id.name(),
+                        DatabaseHelper.CategoryColumns.left.name(), DatabaseHelper.CategoryColumns.right.name()},
+                DatabaseHelper.CategoryColumns.left + " BETWEEN ? AND ?", new String[]{String.valueOf(old[0]), String.valueOf(old[1])},
+                null, null, null)) {
+            int count = c.getCount();
+            int[] slot = findCategorySlot(parentId, 2 * count);
+            if (slot == null) {
+                return null;
             }
-            Category newParent = map.get(category.getParentId());
-            int newCategoryType = category.type;
-            if (newParent != null) {
-                newParent.addChild(oldCategory);
-                newCategoryType = newParent.type;
-            } else {
-                tree.add(oldCategory);
+            int[] bounds = new int[2 * count];
+            int i = 0;
+            while (c.moveToNext()) {
+                bounds[i++] = c.getInt(1);
+                bounds[i++] = c.getInt(2);
             }
-            tree.reIndex();
-            updateCategoryTreeInTransaction(tree);
-            updateCategory(category.id, category.title, newCategoryType);
-            updateChildCategoriesType(newCategoryType, oldCategory.left, oldCategory.right);
+            Arrays.sort(bounds);
+            ContentValues values = new ContentValues();
+            String[] sid = new String[1];
+            c.moveToPosition(-1);
+            while (c.moveToNext()) {
+                values.put(DatabaseHelper.CategoryColumns.left.name(), slot[0] + Arrays.binarySearch(bounds, c.getInt(1)) * slot[1]);
+                values.put(DatabaseHelper.CategoryColumns.right.name(), slot[0] + Arrays.binarySearch(bounds, c.getInt(2)) * slot[1]);
+                sid[0] = String.valueOf(c.getLong(0));
+                db.update(DatabaseHelper.CATEGORY_TABLE, values, WHERE_CATEGORY_ID, sid);
+            }
+            return new int[]{slot[0], slot[0] + (2 * count - 1) * slot[1]};
         }
     }
 
+    /**
+     * Moves the category in the whole tree and renumbers it, when the new parent has no gap for the subtree
+     */
+    private int[] moveCategoryInTree(long categoryId, long parentId) {
+        CategoryTree<Category> tree = loadCategoriesTree();
+        Map<Long, Category> map = tree.asMap();
+        Category oldCategory = map.get(categoryId);
+        if (oldCategory == null) {
+            return null;
+        }
+        Category oldParent = map.get(oldCategory.getParentId());
+        if (oldParent != null) {
+            oldParent.removeChild(oldCategory);
+        } else {
+            tree.remove(oldCategory);
+        }
+        Category newParent = map.get(parentId);
+        if (newParent != null) {
+            newParent.addChild(oldCategory);
+        } else {
+            tree.add(oldCategory);
+        }
+        renumberCategories(tree);
+        return new int[]{oldCategory.left, oldCategory.right};
+    }
 
-    private static final String GET_PARENT_SQL = "(SELECT "
-            + "parent." + DatabaseHelper.CategoryColumns._id + " AS " + DatabaseHelper.CategoryColumns._id
-            + " FROM "
-            + DatabaseHelper.CATEGORY_TABLE + " AS node" + ","
-            + DatabaseHelper.CATEGORY_TABLE + " AS parent "
-            + " WHERE "
-            + " node." + DatabaseHelper.CategoryColumns.left + " BETWEEN parent." + DatabaseHelper.CategoryColumns.left + " AND parent." + DatabaseHelper.CategoryColumns.right
-            + " AND node." + DatabaseHelper.CategoryColumns._id + "=?"
-            + " AND parent." + DatabaseHelper.CategoryColumns._id + "!=?"
-            + " ORDER BY parent." + DatabaseHelper.CategoryColumns.left + " DESC)";
+    private static final String CATEGORY_LAST_RIGHT = "SELECT MAX(" + DatabaseHelper.CategoryColumns.right + ") FROM " + DatabaseHelper.CATEGORY_TABLE
+            + " WHERE " + DatabaseHelper.CategoryColumns.left + ">? AND " + DatabaseHelper.CategoryColumns.right + "<?";
 
-    public Category getCategoryWithParent(long id) {
-        SQLiteDatabase db = db();
-        try (Cursor c = db.query(DatabaseHelper.V_CATEGORY, DatabaseHelper.CategoryViewColumns.NORMAL_PROJECTION,
-                DatabaseHelper.CategoryViewColumns._id + "=?", new String[]{String.valueOf(id)}, null, null, null)) {
-            if (c.moveToNext()) {
-                Category cat = Category.formCursor(c);
-                String s = String.valueOf(id);
-                try (Cursor c2 = db.query(GET_PARENT_SQL, new String[]{DatabaseHelper.CategoryColumns._id.name()}, null, new String[]{s, s}, null, null, null, "1")) {
-                    if (c2.moveToFirst()) {
-                        cat.parent = new Category(c2.getLong(0));
-                    }
-                }
-                return cat;
-            } else {
-                return new Category(-1);
+    /**
+     * Finds free numbers between the last child and the right of the parent, see {@link CategoryTree#findSlot(long, long, int)}
+     *
+     * @param bounds number of lefts and rights to place
+     * @return first left and the distance between the numbers or null when the gap is too small
+     */
+    private int[] findCategorySlot(long parentId, int bounds) {
+        int[] parent = getCategoryBounds(parentId);
+        if (parent == null) {
+            parent = getCategoryBounds(Category.NO_CATEGORY_ID);
+            if (parent == null) {
+                parent = new int[]{NO_CATEGORY_LEFT, NO_CATEGORY_RIGHT};
             }
         }
+        long lastRight = DatabaseUtils.rawFetchLongValue(this, CATEGORY_LAST_RIGHT,
+                new String[]{String.valueOf(parent[0]), String.valueOf(parent[1])});
+        return CategoryTree.findSlot(Math.max(parent[0], lastRight), parent[1], bounds);
     }
 
-    public List<String> getFullCategoryPath(Category category) {
-        LinkedList<String> result = new LinkedList<>();
-        SQLiteDatabase db = db();
-        try (Cursor c = db.query(DatabaseHelper.V_CATEGORY, new String[]{"title"},
-                "left <= ? AND right >= ? AND _id > 0",
-                new String[]{String.valueOf(category.left), String.valueOf(category.right)},
-                null, null, "left"))
-        {
-            while (c.moveToNext()) {
-                result.add(c.getString(0));
+    private int[] getCategoryBounds(long categoryId) {
+        try (Cursor c = db().query(DatabaseHelper.CATEGORY_TABLE, new String[]{DatabaseHelper.CategoryColumns.left.name(), DatabaseHelper.CategoryColumns.right.name()},
+                WHERE_CATEGORY_ID, new String[]{String.valueOf(categoryId)}, null, null, null)) {
+            if (c.moveToFirst()) {
+                return new int[]{c.getInt(0), c.getInt(1)};
             }
+            return null;
         }
-        return result;
+    }
+
+
+    public Category getCategoryWithParent(long id) {
+        Category category = getCategoryIndex().getWithParent(id);
+        return category != null ? category : new Category(-1);
+    }
+
+    public List<String> getFullCategoryPath(Category category) {
+        return getCategoryIndex().getPath(category.left, category.right);
     }
 
     public List<Long> getCategoryIdsByLeftIds(List<String> leftIds) {
-        SQLiteDatabase db = db();
-        List<Long> res = new LinkedList<>();
-        try (Cursor c = db.query(DatabaseHelper.V_CATEGORY, new String[]{DatabaseHelper.CategoryViewColumns._id.name()},
-                DatabaseHelper.CategoryViewColumns.left + " IN (" + StringUtil.generateQueryPlaceholders(leftIds.size()) + ")",
-                ArrUtils.strListToArr(leftIds), null, null, null)) {
-            while (c.moveToNext()) {
-                res.add(c.getLong(0));
-            }
+        int[] lefts = new int[leftIds.size()];
+        for (int i = 0; i < lefts.length; i++) {
+            lefts[i] = Integer.parseInt(leftIds.get(i));
         }
-        return res;
+        return getCategoryIndex().getIdsByLefts(lefts);
     }
 
     public Category getCategoryByLeft(long left) {
-        SQLiteDatabase db = db();
-        try (Cursor c = db.query(DatabaseHelper.V_CATEGORY, DatabaseHelper.CategoryViewColumns.NORMAL_PROJECTION,
-                DatabaseHelper.CategoryViewColumns.left + "=?", new String[]{String.valueOf(left)}, null, null, null)) {
-            if (c.moveToNext()) {
-                return Category.formCursor(c);
-            } else {
-                return new Category(-1);
-            }
-        }
+        Category category = getCategoryIndex().getByLeft((int) left);
+        return category != null ? category : new Category(-1);
+    }
+
+    /**
+     * Categories are read from an in-memory index, which is rebuilt after any category change
+     */
+    public CategoryIndex getCategoryIndex() {
+        return CategoryIndex.get(db());
     }
 
     public CategoryTree<Category> getCategoriesTreeWithoutSubTree(long excludingTreeId, boolean includeNoCategory) {
-        try (Cursor c = excludingTreeId > 0
-                ? getCategoriesWithoutSubtree(excludingTreeId, includeNoCategory) : getCategories(includeNoCategory)) {
-            return CategoryTree.createFromCursor(c, Category::formCursor);
-        }
+        CategoryIndex index = getCategoryIndex();
+        return CategoryTree.createFromList(excludingTreeId > 0
+                ? index.listWithoutSubtree(excludingTreeId, includeNoCategory) : index.list(includeNoCategory));
     }
 
     public CategoryTree<Category> getCategoriesTree(boolean includeNoCategory) {
         return getCategoriesTreeWithoutSubTree(-1, includeNoCategory);
     }
 
-    public CategoryTree<Category> getAllCategoriesTree() {
-        try (Cursor c = getAllCategories()) {
+    /**
+     * Reads the tree from the database, bypassing the index, for the changes made in the current transaction
+     */
+    private CategoryTree<Category> loadCategoriesTree() {
+        try (Cursor c = getCategories(false)) {
             return CategoryTree.createFromCursor(c, Category::formCursor);
         }
     }
 
+    public CategoryTree<Category> getAllCategoriesTree() {
+        return CategoryTree.createFromList(getCategoryIndex().list());
+    }
+
     public Map<Long, Category> getAllCategoriesMap() {
         return getAllCategoriesTree().asMap();
     }
 
     public List<Category> getCategoriesList(boolean includeNoCategory) {
-        try (Cursor c = getCategories(includeNoCategory)) {
-            return categoriesAsList(c);
-        }
+        return getCategoryIndex().list(includeNoCategory);
     }
 
     public Cursor getAllCategories() {
@@ -847,19 +996,7 @@ public class DatabaseAdapter extends MyEntityManager {
     }
 
     public List<Category> getAllCategoriesList() {
-        try (Cursor c = getAllCategories()) {
-            return categoriesAsList(c);
-        }
-    }
-
-    private List<Category> categoriesAsList(Cursor c) {
-        List<Category> list = new ArrayList<>();
-
-        while (c.moveToNext()) {
-            Category category = Category.formCursor(c);
-            list.add(category);
-        }
-        return list;
+        return getCategoryIndex().list();
     }
 
     public Cursor getCategories(boolean includeNoCategory) {
@@ -903,39 +1040,7 @@ public class DatabaseAdapter extends MyEntityManager {
     }
 
     public List<Category> getCategoriesWithoutSubtreeAsList(long categoryId) {
-        List<Category> list = new ArrayList<>();
-        try (Cursor c = getCategoriesWithoutSubtree(categoryId, true)) {
-            while (c.moveToNext()) {
-                Category category = Category.formCursor(c);
-                list.add(category);
-            }
-            return list;
-        }
-    }
-
-    private static final String INSERT_CATEGORY_UPDATE_RIGHT = "UPDATE " + DatabaseHelper.CATEGORY_TABLE + " SET " + DatabaseHelper.CategoryColumns.right + "=" + DatabaseHelper.CategoryColumns.right + "+2 WHERE " + DatabaseHelper.CategoryColumns.right + ">?";
-    private static final String INSERT_CATEGORY_UPDATE_LEFT = "UPDATE " + DatabaseHelper.CATEGORY_TABLE + " SET " + DatabaseHelper.CategoryColumns.left + "=" + DatabaseHelper.CategoryColumns.left + "+2 WHERE " + DatabaseHelper.CategoryColumns.left + ">?";
-
-    public long insertChildCategory(long parentId, Category category) {
-        //DECLARE v_leftkey INT UNSIGNED DEFAULT 0;
-        //SELECT l INTO v_leftkey FROM `nset` WHERE `id` = ParentID;
-        //UPDATE `nset` SET `r` = `r` + 2 WHERE `r` > v_leftkey;
-        //UPDATE `nset` SET `l` = `l` + 2 WHERE `l` > v_leftkey;
-        //INSERT INTO `nset` (`name`, `l`, `r`) VALUES (NodeName, v_leftkey + 1, v_leftkey + 2);
-        int type = getActualCategoryType(parentId, category);
-        return insertCategory(DatabaseHelper.CategoryColumns.left.name(), parentId, category.title, type);
-    }
-
-    public long insertMateCategory(long categoryId, Category category) {
-        //DECLARE v_rightkey INT UNSIGNED DEFAULT 0;
-        //SELECT `r` INTO v_rightkey FROM `nset` WHERE `id` = MateID;
-        //UPDATE `	nset` SET `r` = `r` + 2 WHERE `r` > v_rightkey;
-        //UPDATE `nset` SET `l` = `l` + 2 WHERE `l` > v_rightkey;
-        //INSERT `nset` (`name`, `l`, `r`) VALUES (NodeName, v_rightkey + 1, v_rightkey + 2);
-        Category mate = getCategoryWithParent(categoryId);
-        long parentId = mate.getParentId();
-        int type = getActualCategoryType(parentId, category);
-        return insertCategory(DatabaseHelper.CategoryColumns.right.name(), categoryId, category.title, type);
+        return getCategoryIndex().listWithoutSubtree(categoryId, true);
     }
 
     private int getActualCategoryType(long parentId, Category category) {
@@ -947,33 +1052,6 @@ public class DatabaseAdapter extends MyEntityManager {
         return type;
     }
 
-    private long insertCategory(String field, long categoryId, String title, int type) {
-        int num = 0;
-        SQLiteDatabase db = db();
-        Cursor c = db.query(DatabaseHelper.CATEGORY_TABLE, new String[]{field},
-                DatabaseHelper.CategoryColumns._id + "=?", new String[]{String.valueOf(categoryId)}, null, null, null);
-        try {
-            if (c.moveToFirst()) {
-                num = c.getInt(0);
-            }
-        } finally {
-            c.close();
-        }
-        String[] args = new String[]{String.valueOf(num)};
-        db.execSQL(INSERT_CATEGORY_UPDATE_RIGHT, args);
-        db.execSQL(INSERT_CATEGORY_UPDATE_LEFT, args);
-        ContentValues values = new ContentValues();
-        values.put(DatabaseHelper.CategoryColumns.title.name(), title);
-        int left = num + 1;
-        int right = num + 2;
-        values.put(DatabaseHelper.CategoryColumns.left.name(), left);
-        values.put(DatabaseHelper.CategoryColumns.right.name(), right);
-        values.put(DatabaseHelper.CategoryColumns.type.name(), type);
-        long id = db.insert(DatabaseHelper.CATEGORY_TABLE, null, values);
-        updateChildCategoriesType(type, left, right);
-        return id;
-    }
-
     private static final String CATEGORY_UPDATE_CHILDREN_TYPES = "UPDATE " + DatabaseHelper.CATEGORY_TABLE + " SET " + DatabaseHelper.CategoryColumns.type + "=? WHERE " + DatabaseHelper.CategoryColumns.left + ">? AND " + DatabaseHelper.CategoryColumns.right + "<?";
 
     private void updateChildCategoriesType(int type, int left, int right) {
@@ -985,29 +1063,10 @@ public class DatabaseAdapter extends MyEntityManager {
             + DatabaseHelper.TransactionColumns.category_id + " IN ("
             + "SELECT " + DatabaseHelper.CategoryColumns._id + " FROM " + DatabaseHelper.CATEGORY_TABLE + " WHERE "
             + DatabaseHelper.CategoryColumns.left + " BETWEEN ? AND ?)";
-    private static final String DELETE_CATEGORY_UPDATE2 = "UPDATE " + DatabaseHelper.CATEGORY_TABLE
-            + " SET " + DatabaseHelper.CategoryColumns.left + "=(CASE WHEN " + DatabaseHelper.CategoryColumns.left + ">%s THEN "
-            + DatabaseHelper.CategoryColumns.left + "-%s ELSE " + DatabaseHelper.CategoryColumns.left + " END),"
-            + DatabaseHelper.CategoryColumns.right + "=" + DatabaseHelper.CategoryColumns.right + "-%s"
-            + " WHERE " + DatabaseHelper.CategoryColumns.right + ">%s";
-
+    /**
+     * Deletes the category with its subtree, the numbers of the others are kept and the subtree leaves a gap
+     */
     public void deleteCategory(long categoryId) {
-        //DECLARE v_leftkey, v_rightkey, v_width INT DEFAULT 0;
-        //
-        //SELECT
-        //	`l`, `r`, `r` - `l` + 1 INTO v_leftkey, v_rightkey, v_width
-        //FROM `nset`
-        //WHERE
-        //	`id` = NodeID;
-        //
-        //DELETE FROM `nset` WHERE `l` BETWEEN v_leftkey AND v_rightkey;
-        //
-        //UPDATE `nset`
-        //SET
-        //	`l` = IF(`l` > v_leftkey, `l` - v_width, `l`),
-        //	`r` = `r` - v_width
-        //WHERE
-        //	`r` > v_rightkey;
         SQLiteDatabase db = db();
         int left = 0, right = 0;
         Cursor c = db.query(DatabaseHelper.CATEGORY_TABLE, new String[]{DatabaseHelper.CategoryColumns.left.name(), DatabaseHelper.CategoryColumns.right.name()},
@@ -1022,14 +1081,14 @@ public class DatabaseAdapter extends MyEntityManager {
         }
         db.beginTransaction();
         try {
-            int width = right - left + 1;
             String[] args = new String[]{String.valueOf(left), String.valueOf(right)};
             db.execSQL(DELETE_CATEGORY_UPDATE1, args);
+            BudgetSpendEngine.invalidate();
             db.delete(DatabaseHelper.CATEGORY_TABLE, DatabaseHelper.CategoryColumns.left + " BETWEEN ? AND ?", args);
-            db.execSQL(String.format(DELETE_CATEGORY_UPDATE2, left, width, width, right));
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
+            CategoryIndex.invalidate();
         }
     }
 
@@ -1042,8 +1101,28 @@ public class DatabaseAdapter extends MyEntityManager {
 
     public void insertCategoryTreeInTransaction(CategoryTree<Category> tree) {
         db().delete("category", "_id > 0", null);
+        BudgetSpendEngine.invalidate();
         insertCategoryInTransaction(tree);
-        updateCategoryTreeInTransaction(tree);
+        renumberCategories(tree);
+        CategoryIndex.invalidate();
+    }
+
+    /**
+     * Inserts new categories with their ids as the last children of their parents,
+     * without touching the existing ones. Parents must go before their children.
+     */
+    public void insertCategoriesInTransaction(List<Category> categories) {
+        for (Category category : categories) {
+            int[] slot = findCategorySlot(category.getParentId(), 2);
+            if (slot == null) {
+                renumberCategories(loadCategoriesTree());
+                slot = findCategorySlot(category.getParentId(), 2);
+            }
+            category.left = slot[0];
+            category.right = slot[0] + slot[1];
+            reInsertEntity(category);
+        }
+        CategoryIndex.invalidate();
     }
 
     private void insertCategoryInTransaction(CategoryTree<Category> tree) {
@@ -1063,14 +1142,32 @@ public class DatabaseAdapter extends MyEntityManager {
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
+            CategoryIndex.invalidate();
         }
     }
 
     private static final String WHERE_CATEGORY_ID = DatabaseHelper.CategoryColumns._id + "=?";
 
+    // no category spans all the others, must match 20261017_1500_spread_category_numbers.sql
+    private static final int NO_CATEGORY_LEFT = CategoryTree.GAP;
+    private static final int NO_CATEGORY_RIGHT = Integer.MAX_VALUE / 2;
+
+    /**
+     * Renumbers all the categories with gaps between them, the fallback when a gap is used up
+     */
+    private void renumberCategories(CategoryTree<Category> tree) {
+        long t0 = System.currentTimeMillis();
+        tree.reIndexWithGaps(NO_CATEGORY_LEFT + CategoryTree.GAP, NO_CATEGORY_RIGHT - CategoryTree.GAP);
+        updateCategoryTreeInTransaction(tree);
+        ContentValues values = new ContentValues();
+        values.put(DatabaseHelper.CategoryColumns.left.name(), NO_CATEGORY_LEFT);
+        values.put(DatabaseHelper.CategoryColumns.right.name(), NO_CATEGORY_RIGHT);
+        db().update(DatabaseHelper.CATEGORY_TABLE, values, WHERE_CATEGORY_ID, new String[]{String.valueOf(Category.NO_CATEGORY_ID)});
+        BudgetSpendEngine.invalidate();
+        Log.i(TAG, "Renumbered categories in " + (System.currentTimeMillis() - t0) + "ms");
+    }
+
     private void updateCategoryTreeInTransaction(CategoryTree<Category> tree) {
-        int left = 1;
-        int right = 2;
         ContentValues values = new ContentValues();
         String[] sid = new String[1];
         for (Category c : tree) {
@@ -1081,17 +1178,7 @@ public class DatabaseAdapter extends MyEntityManager {
             if (c.hasChildren()) {
                 updateCategoryTreeInTransaction(c.children);
             }
-            if (c.left < left) {
-                left = c.left;
-            }
-            if (c.right > right) {
-                right = c.right;
-            }
         }
-        values.put(DatabaseHelper.CategoryColumns.left.name(), left - 1);
-        values.put(DatabaseHelper.CategoryColumns.right.name(), right + 1);
-        sid[0] = String.valueOf(Category.NO_CATEGORY_ID);
-        db().update(DatabaseHelper.CATEGORY_TABLE, values, WHERE_CATEGORY_ID, sid);
     }
 
     // ===================================================================
@@ -1173,6 +1260,22 @@ public class DatabaseAdapter extends MyEntityManager {
         return db().rawQuery(nativeQuery, new String[]{});
     }
 
+    public long saveOrUpdate(SmsTemplate template) {
+        try {
+            return super.saveOrUpdate(template);
+        } finally {
+            SmsTemplateMatcher.invalidate(template.id);
+        }
+    }
+
+    public int deleteSmsTemplate(long id) {
+        try {
+            return delete(SmsTemplate.class, id);
+        } finally {
+            SmsTemplateMatcher.invalidate(id);
+        }
+    }
+
     public long duplicateSmsTemplateBelowOriginal(long id) {
         long newId = duplicate(SmsTemplate.class, id);
         long nextOrderItem = getNextByOrder(SmsTemplate.class, id);
@@ -1406,11 +1509,14 @@ public class DatabaseAdapter extends MyEntityManager {
         SQLiteDatabase db = db();
         db.beginTransaction();
         try {
+            deferRunningBalances();
             for (long id : ids) {
                 deleteTransactionNoDbTransaction(id);
             }
+            flushRunningBalances();
             db.setTransactionSuccessful();
         } finally {
+            discardRunningBalances();
             db.endTransaction();
         }
     }
@@ -1460,6 +1566,7 @@ public class DatabaseAdapter extends MyEntityManager {
         SQLiteDatabase db = db();
         db.beginTransaction();
         try {
+            deferRunningBalances();
             int count = restored.size();
             long[] restoredIds = new long[count];
             HashMap<Long, Transaction> transactions = new HashMap<Long, Transaction>();
@@ -1481,13 +1588,63 @@ public class DatabaseAdapter extends MyEntityManager {
             for (Transaction t : transactions.values()) {
                 db.execSQL(UPDATE_LAST_RECURRENCE, new Object[]{now, t.id});
             }
+            flushRunningBalances();
             db.setTransactionSuccessful();
             return restoredIds;
         } finally {
+            discardRunningBalances();
             db.endTransaction();
         }
     }
 
+    /**
+     * @return scheduled transactions with just id, recurrence and date/time
+     */
+    public ArrayList<TransactionInfo> getAllScheduledTransactionRecurrences() {
+        try (Cursor c = db().rawQuery("SELECT " + DatabaseHelper.TransactionColumns._id + "," + DatabaseHelper.TransactionColumns.recurrence + "," + DatabaseHelper.TransactionColumns.datetime
+                + " FROM " + DatabaseHelper.TRANSACTION_TABLE
+                + " WHERE " + DatabaseHelper.TransactionColumns.is_template + "=2 AND " + DatabaseHelper.TransactionColumns.parent_id + "=0", null)) {
+            ArrayList<TransactionInfo> list = new ArrayList<>(c.getCount());
+            while (c.moveToNext()) {
+                TransactionInfo t = new TransactionInfo();
+                t.id = c.getLong(0);
+                t.recurrence = c.getString(1);
+                t.dateTime = c.getLong(2);
+                list.add(t);
+            }
+            return list;
+        }
+    }
+
+    public Map<Long, ScheduledOccurrence> getScheduleIndex() {
+        try (Cursor c = db().query(DatabaseHelper.SCHEDULE_INDEX_TABLE,
+                new String[]{DatabaseHelper.ScheduleIndexColumns.TRANSACTION_ID, DatabaseHelper.ScheduleIndexColumns.RECURRENCE, DatabaseHelper.ScheduleIndexColumns.NEXT_OCCURRENCE},
+                null, null, null, null, null)) {
+            Map<Long, ScheduledOccurrence> index = new HashMap<>(c.getCount());
+            while (c.moveToNext()) {
+                ScheduledOccurrence o = new ScheduledOccurrence(c.getLong(0), c.getString(1), c.getLong(2));
+                index.put(o.transactionId, o);
+            }
+            return index;
+        }
+    }
+
+    public void saveScheduleIndex(ScheduledOccurrence o) {
+        ContentValues values = new ContentValues();
+        values.put(DatabaseHelper.ScheduleIndexColumns.TRANSACTION_ID, o.transactionId);
+        values.put(DatabaseHelper.ScheduleIndexColumns.RECURRENCE, o.recurrence);
+        values.put(DatabaseHelper.ScheduleIndexColumns.NEXT_OCCURRENCE, o.nextOccurrence);
+        db().insertWithOnConflict(DatabaseHelper.SCHEDULE_INDEX_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    public void deleteScheduleIndex(long transactionId) {
+        db().delete(DatabaseHelper.SCHEDULE_INDEX_TABLE, DatabaseHelper.ScheduleIndexColumns.TRANSACTION_ID + "=?", new String[]{String.valueOf(transactionId)});
+    }
+
+    public void clearScheduleIndex() {
+        db().delete(DatabaseHelper.SCHEDULE_INDEX_TABLE, null, null);
+    }
+
     /**
      * @param accountId
      * @param period
@@ -1546,12 +1703,22 @@ public class DatabaseAdapter extends MyEntityManager {
     }
 
     /**
-     * Re-populates running_balance table for all accounts
+     * Re-populates running_balance table for all accounts.
+     * Normal edits maintain running_balance incrementally, this is a repair tool.
      */
     public void rebuildRunningBalances() {
         List<Account> accounts = getAllAccountsList();
-        for (Account account : accounts) {
-            rebuildRunningBalanceForAccount(account);
+        SQLiteDatabase db = db();
+        db.beginTransaction();
+        try {
+            for (Account account : accounts) {
+                runningBalances.markDirty(account.id, RunningBalanceEngine.FROM_THE_BEGINNING);
+            }
+            flushRunningBalances();
+            db.setTransactionSuccessful();
+        } finally {
+            discardRunningBalances();
+            db.endTransaction();
         }
     }
 
@@ -1564,59 +1731,39 @@ public class DatabaseAdapter extends MyEntityManager {
         SQLiteDatabase db = db();
         db.beginTransaction();
         try {
-            String accountId = String.valueOf(account.getId());
-            db.execSQL("delete from running_balance where account_id=?", new Object[]{accountId});
-            WhereFilter filter = new WhereFilter("");
-            filter.put(Criteria.eq(BlotterFilter.FROM_ACCOUNT_ID, accountId));
-            filter.asc("datetime");
-            filter.asc("_id");
-            Object[] values = new Object[4];
-            values[0] = accountId;
-            try (Cursor c = getBlotterForAccountWithSplits(filter)) {
-                long balance = 0;
-                while (c.moveToNext()) {
-                    long parentId = c.getLong(DatabaseHelper.BlotterColumns.parent_id.ordinal());
-                    int isTransfer = c.getInt(DatabaseHelper.BlotterColumns.is_transfer.ordinal());
-                    if (parentId > 0) {
-                        if (isTransfer >= 0) {
-                            // we only interested in the second part of the transfer-split
-                            // which is marked with is_transfer=-1 (see v_blotter_for_account_with_splits)
-                            continue;
-                        }
-                    }
-                    long fromAccountId = c.getLong(DatabaseHelper.BlotterColumns.from_account_id.ordinal());
-                    long toAccountId = c.getLong(DatabaseHelper.BlotterColumns.to_account_id.ordinal());
-                    if (toAccountId > 0 && toAccountId == fromAccountId) {
-                        // weird bug when a transfer is done from an account to the same account
-                        continue;
-                    }
-                    balance += c.getLong(DatabaseHelper.BlotterColumns.from_amount.ordinal());
-                    values[1] = c.getString(DatabaseHelper.BlotterColumns._id.ordinal());
-                    values[2] = c.getString(DatabaseHelper.BlotterColumns.datetime.ordinal());
-                    values[3] = balance;
-                    db.execSQL("insert into running_balance(account_id,transaction_id,datetime,balance) values (?,?,?,?)", values);
-                }
-            }
-            updateAccountLastTransactionDate(account.id);
+            runningBalances.markDirty(account.id, RunningBalanceEngine.FROM_THE_BEGINNING);
+            flushRunningBalances();
             db.setTransactionSuccessful();
         } finally {
+            discardRunningBalances();
             db.endTransaction();
         }
     }
 
-    private static final String[] SUM_FROM_AMOUNT = new String[]{"sum(from_amount)"};
+    /**
+     * Re-populates report_aggregate table from transactions.
+     * Triggers maintain it on every change, this is a repair tool.
+     */
+    public void rebuildReportAggregate() {
+        ReportAggregate.rebuild(context, db());
+    }
+
+    /**
+     * @return false if report_aggregate has been built in another timezone and must be rebuilt
+     */
+    public boolean isReportAggregateInCurrentZone() {
+        return ReportAggregate.isInCurrentZone(db());
+    }
+
+    /**
+     * @return true if report_aggregate totals don't match transactions
+     */
+    public boolean isReportAggregateBroken() {
+        return ReportAggregate.countMismatches(db()) > 0;
+    }
 
     public long fetchBudgetBalance(Map<Long, Category> categories, Map<Long, Project> projects, Budget b) {
-        WhereFilter filter = Budget.createWhereFilter(b, categories, projects);
-        Cursor c = db().query(DatabaseHelper.V_BLOTTER_FOR_ACCOUNT_WITH_SPLITS, SUM_FROM_AMOUNT, filter.getSelection(), filter.getSelectionArgs(), null, null, null);
-        try {
-            if (c.moveToNext()) {
-                return c.getLong(0);
-            }
-        } finally {
-            c.close();
-        }
-        return 0;
+        return new BudgetSpendEngine(this).fetchSpent(Collections.singletonList(b), categories, projects)[0];
     }
 
     public void recalculateAccountsBalances() {
@@ -1666,6 +1813,7 @@ public class DatabaseAdapter extends MyEntityManager {
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
+            invalidateRatesCache();
         }
     }
 
@@ -1687,6 +1835,7 @@ public class DatabaseAdapter extends MyEntityManager {
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
+            invalidateRatesCache();
         }
     }
 
@@ -1732,8 +1881,21 @@ public class DatabaseAdapter extends MyEntityManager {
         return rates;
     }
 
+    /**
+     * Latest rates are loaded once and shared until rates or currencies are changed
+     */
     public ExchangeRateProvider getLatestRates() {
-        LatestExchangeRates m = new LatestExchangeRates(context);
+        long version = ExchangeRateCache.getVersion();
+        ExchangeRateProvider rates = ExchangeRateCache.getLatestRates(version);
+        if (rates == null) {
+            rates = loadLatestRates();
+            ExchangeRateCache.putLatestRates(version, rates);
+        }
+        return rates;
+    }
+
+    private ExchangeRateProvider loadLatestRates() {
+        LatestExchangeRates m = new LatestExchangeRates(getHomeCurrency());
         try (Cursor c = db().query(DatabaseHelper.V_EXCHANGE_RATE,
                      DatabaseHelper.ExchangeRateColumns.LATEST_RATE_PROJECTION,
                      null, null,
@@ -1742,20 +1904,61 @@ public class DatabaseAdapter extends MyEntityManager {
         {
             fillRatesCollection(m, c);
         }
+        Log.d(TAG, "Loaded latest rates, cache " + ExchangeRateCache.getStats());
         return m;
     }
 
+    /**
+     * All history rates are loaded once and shared until rates or currencies are changed
+     */
     public ExchangeRateProvider getHistoryRates() {
-        HistoryExchangeRates m = new HistoryExchangeRates(context);
+        long version = ExchangeRateCache.getVersion();
+        ExchangeRateProvider rates = ExchangeRateCache.getHistoryRates(version);
+        if (rates == null) {
+            rates = loadHistoryRates();
+            ExchangeRateCache.putHistoryRates(version, rates);
+        }
+        return rates;
+    }
+
+    private ExchangeRateProvider loadHistoryRates() {
+        HistoryExchangeRates m = new HistoryExchangeRates(getHomeCurrency());
         try (Cursor c = db().query(DatabaseHelper.V_EXCHANGE_RATE,
                      DatabaseHelper.ExchangeRateColumns.NORMAL_PROJECTION,
                      null, null, null, null, null))
         {
             fillRatesCollection(m, c);
         }
+        Log.d(TAG, "Loaded history rates, cache " + ExchangeRateCache.getStats());
         return m;
     }
 
+    public void invalidateRatesCache() {
+        ExchangeRateCache.invalidate();
+    }
+
+    @Override
+    public long saveOrUpdate(Currency currency) {
+        try {
+            return super.saveOrUpdate(currency);
+        } finally {
+            // home currency is used for cross rates
+            invalidateRatesCache();
+            // saving the default currency changes the others too
+            CurrencyCache.initialize(this);
+        }
+    }
+
+    @Override
+    public int deleteCurrency(long id) {
+        try {
+            return super.deleteCurrency(id);
+        } finally {
+            invalidateRatesCache();
+            CurrencyCache.initialize(this);
+        }
+    }
+
     private void fillRatesCollection(ExchangeRatesCollection m, Cursor c) {
         try {
             while (c.moveToNext()) {
@@ -1782,6 +1985,7 @@ public class DatabaseAdapter extends MyEntityManager {
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
+            invalidateRatesCache();
         }
     }
 
@@ -1894,9 +2098,11 @@ public class DatabaseAdapter extends MyEntityManager {
                 breakSplitTransactions(account, date);
                 deleteOldTransactions(account, date);
                 insertWithoutUpdatingBalance(newTransaction);
-                db.execSQL(INSERT_RUNNING_BALANCE, new Object[]{account.id, newTransaction.id, newTransaction.dateTime, newTransaction.fromAmount});
+                runningBalances.markDirty(account.id, newTransaction.dateTime);
+                flushRunningBalances();
                 db.setTransactionSuccessful();
             } finally {
+                discardRunningBalances();
                 db.endTransaction();
             }
         }
@@ -1935,6 +2141,7 @@ public class DatabaseAdapter extends MyEntityManager {
         long dayEnd = DateUtils.atDayEnd(date);
         db.delete("transactions", "from_account_id=? and datetime<=? and is_template=0",
                 new String[]{String.valueOf(account.id), String.valueOf(dayEnd)});
+        BudgetSpendEngine.invalidate();
         db.delete("running_balance", "account_id=? and datetime<=?",
                 new String[]{String.valueOf(account.id), String.valueOf(dayEnd)});
     }
@@ -1997,15 +2204,14 @@ public class DatabaseAdapter extends MyEntityManager {
             Log.e(TAG, "Unable to restore system entities", e);
         } finally {
             db.endTransaction();
+            CategoryIndex.invalidate();
         }
     }
 
     private void restoreCategories() {
         reInsertEntity(Category.noCategory());
         reInsertEntity(Category.splitCategory());
-        CategoryTree<Category> tree = getCategoriesTree(false);
-        tree.reIndex();
-        updateCategoryTree(tree);
+        renumberCategories(loadCategoriesTree());
     }
 
     private void restoreAttributes() {
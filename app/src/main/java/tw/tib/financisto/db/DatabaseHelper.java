@@ -49,6 +49,9 @@ public class DatabaseHelper extends DatabaseSchemaEvolution {
     public static final String CCARD_CLOSING_DATE_TABLE = "ccard_closing_date";
     public static final String EXCHANGE_RATES_TABLE = "currency_exchange_rate";
     public static final String DELETE_LOG_TABLE = "delete_log";
+    public static final String REPORT_AGGREGATE_TABLE = "report_aggregate";
+    public static final String REPORT_AGGREGATE_ZONE_TABLE = "report_aggregate_zone";
+    public static final String SCHEDULE_INDEX_TABLE = "schedule_index";
 
     public static final String V_ALL_TRANSACTIONS = "v_all_transactions";
     public static final String V_BLOTTER = "v_blotter";
@@ -65,6 +68,14 @@ public class DatabaseHelper extends DatabaseSchemaEvolution {
     public static final String V_REPORT_LOCATIONS = "v_report_location";
     public static final String V_REPORT_PROJECTS = "v_report_project";
     public static final String V_REPORT_PAYEES = "v_report_payee";
+    public static final String V_LOCAL_ZONE = "v_local_zone";
+    public static final String V_REPORT_AGGREGATE = "v_report_aggregate";
+    public static final String V_REPORT_CATEGORY_AGGREGATE = "v_report_category_aggregate";
+    public static final String V_REPORT_SUB_CATEGORY_AGGREGATE = "v_report_sub_category_aggregate";
+    public static final String V_REPORT_PERIOD_AGGREGATE = "v_report_period_aggregate";
+    public static final String V_REPORT_LOCATIONS_AGGREGATE = "v_report_location_aggregate";
+    public static final String V_REPORT_PROJECTS_AGGREGATE = "v_report_project_aggregate";
+    public static final String V_REPORT_PAYEES_AGGREGATE = "v_report_payee_aggregate";
     public static final String V_EXCHANGE_RATE = "v_exchange_rate";
 
     public static enum TransactionColumns {
@@ -392,4 +403,10 @@ public class DatabaseHelper extends DatabaseSchemaEvolution {
         public static final String DELETED_ON = "deleted_on";
     }
 
+    public static class ScheduleIndexColumns {
+        public static final String TRANSACTION_ID = "transaction_id";
+        public static final String RECURRENCE = "recurrence";
+        public static final String NEXT_OCCURRENCE = "next_occurrence";
+    }
+
 }
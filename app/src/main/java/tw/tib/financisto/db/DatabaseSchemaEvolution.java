@@ -13,6 +13,7 @@ package tw.tib.financisto.db;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.Arrays;
+import java.util.Locale;
 import java.util.Scanner;
 
 import android.content.ContentValues;
@@ -132,8 +133,16 @@ public class DatabaseSchemaEvolution extends SQLiteOpenHelper {
 	
 	private void runScript(SQLiteDatabase db, String script) throws IOException {
 		String[] content = readFile(script).split(";");
+		StringBuilder statement = new StringBuilder();
 		for (String s : content) {
-			String sql = s.trim();
+			statement.append(s);
+			String sql = statement.toString().trim();
+			if (isInsideTriggerBody(sql)) {
+				// trigger body is a list of statements separated by ';'
+				statement.append(";");
+				continue;
+			}
+			statement.setLength(0);
 			if (sql.length() > 1) {
 				try {
 					db.execSQL(sql);
@@ -145,6 +154,11 @@ public class DatabaseSchemaEvolution extends SQLiteOpenHelper {
 		}
 	}
 
+	private static boolean isInsideTriggerBody(String sql) {
+		String s = sql.toLowerCase(Locale.US);
+		return s.startsWith("create trigger") && !s.endsWith(" end");
+	}
+
 	/**
 	 * Sorts array of scripts' names
 	 * @param scripts scripts list
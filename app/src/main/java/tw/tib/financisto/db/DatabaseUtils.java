@@ -10,9 +10,13 @@ package tw.tib.financisto.db;
 
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteStatement;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import tw.tib.financisto.model.MyEntity;
 import tw.tib.financisto.utils.Utils;
 
@@ -22,6 +26,16 @@ import tw.tib.financisto.utils.Utils;
  * Date: 5/28/12 10:11 PM
  */
 public class DatabaseUtils {
+
+    private static final int MAX_STATEMENTS = 16;
+
+    // bind arguments are kept by the statement itself, so every thread compiles its own
+    private static final ThreadLocal<StatementCache> statements = new ThreadLocal<StatementCache>() {
+        @Override
+        protected StatementCache initialValue() {
+            return new StatementCache();
+        }
+    };
     
     public static long rawFetchId(DatabaseAdapter db, String query, String[] selectionArgs) {
         return rawFetchLong(db.db(), query, selectionArgs, -1);
@@ -31,13 +45,20 @@ public class DatabaseUtils {
         return rawFetchLong(db.db(), query, selectionArgs, 0);
     }
 
+    /**
+     * Runs a scalar query through a compiled statement which is reused for the same sql,
+     * so neither the statement nor a cursor window are created per call.
+     */
     public static long rawFetchLong(SQLiteDatabase db, String query, String[] selectionArgs, long defaultValue) {
-        try (Cursor c = db.rawQuery(query, selectionArgs)) {
-            if (c.moveToFirst()) {
-                return c.getLong(0);
-            }
+        SQLiteStatement statement = statements.get().get(db, query);
+        try {
+            statement.bindAllArgsAsStrings(selectionArgs);
+            return statement.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return defaultValue;
+        } finally {
+            statement.clearBindings();
         }
-        return defaultValue;
     }
 
     public static String generateSelectClause(String[] fields, String prefix) {
@@ -64,6 +85,39 @@ public class DatabaseUtils {
         return res;
     }
 
+    private static class StatementCache {
+
+        private final LinkedHashMap<String, SQLiteStatement> cache = new LinkedHashMap<String, SQLiteStatement>(MAX_STATEMENTS, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SQLiteStatement> eldest) {
+                if (size() > MAX_STATEMENTS) {
+                    eldest.getValue().close();
+                    return true;
+                }
+                return false;
+            }
+        };
+
+        private SQLiteDatabase db;
+
+        SQLiteStatement get(SQLiteDatabase db, String query) {
+            if (this.db != db || !db.isOpen()) {
+                for (SQLiteStatement statement : cache.values()) {
+                    statement.close();
+                }
+                cache.clear();
+                this.db = db;
+            }
+            SQLiteStatement statement = cache.get(query);
+            if (statement == null) {
+                statement = db.compileStatement(query);
+                cache.put(query, statement);
+            }
+            return statement;
+        }
+
+    }
+
     public interface EntitySupplier<T> {
         T fromCursor(Cursor c);
     }
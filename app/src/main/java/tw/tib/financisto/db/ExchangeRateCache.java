@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2012 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package tw.tib.financisto.db;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import tw.tib.financisto.model.Currency;
+import tw.tib.financisto.rates.ExchangeRateProvider;
+
+/**
+ * Process-wide cache of the reference data read on every total: the home currency
+ * and the rate providers built by {@link DatabaseAdapter}.
+ * Every change of rates or currencies bumps the version, a cached value
+ * is served only while it has been loaded at the current version.
+ * Values are shared between threads, so they must be thread safe.
+ */
+public class ExchangeRateCache {
+
+    private static final AtomicLong VERSION = new AtomicLong();
+    private static final AtomicLong HITS = new AtomicLong();
+    private static final AtomicLong MISSES = new AtomicLong();
+    private static final AtomicLong REBUILDS = new AtomicLong();
+
+    private static final AtomicReference<Snapshot<Currency>> HOME_CURRENCY = new AtomicReference<>();
+    private static final AtomicReference<Snapshot<ExchangeRateProvider>> LATEST_RATES = new AtomicReference<>();
+    private static final AtomicReference<Snapshot<ExchangeRateProvider>> HISTORY_RATES = new AtomicReference<>();
+
+    private ExchangeRateCache() {
+    }
+
+    public static void invalidate() {
+        VERSION.incrementAndGet();
+    }
+
+    public static long getVersion() {
+        return VERSION.get();
+    }
+
+    public static long getHits() {
+        return HITS.get();
+    }
+
+    public static long getMisses() {
+        return MISSES.get();
+    }
+
+    /**
+     * @return how many times a value has been loaded from the database
+     */
+    public static long getRebuilds() {
+        return REBUILDS.get();
+    }
+
+    public static String getStats() {
+        return "version=" + VERSION.get() + ", hits=" + HITS.get() + ", misses=" + MISSES.get()
+                + ", rebuilds=" + REBUILDS.get();
+    }
+
+    static Currency getHomeCurrency(long version) {
+        return get(HOME_CURRENCY, version);
+    }
+
+    static void putHomeCurrency(long version, Currency homeCurrency) {
+        put(HOME_CURRENCY, version, homeCurrency);
+    }
+
+    static ExchangeRateProvider getLatestRates(long version) {
+        return get(LATEST_RATES, version);
+    }
+
+    static void putLatestRates(long version, ExchangeRateProvider rates) {
+        put(LATEST_RATES, version, rates);
+    }
+
+    static ExchangeRateProvider getHistoryRates(long version) {
+        return get(HISTORY_RATES, version);
+    }
+
+    static void putHistoryRates(long version, ExchangeRateProvider rates) {
+        put(HISTORY_RATES, version, rates);
+    }
+
+    private static <T> T get(AtomicReference<Snapshot<T>> ref, long version) {
+        Snapshot<T> s = ref.get();
+        if (s != null && s.version == version) {
+            HITS.incrementAndGet();
+            return s.value;
+        }
+        MISSES.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * The version must be taken before loading the rates,
+     * so that an invalidation which happens while loading makes them stale right away
+     */
+    private static <T> void put(AtomicReference<Snapshot<T>> ref, long version, T value) {
+        REBUILDS.incrementAndGet();
+        Snapshot<T> s = new Snapshot<>(version, value);
+        while (true) {
+            Snapshot<T> current = ref.get();
+            if (current != null && current.version > version) {
+                return;
+            }
+            if (ref.compareAndSet(current, s)) {
+                return;
+            }
+        }
+    }
+
+    private static class Snapshot<T> {
+
+        final long version;
+        final T value;
+
+        Snapshot(long version, T value) {
+            this.version = version;
+            this.value = value;
+        }
+
+    }
+
+}
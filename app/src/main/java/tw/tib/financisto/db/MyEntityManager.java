@@ -47,6 +47,10 @@ import java.util.*;
 
 public abstract class MyEntityManager extends EntityManager {
 
+	static {
+		EntityMappers.register();
+	}
+
 	protected final Context context;
 
 	public MyEntityManager(Context context) {
@@ -294,7 +298,10 @@ public abstract class MyEntityManager extends EntityManager {
 	}
 
 	public long saveAccount(Account account) {
-		return saveOrUpdate(account);
+		long id = saveOrUpdate(account);
+		// currency or the include-into-totals flag may change what budgets count
+		BudgetSpendEngine.accountChanged(id);
+		return id;
 	}
 
 	public List<Account> getAllAccountsList() {
@@ -533,6 +540,7 @@ public abstract class MyEntityManager extends EntityManager {
 			ContentValues values = new ContentValues();
 			values.put("project_id", 0);
 			db.update("transactions", values, "project_id=?", new String[]{String.valueOf(id)});
+			BudgetSpendEngine.invalidate();
 			db.setTransactionSuccessful();
 		} finally {
 			db.endTransaction();
@@ -661,7 +669,20 @@ public abstract class MyEntityManager extends EntityManager {
 		}
 	}
 
+	/**
+	 * Home currency is loaded once and shared until currencies are changed
+	 */
 	public tw.tib.financisto.model.Currency getHomeCurrency() {
+		long version = ExchangeRateCache.getVersion();
+		tw.tib.financisto.model.Currency homeCurrency = ExchangeRateCache.getHomeCurrency(version);
+		if (homeCurrency == null) {
+			homeCurrency = loadHomeCurrency();
+			ExchangeRateCache.putHomeCurrency(version, homeCurrency);
+		}
+		return homeCurrency;
+	}
+
+	private tw.tib.financisto.model.Currency loadHomeCurrency() {
 		Query<tw.tib.financisto.model.Currency> q = createQuery(tw.tib.financisto.model.Currency.class);
 		q.where(Expressions.eq("isDefault", "1")); //uh-oh
 		tw.tib.financisto.model.Currency homeCurrency = q.uniqueResult();
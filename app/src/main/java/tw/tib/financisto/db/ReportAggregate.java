@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2012 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package tw.tib.financisto.db;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import tw.tib.financisto.blotter.BlotterFilter;
+import tw.tib.financisto.datetime.DateUtils;
+import tw.tib.financisto.filter.Criteria;
+import tw.tib.financisto.filter.WhereFilter;
+
+import static tw.tib.financisto.db.DatabaseHelper.ReportColumns;
+
+/**
+ * Per-day sums of transactions stored in report_aggregate.
+ * The table is maintained by triggers on transactions (see {@link #ALTER_SCRIPT}),
+ * so every write path keeps it up to date without any help from the java code.
+ * Each v_report_* view has a v_report_*_aggregate twin with the same columns,
+ * reports switch to the twin when the filter can be answered with day granularity.
+ * <p>
+ * Days are bucketed in the timezone of the device at the time of the write, the offsets of that timezone
+ * are kept in report_aggregate_zone. When the timezone or its rules change, reports go back to
+ * the original views until the table is rebuilt in the new one.
+ */
+public class ReportAggregate {
+
+    private static final String TAG = "ReportAggregate";
+
+    static final String ALTER_SCRIPT = "20261017_1200_create_report_aggregate.sql";
+
+    private static final String AMOUNT_SIGN = "amount_sign";
+
+    private static final Map<String, String> AGGREGATE_VIEWS = new HashMap<>();
+
+    static {
+        AGGREGATE_VIEWS.put(DatabaseHelper.V_REPORT_CATEGORY, DatabaseHelper.V_REPORT_CATEGORY_AGGREGATE);
+        AGGREGATE_VIEWS.put(DatabaseHelper.V_REPORT_SUB_CATEGORY, DatabaseHelper.V_REPORT_SUB_CATEGORY_AGGREGATE);
+        AGGREGATE_VIEWS.put(DatabaseHelper.V_REPORT_PERIOD, DatabaseHelper.V_REPORT_PERIOD_AGGREGATE);
+        AGGREGATE_VIEWS.put(DatabaseHelper.V_REPORT_LOCATIONS, DatabaseHelper.V_REPORT_LOCATIONS_AGGREGATE);
+        AGGREGATE_VIEWS.put(DatabaseHelper.V_REPORT_PROJECTS, DatabaseHelper.V_REPORT_PROJECTS_AGGREGATE);
+        AGGREGATE_VIEWS.put(DatabaseHelper.V_REPORT_PAYEES, DatabaseHelper.V_REPORT_PAYEES_AGGREGATE);
+    }
+
+    // columns which are present in the aggregate views with the same meaning as in the original ones
+    private static final Set<String> SUPPORTED_COLUMNS = new HashSet<>(Arrays.asList(
+            ReportColumns.ID, BlotterFilter.PARENT_ID,
+            DatabaseHelper.SubCategoryReportColumns.LEFT, DatabaseHelper.SubCategoryReportColumns.RIGHT,
+            BlotterFilter.DATETIME, BlotterFilter.FROM_ACCOUNT_ID, BlotterFilter.FROM_ACCOUNT_CURRENCY_ID,
+            BlotterFilter.ORIGINAL_CURRENCY_ID, BlotterFilter.CATEGORY_ID, BlotterFilter.CATEGORY_LEFT,
+            BlotterFilter.PROJECT_ID, BlotterFilter.PAYEE_ID, BlotterFilter.LOCATION_ID,
+            BlotterFilter.STATUS, ReportColumns.IS_TRANSFER,
+            DatabaseHelper.BlotterColumns.to_account_id.name(), DatabaseHelper.BlotterColumns.category_right.name()));
+
+    private static final Set<String> SUMMED_COLUMNS = new HashSet<>(Arrays.asList(
+            ReportColumns.FROM_AMOUNT, ReportColumns.TO_AMOUNT, ReportColumns.ORIGINAL_FROM_AMOUNT));
+
+    private static final String ACCOUNT_TOTALS_FROM_AGGREGATE =
+            "select account_id, sum(from_amount), sum(transaction_count) from report_aggregate group by account_id";
+
+    private static final String ACCOUNT_TOTALS_FROM_TRANSACTIONS =
+            "select account_id, sum(amount), count(*) from ("
+            + "select from_account_id as account_id, from_amount as amount from transactions where is_template=0 "
+            + "union all "
+            + "select to_account_id as account_id, to_amount as amount from transactions where is_template=0 and to_account_id>0"
+            + ") group by account_id";
+
+    private static final String IS_IN_CURRENT_ZONE =
+            "select count(*) from " + DatabaseHelper.REPORT_AGGREGATE_ZONE_TABLE + " z, " + DatabaseHelper.V_LOCAL_ZONE + " v "
+            + "where z.fingerprint=v.fingerprint";
+
+    private static final String COUNT_MISMATCHES =
+            "select count(*) from ("
+            + "select * from (" + ACCOUNT_TOTALS_FROM_AGGREGATE + " except " + ACCOUNT_TOTALS_FROM_TRANSACTIONS + ") "
+            + "union all "
+            + "select * from (" + ACCOUNT_TOTALS_FROM_TRANSACTIONS + " except " + ACCOUNT_TOTALS_FROM_AGGREGATE + ")"
+            + ")";
+
+    private ReportAggregate() {
+    }
+
+    /**
+     * Queries the aggregate twin of the given report view if the filter allows it, the view itself otherwise.
+     * Amount columns are summed per row of the report, day, currencies and sign,
+     * so the result can be fed to the same code which processes raw rows.
+     */
+    public static Cursor query(SQLiteDatabase db, String view, String[] projection, WhereFilter filter, String orderBy) {
+        String aggregateView = AGGREGATE_VIEWS.get(view);
+        if (aggregateView == null || !canBeUsedFor(filter) || !isInCurrentZone(db)) {
+            Log.d(TAG, "Querying " + view + " directly");
+            return db.query(view, projection, filter.getSelection(), filter.getSelectionArgs(), null, null, orderBy);
+        }
+        List<String> columns = new ArrayList<>(projection.length);
+        List<String> groupBy = new ArrayList<>(projection.length);
+        for (String column : projection) {
+            if (SUMMED_COLUMNS.contains(column)) {
+                columns.add("sum(" + column + ") as " + column);
+            } else if (ReportColumns.IS_TRANSFER.equals(column)) {
+                columns.add("max(" + column + ") as " + column);
+            } else {
+                columns.add(column);
+                groupBy.add(column);
+            }
+        }
+        groupBy.add(AMOUNT_SIGN);
+        return db.query(aggregateView, columns.toArray(new String[0]), filter.getSelection(), filter.getSelectionArgs(),
+                String.join(",", groupBy), null, orderBy);
+    }
+
+    /**
+     * Aggregate keeps one bucket per local day, so the datetime range must cover whole days.
+     * The timezone of the buckets is checked separately by {@link #isInCurrentZone(SQLiteDatabase)}
+     */
+    static boolean canBeUsedFor(WhereFilter filter) {
+        if (!filter.isRestrictedTo(SUPPORTED_COLUMNS)) {
+            return false;
+        }
+        Criteria c = filter.get(BlotterFilter.DATETIME);
+        if (c == null) {
+            return true;
+        }
+        if (c.operation != WhereFilter.Operation.BTW || c.getValues().length != 2) {
+            return false;
+        }
+        long start = c.getLongValue1();
+        long end = c.getLongValue2();
+        return start == DateUtils.atMidnight(start) && end == DateUtils.atDayEnd(end);
+    }
+
+    /**
+     * @return true if the day buckets have been built with the same timezone offsets as the current ones
+     */
+    public static boolean isInCurrentZone(SQLiteDatabase db) {
+        return DatabaseUtils.rawFetchLong(db, IS_IN_CURRENT_ZONE, null, 0) > 0;
+    }
+
+    /**
+     * Re-populates report_aggregate from transactions.
+     * Triggers keep it in sync, this is a repair tool. It also moves the buckets
+     * to the current timezone if it has been changed since the table was built.
+     */
+    public static void rebuild(Context context, SQLiteDatabase db) {
+        long t0 = System.currentTimeMillis();
+        db.beginTransaction();
+        try {
+            db.execSQL("delete from " + DatabaseHelper.REPORT_AGGREGATE_TABLE);
+            new DatabaseSchemaEvolution(context, Database.DATABASE_NAME, null, Database.DATABASE_VERSION)
+                    .runAlterScript(db, ALTER_SCRIPT);
+            db.execSQL("delete from " + DatabaseHelper.REPORT_AGGREGATE_ZONE_TABLE);
+            db.execSQL("insert into " + DatabaseHelper.REPORT_AGGREGATE_ZONE_TABLE + "(fingerprint) "
+                    + "select fingerprint from " + DatabaseHelper.V_LOCAL_ZONE);
+            db.setTransactionSuccessful();
+        } catch (IOException e) {
+            throw new RuntimeException("Unable to rebuild " + DatabaseHelper.REPORT_AGGREGATE_TABLE, e);
+        } finally {
+            db.endTransaction();
+        }
+        Log.i(TAG, "Rebuilt in " + (System.currentTimeMillis() - t0) + "ms");
+    }
+
+    /**
+     * Compares per account totals and counts with the transactions table
+     *
+     * @return number of accounts which totals differ
+     */
+    public static long countMismatches(SQLiteDatabase db) {
+        return DatabaseUtils.rawFetchLong(db, COUNT_MISMATCHES, null, 0);
+    }
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (c) 2012 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package tw.tib.financisto.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maintains running_balance incrementally.
+ * Remembers the earliest affected datetime per account and, on {@link #flush(SQLiteDatabase)},
+ * recomputes only the suffix of the account history starting at that point.
+ * A full rebuild is the same operation starting at {@link Long#MIN_VALUE}.
+ * Not thread safe, every {@link DatabaseAdapter} owns its own instance.
+ */
+public class RunningBalanceEngine {
+
+    private static final String TAG = "RunningBalanceEngine";
+
+    public static final long FROM_THE_BEGINNING = Long.MIN_VALUE;
+
+    private static final String BALANCE_BEFORE =
+            "select balance from running_balance where account_id=? and datetime<? order by datetime desc, transaction_id desc limit 1";
+
+    private static final String DELETE_SUFFIX =
+            "delete from running_balance where account_id=? and datetime>=?";
+
+    private static final String INSERT_RUNNING_BALANCE =
+            "insert or replace into running_balance(account_id,transaction_id,datetime,balance) values (?,?,?,?)";
+
+    private static final String SUFFIX_QUERY = "select "
+            + DatabaseHelper.BlotterColumns._id + ","
+            + DatabaseHelper.BlotterColumns.parent_id + ","
+            + DatabaseHelper.BlotterColumns.to_account_id + ","
+            + DatabaseHelper.BlotterColumns.from_amount + ","
+            + DatabaseHelper.BlotterColumns.datetime + ","
+            + DatabaseHelper.BlotterColumns.is_transfer
+            + " from " + DatabaseHelper.V_BLOTTER_FOR_ACCOUNT_WITH_SPLITS
+            + " where " + DatabaseHelper.BlotterColumns.from_account_id + "=? and " + DatabaseHelper.BlotterColumns.datetime + ">=?"
+            + " order by " + DatabaseHelper.BlotterColumns.datetime + " asc, " + DatabaseHelper.BlotterColumns._id + " asc";
+
+    private static final int ID = 0;
+    private static final int PARENT_ID = 1;
+    private static final int TO_ACCOUNT_ID = 2;
+    private static final int FROM_AMOUNT = 3;
+    private static final int DATETIME = 4;
+    private static final int IS_TRANSFER = 5;
+
+    // account id -> earliest affected datetime
+    private final Map<Long, Long> dirty = new HashMap<>();
+
+    public void markDirty(long accountId, long datetime) {
+        if (accountId <= 0) {
+            return;
+        }
+        Long current = dirty.get(accountId);
+        if (current == null || datetime < current) {
+            dirty.put(accountId, datetime);
+        }
+    }
+
+    public boolean isDirty() {
+        return !dirty.isEmpty();
+    }
+
+    public void reset() {
+        dirty.clear();
+    }
+
+    /**
+     * Recomputes running_balance for every dirty account from its earliest affected datetime
+     *
+     * @return ids of the accounts which have been recalculated
+     */
+    public long[] flush(SQLiteDatabase db) {
+        long[] accounts = new long[dirty.size()];
+        if (accounts.length == 0) {
+            return accounts;
+        }
+        long t0 = System.currentTimeMillis();
+        int rows = 0;
+        db.beginTransaction();
+        try (SQLiteStatement insert = db.compileStatement(INSERT_RUNNING_BALANCE)) {
+            int i = 0;
+            for (Map.Entry<Long, Long> e : dirty.entrySet()) {
+                long accountId = e.getKey();
+                rows += recalculate(db, insert, accountId, e.getValue());
+                accounts[i++] = accountId;
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+            dirty.clear();
+        }
+        Log.i(TAG, "Recalculated " + rows + " rows for " + accounts.length + " account(s) in " + (System.currentTimeMillis() - t0) + "ms");
+        return accounts;
+    }
+
+    private int recalculate(SQLiteDatabase db, SQLiteStatement insert, long accountId, long fromDatetime) {
+        String[] args = new String[]{String.valueOf(accountId), String.valueOf(fromDatetime)};
+        long balance = DatabaseUtils.rawFetchLong(db, BALANCE_BEFORE, args, 0);
+        db.execSQL(DELETE_SUFFIX, args);
+        int rows = 0;
+        try (Cursor c = db.rawQuery(SUFFIX_QUERY, args)) {
+            while (c.moveToNext()) {
+                long parentId = c.getLong(PARENT_ID);
+                int isTransfer = c.getInt(IS_TRANSFER);
+                if (parentId > 0 && isTransfer >= 0) {
+                    // we only interested in the second part of the transfer-split
+                    // which is marked with is_transfer=-1 (see v_blotter_for_account_with_splits)
+                    continue;
+                }
+                long toAccountId = c.getLong(TO_ACCOUNT_ID);
+                if (toAccountId > 0 && toAccountId == accountId) {
+                    // weird bug when a transfer is done from an account to the same account
+                    continue;
+                }
+                balance += c.getLong(FROM_AMOUNT);
+                insert.bindLong(1, accountId);
+                insert.bindLong(2, c.getLong(ID));
+                insert.bindLong(3, c.getLong(DATETIME));
+                insert.bindLong(4, balance);
+                insert.executeInsert();
+                rows++;
+            }
+        }
+        return rows;
+    }
+
+}
@@ -25,9 +25,16 @@ import tw.tib.financisto.model.TransactionInfo;
 import tw.tib.financisto.rates.ExchangeRate;
 import tw.tib.financisto.rates.ExchangeRateProvider;
 import tw.tib.financisto.rates.ExchangeRatesCollection;
+import tw.tib.financisto.rates.HistoricalRatesProvider;
+import tw.tib.financisto.rates.HistoryExchangeRates;
+import tw.tib.financisto.rates.RateGapPlanner;
 import tw.tib.financisto.utils.CurrencyCache;
 import tw.tib.financisto.utils.MyPreferences;
 
+import gnu.trove.iterator.TLongObjectIterator;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -136,11 +143,12 @@ public class TransactionsTotalCalculator {
 
     private static long calculateTotalFromCursor(DatabaseAdapter db, Cursor c, Currency toCurrency) throws UnableToCalculateRateException {
         ExchangeRateProvider rates = db.getLatestRates();
-        BigDecimal balance = BigDecimal.ZERO;
+        backfillRates(db, c, toCurrency, rates, 0);
+        ConvertedTotal total = new ConvertedTotal(db, toCurrency, rates);
         while (c.moveToNext()) {
-            balance = balance.add(getAmountFromCursor(db, c, toCurrency, rates, 0));
+            total.add(c.getLong(0), c.getLong(1), c.getLong(2), c.getLong(3), c.getLong(4), c.getLong(5), c.getLong(6));
         }
-        return balance.longValue();
+        return total.getBalance();
     }
 
     public static Total calculateTotalFromListInHomeCurrency(DatabaseAdapter db, List<TransactionInfo> list) {
@@ -155,17 +163,84 @@ public class TransactionsTotalCalculator {
 
     public static long[] calculateTotalFromList(DatabaseAdapter db, List<TransactionInfo> list, Currency toCurrency) throws UnableToCalculateRateException {
         ExchangeRateProvider rates = db.getLatestRates();
-        BigDecimal income = BigDecimal.ZERO;
-        BigDecimal expenses = BigDecimal.ZERO;
+        backfillRates(db, list, toCurrency, rates);
+        ConvertedTotal total = new ConvertedTotal(db, toCurrency, rates);
         for (TransactionInfo t : list) {
-            BigDecimal amount = getAmountFromTransaction(db, t, toCurrency, rates);
-            if (amount.signum() > 0) {
-                income = income.add(amount);
-            } else {
-                expenses = expenses.add(amount);
+            total.add(t.dateTime, t.fromAccount.currency.id, t.fromAmount,
+                    t.toAccount != null ? t.toAccount.currency.id : 0, t.toAmount,
+                    t.originalCurrency != null ? t.originalCurrency.id : 0, t.originalFromAmount);
+        }
+        return new long[]{total.getIncome(), total.getExpenses()};
+    }
+
+    /**
+     * Downloads in one batch the rates missing to convert the rows of the cursor,
+     * so that the conversion doesn't go online for every row. The cursor is rewound.
+     */
+    public static void backfillRates(DatabaseAdapter db, Cursor c, Currency toCurrency, ExchangeRateProvider rates, int index) {
+        if (!(rates instanceof ExchangeRatesCollection)) {
+            return;
+        }
+        RateGapPlanner planner = new RateGapPlanner(toCurrency, rates instanceof HistoryExchangeRates);
+        while (c.moveToNext()) {
+            addGap(db, planner, toCurrency, rates, c.getLong(index), c.getLong(index + 1),
+                    c.getLong(index + 3), c.getLong(index + 5));
+        }
+        c.moveToPosition(-1);
+        backfill(db, planner, (ExchangeRatesCollection) rates);
+    }
+
+    public static void backfillRates(DatabaseAdapter db, List<TransactionInfo> list, Currency toCurrency, ExchangeRateProvider rates) {
+        if (!(rates instanceof ExchangeRatesCollection)) {
+            return;
+        }
+        RateGapPlanner planner = new RateGapPlanner(toCurrency, rates instanceof HistoryExchangeRates);
+        for (TransactionInfo t : list) {
+            addGap(db, planner, toCurrency, rates, t.dateTime, t.fromAccount.currency.id,
+                    t.toAccount != null ? t.toAccount.currency.id : 0,
+                    t.originalCurrency != null ? t.originalCurrency.id : 0);
+        }
+        backfill(db, planner, (ExchangeRatesCollection) rates);
+    }
+
+    private static void addGap(MyEntityManager em, RateGapPlanner planner, Currency toCurrency, ExchangeRateProvider rates,
+                               long datetime, long fromCurrencyId, long toCurrencyId, long originalCurrencyId) {
+        if (fromCurrencyId == toCurrency.id
+                || (toCurrencyId > 0 && toCurrencyId == toCurrency.id)
+                || (originalCurrencyId > 0 && originalCurrencyId == toCurrency.id)) {
+            return;
+        }
+        Currency fromCurrency = CurrencyCache.getCurrency(em, fromCurrencyId);
+        if (rates.getRate(fromCurrency, toCurrency, datetime) == ExchangeRate.NA) {
+            planner.add(fromCurrencyId, datetime);
+        }
+    }
+
+    private static void backfill(DatabaseAdapter db, RateGapPlanner planner, ExchangeRatesCollection rates) {
+        if (planner.isEmpty()) {
+            return;
+        }
+        Context context = db.getContext();
+        ExchangeRateProvider onlineProvider = MyPreferences.createExchangeRatesProvider(context);
+        if (!(onlineProvider instanceof HistoricalRatesProvider)) {
+            showError(context, context.getString(R.string.use_exchange_rate_service_with_historical));
+            return;
+        }
+        String error = null;
+        for (ExchangeRate rate : planner.backfill(db, (HistoricalRatesProvider) onlineProvider)) {
+            if (rate.isOk()) {
+                rates.addRate(rate);
+            } else if (error == null) {
+                error = rate.getErrorMessage();
             }
         }
-        return new long[]{income.longValue(),expenses.longValue()};
+        if (error != null) {
+            showError(context, error);
+        }
+    }
+
+    private static void showError(Context context, String message) {
+        new Handler(Looper.getMainLooper()).post(() -> Toast.makeText(context, message, Toast.LENGTH_LONG).show());
     }
 
     public static BigDecimal getAmountFromCursor(MyEntityManager em, Cursor c, Currency toCurrency, ExchangeRateProvider rates, int index) throws UnableToCalculateRateException {
@@ -202,42 +277,22 @@ public class TransactionsTotalCalculator {
         } else if (originalCurrencyId > 0 && originalCurrencyId == toCurrency.id) {
             return BigDecimal.valueOf(originalAmount);
         } else {
-            Currency fromCurrency = CurrencyCache.getCurrency(em, fromCurrencyId);
-            ExchangeRate exchangeRate = rates.getRate(fromCurrency, toCurrency, datetime);
-            if (exchangeRate == ExchangeRate.NA && rates instanceof ExchangeRatesCollection) {
-                // Try to update exchange rate online
-                Log.d(TAG, "try update rate online");
-                Context context = em.getContext();
-                ExchangeRateProvider onlineProvider = MyPreferences.createExchangeRatesProvider(context);
-                Log.d(TAG, onlineProvider.toString());
-                try {
-                    ExchangeRate onlineExchangeRate = onlineProvider.getRate(fromCurrency, toCurrency, datetime);
-                    if (onlineExchangeRate.isOk()) {
-                        // provider may return a rate at later of specified time
-                        // but we need it lesser or equal to specified time to work correctly
-                        onlineExchangeRate.date = datetime;
-                        new DatabaseAdapter(context).saveRate(onlineExchangeRate);
-                        ((ExchangeRatesCollection) rates).addRate(onlineExchangeRate);
-                        exchangeRate = onlineExchangeRate;
-                    }
-                    else {
-                        new Handler(Looper.getMainLooper()).post(() -> Toast.makeText(context,
-                                onlineExchangeRate.getErrorMessage(),
-                                Toast.LENGTH_LONG).show());
-                        throw new UnableToCalculateRateException(fromCurrency, toCurrency, datetime);
-                    }
-                } catch (Exception e) {
-                    new Handler(Looper.getMainLooper()).post(() -> Toast.makeText(context,
-                            R.string.use_exchange_rate_service_with_historical,
-                            Toast.LENGTH_LONG).show());
-                    throw new UnableToCalculateRateException(fromCurrency, toCurrency, datetime);
-                }
-            }
-            double rate = exchangeRate.rate;
+            double rate = getRate(em, toCurrency, rates, datetime, fromCurrencyId);
             return BigDecimal.valueOf(fromAmount).multiply(BigDecimal.valueOf(rate));
         }
     }
 
+    private static double getRate(MyEntityManager em, Currency toCurrency, ExchangeRateProvider rates, long datetime,
+                                  long fromCurrencyId) throws UnableToCalculateRateException {
+        Currency fromCurrency = CurrencyCache.getCurrency(em, fromCurrencyId);
+        ExchangeRate exchangeRate = rates.getRate(fromCurrency, toCurrency, datetime);
+        if (exchangeRate == ExchangeRate.NA && rates instanceof ExchangeRatesCollection) {
+            // missing rates are downloaded up front, see backfillRates
+            throw new UnableToCalculateRateException(fromCurrency, toCurrency, datetime);
+        }
+        return exchangeRate.rate;
+    }
+
     private WhereFilter excludeAccountsNotIncludedInTotalsAndSplits(WhereFilter filter) {
         WhereFilter copy = WhereFilter.copyOf(filter);
         copy.eq("from_account_is_include_into_totals", "1");
@@ -245,4 +300,104 @@ public class TransactionsTotalCalculator {
         return copy;
     }
 
+    /**
+     * Sums amounts converted to a single currency without allocating per row.
+     * Amounts which are already known in the target currency are added up as longs,
+     * the rest is added up as longs per exchange rate and multiplied once per rate.
+     * Since BigDecimal multiplication is exact, the sum of the per rate products equals
+     * the sum of the per row products, so truncating it with longValue() gives exactly
+     * what adding up {@link #getConvertedAmount} results row by row gives.
+     */
+    public static class ConvertedTotal {
+
+        private static final int INCOME = 0;
+        private static final int EXPENSES = 1;
+
+        private final MyEntityManager em;
+        private final Currency toCurrency;
+        private final ExchangeRateProvider rates;
+
+        private final long[] exact = new long[2];
+        // rate bits -> {income, expenses} in the source currencies
+        private final TLongObjectMap<long[]> byRate = new TLongObjectHashMap<>();
+
+        public ConvertedTotal(MyEntityManager em, Currency toCurrency, ExchangeRateProvider rates) {
+            this.em = em;
+            this.toCurrency = toCurrency;
+            this.rates = rates;
+        }
+
+        /**
+         * Same columns as {@link #getAmountFromCursor}
+         */
+        public void add(Cursor c, int index) throws UnableToCalculateRateException {
+            add(c.getLong(index), c.getLong(index + 1), c.getLong(index + 2), c.getLong(index + 3),
+                    c.getLong(index + 4), c.getLong(index + 5), c.getLong(index + 6));
+        }
+
+        public void add(long datetime, long fromCurrencyId, long fromAmount,
+                 long toCurrencyId, long toAmount,
+                 long originalCurrencyId, long originalAmount) throws UnableToCalculateRateException {
+            if (fromCurrencyId == toCurrency.id) {
+                addExact(fromAmount);
+            } else if (toCurrencyId > 0 && toCurrencyId == toCurrency.id) {
+                addExact(-toAmount);
+            } else if (originalCurrencyId > 0 && originalCurrencyId == toCurrency.id) {
+                addExact(originalAmount);
+            } else {
+                double rate = getRate(em, toCurrency, rates, datetime, fromCurrencyId);
+                long key = Double.doubleToLongBits(rate);
+                long[] sums = byRate.get(key);
+                if (sums == null) {
+                    sums = new long[2];
+                    byRate.put(key, sums);
+                }
+                boolean isIncome = (fromAmount > 0 && rate > 0) || (fromAmount < 0 && rate < 0);
+                sums[isIncome ? INCOME : EXPENSES] += fromAmount;
+            }
+        }
+
+        private void addExact(long amount) {
+            exact[amount > 0 ? INCOME : EXPENSES] += amount;
+        }
+
+        long getIncome() {
+            return sum(INCOME).longValue();
+        }
+
+        long getExpenses() {
+            return sum(EXPENSES).longValue();
+        }
+
+        long getBalance() {
+            return sum(INCOME).add(sum(EXPENSES)).longValue();
+        }
+
+        /**
+         * Not truncated, for adding up with other amounts
+         */
+        public BigDecimal getIncomeAmount() {
+            return sum(INCOME);
+        }
+
+        public BigDecimal getExpensesAmount() {
+            return sum(EXPENSES);
+        }
+
+        private BigDecimal sum(int kind) {
+            BigDecimal total = BigDecimal.valueOf(exact[kind]);
+            TLongObjectIterator<long[]> i = byRate.iterator();
+            while (i.hasNext()) {
+                i.advance();
+                long amount = i.value()[kind];
+                if (amount != 0) {
+                    double rate = Double.longBitsToDouble(i.key());
+                    total = total.add(BigDecimal.valueOf(amount).multiply(BigDecimal.valueOf(rate)));
+                }
+            }
+            return total;
+        }
+
+    }
+
 }
@@ -30,7 +30,15 @@ public class BackupImportTask extends ImportExportAsyncTask {
 
     @Override
     protected Object work(Context context, DatabaseAdapter db, Uri... params) throws Exception {
-        DatabaseImport.createFromFileBackup(context, db, params[0]).importDatabase();
+        DatabaseImport databaseImport = DatabaseImport.createFromFileBackup(context, db, params[0]);
+        final String message = context.getString(R.string.restore_database_inprogress);
+        databaseImport.setProgressListener(new ProgressListener() {
+            @Override
+            public void onProgress(int percentage) {
+                publishProgress(message + " " + percentage + "%");
+            }
+        });
+        databaseImport.importDatabase();
         return true;
     }
 
@@ -13,7 +13,9 @@ import tw.tib.financisto.db.DatabaseAdapter;
 import tw.tib.financisto.model.Category;
 import tw.tib.financisto.model.CategoryTree;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
@@ -37,6 +39,8 @@ public class CategoryCache {
 
     public Map<String, Category> categoryNameToCategory = new HashMap<String, Category>();
     public CategoryTree<Category> categoryTree = new CategoryTree<Category>();
+    // parents go before their children
+    private final List<Category> newCategories = new ArrayList<Category>();
     private AtomicLong seq = new AtomicLong(1);
 
     private boolean freshStart = true;
@@ -70,15 +74,17 @@ public class CategoryCache {
             String name = extractCategoryName(category.name);
             insertCategory(name, category.isIncome);
         }
-        if (freshStart) {
-            categoryTree.sortByTitle();
-        } else {
-            categoryTree.reIndex();
-        }
         SQLiteDatabase database = dbAdapter.db();
         database.beginTransaction();
         try {
-            dbAdapter.insertCategoryTreeInTransaction(categoryTree);
+            if (freshStart) {
+                categoryTree.sortByTitle();
+                dbAdapter.insertCategoryTreeInTransaction(categoryTree);
+            } else {
+                // existing categories keep their numbers, new ones go into the gaps
+                dbAdapter.insertCategoriesInTransaction(newCategories);
+            }
+            newCategories.clear();
             database.setTransactionSuccessful();
         } finally {
             database.endTransaction();
@@ -114,6 +120,7 @@ public class CategoryCache {
             c.makeThisCategoryIncome();
         }
         categoryNameToCategory.put(fullName, c);
+        newCategories.add(c);
         return c;
     }
 
@@ -80,7 +80,7 @@ public abstract class Export {
         return outputStream.toByteArray();
     }
 
-    private void generateBackup(OutputStream outputStream) throws Exception {
+    protected void generateBackup(OutputStream outputStream) throws Exception {
         OutputStreamWriter osw = new OutputStreamWriter(outputStream, "UTF-8");
         try (BufferedWriter bw = new BufferedWriter(osw, 65536)) {
             writeHeader(bw);
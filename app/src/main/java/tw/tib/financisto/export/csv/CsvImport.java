@@ -2,17 +2,14 @@ package tw.tib.financisto.export.csv;
 
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
-import android.net.Uri;
 import android.util.Log;
 
 import java.io.FileNotFoundException;
 import java.io.InputStreamReader;
-import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -32,10 +29,15 @@ import tw.tib.financisto.model.Project;
 import tw.tib.financisto.model.Transaction;
 import tw.tib.financisto.model.TransactionAttribute;
 import tw.tib.financisto.model.TransactionStatus;
+import tw.tib.financisto.utils.MyPreferences;
 import tw.tib.financisto.utils.Utils;
 
 public class CsvImport {
 
+    private static final int BATCH_SIZE = 500;
+
+    private static final Set<String> CATEGORY_FIELDS = new HashSet<>(Arrays.asList("category", "parent"));
+
     private final DatabaseAdapter db;
     private final CsvImportOptions options;
     private final Account account;
@@ -55,86 +57,261 @@ public class CsvImport {
         this.noProject = context.getString(R.string.no_project);
     }
 
+    /**
+     * Reads the file twice keeping at most {@link #BATCH_SIZE} rows in memory.
+     * The first pass only reads categories, since the category tree is written at once,
+     * the second one parses all the columns and inserts transactions batch by batch,
+     * adding new payees, projects and currencies as they show up.
+     */
     public Object doImport() throws Exception {
         long t0 = System.currentTimeMillis();
-        List<CsvTransaction> transactions = parseTransactions();
-        long t1 = System.currentTimeMillis();
-        Log.i("Financisto", "Parsing transactions =" + (t1 - t0) + "ms");
-        Map<String, Category> categories = collectAndInsertCategories(transactions);
-        long t2 = System.currentTimeMillis();
-        Log.i("Financisto", "Collecting categories =" + (t2 - t1) + "ms");
-        Map<String, Project> projects = collectAndInsertProjects(transactions);
-        long t3 = System.currentTimeMillis();
-        Log.i("Financisto", "Collecting projects =" + (t3 - t2) + "ms");
-        Map<String, Payee> payees = collectAndInsertPayees(transactions);
-        long t4 = System.currentTimeMillis();
-        Log.i("Financisto", "Collecting payees =" + (t4 - t3) + "ms");
-        Map<String, Currency> currencies = collectAndInsertCurrencies(transactions);
-        long t5 = System.currentTimeMillis();
-        Log.i("Financisto", "Collecting currencies =" + (t5 - t4) + "ms");
-        Map<String, Account> accountsByName = db.getAllAccountsByTitleMap();
-        Map<Long, Account> accountsById = db.getAllAccountsMap();
-        long t6 = System.currentTimeMillis();
-        Log.i("Financisto", "Collecting accounts =" + (t6 - t5) + "ms");
-        importTransactions(transactions, accountsByName, accountsById, currencies, categories, projects, payees);
-        long t7 = System.currentTimeMillis();
-        Log.i("Financisto", "Inserting transactions =" + (t7 - t6) + "ms");
-        Log.i("Financisto", "Overall csv import =" + ((t7 - t0) / 1000) + "s");
+        SQLiteDatabase database = db.db();
+        database.beginTransaction();
+        try {
+            db.deferRunningBalances();
+            Set<CategoryInfo> categoryNames = new HashSet<>();
+            int totalCount = readTransactions(CATEGORY_FIELDS, t -> {
+                String category = fullCategoryName(t);
+                if (Utils.isNotEmpty(category)) {
+                    categoryNames.add(new CategoryInfo(category, false));
+                }
+            });
+            long t1 = System.currentTimeMillis();
+            Log.i("Financisto", "Reading categories from " + totalCount + " rows =" + (t1 - t0) + "ms");
+            CategoryCache cache = new CategoryCache();
+            cache.loadExistingCategories(db);
+            cache.insertCategories(db, categoryNames);
+            long t2 = System.currentTimeMillis();
+            Log.i("Financisto", "Inserting categories =" + (t2 - t1) + "ms");
+            TransactionBatch batch = new TransactionBatch(cache.categoryNameToCategory, totalCount);
+            readTransactions(null, batch::add);
+            batch.flush();
+            long t3 = System.currentTimeMillis();
+            Log.i("Financisto", "Inserting " + batch.count + " transactions =" + (t3 - t2) + "ms, "
+                    + (batch.count * 1000L / Math.max(1, t3 - t2)) + " rows/s");
+            db.flushRunningBalances();
+            database.setTransactionSuccessful();
+            Log.i("Financisto", "Overall csv import =" + ((t3 - t0) / 1000) + "s");
+        } finally {
+            db.discardRunningBalances();
+            database.endTransaction();
+        }
+        MyPreferences.requestReportAggregateCheck(context);
 
         String path = options.uri.getPath();
         return path.substring(path.lastIndexOf("/") + 1) + " imported!";
     }
 
-    public Map<String, Project> collectAndInsertProjects(List<CsvTransaction> transactions) {
-        Map<String, Project> map = db.getAllProjectsByTitleMap(false);
-        for (CsvTransaction transaction : transactions) {
-            String project = transaction.project;
-            if (isNewProject(map, project)) {
+    private interface RowHandler {
+        void onRow(CsvTransaction transaction) throws ImportExportException;
+    }
+
+    private interface FieldSetter {
+        void set(CsvTransaction transaction, String value) throws ImportExportException;
+    }
+
+    /**
+     * Parses rows into the same {@link CsvTransaction} and hands it over to the handler
+     *
+     * @param fields names of the columns to parse or null for all of them
+     * @return number of rows
+     */
+    private int readTransactions(Set<String> fields, RowHandler handler) throws Exception {
+        FieldSetter[] setters = null;
+        if (!options.useHeaderFromFile) {
+            setters = compileHeader(Arrays.asList(CsvExport.HEADER), fields);
+        }
+        Csv.Reader reader;
+        try {
+            reader = new Csv.Reader(new InputStreamReader(context.getContentResolver().openInputStream(options.uri)))
+                    .delimiter(options.fieldSeparator).ignoreComments(true);
+        } catch (FileNotFoundException e) {
+            throw new Exception("Import file not found");
+        }
+        try {
+            CsvTransaction transaction = new CsvTransaction();
+            long deltaTime = 0;
+            List<String> line;
+            while ((line = reader.readLine()) != null) {
+                if (setters == null) {
+                    // first line of csv-file is table headline
+                    setters = compileHeader(line, fields);
+                    continue;
+                }
+                transaction.clear();
+                transaction.defaultAccount = this.account;
+                int countOfColumns = Math.min(line.size(), setters.length);
+                for (int i = 0; i < countOfColumns; i++) {
+                    FieldSetter setter = setters[i];
+                    if (setter != null) {
+                        String fieldValue = line.get(i);
+                        if (!fieldValue.equals("")) {
+                            setter.set(transaction, fieldValue);
+                        }
+                    }
+                }
+                transaction.delta = deltaTime++;
+                handler.onRow(transaction);
+            }
+            return (int) deltaTime;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private FieldSetter[] compileHeader(List<String> header, Set<String> fields) {
+        FieldSetter[] setters = new FieldSetter[header.size()];
+        for (int i = 0; i < setters.length; i++) {
+            String transactionField = myTrim(header.get(i));
+            if (fields == null || fields.contains(transactionField)) {
+                setters[i] = createSetter(transactionField);
+            }
+        }
+        return setters;
+    }
+
+    private FieldSetter createSetter(String transactionField) {
+        switch (transactionField) {
+            case "txid":
+                return (t, value) -> t.id = Long.parseLong(value);
+            case "account":
+                return (t, value) -> t.account = value;
+            case "date":
+                return (t, value) -> {
+                    try {
+                        t.date = options.dateFormat.parse(value);
+                    } catch (Exception e) {
+                        throw new ImportExportException(R.string.csv_date_format_error, null, value);
+                    }
+                };
+            case "time":
+                SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss");
+                return (t, value) -> {
+                    try {
+                        t.time = format.parse(value);
+                    } catch (Exception e) {
+                        throw new ImportExportException(R.string.csv_time_format_error, null, value);
+                    }
+                };
+            case "status":
+                return (t, value) -> t.status = value;
+            case "amount":
+                return (t, value) -> t.fromAmount = parseAmount(value).longValue();
+            case "original amount":
+                return (t, value) -> t.originalAmount = parseAmount(value).longValue();
+            case "original currency":
+                return (t, value) -> t.originalCurrency = value;
+            case "payee":
+                return (t, value) -> t.payee = value;
+            case "category":
+                return (t, value) -> t.category = value;
+            case "parent":
+                return (t, value) -> t.categoryParent = value;
+            case "note":
+                return (t, value) -> t.note = value;
+            case "project":
+                return (t, value) -> t.project = value;
+            case "currency":
+                return (t, value) -> {
+                    if (t.account == null && !account.currency.name.equals(value)) {
+                        throw new ImportExportException(R.string.import_wrong_currency_2,
+                                null, value, account.currency.name);
+                    }
+                    t.currency = value;
+                };
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Rows are copied into reusable objects, resolved and inserted {@link #BATCH_SIZE} at a time
+     */
+    private class TransactionBatch {
+
+        private final CsvTransaction[] rows = new CsvTransaction[BATCH_SIZE];
+        private final Map<String, Account> accountsByName = db.getAllAccountsByTitleMap();
+        private final Map<Long, Account> accountsById = db.getAllAccountsMap();
+        private final Map<String, Currency> currencies = db.getAllCurrenciesByTtitleMap();
+        private final Map<String, Project> projects = db.getAllProjectsByTitleMap(false);
+        private final Map<String, Payee> payees = db.getAllPayeeByTitleMap();
+        private final Map<String, Category> categories;
+        private final List<TransactionAttribute> emptyAttributes = Collections.emptyList();
+        private final int totalCount;
+
+        private int size;
+        private int count;
+
+        TransactionBatch(Map<String, Category> categories, int totalCount) {
+            this.categories = categories;
+            this.totalCount = totalCount;
+            for (int i = 0; i < rows.length; i++) {
+                rows[i] = new CsvTransaction();
+            }
+        }
+
+        void add(CsvTransaction transaction) throws ImportExportException {
+            rows[size++].copyFrom(transaction);
+            if (size == rows.length) {
+                flush();
+            }
+        }
+
+        void flush() throws ImportExportException {
+            for (int i = 0; i < size; i++) {
+                insert(rows[i]);
+            }
+            count += size;
+            size = 0;
+            Log.i("Financisto", "Inserted " + count + " out of " + totalCount);
+            if (progressListener != null && totalCount > 0) {
+                progressListener.onProgress((int) (100f * count / totalCount));
+            }
+        }
+
+        private void insert(CsvTransaction transaction) throws ImportExportException {
+            transaction.category = fullCategoryName(transaction);
+            transaction.categoryParent = null;
+            addProject(transaction.project);
+            addPayee(transaction.payee);
+            addCurrency(transaction.originalCurrency);
+            Transaction t;
+            if (transaction.id != null) {
+                // updating existing transaction
+                t = db.getTransaction(transaction.id);
+                if (t.id == -1) {
+                    throw new ImportExportException(R.string.csv_txid_not_found, null, transaction.id);
+                }
+                transaction.updateTransaction(t, accountsByName, accountsById, currencies, categories, projects, payees);
+            }
+            else {
+                // creating new transaction
+                t = transaction.createTransaction(accountsByName, currencies, categories, projects, payees);
+            }
+            db.insertOrUpdateInTransaction(t, emptyAttributes);
+        }
+
+        private void addProject(String project) {
+            if (isNewProject(projects, project)) {
                 Project p = new Project();
                 p.title = project;
                 p.isActive = true;
                 db.saveOrUpdate(p);
-                map.put(project, p);
+                projects.put(project, p);
             }
         }
-        return map;
-    }
 
-    private boolean isNewProject(Map<String, Project> map, String project) {
-        return Utils.isNotEmpty(project) && !noProject.equals(project) && !map.containsKey(project);
-    }
-
-    public Map<String, Payee> collectAndInsertPayees(List<CsvTransaction> transactions) {
-        Map<String, Payee> map = db.getAllPayeeByTitleMap();
-        for (CsvTransaction transaction : transactions) {
-            String payee = transaction.payee;
-            if (isNewEntity(map, payee)) {
+        private void addPayee(String payee) {
+            if (isNewEntity(payees, payee)) {
                 Payee p = new Payee();
                 p.title = payee;
                 db.saveOrUpdate(p);
-                map.put(payee, p);
+                payees.put(payee, p);
             }
         }
-        return map;
-    }
-
-    private boolean isNewEntity(Map<String, ? extends MyEntity> map, String name) {
-        return Utils.isNotEmpty(name) && !map.containsKey(name);
-    }
-
-    public Map<String, Category> collectAndInsertCategories(List<CsvTransaction> transactions) {
-        Set<CategoryInfo> categories = collectCategories(transactions);
-        CategoryCache cache = new CategoryCache();
-        cache.loadExistingCategories(db);
-        cache.insertCategories(db, categories);
-        return cache.categoryNameToCategory;
-    }
 
-    private Map<String, Currency> collectAndInsertCurrencies(List<CsvTransaction> transactions) {
-        Map<String, Currency> map = db.getAllCurrenciesByTtitleMap();
-        for (CsvTransaction transaction : transactions) {
-            String currency = transaction.originalCurrency;
-            if (isNewEntity(map, currency)) {
+        private void addCurrency(String currency) {
+            if (isNewEntity(currencies, currency)) {
                 Currency c = new Currency();
                 c.name = currency;
                 c.symbol = currency;
@@ -143,143 +320,26 @@ public class CsvImport {
                 c.groupSeparator = Currency.EMPTY.groupSeparator;
                 c.isDefault = false;
                 db.saveOrUpdate(c);
-                map.put(currency, c);
+                currencies.put(currency, c);
             }
         }
-        return map;
+
     }
 
-    private void importTransactions(List<CsvTransaction> transactions,
-                                    Map<String, Account> accountsByName,
-                                    Map<Long, Account> accountsById,
-                                    Map<String, Currency> currencies,
-                                    Map<String, Category> categories,
-                                    Map<String, Project> projects,
-                                    Map<String, Payee> payees) throws ImportExportException {
-        SQLiteDatabase database = db.db();
-        database.beginTransaction();
-        try {
-            List<TransactionAttribute> emptyAttributes = Collections.emptyList();
-            int count = 0;
-            int totalCount = transactions.size();
-            for (CsvTransaction transaction : transactions) {
-                Transaction t;
-                if (transaction.id != null) {
-                    // updating existing transaction
-                    t = db.getTransaction(transaction.id);
-                    if (t.id == -1) {
-                        throw new ImportExportException(R.string.csv_txid_not_found, null, transaction.id);
-                    }
-                    transaction.updateTransaction(t, accountsByName, accountsById, currencies, categories, projects, payees);
-                }
-                else {
-                    // creating new transaction
-                    t = transaction.createTransaction(accountsByName, currencies, categories, projects, payees);
-                }
-                db.insertOrUpdateInTransaction(t, emptyAttributes);
-                if (++count % 100 == 0) {
-                    Log.i("Financisto", "Inserted " + count + " out of " + totalCount);
-                    if (progressListener != null) {
-                        progressListener.onProgress((int) (100f * count / totalCount));
-                    }
-                }
-            }
-            Log.i("Financisto", "Total transactions inserted: " + count);
-            database.setTransactionSuccessful();
-        } finally {
-            database.endTransaction();
-        }
+    private boolean isNewProject(Map<String, Project> map, String project) {
+        return Utils.isNotEmpty(project) && !noProject.equals(project) && !map.containsKey(project);
     }
 
-    private List<CsvTransaction> parseTransactions() throws Exception {
-        Uri uri = options.uri;
+    private boolean isNewEntity(Map<String, ? extends MyEntity> map, String name) {
+        return Utils.isNotEmpty(name) && !map.containsKey(name);
+    }
 
-        boolean parseLine = false;
-        List<String> header = null;
-        if (!options.useHeaderFromFile) {
-            parseLine = true;
-            header = Arrays.asList(CsvExport.HEADER);
-        }
-        try {
-            long deltaTime = 0;
-            SimpleDateFormat format = new SimpleDateFormat("HH:mm:ss");
-            Csv.Reader reader = new Csv.Reader(new InputStreamReader(context.getContentResolver().openInputStream(uri)))
-                    .delimiter(options.fieldSeparator).ignoreComments(true);
-            List<CsvTransaction> transactions = new LinkedList<CsvTransaction>();
-            List<String> line;
-            while ((line = reader.readLine()) != null) {
-                Log.d(getClass().getSimpleName(), "line=" + line);
-                if (parseLine) {
-                    CsvTransaction transaction = new CsvTransaction();
-                    transaction.defaultAccount = this.account;
-                    int countOfColumns = line.size();
-                    for (int i = 0; i < countOfColumns; i++) {
-                        String transactionField = myTrim(header.get(i));
-                        if (!transactionField.equals("")) {
-                            try {
-                                String fieldValue = line.get(i);
-                                if (!fieldValue.equals("")) {
-                                    if (transactionField.equals("txid")) {
-                                        transaction.id = Long.parseLong(fieldValue);
-                                    } else if (transactionField.equals("account")) {
-                                        transaction.account = fieldValue;
-                                    } else if (transactionField.equals("date")) {
-                                        try {
-                                            transaction.date = options.dateFormat.parse(fieldValue);
-                                        } catch (Exception e) {
-                                            throw new ImportExportException(R.string.csv_date_format_error, null, fieldValue);
-                                        }
-                                    } else if (transactionField.equals("time")) {
-                                        try {
-                                            transaction.time = format.parse(fieldValue);
-                                        } catch (Exception e) {
-                                            throw new ImportExportException(R.string.csv_time_format_error, null, fieldValue);
-                                        }
-                                    } else if (transactionField.equals("status")) {
-                                        transaction.status = fieldValue;
-                                    } else if (transactionField.equals("amount")) {
-                                        Double fromAmountDouble = parseAmount(fieldValue);
-                                        transaction.fromAmount = fromAmountDouble.longValue();
-                                    } else if (transactionField.equals("original amount")) {
-                                        Double originalAmountDouble = parseAmount(fieldValue);
-                                        transaction.originalAmount = originalAmountDouble.longValue();
-                                    } else if (transactionField.equals("original currency")) {
-                                        transaction.originalCurrency = fieldValue;
-                                    } else if (transactionField.equals("payee")) {
-                                        transaction.payee = fieldValue;
-                                    } else if (transactionField.equals("category")) {
-                                        transaction.category = fieldValue;
-                                    } else if (transactionField.equals("parent")) {
-                                        transaction.categoryParent = fieldValue;
-                                    } else if (transactionField.equals("note")) {
-                                        transaction.note = fieldValue;
-                                    } else if (transactionField.equals("project")) {
-                                        transaction.project = fieldValue;
-                                    } else if (transactionField.equals("currency")) {
-                                        if (transaction.account == null && !account.currency.name.equals(fieldValue)) {
-                                            throw new ImportExportException(R.string.import_wrong_currency_2,
-                                                    null, fieldValue, account.currency.name);
-                                        }
-                                        transaction.currency = fieldValue;
-                                    }
-                                }
-                            } catch (IllegalArgumentException e) {
-                                throw e;
-                            }
-                        }
-                    }
-                    transaction.delta = deltaTime++;
-                    transactions.add(transaction);
-                } else {
-                    // first line of csv-file is table headline
-                    parseLine = true;
-                    header = line;
-                }
-            }
-            return transactions;
-        } catch (FileNotFoundException e) {
-            throw new Exception("Import file not found");
+    private static String fullCategoryName(CsvTransaction transaction) {
+        String category = transaction.category;
+        if (Utils.isNotEmpty(transaction.categoryParent)) {
+            category = transaction.categoryParent + CategoryInfo.SEPARATOR + category;
         }
+        return category;
     }
 
     private Double parseAmount(String fieldValue) {
@@ -294,25 +354,9 @@ public class CsvImport {
         }
     }
 
-    public Set<CategoryInfo> collectCategories(List<CsvTransaction> transactions) {
-        Set<CategoryInfo> categories = new HashSet<CategoryInfo>();
-        for (CsvTransaction transaction : transactions) {
-            String category = transaction.category;
-            if (Utils.isNotEmpty(transaction.categoryParent)) {
-                category = transaction.categoryParent + CategoryInfo.SEPARATOR + category;
-            }
-            if (Utils.isNotEmpty(category)) {
-                categories.add(new CategoryInfo(category, false));
-                transaction.category = category;
-                transaction.categoryParent = null;
-            }
-        }
-        return categories;
-    }
-
     //Workaround function which is needed for reimport of CsvExport files
     private String myTrim(String s) {
-        if (Character.isLetter(s.charAt(0))) {
+        if (s.isEmpty() || Character.isLetter(s.charAt(0))) {
             return s;
         } else {
             return s.substring(1);
@@ -43,6 +43,44 @@ public class CsvTransaction {
     public String currency;
     public long delta;
 
+    void clear() {
+        id = null;
+        date = null;
+        time = null;
+        status = null;
+        account = null;
+        defaultAccount = null;
+        fromAmount = null;
+        originalAmount = null;
+        originalCurrency = null;
+        payee = null;
+        category = null;
+        categoryParent = null;
+        note = null;
+        project = null;
+        currency = null;
+        delta = 0;
+    }
+
+    void copyFrom(CsvTransaction t) {
+        id = t.id;
+        date = t.date;
+        time = t.time;
+        status = t.status;
+        account = t.account;
+        defaultAccount = t.defaultAccount;
+        fromAmount = t.fromAmount;
+        originalAmount = t.originalAmount;
+        originalCurrency = t.originalCurrency;
+        payee = t.payee;
+        category = t.category;
+        categoryParent = t.categoryParent;
+        note = t.note;
+        project = t.project;
+        currency = t.currency;
+        delta = t.delta;
+    }
+
     void updateTransaction(
             Transaction t,
             Map<String, Account> accountsByName,
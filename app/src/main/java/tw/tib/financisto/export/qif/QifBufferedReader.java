@@ -44,6 +44,10 @@ public class QifBufferedReader {
         return peek;
     }
 
+    public void close() throws IOException {
+        r.close();
+    }
+
     private String trim(String s) {
         return s != null ? s.trim() : null;
     }
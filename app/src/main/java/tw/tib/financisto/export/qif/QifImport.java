@@ -17,7 +17,6 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -32,8 +31,6 @@ import tw.tib.financisto.model.Payee;
 import tw.tib.financisto.model.Project;
 import tw.tib.financisto.model.Transaction;
 
-import static tw.tib.financisto.utils.Utils.isEmpty;
-
 /**
  * Created by IntelliJ IDEA.
  * User: Denis Solonenko
@@ -66,21 +63,90 @@ public class QifImport extends FullDatabaseImport {
         doImport();
     }
 
+    /**
+     * Reads the file twice without keeping transactions in memory.
+     * The first pass collects accounts, categories, payees, classes and transfers,
+     * the second one inserts every transaction right after it has been read.
+     */
     public void doImport() throws IOException {
         long t0 = System.currentTimeMillis();
+        List<QifAccount> accounts = new ArrayList<>();
+        QifTransferIndex transfers = new QifTransferIndex();
+        QifParser parser = openParser();
+        try {
+            readDictionaries(parser, accounts, transfers);
+        } finally {
+            parser.close();
+        }
+        long t1 = System.currentTimeMillis();
+        Log.i("Financisto", "QIF Import: Parsing done in "+ TimeUnit.MILLISECONDS.toSeconds(t1-t0)+"s");
+        insertDictionaries(parser);
+        insertAccounts(accounts);
+        transfers.reduce(accounts);
+        long t2 = System.currentTimeMillis();
+        Log.i("Financisto", "QIF Import: Reducing transfers done in "+ TimeUnit.MILLISECONDS.toSeconds(t2-t1)+"s");
+        parser = openParser();
+        try {
+            int account = -1;
+            long count = 0;
+            QifParser.Event e;
+            while ((e = parser.next()) != null) {
+                if (e == QifParser.Event.ACCOUNT) {
+                    account++;
+                } else if (e == QifParser.Event.TRANSACTION) {
+                    QifTransaction transaction = parser.getTransaction();
+                    if (transfers.resolve(transaction)) {
+                        insertTransaction(accounts.get(account).dbAccount, transaction);
+                        if (++count % 1000 == 0) {
+                            Log.i("Financisto", "QIF Import: Inserted " + count + " transactions");
+                        }
+                    }
+                }
+            }
+        } finally {
+            parser.close();
+        }
+        long t3 = System.currentTimeMillis();
+        Log.i("Financisto", "QIF Import: Inserting transactions done in "+ TimeUnit.MILLISECONDS.toSeconds(t3-t2)+"s");
+    }
+
+    /**
+     * The first pass: collects accounts, transfers and, in the parser, categories, payees and classes
+     */
+    static void readDictionaries(QifParser parser, List<QifAccount> accounts, QifTransferIndex transfers) throws IOException {
+        QifParser.Event e;
+        while ((e = parser.next()) != null) {
+            if (e == QifParser.Event.ACCOUNT) {
+                accounts.add(parser.getAccount());
+            } else if (e == QifParser.Event.CATEGORY) {
+                // declared before the ones from transactions are added at the end, so their income flag wins
+                parser.categories.add(parser.getCategory());
+            } else if (e == QifParser.Event.TRANSACTION) {
+                transfers.add(accounts.size() - 1, parser.getTransaction());
+            }
+        }
+    }
+
+    private QifParser openParser() throws IOException {
         QifBufferedReader r = new QifBufferedReader(new BufferedReader(
                 new InputStreamReader(context.getContentResolver().openInputStream(options.uri),
                         "UTF-8")));
-        QifParser parser = new QifParser(r, options.dateFormat);
-        parser.parse();
+        return new QifParser(r, options.dateFormat);
+    }
+
+    public void doImport(QifParser parser) {
+        long t0 = System.currentTimeMillis();
+        insertDictionaries(parser);
         long t1 = System.currentTimeMillis();
-        Log.i("Financisto", "QIF Import: Parsing done in "+ TimeUnit.MILLISECONDS.toSeconds(t1-t0)+"s");
-        doImport(parser);
+        insertAccounts(parser.accounts);
         long t2 = System.currentTimeMillis();
-        Log.i("Financisto", "QIF Import: Importing done in "+ TimeUnit.MILLISECONDS.toSeconds(t2-t1)+"s");
+        Log.i("Financisto", "QIF Import: Inserting accounts done in "+ TimeUnit.MILLISECONDS.toSeconds(t2-t1)+"s");
+        insertTransactions(parser.accounts);
+        long t3 = System.currentTimeMillis();
+        Log.i("Financisto", "QIF Import: Inserting transactions done in "+ TimeUnit.MILLISECONDS.toSeconds(t3-t2)+"s");
     }
 
-    public void doImport(QifParser parser) {
+    private void insertDictionaries(QifParser parser) {
         long t0 = System.currentTimeMillis();
         insertPayees(parser.payees);
         long t1 = System.currentTimeMillis();
@@ -91,12 +157,6 @@ public class QifImport extends FullDatabaseImport {
         categoryCache.insertCategories(dbAdapter, parser.categories);
         long t3 = System.currentTimeMillis();
         Log.i("Financisto", "QIF Import: Inserting categories done in "+ TimeUnit.MILLISECONDS.toSeconds(t3-t2)+"s");
-        insertAccounts(parser.accounts);
-        long t4 = System.currentTimeMillis();
-        Log.i("Financisto", "QIF Import: Inserting accounts done in "+ TimeUnit.MILLISECONDS.toSeconds(t4-t3)+"s");
-        insertTransactions(parser.accounts);
-        long t5 = System.currentTimeMillis();
-        Log.i("Financisto", "QIF Import: Inserting transactions done in "+ TimeUnit.MILLISECONDS.toSeconds(t5-t4)+"s");
     }
 
     private void insertPayees(Set<String> payees) {
@@ -126,115 +186,48 @@ public class QifImport extends FullDatabaseImport {
 
     private void insertTransactions(List<QifAccount> accounts) {
         long t0 = System.currentTimeMillis();
-        reduceTransfers(accounts);
+        QifTransferIndex transfers = new QifTransferIndex();
+        int count = accounts.size();
+        for (int i=0; i<count; i++) {
+            for (QifTransaction transaction : accounts.get(i).transactions) {
+                transfers.add(i, transaction);
+            }
+        }
+        transfers.reduce(accounts);
         long t1 = System.currentTimeMillis();
         Log.i("Financisto", "QIF Import: Reducing transfers done in "+ TimeUnit.MILLISECONDS.toSeconds(t1-t0)+"s");
-        convertUnknownTransfers(accounts);
-        long t2 = System.currentTimeMillis();
-        Log.i("Financisto", "QIF Import: Converting transfers done in "+ TimeUnit.MILLISECONDS.toSeconds(t2-t1)+"s");
-        int count = accounts.size();
         for (int i=0; i<count; i++) {
             long t3 = System.currentTimeMillis();
             QifAccount account = accounts.get(i);
             Account a = account.dbAccount;
-            insertTransactions(a, account.transactions);
-            // this might help GC
-            account.transactions.clear();
-            long t4 = System.currentTimeMillis();
-            Log.i("Financisto", "QIF Import: Inserting transactions for account "+i+"/"+count+" done in "+ TimeUnit.MILLISECONDS.toSeconds(t4-t3)+"s");
-        }
-    }
-
-    private void reduceTransfers(List<QifAccount> accounts) {
-        for (QifAccount fromAccount : accounts) {
-            List<QifTransaction> transactions = fromAccount.transactions;
-            reduceTransfers(fromAccount, transactions);
-        }
-    }
-
-    private void reduceTransfers(QifAccount fromAccount, List<QifTransaction> transactions) {
-        for (QifTransaction fromTransaction : transactions) {
-            if (fromTransaction.isTransfer() && fromTransaction.amount < 0) {
-                boolean found = false;
-                QifAccount toAccount = accountTitleToAccount.get(fromTransaction.toAccount);
-                if (toAccount != null) {
-                    Iterator<QifTransaction> iterator = toAccount.transactions.iterator();
-                    while (iterator.hasNext()) {
-                        QifTransaction toTransaction = iterator.next();
-                        if (twoSidesOfTheSameTransfer(fromAccount, fromTransaction, toAccount, toTransaction)) {
-                            iterator.remove();
-                            found = true;
-                            break;
-                        }
-                    }
+            for (QifTransaction transaction : account.transactions) {
+                if (transfers.resolve(transaction)) {
+                    insertTransaction(a, transaction);
                 }
-                if (!found) {
-                    convertIntoRegularTransaction(fromTransaction);
-                }
-            }
-            if (fromTransaction.splits != null) {
-                reduceTransfers(fromAccount, fromTransaction.splits);
-            }
-        }
-    }
-
-    private void convertUnknownTransfers(List<QifAccount> accounts) {
-        for (QifAccount fromAccount : accounts) {
-            List<QifTransaction> transactions = fromAccount.transactions;
-            convertUnknownTransfers(fromAccount, transactions);
-        }
-    }
-
-    private void convertUnknownTransfers(QifAccount fromAccount/*to keep compiler happy*/, List<QifTransaction> transactions) {
-        for (QifTransaction transaction : transactions) {
-            if (transaction.isTransfer() && transaction.amount >= 0) {
-                convertIntoRegularTransaction(transaction);
-            }
-            if (transaction.splits != null) {
-                convertUnknownTransfers(fromAccount, transaction.splits);
             }
+            long t4 = System.currentTimeMillis();
+            Log.i("Financisto", "QIF Import: Inserting transactions for account "+i+"/"+count+" done in "+ TimeUnit.MILLISECONDS.toSeconds(t4-t3)+"s");
         }
     }
 
-    private void convertIntoRegularTransaction(QifTransaction fromTransaction) {
-        fromTransaction.memo = prependMemo("Transfer: " + fromTransaction.toAccount, fromTransaction);
-        fromTransaction.toAccount = null;
-    }
-
-    private String prependMemo(String prefix, QifTransaction fromTransaction) {
-        if (isEmpty(fromTransaction.memo)) {
-            return prefix;
-        } else {
-            return prefix + " | " + fromTransaction.memo;
-        }
-    }
-
-    private boolean twoSidesOfTheSameTransfer(QifAccount fromAccount, QifTransaction fromTransaction, QifAccount toAccount, QifTransaction toTransaction) {
-        return toTransaction.isTransfer()
-                && toTransaction.toAccount.equals(fromAccount.memo) && fromTransaction.toAccount.equals(toAccount.memo)
-                && fromTransaction.date.equals(toTransaction.date) && fromTransaction.amount == -toTransaction.amount;
-    }
-
-    private void insertTransactions(Account a, List<QifTransaction> transactions) {
-        for (QifTransaction transaction : transactions) {
-            Transaction t = transaction.toTransaction();
-            t.payeeId = findPayee(transaction.payee);
-            t.projectId = findProject(transaction.categoryClass);
-            t.fromAccountId = a.id;
-            findToAccount(transaction, t);
-            findCategory(transaction, t);
-            if (transaction.splits != null) {
-                List<Transaction> splits = new ArrayList<Transaction>(transaction.splits.size());
-                for (QifTransaction split : transaction.splits) {
-                    Transaction s = split.toTransaction();
-                    findToAccount(split, s);
-                    findCategory(split, s);
-                    splits.add(s);
-                }
-                t.splits = splits;
+    private void insertTransaction(Account a, QifTransaction transaction) {
+        Transaction t = transaction.toTransaction();
+        t.payeeId = findPayee(transaction.payee);
+        t.projectId = findProject(transaction.categoryClass);
+        t.fromAccountId = a.id;
+        findToAccount(transaction, t);
+        findCategory(transaction, t);
+        if (transaction.splits != null) {
+            List<Transaction> splits = new ArrayList<Transaction>(transaction.splits.size());
+            for (QifTransaction split : transaction.splits) {
+                Transaction s = split.toTransaction();
+                findToAccount(split, s);
+                findCategory(split, s);
+                splits.add(s);
             }
-            dbAdapter.insertWithoutUpdatingBalance(t);
+            t.splits = splits;
         }
+        dbAdapter.insertWithoutUpdatingBalance(t);
     }
 
     public long findPayee(String payee) {
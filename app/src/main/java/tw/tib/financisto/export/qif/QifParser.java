@@ -18,12 +18,24 @@ import static tw.tib.financisto.utils.Utils.isEmpty;
 import static tw.tib.financisto.utils.Utils.isNotEmpty;
 
 /**
+ * Can be used in two ways: {@link #parse()} reads the whole file into {@link #accounts},
+ * {@link #next()} pulls one account, category or transaction at a time without keeping them.
+ * Payees, classes and categories are collected in both cases.
+ *
  * Created by IntelliJ IDEA.
  * User: Denis Solonenko
  * Date: 10/11/11 10:32 PM
  */
 public class QifParser {
 
+    public enum Event {
+        ACCOUNT, CATEGORY, TRANSACTION
+    }
+
+    private enum State {
+        OUTSIDE, CATEGORIES, TRANSACTIONS
+    }
+
     private final QifBufferedReader r;
     private final QifDateFormat dateFormat;
 
@@ -33,53 +45,99 @@ public class QifParser {
     public final Set<String> payees = new HashSet<String>();
     public final Set<String> classes = new HashSet<String>();
 
+    private State state = State.OUTSIDE;
+    private QifAccount account;
+    private QifCategory category;
+    private QifTransaction transaction;
+
     public QifParser(QifBufferedReader r, QifDateFormat dateFormat) {
         this.r = r;
         this.dateFormat = dateFormat;
     }
 
     public void parse() throws IOException {
-        String line;
-        while ((line = r.readLine()) != null) {
-            if (line.startsWith("!Account")) {
-                parseAccount();
-            } else if (line.startsWith("!Type:Cat")) {
-                parseCategories();
+        Event e;
+        while ((e = next()) != null) {
+            switch (e) {
+                case ACCOUNT:
+                    accounts.add(account);
+                    break;
+                case CATEGORY:
+                    categories.add(category);
+                    break;
+                case TRANSACTION:
+                    account.transactions.add(transaction);
+                    break;
             }
         }
-        categories.addAll(categoriesFromTransactions);
     }
 
-    private void parseCategories() throws IOException {
+    /**
+     * @return the next event or null at the end of the file,
+     * at which point categories from transactions have been added to {@link #categories}
+     */
+    public Event next() throws IOException {
         while (true) {
-            QifCategory category = new QifCategory();
-            category.readFrom(r);
-            categories.add(category);
-            if (shouldBreakCurrentBlock()) {
-                break;
+            switch (state) {
+                case CATEGORIES:
+                    category = new QifCategory();
+                    category.readFrom(r);
+                    if (shouldBreakCurrentBlock()) {
+                        state = State.OUTSIDE;
+                    }
+                    return Event.CATEGORY;
+                case TRANSACTIONS:
+                    transaction = new QifTransaction();
+                    transaction.readFrom(r, dateFormat);
+                    addPayeeFromTransaction(transaction);
+                    addCategoryFromTransaction(transaction);
+                    if (shouldBreakCurrentBlock()) {
+                        state = State.OUTSIDE;
+                    }
+                    return Event.TRANSACTION;
+            }
+            String line = r.readLine();
+            if (line == null) {
+                categories.addAll(categoriesFromTransactions);
+                return null;
+            }
+            if (line.startsWith("!Account")) {
+                parseAccount();
+                return Event.ACCOUNT;
+            } else if (line.startsWith("!Type:Cat")) {
+                state = State.CATEGORIES;
             }
         }
     }
 
+    /**
+     * The account of the last {@link Event#ACCOUNT}, transactions which follow belong to it
+     */
+    public QifAccount getAccount() {
+        return account;
+    }
+
+    public QifCategory getCategory() {
+        return category;
+    }
+
+    public QifTransaction getTransaction() {
+        return transaction;
+    }
+
+    public void close() throws IOException {
+        r.close();
+    }
+
     private void parseAccount() throws IOException {
-        QifAccount account = new QifAccount();
+        account = new QifAccount();
         account.readFrom(r);
-        accounts.add(account);
         String peek = r.peekLine();
         if (peek != null) {
             if (peek.startsWith("!Type:")) {
                 applyAccountType(account, peek);
                 r.readLine();
-                while (true) {
-                    QifTransaction t = new QifTransaction();
-                    t.readFrom(r, dateFormat);
-                    addPayeeFromTransaction(t);
-                    addCategoryFromTransaction(t);
-                    account.transactions.add(t);
-                    if (shouldBreakCurrentBlock()) {
-                        break;
-                    }
-                }
+                state = State.TRANSACTIONS;
             }
         }
     }
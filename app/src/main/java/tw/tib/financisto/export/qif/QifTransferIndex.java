@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2011 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package tw.tib.financisto.export.qif;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import gnu.trove.list.array.TLongArrayList;
+
+import static tw.tib.financisto.utils.Utils.isEmpty;
+
+/**
+ * Pairs both sides of transfers between QIF accounts without keeping the transactions.
+ * <p>
+ * Every transaction and split gets an ordinal in the file order (splits right after their parent).
+ * {@link #add(int, QifTransaction)} records just the transfer fields for every ordinal,
+ * {@link #reduce(List)} pairs every negative transfer with the first free positive transfer
+ * in the counter account which has the same date and the opposite amount and points back,
+ * {@link #resolve(QifTransaction)} applies the result to the same transactions read again:
+ * the positive side of a pair is dropped, unpaired transfers become regular transactions.
+ */
+class QifTransferIndex {
+
+    private int added;
+    private int resolved;
+
+    // negative transfers in file order
+    private final TLongArrayList negativeOrdinals = new TLongArrayList();
+    private final TLongArrayList negativeAccounts = new TLongArrayList();
+    private final TLongArrayList negativeDates = new TLongArrayList();
+    private final TLongArrayList negativeAmounts = new TLongArrayList();
+    private final List<String> negativeToAccounts = new ArrayList<>();
+
+    // top level positive transfers by account, counter account, date and amount
+    private final Map<TransferKey, ArrayDeque<Integer>> candidates = new HashMap<>();
+
+    private final Map<String, String> accountNames = new HashMap<>();
+
+    private final BitSet paired = new BitSet();
+    private final BitSet dropped = new BitSet();
+
+    /**
+     * @param account position of the account of this transaction in the file
+     */
+    void add(int account, QifTransaction t) {
+        add(added, account, t);
+    }
+
+    private void add(int parent, int account, QifTransaction t) {
+        int ordinal = added++;
+        if (t.isTransfer()) {
+            String toAccount = canonical(t.toAccount);
+            if (t.amount < 0) {
+                negativeOrdinals.add(((long) ordinal << 32) | parent);
+                negativeAccounts.add(account);
+                negativeDates.add(dateOf(t.date));
+                negativeAmounts.add(t.amount);
+                negativeToAccounts.add(toAccount);
+            } else if (ordinal == parent) {
+                TransferKey key = new TransferKey(account, toAccount, dateOf(t.date), t.amount);
+                ArrayDeque<Integer> sameTransfer = candidates.get(key);
+                if (sameTransfer == null) {
+                    sameTransfer = new ArrayDeque<>(1);
+                    candidates.put(key, sameTransfer);
+                }
+                sameTransfer.add(ordinal);
+            }
+        }
+        if (t.splits != null) {
+            for (QifTransaction split : t.splits) {
+                add(parent, account, split);
+            }
+        }
+    }
+
+    /**
+     * @param accounts all accounts in the file order, a title refers to the last account with that title
+     */
+    void reduce(List<QifAccount> accounts) {
+        Map<String, Integer> accountByTitle = new HashMap<>();
+        for (int i = 0; i < accounts.size(); i++) {
+            accountByTitle.put(accounts.get(i).memo, i);
+        }
+        int count = negativeOrdinals.size();
+        for (int i = 0; i < count; i++) {
+            long ordinals = negativeOrdinals.get(i);
+            int ordinal = (int) (ordinals >>> 32);
+            int parent = (int) ordinals;
+            if (dropped.get(parent)) {
+                // this transaction goes away together with its parent
+                continue;
+            }
+            Integer toAccount = accountByTitle.get(negativeToAccounts.get(i));
+            if (toAccount == null) {
+                continue;
+            }
+            String fromAccount = accounts.get((int) negativeAccounts.get(i)).memo;
+            ArrayDeque<Integer> sameTransfer = candidates.get(
+                    new TransferKey(toAccount, fromAccount, negativeDates.get(i), -negativeAmounts.get(i)));
+            if (sameTransfer != null && !sameTransfer.isEmpty()) {
+                dropped.set(sameTransfer.poll());
+                paired.set(ordinal);
+            }
+        }
+        negativeOrdinals.clear();
+        negativeAccounts.clear();
+        negativeDates.clear();
+        negativeAmounts.clear();
+        negativeToAccounts.clear();
+        candidates.clear();
+    }
+
+    /**
+     * Must be called for the same transactions in the same order as {@link #add(int, QifTransaction)}
+     *
+     * @return false if the transaction is the other side of a transfer and should be skipped
+     */
+    boolean resolve(QifTransaction t) {
+        int ordinal = resolved;
+        resolve(t, true);
+        return !dropped.get(ordinal);
+    }
+
+    private void resolve(QifTransaction t, boolean topLevel) {
+        int ordinal = resolved++;
+        if (t.isTransfer() && !paired.get(ordinal) && !(topLevel && dropped.get(ordinal))) {
+            convertIntoRegularTransaction(t);
+        }
+        if (t.splits != null) {
+            for (QifTransaction split : t.splits) {
+                resolve(split, false);
+            }
+        }
+    }
+
+    private static void convertIntoRegularTransaction(QifTransaction t) {
+        t.memo = prependMemo("Transfer: " + t.toAccount, t);
+        t.toAccount = null;
+    }
+
+    private static String prependMemo(String prefix, QifTransaction t) {
+        if (isEmpty(t.memo)) {
+            return prefix;
+        } else {
+            return prefix + " | " + t.memo;
+        }
+    }
+
+    private String canonical(String accountName) {
+        String name = accountNames.get(accountName);
+        if (name == null) {
+            accountNames.put(accountName, accountName);
+            name = accountName;
+        }
+        return name;
+    }
+
+    private static long dateOf(Date date) {
+        return date != null ? date.getTime() : Long.MIN_VALUE;
+    }
+
+    private static class TransferKey {
+
+        private final int account;
+        private final String counterAccount;
+        private final long date;
+        private final long amount;
+
+        TransferKey(int account, String counterAccount, long date, long amount) {
+            this.account = account;
+            this.counterAccount = counterAccount;
+            this.date = date;
+            this.amount = amount;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof TransferKey)) return false;
+            TransferKey that = (TransferKey) o;
+            return account == that.account && date == that.date && amount == that.amount
+                    && counterAccount.equals(that.counterAccount);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = account;
+            result = 31 * result + counterAccount.hashCode();
+            result = 31 * result + (int) (date ^ (date >>> 32));
+            result = 31 * result + (int) (amount ^ (amount >>> 32));
+            return result;
+        }
+
+    }
+
+}
@@ -100,6 +100,9 @@ public class Criteria {
     public final WhereFilter.Operation operation;
     private final String[] values;
     private final Criteria[] children;
+    // derived from the values, transient to keep them out of the json extra
+    private transient String selection;
+    private transient String[] childArgs;
 
     public Criteria(String columnName, WhereFilter.Operation operation, String... values) {
         this.columnName = columnName;
@@ -185,6 +188,13 @@ public class Criteria {
     }
 
     public String getSelection() {
+        if (selection == null) {
+            selection = prepareSelection();
+        }
+        return selection;
+    }
+
+    private String prepareSelection() {
         if (operation == WhereFilter.Operation.AND || operation == WhereFilter.Operation.OR)
         {
             String[] childSelection = new String[children.length];
@@ -209,13 +219,15 @@ public class Criteria {
 
     public String[] getSelectionArgs() {
         if (children.length > 0) {
-            LinkedList<String> args = new LinkedList<>();
-            for (Criteria c : children) {
-                args.addAll(Arrays.asList(c.getSelectionArgs()));
+            if (childArgs == null) {
+                LinkedList<String> args = new LinkedList<>();
+                for (Criteria c : children) {
+                    args.addAll(Arrays.asList(c.getSelectionArgs()));
+                }
+                String[] ret = new String[args.size()];
+                childArgs = args.toArray(ret);
             }
-            String[] ret = new String[args.size()];
-            ret = args.toArray(ret);
-            return ret;
+            return childArgs;
         }
         return values;
     }
@@ -18,6 +18,7 @@ import android.os.Bundle;
 import android.util.Log;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -50,53 +51,59 @@ public class WhereFilter {
 	private final LinkedList<Criteria> criterias = new LinkedList<>();
 	private final LinkedList<String> sorts = new LinkedList<>();
 
+	// built on demand and dropped whenever criterias change
+	private String selection;
+	private String[] selectionArgs;
+
 	public WhereFilter(String title) {
 		this.title = title;
 	}
 
-	public synchronized WhereFilter eq(Criteria c) {
+	private WhereFilter add(Criteria c) {
 		criterias.add(c);
+		changed();
 		return this;
 	}
 
+	private void changed() {
+		selection = null;
+		selectionArgs = null;
+	}
+
+	public synchronized WhereFilter eq(Criteria c) {
+		return add(c);
+	}
+
 	public synchronized WhereFilter eq(String column, String value) {
-		criterias.add(Criteria.eq(column, value));
-		return this;
+		return add(Criteria.eq(column, value));
 	}
 
 	public synchronized WhereFilter neq(String column, String value) {
-		criterias.add(Criteria.neq(column, value));
-		return this;
+		return add(Criteria.neq(column, value));
 	}
 
 	public synchronized WhereFilter btw(String column, String value1, String value2) {
-		criterias.add(Criteria.btw(column, value1, value2));
-		return this;
+		return add(Criteria.btw(column, value1, value2));
 	}
 
 	public synchronized WhereFilter gt(String column, String value) {
-		criterias.add(Criteria.gt(column, value));
-		return this;
+		return add(Criteria.gt(column, value));
 	}
 
 	public synchronized WhereFilter gte(String column, String value) {
-		criterias.add(Criteria.gte(column, value));
-		return this;
+		return add(Criteria.gte(column, value));
 	}
 
 	public synchronized WhereFilter lt(String column, String value) {
-		criterias.add(Criteria.lt(column, value));
-		return this;
+		return add(Criteria.lt(column, value));
 	}
 
 	public synchronized WhereFilter lte(String column, String value) {
-		criterias.add(Criteria.lte(column, value));
-		return this;
+		return add(Criteria.lte(column, value));
 	}
 
 	public synchronized WhereFilter isNull(String column) {
-		criterias.add(Criteria.isNull(column));
-		return this;
+		return add(Criteria.isNull(column));
 	}
 
 	public synchronized WhereFilter asc(String column) {
@@ -110,8 +117,7 @@ public class WhereFilter {
 	}
 
 	public synchronized WhereFilter contains(String column, String text){
-		criterias.add(Criteria.like(column, String.format("%%%s%%", text)));
-		return this;
+		return add(Criteria.like(column, String.format("%%%s%%", text)));
 	}
 
 	private String getSelection(List<Criteria> criterias) {
@@ -158,10 +164,12 @@ public class WhereFilter {
 			Criteria c = criterias.get(i);
 			if (criteria.columnName.equals(c.columnName)) {
 				criterias.set(i, criteria);
+				changed();
 				return c;
 			}
 		}
 		criterias.add(criteria);
+		changed();
 		return null;
 	}
 
@@ -170,6 +178,7 @@ public class WhereFilter {
 			Criteria c = i.next();
 			if (name.equals(c.columnName)) {
 				i.remove();
+				changed();
 				return c;
 			}
 		}
@@ -179,12 +188,15 @@ public class WhereFilter {
 	public synchronized void clear() {
 		criterias.clear();
 		sorts.clear();
+		changed();
 	}
 
 	public static WhereFilter copyOf(WhereFilter filter) {
 		synchronized (filter) {
 			WhereFilter f = new WhereFilter(filter.title);
 			f.criterias.addAll(filter.criterias);
+			f.selection = filter.selection;
+			f.selectionArgs = filter.selectionArgs;
 			f.sorts.addAll(filter.sorts);
 			return f;
 		}
@@ -308,15 +320,19 @@ public class WhereFilter {
 	}
 
 	public synchronized String getSelection() {
-		String ret = getSelection(criterias);
-		Log.d("WhereFilter", "getSelection=" + ret);
-		return ret;
+		if (selection == null) {
+			selection = getSelection(criterias);
+			Log.d("WhereFilter", "getSelection=" + selection);
+		}
+		return selection;
 	}
 
 	public synchronized String[] getSelectionArgs() {
-		String[] ret = getSelectionArgs(criterias);
-		Log.d("WhereFilter", "getSelectionArgs=" + String.join(",", ret));
-		return ret;
+		if (selectionArgs == null) {
+			selectionArgs = getSelectionArgs(criterias);
+			Log.d("WhereFilter", "getSelectionArgs=" + String.join(",", selectionArgs));
+		}
+		return selectionArgs.clone();
 	}
 
 	public long getAccountId() {
@@ -352,6 +368,24 @@ public class WhereFilter {
 		return criterias.isEmpty();
 	}
 
+	/**
+	 * @return true if every criteria is a plain comparison on one of the given columns
+	 */
+	public synchronized boolean isRestrictedTo(Collection<String> columns) {
+		for (Criteria c : criterias) {
+			switch (c.operation) {
+				case NOPE:
+				case AND:
+				case OR:
+					return false;
+			}
+			if (!columns.contains(c.columnName)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
 	public enum Operation {
 		NOPE(""), EQ("=?"), NEQ("!=?"), GT(">?"), GTE(">=?"), LT("<?"), LTE("<=?"), BTW("BETWEEN ? AND ?", "OR", 2),
 		IN("IN (?)") {
@@ -15,6 +15,23 @@ import java.util.*;
 import android.database.Cursor;
 
 public class CategoryTree<T extends CategoryEntity<T>> implements Iterable<T> {
+
+	/**
+	 * Smallest room left around the tree when the whole tree is renumbered
+	 */
+	public static final int GAP = 1024;
+
+	/**
+	 * Largest distance between neighbour lefts and rights, so that a leaf has room
+	 * for its future children without renumbering the others
+	 */
+	public static final int MAX_STEP = GAP * GAP;
+
+	/**
+	 * A new category takes at most this part of the free numbers of its parent,
+	 * the rest is kept for the next siblings and for its own children
+	 */
+	private static final int SLOT_RESERVE = 8;
 	
 	private final ArrayList<T> roots;
 
@@ -27,10 +44,20 @@ public class CategoryTree<T extends CategoryEntity<T>> implements Iterable<T> {
 	}
 	
 	public static <T extends CategoryEntity<T>> CategoryTree<T> createFromCursor(Cursor c, NodeCreator<T> creator) {
+		ArrayList<T> categories = new ArrayList<T>();
+		while (c.moveToNext()) {
+			categories.add(creator.createNode(c));
+		}
+		return createFromList(categories);
+	}
+
+	/**
+	 * @param categories ordered by left
+	 */
+	public static <T extends CategoryEntity<T>> CategoryTree<T> createFromList(List<T> categories) {
 		ArrayList<T> roots = new ArrayList<T>();
 		T parent = null;
-		while (c.moveToNext()) {
-			T category = creator.createNode(c);
+		for (T category : categories) {
 			while (parent != null) {
 				if (category.left > parent.left && category.right < parent.right) {
 					parent.addChild(category);
@@ -178,27 +205,77 @@ public class CategoryTree<T extends CategoryEntity<T>> implements Iterable<T> {
 		reIndex();
 	}
 
+	/**
+	 * Renumbers the nodes after a change of their order, spreading them evenly
+	 * over the numbers they already take, so the tree still fits into its parent
+	 */
 	public void reIndex() {
 		int left = Integer.MAX_VALUE;
+		int right = Integer.MIN_VALUE;
 		for (T node : roots) {
 			if (node.left < left) {
 				left = node.left;
 			}
+			if (node.right > right) {
+				right = node.right;
+			}
+		}
+		int bounds = 2 * count(this);
+		int step = bounds > 1 && right > left ? Math.max(1, Math.min(MAX_STEP, (right - left) / (bounds - 1))) : 1;
+		reIndex(this, left, step);
+	}
+
+	/**
+	 * Renumbers the whole tree between the given numbers with the same distance between all of them,
+	 * at most {@link #MAX_STEP}. Half of the range at least is kept free after the tree for new top categories
+	 */
+	public void reIndexWithGaps(int left, int right) {
+		int bounds = 2 * count(this);
+		long step = ((long) right - left) / (2L * (bounds + 1));
+		reIndex(this, left, (int) Math.max(1, Math.min(MAX_STEP, step)));
+	}
+
+	/**
+	 * Finds numbers for a category and its subtree after the last child of a parent.
+	 * The category takes at most 1/{@link #SLOT_RESERVE} of the free numbers, so that a parent
+	 * gets many children and a new category gets children of its own before the tree is renumbered
+	 *
+	 * @param previous right of the last child or left of the parent
+	 * @param right right of the parent
+	 * @param bounds number of lefts and rights to place, in order
+	 * @return first left and the distance between the numbers or null when there is no room
+	 */
+	public static int[] findSlot(long previous, long right, int bounds) {
+		long free = right - previous - 1;
+		long step = Math.min(MAX_STEP, free / ((long) (bounds - 1) * SLOT_RESERVE));
+		if (step < 1) {
+			return null;
 		}
-		reIndex(this, left);
+		return new int[]{(int) (previous + 1), (int) step};
 	}
 
-	private int reIndex(CategoryTree<T> tree, int left) {
+	private int reIndex(CategoryTree<T> tree, int left, int step) {
 		for (T node : tree.roots) {
 			node.left = left;
 			if (node.hasChildren()) {
-				node.right = reIndex(node.children, left+1);
+				node.right = reIndex(node.children, left+step, step);
 			} else {
-				node.right = left+1;
+				node.right = left+step;
 			}
-			left = node.right+1;
+			left = node.right+step;
 		}			
 		return left;
 	}
 
+	private static <T extends CategoryEntity<T>> int count(CategoryTree<T> tree) {
+		int count = 0;
+		for (T node : tree.roots) {
+			count++;
+			if (node.hasChildren()) {
+				count += count(node.children);
+			}
+		}
+		return count;
+	}
+
 }
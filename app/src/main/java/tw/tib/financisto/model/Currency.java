@@ -16,7 +16,6 @@ import java.text.Format;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Table;
-import javax.persistence.Transient;
 
 import tw.tib.financisto.utils.CurrencyCache;
 
@@ -64,21 +63,16 @@ public class Currency extends MyEntity {
 	@Column(name = "group_separator")
 	public String groupSeparator;
 
-    @Transient
-	private volatile Format format;
-
     @Override
     public String toString() {
         return name;
     }
 
+    /**
+     * @return format for the calling thread, don't pass it to other threads
+     */
     public Format getFormat() {
-		Format f = format;
-		if (f == null) {
-			f = CurrencyCache.createCurrencyFormat(this);
-			format = f;
-		}
-		return f;
+		return CurrencyCache.getFormat(this);
 	}
 	
 	public static Currency defaultCurrency() {
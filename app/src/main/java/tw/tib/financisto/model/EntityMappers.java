@@ -0,0 +1,35 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     Denis Solonenko - initial API and implementation
+ ******************************************************************************/
+package tw.tib.financisto.model;
+
+import tw.tib.orb.EntityManager;
+
+/**
+ * Registers the mappers generated for every entity, so that they are read and written without reflection.
+ * An entity the processor can't map, or a mapper missing a persistent field,
+ * is ignored by the {@link EntityManager} and the entity is mapped by reflection.
+ */
+public final class EntityMappers {
+
+	private static volatile boolean registered;
+
+	private EntityMappers() {
+	}
+
+	public static void register() {
+		if (registered) {
+			return;
+		}
+		registered = true;
+		EntityMappers_.registerAll();
+	}
+
+}
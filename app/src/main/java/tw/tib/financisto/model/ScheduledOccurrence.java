@@ -0,0 +1,18 @@
+package tw.tib.financisto.model;
+
+/**
+ * Work scheduled for a scheduled transaction, as stored in the schedule index
+ */
+public class ScheduledOccurrence {
+
+	public final long transactionId;
+	public final String recurrence;
+	public final long nextOccurrence;
+
+	public ScheduledOccurrence(long transactionId, String recurrence, long nextOccurrence) {
+		this.transactionId = transactionId;
+		this.recurrence = recurrence;
+		this.nextOccurrence = nextOccurrence;
+	}
+
+}
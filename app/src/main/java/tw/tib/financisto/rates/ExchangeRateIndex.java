@@ -0,0 +1,251 @@
+/*
+ * Copyright (c) 2012 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package tw.tib.financisto.rates;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+
+/**
+ * Immutable index of historical exchange rates.
+ * Every currency pair has its dates sorted ascending in a long[] and is searched with binary search.
+ * Inverse series are built together with the direct ones, cross rates via home currency
+ * are built on first use and kept in a concurrent map, pairs which can't be resolved at all
+ * go to a separate negative cache. Safe to share between threads.
+ */
+final class ExchangeRateIndex {
+
+    private static final Series EMPTY = new Series(new long[0], new double[0], new ExchangeRate[0]);
+
+    private final long homeCurrencyId;
+    private final TLongObjectMap<Series> direct;
+    private final TLongObjectMap<Series> inverse;
+    private final Map<Long, Series> cross = new ConcurrentHashMap<>();
+    private final Set<Long> missing = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+    private ExchangeRateIndex(long homeCurrencyId, TLongObjectMap<Series> direct, TLongObjectMap<Series> inverse) {
+        this.homeCurrencyId = homeCurrencyId;
+        this.direct = direct;
+        this.inverse = inverse;
+    }
+
+    /**
+     * @param rates rates in any order, the first one wins if a pair has several rates on the same date
+     * @param homeCurrencyId home currency id or 0 if there is no home currency
+     */
+    static ExchangeRateIndex build(Collection<ExchangeRate> rates, long homeCurrencyId) {
+        TLongObjectMap<List<ExchangeRate>> byPair = new TLongObjectHashMap<>();
+        for (ExchangeRate r : rates) {
+            long key = pairKey(r.fromCurrencyId, r.toCurrencyId);
+            List<ExchangeRate> list = byPair.get(key);
+            if (list == null) {
+                list = new ArrayList<>();
+                byPair.put(key, list);
+            }
+            list.add(r);
+        }
+        TLongObjectMap<Series> direct = new TLongObjectHashMap<>(byPair.size());
+        TLongObjectMap<Series> inverse = new TLongObjectHashMap<>(byPair.size());
+        for (long key : byPair.keys()) {
+            List<ExchangeRate> list = byPair.get(key);
+            Series s = Series.of(list);
+            direct.put(key, s);
+            inverse.put(flipKey(key), s.flip());
+        }
+        return new ExchangeRateIndex(homeCurrencyId, direct, inverse);
+    }
+
+    /**
+     * @return the latest rate known for the pair, direct or inverse
+     */
+    ExchangeRate getLatestRate(long fromCurrencyId, long toCurrencyId) {
+        long key = pairKey(fromCurrencyId, toCurrencyId);
+        ExchangeRate r = last(direct.get(key));
+        if (r == null) {
+            r = last(inverse.get(key));
+        }
+        return r != null ? r : ExchangeRate.NA;
+    }
+
+    /**
+     * @return the rate effective at the given time: direct, inverse or via home currency
+     */
+    ExchangeRate getRate(long fromCurrencyId, long toCurrencyId, long atTime) {
+        long key = pairKey(fromCurrencyId, toCurrencyId);
+        if (missing.contains(key)) {
+            return ExchangeRate.NA;
+        }
+        ExchangeRate r = directOrInverse(key, atTime);
+        if (r != null) {
+            return r;
+        }
+        if (homeCurrencyId > 0 && fromCurrencyId != homeCurrencyId && toCurrencyId != homeCurrencyId) {
+            Series s = cross.get(key);
+            if (s == null) {
+                s = crossSeries(fromCurrencyId, toCurrencyId);
+                cross.put(key, s);
+            }
+            r = s.floor(atTime);
+            if (r != null) {
+                return r;
+            }
+        }
+        if (!direct.containsKey(key) && !inverse.containsKey(key) && isEmptyCross(key)) {
+            missing.add(key);
+        }
+        return ExchangeRate.NA;
+    }
+
+    private boolean isEmptyCross(long key) {
+        Series s = cross.get(key);
+        return s == null || s.dates.length == 0;
+    }
+
+    private ExchangeRate directOrInverse(long key, long atTime) {
+        Series s = direct.get(key);
+        if (s != null) {
+            ExchangeRate r = s.floor(atTime);
+            if (r != null) {
+                return r;
+            }
+        }
+        s = inverse.get(key);
+        return s != null ? s.floor(atTime) : null;
+    }
+
+    /**
+     * Cross rate only changes on the dates of the underlying series,
+     * so it is evaluated once on every such date.
+     */
+    private Series crossSeries(long fromCurrencyId, long toCurrencyId) {
+        long toHome = pairKey(fromCurrencyId, homeCurrencyId);
+        long fromHome = pairKey(homeCurrencyId, toCurrencyId);
+        TLongArrayList grid = new TLongArrayList();
+        addDates(grid, direct.get(toHome));
+        addDates(grid, inverse.get(toHome));
+        addDates(grid, direct.get(fromHome));
+        addDates(grid, inverse.get(fromHome));
+        if (grid.isEmpty()) {
+            return EMPTY;
+        }
+        grid.sort();
+        List<ExchangeRate> rates = new ArrayList<>(grid.size());
+        long last = Long.MIN_VALUE;
+        for (int i = 0; i < grid.size(); i++) {
+            long date = grid.get(i);
+            if (i > 0 && date == last) {
+                continue;
+            }
+            last = date;
+            ExchangeRate e1 = directOrInverse(toHome, date);
+            ExchangeRate e2 = directOrInverse(fromHome, date);
+            if (e1 != null && e2 != null && e1 != ExchangeRate.NA && e2 != ExchangeRate.NA) {
+                ExchangeRate r = new ExchangeRate();
+                r.fromCurrencyId = fromCurrencyId;
+                r.toCurrencyId = toCurrencyId;
+                r.date = date;
+                r.rate = e1.rate * e2.rate;
+                rates.add(r);
+            }
+        }
+        return Series.of(rates);
+    }
+
+    private static void addDates(TLongArrayList grid, Series s) {
+        if (s != null) {
+            grid.add(s.dates);
+        }
+    }
+
+    private static ExchangeRate last(Series s) {
+        return s != null && s.dates.length > 0 ? s.items[s.items.length - 1] : null;
+    }
+
+    private static long pairKey(long fromCurrencyId, long toCurrencyId) {
+        return (fromCurrencyId << 32) | (toCurrencyId & 0xffffffffL);
+    }
+
+    private static long flipKey(long key) {
+        return (key << 32) | (key >>> 32);
+    }
+
+    private static final class Series {
+
+        private static final Comparator<ExchangeRate> BY_DATE = new Comparator<ExchangeRate>() {
+            @Override
+            public int compare(ExchangeRate r1, ExchangeRate r2) {
+                return Long.compare(r1.date, r2.date);
+            }
+        };
+
+        final long[] dates;
+        final double[] rates;
+        final ExchangeRate[] items;
+
+        private Series(long[] dates, double[] rates, ExchangeRate[] items) {
+            this.dates = dates;
+            this.rates = rates;
+            this.items = items;
+        }
+
+        static Series of(List<ExchangeRate> list) {
+            ExchangeRate[] sorted = list.toArray(new ExchangeRate[0]);
+            // stable sort keeps the first added rate in front among equal dates
+            Arrays.sort(sorted, BY_DATE);
+            int n = 0;
+            for (int i = 0; i < sorted.length; i++) {
+                if (n == 0 || sorted[n - 1].date != sorted[i].date) {
+                    sorted[n++] = sorted[i];
+                }
+            }
+            long[] dates = new long[n];
+            double[] rates = new double[n];
+            ExchangeRate[] items = Arrays.copyOf(sorted, n);
+            for (int i = 0; i < n; i++) {
+                dates[i] = items[i].date;
+                rates[i] = items[i].rate;
+            }
+            return new Series(dates, rates, items);
+        }
+
+        Series flip() {
+            int n = items.length;
+            double[] flippedRates = new double[n];
+            ExchangeRate[] flipped = new ExchangeRate[n];
+            for (int i = 0; i < n; i++) {
+                flipped[i] = items[i].flip();
+                flippedRates[i] = flipped[i].rate;
+            }
+            return new Series(dates, flippedRates, flipped);
+        }
+
+        /**
+         * @return the latest rate on or before the given time or null
+         */
+        ExchangeRate floor(long atTime) {
+            int i = Arrays.binarySearch(dates, atTime);
+            if (i < 0) {
+                i = -i - 2;
+            }
+            return i >= 0 ? items[i] : null;
+        }
+
+    }
+
+}
@@ -0,0 +1,26 @@
+/*
+ * Copyright (c) 2012 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package tw.tib.financisto.rates;
+
+import java.util.List;
+
+import tw.tib.financisto.model.Currency;
+
+/**
+ * Provider which gets the historical rates of many currencies at a date with a single request.
+ * Implementations must allow requests for different dates to run concurrently.
+ */
+public interface HistoricalRatesProvider {
+
+    /**
+     * @return a rate from each of the given currencies to the target one, failed rates have the error set
+     */
+    List<ExchangeRate> getRates(List<Currency> fromCurrencies, Currency toCurrency, long atTime);
+
+}
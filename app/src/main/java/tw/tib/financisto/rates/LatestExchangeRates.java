@@ -8,33 +8,31 @@
 
 package tw.tib.financisto.rates;
 
-import android.content.Context;
-
 import gnu.trove.map.TLongObjectMap;
 import gnu.trove.map.hash.TLongObjectHashMap;
-import tw.tib.financisto.db.DatabaseAdapter;
 import tw.tib.financisto.model.Currency;
 
 import java.util.List;
 
 /**
+ * Thread safe, a single instance is shared by all readers (see {@link tw.tib.financisto.db.ExchangeRateCache})
+ *
  * Created by IntelliJ IDEA.
  * User: denis.solonenko
  * Date: 1/25/12 11:49 PM
  */
 public class LatestExchangeRates implements ExchangeRateProvider, ExchangeRatesCollection {
 
-    protected Context context;
-    protected Currency homeCurrency;
+    private final Currency homeCurrency;
 
-    public LatestExchangeRates(Context context) {
-        this.context = context;
+    public LatestExchangeRates(Currency homeCurrency) {
+        this.homeCurrency = homeCurrency;
     }
 
     private final TLongObjectMap<TLongObjectMap<ExchangeRate>> rates = new TLongObjectHashMap<TLongObjectMap<ExchangeRate>>();
 
     @Override
-    public ExchangeRate getRate(Currency fromCurrency, Currency toCurrency) {
+    public synchronized ExchangeRate getRate(Currency fromCurrency, Currency toCurrency) {
         if (fromCurrency.id == toCurrency.id) {
             return ExchangeRate.ONE;
         }
@@ -52,9 +50,6 @@ public class LatestExchangeRates implements ExchangeRateProvider, ExchangeRatesC
             return inverse;
         }
         // estimate from exchange via home currency
-        if (homeCurrency == null) {
-            homeCurrency = new DatabaseAdapter(context).getHomeCurrency();
-        }
         if (!homeCurrency.equals(Currency.EMPTY) &&
             !fromCurrency.equals(homeCurrency) &&
             !toCurrency.equals(homeCurrency))
@@ -89,7 +84,7 @@ public class LatestExchangeRates implements ExchangeRateProvider, ExchangeRatesC
     }
 
     @Override
-    public void addRate(ExchangeRate r) {
+    public synchronized void addRate(ExchangeRate r) {
         TLongObjectMap<ExchangeRate> rateMap = getMapFor(r.fromCurrencyId);
         rateMap.put(r.toCurrencyId, r);
     }
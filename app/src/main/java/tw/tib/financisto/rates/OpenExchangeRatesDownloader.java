@@ -33,12 +33,14 @@ import tw.tib.financisto.model.Currency;
  * Time: 6:27 PM
  */
 //@NotThreadSafe
-public class OpenExchangeRatesDownloader implements ExchangeRateProvider {
+public class OpenExchangeRatesDownloader implements ExchangeRateProvider, HistoricalRatesProvider {
 
     private static final String TAG = OpenExchangeRatesDownloader.class.getSimpleName();
-    private static final String GET_LATEST = "https://openexchangerates.org/api/latest.json?app_id=";
-    private static final String GET_HISTORICAL = "https://openexchangerates.org/api/historical/%s.json?app_id=%s";
+    private static final String DEFAULT_BASE_URL = "https://openexchangerates.org/api/";
+    private static final String GET_LATEST = "latest.json?app_id=";
+    private static final String GET_HISTORICAL = "historical/%s.json?app_id=%s";
 
+    private final String baseUrl;
     private final String appId;
     private final HttpClientWrapper httpClient;
 
@@ -47,7 +49,15 @@ public class OpenExchangeRatesDownloader implements ExchangeRateProvider {
     private Handler handler;
 
     public OpenExchangeRatesDownloader(HttpClientWrapper httpClient, String appId, Context context) {
+        this(httpClient, DEFAULT_BASE_URL, appId, context);
+    }
+
+    /**
+     * @param baseUrl api root ending with '/', allows to run against a local server
+     */
+    public OpenExchangeRatesDownloader(HttpClientWrapper httpClient, String baseUrl, String appId, Context context) {
         this.httpClient = httpClient;
+        this.baseUrl = baseUrl;
         this.appId = appId;
         this.context = context;
         this.handler = new Handler(Looper.getMainLooper());
@@ -146,7 +156,7 @@ public class OpenExchangeRatesDownloader implements ExchangeRateProvider {
     }
 
     private String getLatestUrl() {
-        return GET_LATEST+appId;
+        return baseUrl+GET_LATEST+appId;
     }
 
     private boolean hasError(JSONObject json) throws JSONException {
@@ -174,13 +184,11 @@ public class OpenExchangeRatesDownloader implements ExchangeRateProvider {
 
     @Override
     public ExchangeRate getRate(Currency fromCurrency, Currency toCurrency, long atTime) {
-        String date = new SimpleDateFormat("yyyy-MM-dd").format(new Date(atTime));
-        Log.d(TAG, "getRate "+fromCurrency.name+"->"+toCurrency.name + " at " + date);
+        Log.d(TAG, "getRate "+fromCurrency.name+"->"+toCurrency.name + " at " + atTime);
 
         ExchangeRate result = new ExchangeRate();
         try {
-            String historicalUrl = String.format(GET_HISTORICAL, date, appId);
-            JSONObject json = httpClient.getAsJson(historicalUrl);
+            JSONObject json = downloadHistoricalRates(atTime);
 
             if (json.optBoolean("error", false)) {
                 result.error = json.optString("description", "");
@@ -205,4 +213,42 @@ public class OpenExchangeRatesDownloader implements ExchangeRateProvider {
         return result;
     }
 
+    /**
+     * A historical response has the rates of all currencies, so every rate is taken from one request
+     */
+    @Override
+    public List<ExchangeRate> getRates(List<Currency> fromCurrencies, Currency toCurrency, long atTime) {
+        List<ExchangeRate> rates = new ArrayList<>(fromCurrencies.size());
+        JSONObject json = null;
+        String error = null;
+        try {
+            json = downloadHistoricalRates(atTime);
+            if (hasError(json)) {
+                error = error(json);
+            }
+        } catch (Exception e) {
+            error = error(e);
+        }
+        for (Currency fromCurrency : fromCurrencies) {
+            ExchangeRate rate = createRate(fromCurrency, toCurrency);
+            if (error != null) {
+                rate.error = error;
+            } else {
+                try {
+                    updateRate(json, rate, fromCurrency, toCurrency);
+                } catch (Exception e) {
+                    rate.error = error(e);
+                }
+            }
+            rates.add(rate);
+        }
+        return rates;
+    }
+
+    private JSONObject downloadHistoricalRates(long atTime) throws Exception {
+        String date = new SimpleDateFormat("yyyy-MM-dd").format(new Date(atTime));
+        Log.i(TAG, "Downloading historical rates at " + date);
+        return httpClient.getAsJson(baseUrl + String.format(GET_HISTORICAL, date, appId));
+    }
+
 }
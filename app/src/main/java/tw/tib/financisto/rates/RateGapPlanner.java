@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2012 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package tw.tib.financisto.rates;
+
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import gnu.trove.iterator.TLongObjectIterator;
+import gnu.trove.list.array.TLongArrayList;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import tw.tib.financisto.datetime.DateUtils;
+import tw.tib.financisto.db.DatabaseAdapter;
+import tw.tib.financisto.model.Currency;
+import tw.tib.financisto.utils.CurrencyCache;
+
+/**
+ * Collects the rates missing to convert a set of transactions into one currency
+ * and downloads them in one go: the missing currencies are grouped by day,
+ * so that there is one request per day instead of one per transaction,
+ * the days are downloaded in parallel and all the rates are saved in one database transaction.
+ * Not thread safe, gaps are collected by a single reader.
+ */
+public class RateGapPlanner {
+
+    private static final String TAG = "RateGapPlanner";
+    private static final int MAX_CONCURRENT_DOWNLOADS = 4;
+
+    private final Currency toCurrency;
+    private final boolean datedRates;
+    // day -> ids of the currencies without a rate at that day
+    private final TLongObjectMap<TLongArrayList> gaps = new TLongObjectHashMap<>();
+    // currencies already missing, when a rate applies at any date
+    private final TLongArrayList missing = new TLongArrayList();
+    private int size;
+
+    /**
+     * @param datedRates whether the rates are looked up at the date of a transaction,
+     *                   otherwise only one rate is downloaded per currency
+     */
+    public RateGapPlanner(Currency toCurrency, boolean datedRates) {
+        this.toCurrency = toCurrency;
+        this.datedRates = datedRates;
+    }
+
+    public void add(long fromCurrencyId, long datetime) {
+        if (!datedRates) {
+            if (missing.contains(fromCurrencyId)) {
+                return;
+            }
+            missing.add(fromCurrencyId);
+        }
+        long day = DateUtils.atMidnight(datetime);
+        TLongArrayList currencies = gaps.get(day);
+        if (currencies == null) {
+            currencies = new TLongArrayList();
+            gaps.put(day, currencies);
+        }
+        if (!currencies.contains(fromCurrencyId)) {
+            currencies.add(fromCurrencyId);
+            size++;
+        }
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Downloads and saves all the missing rates. A rate is dated at the start of its day,
+     * so that it applies to every transaction of that day.
+     *
+     * @return downloaded rates, failed ones have the error set
+     */
+    public List<ExchangeRate> backfill(DatabaseAdapter db, HistoricalRatesProvider provider) {
+        List<ExchangeRate> rates = new ArrayList<>(size);
+        if (isEmpty()) {
+            return rates;
+        }
+        long t0 = System.currentTimeMillis();
+        int days = gaps.size();
+        List<Future<List<ExchangeRate>>> requests = new ArrayList<>(days);
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(MAX_CONCURRENT_DOWNLOADS, days));
+        try {
+            TLongObjectIterator<TLongArrayList> i = gaps.iterator();
+            while (i.hasNext()) {
+                i.advance();
+                long day = i.key();
+                List<Currency> fromCurrencies = getCurrencies(db, i.value());
+                requests.add(executor.submit(() -> download(provider, fromCurrencies, day)));
+            }
+            for (Future<List<ExchangeRate>> request : requests) {
+                try {
+                    rates.addAll(request.get());
+                } catch (ExecutionException e) {
+                    Log.e(TAG, "Unable to download rates", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+        db.saveDownloadedRates(rates);
+        Log.i(TAG, "Backfilled " + size + " rates over " + days + " days in " + (System.currentTimeMillis() - t0) + "ms");
+        return rates;
+    }
+
+    private List<ExchangeRate> download(HistoricalRatesProvider provider, List<Currency> fromCurrencies, long day) {
+        List<ExchangeRate> rates = provider.getRates(fromCurrencies, toCurrency, day);
+        for (ExchangeRate rate : rates) {
+            // provider may return a rate at later of specified time
+            // but we need it lesser or equal to specified time to work correctly
+            rate.date = day;
+        }
+        return rates;
+    }
+
+    private static List<Currency> getCurrencies(DatabaseAdapter db, TLongArrayList ids) {
+        List<Currency> currencies = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            currencies.add(CurrencyCache.getCurrency(db, ids.get(i)));
+        }
+        return currencies;
+    }
+
+}
@@ -3,20 +3,31 @@ package tw.tib.financisto.recur;
 import com.google.ical.iter.RecurrenceIterator;
 import com.google.ical.iter.RecurrenceIteratorFactory;
 import com.google.ical.util.TimeUtils;
+import com.google.ical.values.DateValue;
+import com.google.ical.values.DateValueImpl;
 import com.google.ical.values.RRule;
+import com.google.ical.values.TimeValue;
 
 import java.text.ParseException;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.TimeZone;
 
 import static tw.tib.financisto.recur.RecurrencePeriod.dateToDateValue;
 import static tw.tib.financisto.recur.RecurrencePeriod.dateValueToDate;
 
 public class DateRecurrenceIterator {
 
+    // the underlying iterator works with local date values converted to UTC,
+    // seeking a bit earlier makes it safe around DST changes and for date-only rules
+    private static final long SEEK_MARGIN = 2 * 24 * 60 * 60 * 1000L;
+
 	private final RecurrenceIterator ri;
     private Date firstDate;
     private boolean isStartDateInDaylight;
+    private TimeZone timeZone;
+    private boolean isDateOnly;
+    private Date lastDate;
 
 	private DateRecurrenceIterator(RecurrenceIterator ri) {
 		this.ri = ri;
@@ -35,19 +46,59 @@ public class DateRecurrenceIterator {
         return dateValueToDate(ri.next(), isStartDateInDaylight);
 	}
 
+    /**
+     * Skips all dates before the given one, the next date is the first one which is not before it.
+     * The underlying rrule iterator jumps close to the date without generating the dates in between.
+     */
+    public void advanceTo(Date date) {
+        if (firstDate != null) {
+            if (!firstDate.before(date)) {
+                return;
+            }
+            firstDate = null;
+        }
+        DateValue seek = dateToDateValue(new Date(date.getTime() - SEEK_MARGIN));
+        if (isDateOnly && seek instanceof TimeValue) {
+            seek = new DateValueImpl(seek.year(), seek.month(), seek.day());
+        }
+        ri.advanceTo(TimeUtils.toUtc(seek, timeZone));
+        while (ri.hasNext()) {
+            Date next = dateValueToDate(ri.next(), isStartDateInDaylight);
+            lastDate = next;
+            if (!next.before(date)) {
+                firstDate = next;
+                break;
+            }
+        }
+    }
+
 	public static DateRecurrenceIterator create(RRule rrule, Date nowDate, Date startDate) throws ParseException {
-        RecurrenceIterator ri = RecurrenceIteratorFactory.createRecurrenceIterator(rrule,
-                dateToDateValue(startDate), Calendar.getInstance().getTimeZone());
-        Date date = null;
-        boolean isStartDateInDaylight = Calendar.getInstance().getTimeZone().inDaylightTime(startDate);
-        while (ri.hasNext() && (date = dateValueToDate(ri.next(), isStartDateInDaylight)).before(nowDate));
-        //ri.advanceTo(dateToDateValue(nowDate));
-        DateRecurrenceIterator iterator = new DateRecurrenceIterator(ri);
-        iterator.isStartDateInDaylight = isStartDateInDaylight;
-        iterator.firstDate = date;
+        TimeZone timeZone = Calendar.getInstance().getTimeZone();
+        DateValue start = dateToDateValue(startDate);
+        DateRecurrenceIterator iterator = new DateRecurrenceIterator(
+                RecurrenceIteratorFactory.createRecurrenceIterator(rrule, start, timeZone));
+        iterator.isStartDateInDaylight = timeZone.inDaylightTime(startDate);
+        iterator.timeZone = timeZone;
+        iterator.isDateOnly = !(start instanceof TimeValue);
+        iterator.advanceTo(nowDate);
+        if (iterator.firstDate == null) {
+            // a finished recurrence still yields its last date, it is shown as the last run
+            iterator.firstDate = iterator.lastDate != null
+                    ? iterator.lastDate
+                    : findLastDate(RecurrenceIteratorFactory.createRecurrenceIterator(rrule, start, timeZone),
+                    iterator.isStartDateInDaylight);
+        }
         return iterator;
 	}
 
+    private static Date findLastDate(RecurrenceIterator ri, boolean isStartDateInDaylight) {
+        DateValue last = null;
+        while (ri.hasNext()) {
+            last = ri.next();
+        }
+        return last != null ? dateValueToDate(last, isStartDateInDaylight) : null;
+    }
+
     public static DateRecurrenceIterator empty() {
         return new EmptyDateRecurrenceIterator();
     }
@@ -12,6 +12,7 @@ package tw.tib.financisto.report;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.util.Log;
 
 import tw.tib.financisto.datetime.Period;
 import tw.tib.financisto.datetime.PeriodType;
@@ -20,9 +21,15 @@ import tw.tib.financisto.filter.Criteria;
 import tw.tib.financisto.filter.DateTimeCriteria;
 import tw.tib.financisto.db.DatabaseAdapter;
 import tw.tib.financisto.db.DatabaseHelper.ReportColumns;
+import tw.tib.financisto.db.ReportAggregate;
+import tw.tib.financisto.db.TransactionsTotalCalculator;
+import tw.tib.financisto.db.TransactionsTotalCalculator.ConvertedTotal;
+import tw.tib.financisto.db.UnableToCalculateRateException;
 import tw.tib.financisto.graph.GraphUnit;
 import tw.tib.financisto.model.Currency;
 import tw.tib.financisto.model.Total;
+import tw.tib.financisto.model.TotalError;
+import tw.tib.financisto.rates.ExchangeRateProvider;
 
 import java.util.ArrayList;
 
@@ -30,6 +37,8 @@ import static tw.tib.financisto.db.DatabaseHelper.V_REPORT_PERIOD;
 
 public class PeriodReport extends Report {
 
+    private static final String TAG = "PeriodReport";
+
     private final PeriodType[] periodTypes = new PeriodType[]{
             PeriodType.TODAY,
             PeriodType.YESTERDAY,
@@ -46,8 +55,6 @@ public class PeriodReport extends Report {
 
 	private final Period[] periods = new Period[periodTypes.length];
 
-    private Period currentPeriod;
-
 	public PeriodReport(Context context, Currency currency) {
 		super(ReportType.BY_PERIOD, context, currency);
         for (int i=0; i<periodTypes.length; i++) {
@@ -55,34 +62,72 @@ public class PeriodReport extends Report {
         }
     }
 
+	/**
+	 * The periods overlap, so the union of their ranges is queried once
+	 * and every row is added to the total of each period which contains it.
+	 */
 	@Override
 	public ReportData getReport(DatabaseAdapter db, WhereFilter filter) {
+		long t0 = System.currentTimeMillis();
+		long start = Long.MAX_VALUE, end = Long.MIN_VALUE;
+		for (Period p : periods) {
+			start = Math.min(start, p.start);
+			end = Math.max(end, p.end);
+		}
 		WhereFilter newFilter = WhereFilter.copyOf(filter);
+		newFilter.put(Criteria.btw(ReportColumns.DATETIME, String.valueOf(start), String.valueOf(end)));
+		GraphUnit[] periodUnits = new GraphUnit[periods.length];
+		ConvertedTotal[] periodAmounts = new ConvertedTotal[periods.length];
+		int rows;
+		long t1, t2;
+		try (Cursor c = ReportAggregate.query(db.db(), V_REPORT_PERIOD, ReportColumns.NORMAL_PROJECTION, newFilter, null)) {
+			// counting runs the query, so it's timed apart from the conversion
+			rows = c.getCount();
+			ExchangeRateProvider rates = db.getHistoryRates();
+			int datetimeIndex = c.getColumnIndex(ReportColumns.DATETIME);
+			TransactionsTotalCalculator.backfillRates(db, c, currency, rates, datetimeIndex);
+			t1 = System.currentTimeMillis();
+			while (c.moveToNext()) {
+				long datetime = c.getLong(datetimeIndex);
+				for (int i = 0; i < periods.length; i++) {
+					Period p = periods[i];
+					if (datetime >= p.start && datetime <= p.end) {
+						GraphUnit u = periodUnits[i];
+						if (u == null) {
+							u = periodUnits[i] = new GraphUnit(p.type.ordinal(), context.getString(p.type.titleId), currency, style);
+							periodAmounts[i] = new ConvertedTotal(db, currency, rates);
+						}
+						try {
+							periodAmounts[i].add(c, datetimeIndex);
+						} catch (UnableToCalculateRateException e) {
+							u.error = TotalError.atDateRateError(e.fromCurrency, e.datetime);
+						}
+					}
+				}
+			}
+			for (int i = 0; i < periods.length; i++) {
+				if (periodUnits[i] != null) {
+					addAmounts(periodUnits[i], periodAmounts[i]);
+				}
+			}
+			t2 = System.currentTimeMillis();
+		}
 		ArrayList<GraphUnit> units = new ArrayList<GraphUnit>();
-        for (Period p : periods) {
-            currentPeriod = p;
-            newFilter.put(Criteria.btw(ReportColumns.DATETIME, String.valueOf(p.start), String.valueOf(p.end)));
-            Cursor c = db.db().query(V_REPORT_PERIOD, ReportColumns.NORMAL_PROJECTION,
-                    newFilter.getSelection(), newFilter.getSelectionArgs(), null, null, null);
-            ArrayList<GraphUnit> u = getUnitsFromCursor(db, c);
-            if (u.size() > 0 && u.get(0).size() > 0) {
-                units.add(u.get(0));
-            }
-        }
-        Total total = calculateTotal(units);
+		for (GraphUnit u : periodUnits) {
+			if (u != null) {
+				u.flatten(incomeExpense);
+				if (u.maxAmount != 0 && u.size() > 0) {
+					units.add(u);
+				}
+			}
+		}
+		Total total = calculateTotal(units);
+		long t3 = System.currentTimeMillis();
+		Log.d(TAG, rows + " rows for " + periods.length + " periods: query " + (t1 - t0) + "ms, convert and add "
+				+ (t2 - t1) + "ms, totals " + (t3 - t2) + "ms");
 		return new ReportData(units, total);
 	}
 
-    @Override
-    protected long getId(Cursor c) {
-        return currentPeriod.type.ordinal();
-    }
-
-    @Override
-    protected String alterName(long id, String name) {
-        return context.getString(currentPeriod.type.titleId);
-    }
-
     @Override
 	public Criteria getCriteriaForId(DatabaseAdapter db, long id) {
         for (Period period : periods) {
@@ -16,7 +16,6 @@ import android.database.Cursor;
 
 import androidx.appcompat.app.AppCompatActivity;
 
-import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
@@ -27,7 +26,9 @@ import tw.tib.financisto.blotter.BlotterFilter;
 import tw.tib.financisto.db.DatabaseAdapter;
 import tw.tib.financisto.db.DatabaseHelper;
 import tw.tib.financisto.db.DatabaseHelper.ReportColumns;
+import tw.tib.financisto.db.ReportAggregate;
 import tw.tib.financisto.db.TransactionsTotalCalculator;
+import tw.tib.financisto.db.TransactionsTotalCalculator.ConvertedTotal;
 import tw.tib.financisto.db.UnableToCalculateRateException;
 import tw.tib.financisto.filter.Criteria;
 import tw.tib.financisto.filter.WhereFilter;
@@ -72,8 +73,7 @@ public abstract class Report {
     }
 
     protected ReportData queryReport(DatabaseAdapter db, String table, WhereFilter filter) {
-        Cursor c = db.db().query(table, DatabaseHelper.ReportColumns.NORMAL_PROJECTION,
-                filter.getSelection(), filter.getSelectionArgs(), null, null, "_id");
+        Cursor c = ReportAggregate.query(db.db(), table, DatabaseHelper.ReportColumns.NORMAL_PROJECTION, filter, "_id");
         ArrayList<GraphUnit> units = getUnitsFromCursor(db, c);
         Total total = calculateTotal(units);
         return new ReportData(units, total);
@@ -82,30 +82,32 @@ public abstract class Report {
     protected ArrayList<GraphUnit> getUnitsFromCursor(DatabaseAdapter db, Cursor c) {
         try {
             ExchangeRateProvider rates = db.getHistoryRates();
+            int datetimeIndex = c.getColumnIndex(ReportColumns.DATETIME);
+            TransactionsTotalCalculator.backfillRates(db, c, currency, rates, datetimeIndex);
             ArrayList<GraphUnit> units = new ArrayList<GraphUnit>();
             GraphUnit u = null;
+            ConvertedTotal amounts = null;
             long lastId = -1;
             while (c.moveToNext()) {
                 long id = getId(c);
-                long isTransfer = c.getLong(c.getColumnIndex(ReportColumns.IS_TRANSFER));
                 if (id != lastId) {
                     if (u != null) {
+                        addAmounts(u, amounts);
                         units.add(u);
                     }
                     String name = c.getString(c.getColumnIndex(ReportColumns.NAME));
                     u = new GraphUnit(id, alterName(id, name), currency, style);
+                    amounts = new ConvertedTotal(db, currency, rates);
                     lastId = id;
                 }
-                BigDecimal amount;
                 try {
-                    amount = TransactionsTotalCalculator.getAmountFromCursor(db, c, currency, rates, c.getColumnIndex(ReportColumns.DATETIME));
+                    amounts.add(c, datetimeIndex);
                 } catch (UnableToCalculateRateException e) {
-                    amount = BigDecimal.ZERO;
                     u.error = TotalError.atDateRateError(e.fromCurrency, e.datetime);
                 }
-                u.addAmount(amount, false);
             }
             if (u != null) {
+                addAmounts(u, amounts);
                 units.add(u);
             }
             for (GraphUnit unit : units) {
@@ -119,6 +121,15 @@ public abstract class Report {
         }
     }
 
+    /**
+     * Income and expenses are split by the sign of every converted row,
+     * so the income is forced in case it's less than one unit
+     */
+    protected static void addAmounts(GraphUnit u, ConvertedTotal amounts) {
+        u.addAmount(amounts.getIncomeAmount(), true);
+        u.addAmount(amounts.getExpensesAmount(), false);
+    }
+
     private void removeEmptyUnits(ArrayList<GraphUnit> units) {
         Iterator<GraphUnit> unit = units.iterator();
         while (unit.hasNext()) {
@@ -17,6 +17,7 @@ import tw.tib.financisto.activity.SplitsBlotterActivity;
 import tw.tib.financisto.blotter.BlotterFilter;
 import tw.tib.financisto.db.DatabaseAdapter;
 import tw.tib.financisto.db.DatabaseHelper;
+import tw.tib.financisto.db.ReportAggregate;
 import tw.tib.financisto.db.TransactionsTotalCalculator;
 import tw.tib.financisto.db.UnableToCalculateRateException;
 import tw.tib.financisto.filter.WhereFilter;
@@ -59,11 +60,11 @@ public class SubCategoryReport extends Report {
 
     @Override
     public ReportData getReport(final DatabaseAdapter db, WhereFilter filter) {
-        Cursor c = db.db().query(V_REPORT_SUB_CATEGORY, DatabaseHelper.SubCategoryReportColumns.NORMAL_PROJECTION,
-                filter.getSelection(), filter.getSelectionArgs(), null, null,
-                DatabaseHelper.SubCategoryReportColumns.LEFT);
+        Cursor c = ReportAggregate.query(db.db(), V_REPORT_SUB_CATEGORY, DatabaseHelper.SubCategoryReportColumns.NORMAL_PROJECTION,
+                filter, DatabaseHelper.SubCategoryReportColumns.LEFT);
         final ExchangeRateProvider rates = db.getHistoryRates();
         try {
+            TransactionsTotalCalculator.backfillRates(db, c, currency, rates, c.getColumnIndex(DatabaseHelper.ReportColumns.DATETIME));
             final int leftColumnIndex = c.getColumnIndex(DatabaseHelper.SubCategoryReportColumns.LEFT);
             CategoryTree<CategoryAmount> amounts = CategoryTree.createFromCursor(c, new NodeCreator<CategoryAmount>(){
                 @Override
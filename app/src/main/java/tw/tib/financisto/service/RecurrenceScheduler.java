@@ -23,6 +23,7 @@ import androidx.work.WorkManager;
 
 import tw.tib.financisto.db.DatabaseAdapter;
 import tw.tib.financisto.model.RestoredTransaction;
+import tw.tib.financisto.model.ScheduledOccurrence;
 import tw.tib.financisto.model.SystemAttribute;
 import tw.tib.financisto.model.TransactionAttributeInfo;
 import tw.tib.financisto.model.TransactionInfo;
@@ -32,6 +33,7 @@ import tw.tib.financisto.utils.MyPreferences;
 import tw.tib.financisto.worker.ScheduleTxWorker;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 public class RecurrenceScheduler {
@@ -40,6 +42,9 @@ public class RecurrenceScheduler {
     private static final Date NULL_DATE = new Date(0);
     private static final int MAX_RESTORED = 1000;
 
+    // next date by recurrence, shared between the scheduler and the schedule list
+    private static final Map<String, NextDate> NEXT_DATES = new ConcurrentHashMap<>();
+
     private final DatabaseAdapter db;
 
     public RecurrenceScheduler(DatabaseAdapter db) {
@@ -54,10 +59,21 @@ public class RecurrenceScheduler {
             // all transactions up to and including now has already been restored
             now += 1000;
         }
-        scheduleAll(context, now);
+        ArrayList<TransactionInfo> list = db.getAllScheduledTransactionRecurrences();
+        calculateNextScheduleDateForAllTransactions(list, now);
+        scheduleChanged(context, list, now);
         return restoredTransactionsCount;
     }
 
+    /**
+     * Cancels all the work and schedules everything again, for when the schedule index can't be trusted
+     */
+    public int rescheduleAll(Context context) {
+        cancelAll(context);
+        db.clearScheduleIndex();
+        return scheduleAll(context);
+    }
+
     public TransactionInfo scheduleOne(Context context, long scheduledTransactionId, long timestamp) {
         Log.i(TAG, "scheduleOne called with txId=" + scheduledTransactionId + ", timestamp=" + timestamp);
         TransactionInfo transaction = db.getTransactionInfo(scheduledTransactionId);
@@ -171,15 +187,40 @@ public class RecurrenceScheduler {
     }
 
     public ArrayList<TransactionInfo> scheduleAll(Context context, long now) {
-        cancelAll(context);
-
         ArrayList<TransactionInfo> scheduled = getSortedSchedules(now);
-        for (TransactionInfo transaction : scheduled) {
-            scheduleWork(context, transaction, now);
-        }
+        scheduleChanged(context, scheduled, now);
         return scheduled;
     }
 
+    /**
+     * Compares transactions with the schedule index and only touches the work of those
+     * which recurrence or next date/time has changed, or which are not there anymore
+     */
+    private void scheduleChanged(Context context, List<TransactionInfo> transactions, long now) {
+        long t0 = System.currentTimeMillis();
+        Map<Long, ScheduledOccurrence> index = db.getScheduleIndex();
+        int scheduled = 0, cancelled = 0;
+        for (TransactionInfo transaction : transactions) {
+            ScheduledOccurrence o = index.remove(transaction.id);
+            if (shouldSchedule(transaction, now)) {
+                if (o == null || o.nextOccurrence != transaction.nextDateTime.getTime()
+                        || !Objects.equals(o.recurrence, transaction.recurrence)) {
+                    scheduleWork(context, transaction, now);
+                    scheduled++;
+                }
+            } else if (o != null) {
+                cancelPendingWorkForSchedule(context, transaction.id);
+                cancelled++;
+            }
+        }
+        for (long transactionId : index.keySet()) {
+            cancelPendingWorkForSchedule(context, transactionId);
+            cancelled++;
+        }
+        Log.i(TAG, "Scheduled "+scheduled+", cancelled "+cancelled+" of "+transactions.size()
+                +" transactions in "+(System.currentTimeMillis()-t0)+"ms");
+    }
+
     public Operation cancelAll(Context context) {
         return WorkManager.getInstance(context).cancelAllWorkByTag(ScheduleTxWorker.WORK_TAG);
     }
@@ -204,6 +245,8 @@ public class RecurrenceScheduler {
                     ExistingPeriodicWorkPolicy.UPDATE,
                     workRequest);
 
+            db.saveScheduleIndex(new ScheduledOccurrence(transaction.id, transaction.recurrence, scheduleTime.getTime()));
+
             Log.i(TAG, "Scheduling work for "+transaction.id+" at "+scheduleTime);
             return true;
         }
@@ -233,6 +276,7 @@ public class RecurrenceScheduler {
     public void cancelPendingWorkForSchedule(Context context, long transactionId) {
         Log.i(TAG, "Cancelling pending work for "+transactionId);
         WorkManager.getInstance(context).cancelAllWorkByTag(ScheduleTxWorker.WORK_NAME_PREFIX + transactionId);
+        db.deleteScheduleIndex(transactionId);
     }
 
     /**
@@ -293,15 +337,22 @@ public class RecurrenceScheduler {
     }
 
     public Date calculateNextDate(String recurrence, long now) {
+        String timeZone = TimeZone.getDefault().getID();
+        NextDate cached = NEXT_DATES.get(recurrence);
+        if (cached != null && cached.isValidAt(timeZone, now)) {
+            return cached.date != null ? new Date(cached.date.getTime()) : null;
+        }
+        Date nextDate = null;
         try {
             DateRecurrenceIterator ri = createIterator(recurrence, now);
             if (ri.hasNext()) {
-                return ri.next();
+                nextDate = ri.next();
             }
         } catch (Exception ex) {
             Log.e(TAG, "Unable to calculate next date for "+recurrence+" at "+now);
         }
-        return null;
+        NEXT_DATES.put(recurrence, new NextDate(timeZone, now, nextDate));
+        return nextDate != null ? new Date(nextDate.getTime()) : null;
     }
 
     private DateRecurrenceIterator createIterator(String recurrence, long now) {
@@ -310,4 +361,28 @@ public class RecurrenceScheduler {
         return r.createIterator(advanceDate);
     }
 
+    /**
+     * Next date of a recurrence calculated at some moment.
+     * It stays the next date until that date has come,
+     * the last date of a finished recurrence stays forever.
+     */
+    private static class NextDate {
+
+        final String timeZone;
+        final long calculatedAt;
+        final Date date;
+
+        NextDate(String timeZone, long calculatedAt, Date date) {
+            this.timeZone = timeZone;
+            this.calculatedAt = calculatedAt;
+            this.date = date;
+        }
+
+        boolean isValidAt(String timeZone, long now) {
+            return this.timeZone.equals(timeZone) && now >= calculatedAt
+                    && (date == null || date.getTime() < calculatedAt || now <= date.getTime());
+        }
+
+    }
+
 }
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2012 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package tw.tib.financisto.service;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import tw.tib.financisto.model.SmsTemplate;
+import tw.tib.financisto.service.SmsTransactionProcessor.Placeholder;
+import tw.tib.financisto.utils.StringUtil;
+
+import static java.util.regex.Pattern.DOTALL;
+import static tw.tib.financisto.service.SmsTransactionProcessor.Placeholder.ANY;
+
+/**
+ * Sms template compiled into a regex once and reused for every message.
+ * <p>
+ * Compiled templates are cached by template id, an entry is used only while its source
+ * is the same as the template text, so an edited template gets compiled again on the next message.
+ * Before running the regex the message is checked for the longest literal part of the template,
+ * which rules out most of the templates of a sender without touching the regex engine.
+ */
+public class SmsTemplateMatcher {
+
+    private static final Map<Long, SmsTemplateMatcher> CACHE = new ConcurrentHashMap<>();
+
+    private static final Placeholder[] PLACEHOLDERS = Placeholder.values();
+
+    private final String source;
+    private final Pattern pattern;
+    private final int[] groups;
+    private final String literal;
+
+    private SmsTemplateMatcher(String source, Pattern pattern, int[] groups, String literal) {
+        this.source = source;
+        this.pattern = pattern;
+        this.groups = groups;
+        this.literal = literal;
+    }
+
+    /**
+     * @return compiled template from the cache, compiles and caches it when the template has changed
+     */
+    public static SmsTemplateMatcher get(SmsTemplate template) {
+        if (template.id <= 0) {
+            return compile(template.template);
+        }
+        SmsTemplateMatcher m = CACHE.get(template.id);
+        if (m == null || !equals(m.source, template.template)) {
+            m = compile(template.template);
+            CACHE.put(template.id, m);
+        }
+        return m;
+    }
+
+    /**
+     * Drops the compiled template, called when it is saved or deleted
+     */
+    public static void invalidate(long templateId) {
+        CACHE.remove(templateId);
+    }
+
+    public static void invalidate() {
+        CACHE.clear();
+    }
+
+    /**
+     * Tests the templates of a sender in their order starting with the given position
+     *
+     * @return the first matching template or null if none
+     */
+    public static Match findFirst(List<SmsTemplate> templates, int from, String sms) {
+        for (int i = from; i < templates.size(); i++) {
+            SmsTemplate template = templates.get(i);
+            String[] groups = get(template).match(sms);
+            if (groups != null) {
+                return new Match(i, template, groups);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Compiles the template without caching it
+     * ex. ECMC<:A:> <:D:> покупка <:P:> TEREMOK <::>Баланс: <:B:>р
+     */
+    public static SmsTemplateMatcher compile(String template) {
+        if (template == null) {
+            return new SmsTemplateMatcher(null, null, null, null);
+        }
+        String source = template;
+        template = preprocessPatterns(template);
+        int[] phIndexes = SmsTransactionProcessor.findPlaceholderIndexes(template);
+        if (phIndexes == null) {
+            return new SmsTemplateMatcher(source, null, null, null);
+        }
+        String literal = findLongestLiteral(template);
+        // escape regex characters (i.e. can't use regex in template)
+        template = template.replaceAll("([.\\[\\]{}()*+\\-?^$|])", "\\\\$1");
+        for (int i = 0; i < phIndexes.length; i++) {
+            if (phIndexes[i] != -1) {
+                Placeholder placeholder = PLACEHOLDERS[i];
+                template = template.replace(placeholder.code, placeholder.regexp);
+            }
+        }
+        template = template.replace(ANY.code, ANY.regexp);
+        return new SmsTemplateMatcher(source, Pattern.compile(template, DOTALL), phIndexes, literal);
+    }
+
+    /**
+     * @return matches by {@link Placeholder} ordinal or null if the sms doesn't match
+     */
+    public String[] match(String sms) {
+        if (pattern == null || sms == null) {
+            return null;
+        }
+        if (literal.length() > 0 && !sms.contains(literal)) {
+            return null;
+        }
+        Matcher matcher = pattern.matcher(sms);
+        if (!matcher.find()) {
+            return null;
+        }
+        String[] results = new String[PLACEHOLDERS.length];
+        for (int i = 0; i < groups.length; i++) {
+            final int groupNum = groups[i] + 1;
+            if (groupNum > 0) {
+                results[i] = matcher.group(groupNum);
+            }
+        }
+        return results;
+    }
+
+    private static String preprocessPatterns(String template) {
+        String res = template;
+        for (Placeholder ph : PLACEHOLDERS) {
+            for (String synonym : ph.synonyms) {
+                res = StringUtil.replaceAllIgnoreCase(res, synonym, ph.code);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Every literal part of the template must be in the sms as is for the regex to match
+     */
+    private static String findLongestLiteral(String template) {
+        String longest = "";
+        int start = 0;
+        while (start <= template.length()) {
+            int end = template.length();
+            int next = end;
+            for (Placeholder ph : PLACEHOLDERS) {
+                int i = template.indexOf(ph.code, start);
+                if (i >= 0 && i < end) {
+                    end = i;
+                    next = i + ph.code.length();
+                }
+            }
+            if (end - start > longest.length()) {
+                longest = template.substring(start, end);
+            }
+            if (end == template.length()) {
+                break;
+            }
+            start = next;
+        }
+        return longest;
+    }
+
+    private static boolean equals(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    public static class Match {
+
+        public final int index;
+        public final SmsTemplate template;
+        public final String[] groups;
+
+        Match(int index, SmsTemplate template, String[] groups) {
+            this.index = index;
+            this.template = template;
+            this.groups = groups;
+        }
+
+    }
+
+}
@@ -15,12 +15,9 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static java.lang.String.format;
 import static java.math.BigDecimal.ZERO;
-import static java.util.regex.Pattern.DOTALL;
 import static tw.tib.financisto.service.SmsTransactionProcessor.Placeholder.*;
 
 public class SmsTransactionProcessor {
@@ -39,42 +36,42 @@ public class SmsTransactionProcessor {
      */
     public Transaction createTransactionBySms(String addr, String fullSmsBody, TransactionStatus status, boolean updateNote) {
         List<SmsTemplate> addrTemplates = db.getSmsTemplatesByNumber(addr);
-        for (final SmsTemplate template : addrTemplates) {
-            String[] match = findTemplateMatches(template.template, fullSmsBody);
-            if (match != null) {
-                Log.d(TAG, format("Found template \"%s\" with matches \"%s\"", template, Arrays.toString(match)));
-
-                String account = match[ACCOUNT.ordinal()];
-                String account_name = match[ACCOUNT_NAME.ordinal()];
-                String transfer_to_account_name = match[TRANSFER_TO_ACCOUNT_NAME.ordinal()];
-                String parsedPrice = match[PRICE.ordinal()];
-                String text = match[TEXT.ordinal()];
-                String greedy_text = match[GREEDY_TEXT.ordinal()];
-                String payeeText =  match[PAYEE.ordinal()];
-                String projectText = match[PROJECT.ordinal()];
-                if (text == null && greedy_text != null) {
-                    text = greedy_text;
-                }
-                String note = "";
-                if (template.note != null && !template.note.isEmpty()) {
-                    if (text == null) {
-                        text = "";
-                    }
-                    note = template.note.replace("{{t}}", text);
-                }
-                else if (text != null) {
-                    note = text;
-                }
-                else if (updateNote) {
-                    note = fullSmsBody;
-                }
-                try {
-                    BigDecimal price = toBigDecimal(parsedPrice);
-                    return createNewTransaction(template, price, account, account_name,
-                            transfer_to_account_name, payeeText, projectText, note, status);
-                } catch (Exception e) {
-                    Log.e(TAG, format("Failed to parse price value: \"%s\"", parsedPrice), e);
+        for (SmsTemplateMatcher.Match m = SmsTemplateMatcher.findFirst(addrTemplates, 0, fullSmsBody); m != null;
+             m = SmsTemplateMatcher.findFirst(addrTemplates, m.index + 1, fullSmsBody)) {
+            final SmsTemplate template = m.template;
+            final String[] match = m.groups;
+            Log.d(TAG, format("Found template id=%s for sms from \"%s\"", template.id, addr));
+
+            String account = match[ACCOUNT.ordinal()];
+            String account_name = match[ACCOUNT_NAME.ordinal()];
+            String transfer_to_account_name = match[TRANSFER_TO_ACCOUNT_NAME.ordinal()];
+            String parsedPrice = match[PRICE.ordinal()];
+            String text = match[TEXT.ordinal()];
+            String greedy_text = match[GREEDY_TEXT.ordinal()];
+            String payeeText =  match[PAYEE.ordinal()];
+            String projectText = match[PROJECT.ordinal()];
+            if (text == null && greedy_text != null) {
+                text = greedy_text;
+            }
+            String note = "";
+            if (template.note != null && !template.note.isEmpty()) {
+                if (text == null) {
+                    text = "";
                 }
+                note = template.note.replace("{{t}}", text);
+            }
+            else if (text != null) {
+                note = text;
+            }
+            else if (updateNote) {
+                note = fullSmsBody;
+            }
+            try {
+                BigDecimal price = toBigDecimal(parsedPrice);
+                return createNewTransaction(template, price, account, account_name,
+                        transfer_to_account_name, payeeText, projectText, note, status);
+            } catch (Exception e) {
+                Log.e(TAG, format("Failed to parse price value: \"%s\"", parsedPrice), e);
             }
         }
         return null;
@@ -249,48 +246,7 @@ public class SmsTransactionProcessor {
      * ex. ECMC<:A:> <:D:> покупка <:P:> TEREMOK <::>Баланс: <:B:>р
      */
     public static String[] findTemplateMatches(String template, final String sms) {
-        Log.d(TAG, "findTemplateMatches template=\"" + template + "\", sms=\"" + sms + "\"");
-
-        String[] results = null;
-        template = preprocessPatterns(template);
-        final int[] phIndexes = findPlaceholderIndexes(template);
-
-        if (phIndexes != null) {
-            // escape regex characters (i.e. can't use regex in template)
-            template = template.replaceAll("([.\\[\\]{}()*+\\-?^$|])", "\\\\$1");
-            for (int i = 0; i < phIndexes.length; i++) {
-                if (phIndexes[i] != -1) {
-                    Placeholder placeholder = Placeholder.values()[i];
-                    template = template.replace(placeholder.code, placeholder.regexp);
-                }
-            }
-            template = template.replace(ANY.code, ANY.regexp);
-            Log.d(TAG, "template=" + template);
-
-            Matcher matcher = Pattern.compile(template, DOTALL).matcher(sms);
-            if (matcher.find()) {
-                results = new String[Placeholder.values().length];
-                for (int i = 0; i < phIndexes.length; i++) {
-                    final int groupNum = phIndexes[i] + 1;
-                    if (groupNum > 0) {
-                        results[i] = matcher.group(groupNum);
-                    }
-                }
-            }
-        }
-        return results;
-    }
-
-    private static String preprocessPatterns(String template) {
-        String res = template;
-        for (Placeholder ph : Placeholder.values()) {
-            if (ph.synonyms.length > 0) {
-                for (String synonym : ph.synonyms) {
-                    res = StringUtil.replaceAllIgnoreCase(res, synonym, ph.code);
-                }
-            }
-        }
-        return res;
+        return SmsTemplateMatcher.compile(template).match(sms);
     }
 
     /**
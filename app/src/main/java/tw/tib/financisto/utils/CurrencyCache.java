@@ -23,14 +23,34 @@ import java.text.DecimalFormat;
 import java.text.DecimalFormatSymbols;
 import java.text.Format;
 import java.util.Collection;
+import java.util.Objects;
 
+/**
+ * Currencies by id, read on every amount shown.
+ * <p>
+ * Readers get the current snapshot without locking, a change copies the map and publishes the copy.
+ * Formats are cached per thread, because {@link Format} is not thread safe, and an entry is reused
+ * only while the currency has the same format settings.
+ */
 public class CurrencyCache {
 	public static final String DEFAULT_FORMAT = "#,##0.00";
 
-    //@ProtectedBy("this")
-	private static final TLongObjectHashMap<Currency> CURRENCIES = new TLongObjectHashMap<Currency>();
-	
-	public static synchronized Currency getCurrency(EntityManager em, long currencyId) {
+	private static final Object WRITE_LOCK = new Object();
+
+	// never modified after publishing, replaced under WRITE_LOCK
+	private static volatile TLongObjectHashMap<Currency> CURRENCIES = new TLongObjectHashMap<Currency>();
+
+	// incremented every time the currencies are reloaded, that is after any currency change
+	private static volatile long VERSION;
+
+	private static final ThreadLocal<TLongObjectHashMap<CachedFormat>> FORMATS = new ThreadLocal<TLongObjectHashMap<CachedFormat>>() {
+		@Override
+		protected TLongObjectHashMap<CachedFormat> initialValue() {
+			return new TLongObjectHashMap<CachedFormat>();
+		}
+	};
+
+	public static Currency getCurrency(EntityManager em, long currencyId) {
 		Currency cachedCurrency = CURRENCIES.get(currencyId);
         if (cachedCurrency == null) {
 			Log.d("CurrencyCache", "cachedCurrency IS NULL");
@@ -38,17 +58,25 @@ public class CurrencyCache {
             if (cachedCurrency == null) {
                 cachedCurrency = Currency.EMPTY;
             }
-            CURRENCIES.put(currencyId, cachedCurrency);
+            synchronized (WRITE_LOCK) {
+                TLongObjectHashMap<Currency> currencies = new TLongObjectHashMap<Currency>(CURRENCIES);
+                currencies.put(currencyId, cachedCurrency);
+                CURRENCIES = currencies;
+            }
         }
         return cachedCurrency;
 	}
 	
-	public static synchronized Currency getCurrencyOrEmpty(long currencyId) {
+	public static Currency getCurrencyOrEmpty(long currencyId) {
 		Currency c = CURRENCIES.get(currencyId);
 		return c != null ? c : Currency.EMPTY;
 	}
 
-	public static synchronized void initialize(EntityManager em) {
+	/**
+	 * Replaces all the cached currencies with the ones in the database,
+	 * must be called after any currency is changed
+	 */
+	public static void initialize(EntityManager em) {
         TLongObjectHashMap<Currency> currencies = new TLongObjectHashMap<Currency>();
 		Query<Currency> q = em.createQuery(Currency.class);
 		Cursor c = q.execute();
@@ -60,9 +88,32 @@ public class CurrencyCache {
 		} finally {
 			c.close();
 		}
-		CURRENCIES.putAll(currencies);
+		synchronized (WRITE_LOCK) {
+			CURRENCIES = currencies;
+			VERSION++;
+		}
 	}
-	
+
+	/**
+	 * @return version of the currencies, amounts formatted with an older one may be outdated
+	 */
+	public static long getVersion() {
+		return VERSION;
+	}
+
+	/**
+	 * @return format of the currency for the calling thread
+	 */
+	public static Format getFormat(Currency c) {
+		TLongObjectHashMap<CachedFormat> formats = FORMATS.get();
+		CachedFormat f = formats.get(c.id);
+		if (f == null || !f.isFor(c)) {
+			f = new CachedFormat(c, createCurrencyFormat(c));
+			formats.put(c.id, f);
+		}
+		return f.format;
+	}
+
 	public static Format createCurrencyFormat(Currency c) {
 		String numberFormat;
 		if (!Utils.isEmpty(c.numberFormat)) {
@@ -118,9 +169,36 @@ public class CurrencyCache {
 		return s != null ? (s.length() > 2 ? s.charAt(1) : 0): c;
 	}
 
-	public static synchronized Collection<Currency> getAllCurrencies() {
+	public static Collection<Currency> getAllCurrencies() {
 		return CURRENCIES.valueCollection();
 	}
 
+	private static class CachedFormat {
+
+		private final String numberFormat;
+		private final String decimalSeparator;
+		private final String groupSeparator;
+		private final String symbol;
+		private final int decimals;
+		private final Format format;
+
+		CachedFormat(Currency c, Format format) {
+			this.numberFormat = c.numberFormat;
+			this.decimalSeparator = c.decimalSeparator;
+			this.groupSeparator = c.groupSeparator;
+			this.symbol = c.symbol;
+			this.decimals = c.decimals;
+			this.format = format;
+		}
+
+		boolean isFor(Currency c) {
+			return decimals == c.decimals && Objects.equals(numberFormat, c.numberFormat)
+					&& Objects.equals(decimalSeparator, c.decimalSeparator)
+					&& Objects.equals(groupSeparator, c.groupSeparator)
+					&& Objects.equals(symbol, c.symbol);
+		}
+
+	}
+
 
 }
@@ -0,0 +1,39 @@
+/*
+ * Copyright (c) 2012 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package tw.tib.financisto.utils;
+
+import android.content.Context;
+
+import tw.tib.financisto.R;
+import tw.tib.financisto.db.DatabaseAdapter;
+
+/**
+ * Verifies that report_aggregate is in sync with transactions,
+ * once after {@link MyPreferences#requestReportAggregateCheck(Context)}
+ */
+public class IntegrityCheckReportAggregate implements IntegrityCheck {
+
+    private final Context context;
+    private final DatabaseAdapter db;
+
+    public IntegrityCheckReportAggregate(Context context, DatabaseAdapter db) {
+        this.context = context;
+        this.db = db;
+    }
+
+    @Override
+    public Result check() {
+        if (MyPreferences.shouldCheckReportAggregate(context) && db.isReportAggregateBroken()) {
+            return new Result(Level.ERROR, context.getString(R.string.integrity_error_report_aggregate));
+        } else {
+            return Result.OK;
+        }
+    }
+
+}
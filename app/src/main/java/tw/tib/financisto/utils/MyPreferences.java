@@ -594,6 +594,11 @@ public class MyPreferences {
 		return sharedPreferences.getInt("auto_backup_time", 600);
 	}
 
+	public static boolean isBinaryBackupFormat(Context context) {
+		SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+		return sharedPreferences.getBoolean("binary_backup_format", false);
+	}
+
 	public static boolean isCollapseBlotterButtons(Context context) {
 		SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
 		return sharedPreferences.getBoolean("collapse_blotter_buttons", false);
@@ -625,6 +630,19 @@ public class MyPreferences {
 		return getOneTimeFlag(context, "should_update_accounts_last_transaction_date");
 	}
 
+	/**
+	 * Asks for one report_aggregate integrity check, done after restores and imports only
+	 * since comparing it with transactions takes two full scans
+	 */
+	public static void requestReportAggregateCheck(Context context) {
+		SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+		sharedPreferences.edit().putBoolean("should_check_report_aggregate", true).apply();
+	}
+
+	public static boolean shouldCheckReportAggregate(Context context) {
+		return getOneTimeFlag(context, "should_check_report_aggregate");
+	}
+
 	private static boolean getOneTimeFlag(Context context, String name) {
 		SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
 		boolean result = sharedPreferences.getBoolean(name, true);
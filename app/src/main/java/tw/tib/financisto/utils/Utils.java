@@ -151,12 +151,16 @@ public class Utils {
     }
 
     public void setAmountText(StringBuilder sb, TextView view, Currency originalCurrency, long originalAmount, Currency currency, long amount, boolean addPlus) {
+        view.setText(getAmountText(sb, originalCurrency, originalAmount, currency, amount, addPlus));
+        view.setTextColor(amount == 0 ? zeroColor : (amount > 0 ? positiveColor : negativeColor));
+    }
+
+    public static String getAmountText(StringBuilder sb, Currency originalCurrency, long originalAmount, Currency currency, long amount, boolean addPlus) {
         amountToString(sb, originalCurrency, originalAmount, addPlus);
         sb.append(" (");
         amountToString(sb, currency, amount, addPlus);
         sb.append(")");
-        view.setText(sb.toString());
-        view.setTextColor(amount == 0 ? zeroColor : (amount > 0 ? positiveColor : negativeColor));
+        return sb.toString();
     }
 
     public int getAmountColor(long amount) {
@@ -267,10 +271,14 @@ public class Utils {
     }
 
     public void setTransferBalanceText(TextView textView, Currency fromCurrency, long fromBalance, Currency toCurrency, long toBalance) {
+        textView.setText(getTransferBalanceText(fromCurrency, fromBalance, toCurrency, toBalance));
+    }
+
+    public String getTransferBalanceText(Currency fromCurrency, long fromBalance, Currency toCurrency, long toBalance) {
         var sb = new StringBuilder();
         Utils.amountToString(sb, fromCurrency, fromBalance, false).append(TRANSFER_DELIMITER);
         Utils.amountToString(sb, toCurrency, toBalance, false);
-        textView.setText(sb.toString());
+        return sb.toString();
     }
 
     public void setTransferTextColor(TextView textView) {
@@ -11,6 +11,7 @@
 package tw.tib.orb;
 
 import java.util.ArrayList;
+import java.util.List;
 
 public class Btw implements Expression {
 
@@ -32,4 +33,15 @@ public class Btw implements Expression {
 		return new Selection("("+ed.getColumnForField(field)+" between ? and ?)", args);
 	}
 
+	@Override
+	public void appendKey(StringBuilder sb) {
+		sb.append(field).append(" between;");
+	}
+
+	@Override
+	public void appendArgs(List<String> args) {
+		args.add(String.valueOf(value1));
+		args.add(String.valueOf(value2));
+	}
+
 }
@@ -13,6 +13,7 @@ package tw.tib.orb;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.LinkedList;
+import java.util.List;
 
 class CompoundExpression implements Expression {
 
@@ -48,4 +49,20 @@ class CompoundExpression implements Expression {
 		return new Selection(sb.toString(), list);
 	}
 
+	@Override
+	public void appendKey(StringBuilder sb) {
+		sb.append(op).append("(");
+		for (Expression e : expressions) {
+			e.appendKey(sb);
+		}
+		sb.append(")");
+	}
+
+	@Override
+	public void appendArgs(List<String> args) {
+		for (Expression e : expressions) {
+			e.appendArgs(args);
+		}
+	}
+
 }
@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     Denis Solonenko - initial API and implementation
+ ******************************************************************************/
+package tw.tib.orb;
+
+import android.database.Cursor;
+
+import java.util.Arrays;
+
+/**
+ * Column indexes of an entity and its joined entities in a cursor, resolved once per cursor
+ * instead of looking up every column by name for every row.
+ * Missing columns are only reported when they are actually read.
+ */
+class CursorColumns {
+
+	final EntityDefinition ed;
+	final String prefix;
+	final String[] columnNames;
+	private final int idColumn;
+	private final int[] columns;
+	private final CursorColumns[] joins;
+
+	CursorColumns(Cursor c, String prefix, EntityDefinition ed) {
+		this(c, c.getColumnNames(), prefix, ed);
+	}
+
+	private CursorColumns(Cursor c, String[] columnNames, String prefix, EntityDefinition ed) {
+		this.ed = ed;
+		this.prefix = prefix;
+		this.columnNames = columnNames;
+		this.idColumn = c.getColumnIndex(prefix + "__id");
+		FieldInfo[] fields = ed.fields;
+		this.columns = new int[fields.length];
+		this.joins = new CursorColumns[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			FieldInfo fi = fields[i];
+			if (fi.type.isPrimitive()) {
+				columns[i] = c.getColumnIndex(prefix + "_" + fi.columnName);
+			} else {
+				columns[i] = -1;
+				EntityDefinition eed = EntityManager.getEntityDefinitionOrThrow(fi.field.getType());
+				joins[i] = new CursorColumns(c, columnNames, prefix + fi.index, eed);
+			}
+		}
+	}
+
+	boolean matches(Cursor c, String prefix, EntityDefinition ed) {
+		if (this.ed != ed || !this.prefix.equals(prefix)) {
+			return false;
+		}
+		String[] names = c.getColumnNames();
+		return names == columnNames || Arrays.equals(names, columnNames);
+	}
+
+	int idColumn(Cursor c) {
+		return idColumn >= 0 ? idColumn : c.getColumnIndexOrThrow(prefix + "__id");
+	}
+
+	int column(Cursor c, int index) {
+		int column = columns[index];
+		return column >= 0 ? column : c.getColumnIndexOrThrow(prefix + "_" + ed.fields[index].columnName);
+	}
+
+	CursorColumns join(int index) {
+		return joins[index];
+	}
+
+}
@@ -10,10 +10,14 @@
  ******************************************************************************/
 package tw.tib.orb;
 
+import android.database.Cursor;
+import android.util.Log;
+
 import java.lang.reflect.Constructor;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
 
 import javax.persistence.PersistenceException;
 
@@ -22,6 +26,7 @@ class EntityDefinition {
 	static class Builder {
 		private final Class<?> clazz;
 		private Constructor<?> constructor;
+		private EntityMapper<?> mapper;
 		private String tableName; 
 		private FieldInfo idField;
 		private final List<FieldInfo> fields = new LinkedList<FieldInfo>();
@@ -34,6 +39,11 @@ class EntityDefinition {
 			this.constructor = constructor;
 		}
 		
+		Builder withMapper(EntityMapper<?> mapper) {
+			this.mapper = mapper;
+			return this;
+		}
+
 		Builder withTable(String tableName) {
 			this.tableName = tableName;
 			return this;
@@ -54,33 +64,80 @@ class EntityDefinition {
 			if (tableName == null) {
 				tableName = clazz.getSimpleName().toUpperCase();
 			}
-			return new EntityDefinition(constructor, tableName, idField, fields.toArray(new FieldInfo[fields.size()]));
+			return new EntityDefinition(constructor, mapper, tableName, idField, fields.toArray(new FieldInfo[fields.size()]));
 		}
 
 	}
 
+	private static final String TAG = "EntityDefinition";
+
 	static final String DEFAULT_ID_COLUMN_NAME = "_id";
 
+	private static final int MAX_QUERIES = 64;
+
 	final Constructor<?> constructor;
 	final String tableName;
 	final FieldInfo idField;
 	final FieldInfo[] fields;
+	final int idIndex;
+	@SuppressWarnings("rawtypes")
+	final EntityMapper mapper;
+	// mapper slot for each field
+	final int[] slots;
 //	final String[] primitiveColumns;
 //	final JoinEntity[] joinEntities;
 	final String sqlQuery;
 	final HashMap<String, FieldInfo> fieldToInfoMap = new HashMap<String, FieldInfo>();
+	// generated sql by query key, see Query
+	private final ConcurrentHashMap<String, String> queries = new ConcurrentHashMap<>();
 	
-	private EntityDefinition(Constructor<?> constructor, String tableName, FieldInfo idField, FieldInfo[] fields) {
+	private EntityDefinition(Constructor<?> constructor, EntityMapper<?> mapper, String tableName, FieldInfo idField, FieldInfo[] fields) {
 		this.constructor = constructor;
 		this.tableName = tableName;
 		this.idField = idField;
 		this.fields = fields;
+		this.idIndex = indexOf(fields, idField);
+		this.slots = prepareSlots(mapper, fields);
+		this.mapper = slots != null ? mapper : null;
 		this.sqlQuery = prepareSqlQuery();
 		prepareColumns();
 //		this.primitiveColumns = prepareColumns();
 //		this.joinEntities = prepareJoinEntities();
 	}
 
+	private static int indexOf(FieldInfo[] fields, FieldInfo field) {
+		for (int i = 0; i < fields.length; i++) {
+			if (fields[i] == field) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private int[] prepareSlots(EntityMapper<?> mapper, FieldInfo[] fields) {
+		if (mapper == null) {
+			return null;
+		}
+		String[] names = mapper.fields();
+		int[] slots = new int[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			String name = fields[i].field.getName();
+			int slot = -1;
+			for (int j = 0; j < names.length; j++) {
+				if (name.equals(names[j])) {
+					slot = j;
+					break;
+				}
+			}
+			if (slot < 0) {
+				Log.w(TAG, "Mapper for " + constructor.getDeclaringClass() + " doesn't know field [" + name + "], using reflection");
+				return null;
+			}
+			slots[i] = slot;
+		}
+		return slots;
+	}
+
 	private void prepareColumns() {
 		FieldInfo[] fields = this.fields;
 		for (FieldInfo f : fields) {
@@ -113,6 +170,9 @@ class EntityDefinition {
 
 	public long getId(Object entity) {
 		try {
+			if (mapper != null) {
+				return (Long) mapper.get(entity, slots[idIndex]);
+			}
 			return idField.field.getLong(entity);
 		} catch (Exception e) {
 			throw new PersistenceException("Unable to get id from "+entity, e); 
@@ -121,12 +181,44 @@ class EntityDefinition {
 
     public void setId(Object entity, long id) {
         try {
-            idField.field.setLong(entity, id);
+            if (mapper != null) {
+                mapper.set(entity, slots[idIndex], id);
+            } else {
+                idField.field.setLong(entity, id);
+            }
         } catch (Exception e) {
             throw new PersistenceException("Unable to set id for "+entity, e);
         }
     }
 
+	Object newInstance() throws Exception {
+		return mapper != null ? mapper.newInstance() : constructor.newInstance();
+	}
+
+	@SuppressWarnings("unchecked")
+	Object getValue(Object entity, int index) throws IllegalAccessException {
+		return mapper != null ? mapper.get(entity, slots[index]) : fields[index].field.get(entity);
+	}
+
+	@SuppressWarnings("unchecked")
+	void setValue(Object entity, int index, Object value) throws IllegalAccessException {
+		if (mapper != null) {
+			mapper.set(entity, slots[index], value);
+		} else {
+			fields[index].field.set(entity, value);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	void readValue(Object entity, int index, Cursor c, int columnIndex) throws IllegalAccessException {
+		if (mapper != null) {
+			mapper.read(entity, slots[index], c, columnIndex);
+		} else {
+			FieldInfo fi = fields[index];
+			fi.field.set(entity, fi.type.valueFromCursor(c, columnIndex));
+		}
+	}
+
 	public String getColumnForField(String field) {
 		if (field.indexOf('.') > 0) {
 			String[] path = field.split("\\.");
@@ -151,6 +243,17 @@ class EntityDefinition {
 		}
 	}
 	
+	String getQuery(String key) {
+		return queries.get(key);
+	}
+
+	void putQuery(String key, String sql) {
+		if (queries.size() >= MAX_QUERIES) {
+			queries.clear();
+		}
+		queries.put(key, sql);
+	}
+
 	private FieldInfo getFieldInfo(String field) {
 		FieldInfo f = fieldToInfoMap.get(field);
 		if (f == null) {
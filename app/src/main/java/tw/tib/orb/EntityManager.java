@@ -45,6 +45,9 @@ public abstract class EntityManager {
 	public static final String DEF_SORT_COL = "sort_order";
 
 	private static final ConcurrentMap<Class<?>, EntityDefinition> definitions = new ConcurrentHashMap<>();
+	private static final ConcurrentMap<Class<?>, EntityMapper<?>> mappers = new ConcurrentHashMap<>();
+
+	private static final ThreadLocal<CursorColumns> lastColumns = new ThreadLocal<>();
 
 	// effectively immutable
 	protected SQLiteOpenHelper databaseHelper;
@@ -62,6 +65,7 @@ public abstract class EntityManager {
 			throw new IllegalArgumentException("Class " + clazz + " is not an @Entity");
 		}
 		EntityDefinition.Builder edb = new EntityDefinition.Builder(clazz);
+		edb.withMapper(mappers.get(clazz));
 		try {
 			Constructor<?> constructor = clazz.getConstructor();
 			edb.withConstructor(constructor);
@@ -105,6 +109,14 @@ public abstract class EntityManager {
 		return FieldInfo.primitive(f, columnName);
 	}
 
+	/**
+	 * Registers a mapper to be used instead of reflection when loading and saving entities of the given class
+	 */
+	public static <T> void registerMapper(Class<T> clazz, EntityMapper<T> mapper) {
+		mappers.put(clazz, mapper);
+		definitions.remove(clazz);
+	}
+
 	static EntityDefinition getEntityDefinitionOrThrow(Class<?> clazz) {
 		EntityDefinition ed = definitions.get(clazz);
 		if (ed == null) {
@@ -130,9 +142,10 @@ public abstract class EntityManager {
 		if (obj instanceof SortableEntity) {
 			final EntityDefinition ed = getEntityDefinitionOrThrow(obj.getClass());
 			try {
-				for (FieldInfo f : ed.fields) {
-					if (DEF_SORT_COL.equals(f.columnName)) {
-						f.field.set(obj, sortOrder);
+				FieldInfo[] fields = ed.fields;
+				for (int i = 0; i < fields.length; i++) {
+					if (DEF_SORT_COL.equals(fields[i].columnName)) {
+						ed.setValue(obj, i, sortOrder);
 						return true;
 					}
 				}
@@ -191,22 +204,32 @@ public abstract class EntityManager {
 		return id;
 	}
 
+	@SuppressWarnings("unchecked")
 	private ContentValues getContentValues(EntityDefinition ed, Object entity) {
-		ContentValues values = new ContentValues();
 		FieldInfo[] fields = ed.fields;
-		for (FieldInfo fi : fields) {
+		ContentValues values = new ContentValues(fields.length + 1);
+		if (ed.mapper != null) {
+			try {
+				ed.mapper.write(entity, values);
+			} catch (Exception e) {
+				throw new PersistenceException("Unable to create content values for " + entity, e);
+			}
+			return values;
+		}
+		for (int i = 0; i < fields.length; i++) {
+			FieldInfo fi = fields[i];
 			try {
 				if (fi.type.isPrimitive()) {
-					Object value = fi.field.get(entity);
+					Object value = ed.getValue(entity, i);
 					fi.type.setValue(values, fi.columnName, value);
 				} else {
-					Object e = fi.field.get(entity);
+					Object e = ed.getValue(entity, i);
 					if (e == null) {
 						values.putNull(fi.columnName);
 					} else {
 						EntityDefinition eed = getEntityDefinitionOrThrow(e.getClass());
 						FieldInfo ffi = eed.idField;
-						Object value = ffi.field.get(e);
+						Object value = eed.getValue(e, eed.idIndex);
 						ffi.type.setValue(values, fi.columnName, value);
 					}
 				}
@@ -235,7 +258,7 @@ public abstract class EntityManager {
 		try (Cursor c = db().rawQuery(sql, new String[]{id.toString()})) {
 			if (c.moveToFirst()) {
 				try {
-					return (T) loadFromCursor("e", c, ed);
+					return (T) loadFromCursor(c, new CursorColumns(c, "e", ed));
 				} catch (Exception e) {
 					throw new PersistenceException("Unable to load entity of type " + clazz + " with id " + id, e);
 				}
@@ -248,9 +271,10 @@ public abstract class EntityManager {
 		EntityDefinition ed = getEntityDefinitionOrThrow(clazz);
 		try (Cursor c = db().rawQuery(ed.sqlQuery, null)) {
 			List<T> list = new LinkedList<>();
+			CursorColumns columns = new CursorColumns(c, "e", ed);
 			while (c.moveToNext()) {
 				try {
-					T t = loadFromCursor("e", c, ed);
+					T t = loadFromCursor(c, columns);
 					list.add(t);
 				} catch (Exception e) {
 					throw new PersistenceException("Unable to list entites of type " + clazz, e);
@@ -263,29 +287,39 @@ public abstract class EntityManager {
 	public static <T> T loadFromCursor(Cursor c, Class<T> clazz) {
 		EntityDefinition ed = getEntityDefinitionOrThrow(clazz);
 		try {
-			return (T) loadFromCursor("e", c, ed);
+			return (T) loadFromCursor(c, getColumns(c, ed));
 		} catch (Exception e) {
 			throw new PersistenceException("Unable to load entity of type " + clazz + " from cursor", e);
 		}
 	}
 
-	private static <T> T loadFromCursor(String pe, Cursor c, EntityDefinition ed) throws Exception {
-		int idIndex = c.getColumnIndexOrThrow(pe + "__id");
-		if (c.isNull(idIndex)) {
+	/**
+	 * Callers usually load every row of a cursor in a loop,
+	 * so the column indexes of the last cursor are kept per thread.
+	 */
+	private static CursorColumns getColumns(Cursor c, EntityDefinition ed) {
+		CursorColumns columns = lastColumns.get();
+		if (columns == null || !columns.matches(c, "e", ed)) {
+			columns = new CursorColumns(c, "e", ed);
+			lastColumns.set(columns);
+		}
+		return columns;
+	}
+
+	private static <T> T loadFromCursor(Cursor c, CursorColumns columns) throws Exception {
+		if (c.isNull(columns.idColumn(c))) {
 			return null;
 		}
+		EntityDefinition ed = columns.ed;
 		@SuppressWarnings("unchecked")
-		T entity = (T) ed.constructor.newInstance();
+		T entity = (T) ed.newInstance();
 		FieldInfo[] fields = ed.fields;
-		for (FieldInfo fi : fields) {
-			Object value;
-			if (fi.type.isPrimitive()) {
-				value = fi.type.getValueFromCursor(c, pe + "_" + fi.columnName);
+		for (int i = 0; i < fields.length; i++) {
+			if (fields[i].type.isPrimitive()) {
+				ed.readValue(entity, i, c, columns.column(c, i));
 			} else {
-				EntityDefinition eed = getEntityDefinitionOrThrow(fi.field.getType());
-				value = loadFromCursor(pe + fi.index, c, eed);
+				ed.setValue(entity, i, loadFromCursor(c, columns.join(i)));
 			}
-			fi.field.set(entity, value);
 		}
 		return entity;
 	}
@@ -0,0 +1,50 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     Denis Solonenko - initial API and implementation
+ ******************************************************************************/
+package tw.tib.orb;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+/**
+ * Creates an entity and accesses its persistent fields directly, without reflection.
+ * A field is addressed by its slot, the position of the field name in {@link #fields()}.
+ * Entities without a registered mapper, or with a mapper which doesn't cover
+ * all of their persistent fields, are mapped by reflection.
+ *
+ * Mappers are generated for every @Entity by tw.tib.orb.processor.EntityMapperProcessor.
+ *
+ * @see EntityManager#registerMapper(Class, EntityMapper)
+ */
+public interface EntityMapper<T> {
+
+	T newInstance();
+
+	/**
+	 * @return names of the fields known to this mapper, in slot order
+	 */
+	String[] fields();
+
+	/**
+	 * Reads a primitive field from the given column with the same conversion as {@link FieldType}
+	 */
+	void read(T entity, int slot, Cursor c, int column);
+
+	Object get(T entity, int slot);
+
+	void set(T entity, int slot, Object value);
+
+	/**
+	 * Puts all the persistent fields into values with the same conversion as {@link FieldType},
+	 * joined entities by their id
+	 */
+	void write(T entity, ContentValues values);
+
+}
@@ -11,6 +11,7 @@
 package tw.tib.orb;
 
 import java.util.Collections;
+import java.util.List;
 
 class Eq implements Expression {
 
@@ -27,4 +28,14 @@ class Eq implements Expression {
 		return new Selection("("+ed.getColumnForField(field)+"=?)", Collections.singletonList(String.valueOf(value)));
 	}
 
+	@Override
+	public void appendKey(StringBuilder sb) {
+		sb.append(field).append("=;");
+	}
+
+	@Override
+	public void appendArgs(List<String> args) {
+		args.add(String.valueOf(value));
+	}
+
 }
@@ -10,8 +10,18 @@
  ******************************************************************************/
 package tw.tib.orb;
 
+import java.util.List;
+
 public interface Expression {
 	
 	Selection toSelection(EntityDefinition ed);
+
+	/**
+	 * Appends the structure of this expression without the argument values,
+	 * expressions with the same key produce the same selection.
+	 */
+	void appendKey(StringBuilder sb);
+
+	void appendArgs(List<String> args);
 	
 }
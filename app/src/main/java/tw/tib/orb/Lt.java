@@ -11,6 +11,7 @@
 package tw.tib.orb;
 
 import java.util.Collections;
+import java.util.List;
 
 public class Lt implements Expression {
 
@@ -27,4 +28,14 @@ public class Lt implements Expression {
 		return new Selection("("+ed.getColumnForField(field)+"<?)", Collections.singletonList(String.valueOf(value)));
 	}
 
+	@Override
+	public void appendKey(StringBuilder sb) {
+		sb.append(field).append("<;");
+	}
+
+	@Override
+	public void appendArgs(List<String> args) {
+		args.add(String.valueOf(value));
+	}
+
 }
@@ -10,6 +10,7 @@
  ******************************************************************************/
 package tw.tib.orb;
 
+import java.util.List;
 
 public class Not implements Expression {
 	
@@ -29,4 +30,16 @@ public class Not implements Expression {
 		return new Selection(sb.toString(), s.selectionArgs);
 	}
 
+	@Override
+	public void appendKey(StringBuilder sb) {
+		sb.append("NOT(");
+		e.appendKey(sb);
+		sb.append(")");
+	}
+
+	@Override
+	public void appendArgs(List<String> args) {
+		e.appendArgs(args);
+	}
+
 }
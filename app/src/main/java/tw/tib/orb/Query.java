@@ -11,7 +11,6 @@
 package tw.tib.orb;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -25,8 +24,9 @@ public class Query<T> {
 	private final EntityDefinition ed;
 	private final SQLiteDatabase db;
 	
-	private final LinkedList<String> orderBy = new LinkedList<String>();
-	private String where;
+	// field and direction pairs, resolved to columns only when the sql is generated
+	private final LinkedList<String[]> orderBy = new LinkedList<String[]>();
+	private Expression where;
 	private String[] whereArgs;
 	
 	Query(EntityManager em, Class<T> clazz) {		
@@ -36,52 +36,67 @@ public class Query<T> {
 	}
 	
 	public Query<T> where(Expression ex) {
-		Selection s = ex.toSelection(ed);
-		where = s.selection;
-		List<String> args = s.selectionArgs; 
+		where = ex;
+		List<String> args = new ArrayList<String>();
+		ex.appendArgs(args);
 		whereArgs = args.toArray(new String[args.size()]);
 		return this;
 	}
 
 	public Query<T> ascLocale(String field) {
-		orderBy.add(ed.getColumnForField(field) + " COLLATE LOCALIZED ASC");
+		orderBy.add(new String[]{field, " COLLATE LOCALIZED ASC"});
 		return this;
 	}
 	
 	public Query<T> asc(String field) {
-		orderBy.add(ed.getColumnForField(field)+" asc");
+		orderBy.add(new String[]{field, " asc"});
 		return this;
 	}
 	
 	public Query<T> desc(String field) {
-		orderBy.add(ed.getColumnForField(field)+" desc");
+		orderBy.add(new String[]{field, " desc"});
 		return this;
 	}
 
+	/**
+	 * The generated sql depends only on the shape of the where expression and the order,
+	 * so it's cached by the entity definition and only the arguments are collected per query.
+	 */
 	public Cursor execute() {
-		String query = ed.sqlQuery;
-		String where = this.where;
-		String[] whereArgs = this.whereArgs;
-		StringBuilder sb = new StringBuilder(query);
+		StringBuilder key = new StringBuilder();
 		if (where != null) {
-			sb.append(" where ").append(where);			
+			where.appendKey(key);
+		}
+		for (String[] order : orderBy) {
+			key.append("|").append(order[0]).append(order[1]);
+		}
+		String k = key.toString();
+		String query = ed.getQuery(k);
+		if (query == null) {
+			query = prepareQuery();
+			ed.putQuery(k, query);
+			Log.d("QUERY "+clazz.getSimpleName(), query);
+		}
+		return db.rawQuery(query, whereArgs);
+	}
+
+	private String prepareQuery() {
+		StringBuilder sb = new StringBuilder(ed.sqlQuery);
+		if (where != null) {
+			sb.append(" where ").append(where.toSelection(ed).selection);
 		}
 		if (orderBy.size() > 0) {
 			sb.append(" order by ");
 			boolean addComma = false;
-			for (String order : orderBy) {
+			for (String[] order : orderBy) {
 				if (addComma) {
 					sb.append(", ");
 				}
-				sb.append(order);
+				sb.append(ed.getColumnForField(order[0])).append(order[1]);
 				addComma = true;
 			}			
 		}
-		query = sb.toString();
-		Log.d("QUERY "+clazz.getSimpleName(), query);
-		Log.d("WHERE", where != null ? where : "");
-		Log.d("ARGS", whereArgs != null ? Arrays.toString(whereArgs) : "");
-		return db.rawQuery(query, whereArgs);
+		return sb.toString();
 	}
 
 	public T uniqueResult() {
@@ -0,0 +1,485 @@
+/*******************************************************************************
+ * Copyright (c) 2010 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ *
+ * Contributors:
+ *     Denis Solonenko - initial API and implementation
+ ******************************************************************************/
+package tw.tib.orb.processor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.AnnotationMirror;
+import javax.lang.model.element.AnnotationValue;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+/**
+ * Generates an {@code EntityMapper} for every {@code @Entity} class, so that entities are read
+ * from cursors and written to content values without reflection.
+ * <p>
+ * Persistent fields are found the same way as EntityManager does at runtime: public instance fields,
+ * inherited ones included, without {@code @Transient}. A class with a field of a type
+ * EntityManager can't map gets no mapper and stays mapped by reflection.
+ * <p>
+ * All the generated mappers are registered by a single class, {@code tw.tib.orb.EntityMappers_} by default
+ * or the one given with the {@value #OPTION_REGISTRY} option.
+ */
+public class EntityMapperProcessor extends AbstractProcessor {
+
+	static final String OPTION_REGISTRY = "orbMappersRegistry";
+
+	private static final String ENTITY = "javax.persistence.Entity";
+	private static final String ID = "javax.persistence.Id";
+	private static final String COLUMN = "javax.persistence.Column";
+	private static final String JOIN_COLUMN = "javax.persistence.JoinColumn";
+	private static final String TRANSIENT = "javax.persistence.Transient";
+
+	private static final String SUFFIX = "Mapper_";
+
+	// generated mapper by entity class, in the order entities are found
+	private final Map<String, TypeElement> mappers = new LinkedHashMap<>();
+	private boolean registryWritten;
+
+	@Override
+	public Set<String> getSupportedAnnotationTypes() {
+		return Collections.singleton(ENTITY);
+	}
+
+	@Override
+	public Set<String> getSupportedOptions() {
+		return Collections.singleton(OPTION_REGISTRY);
+	}
+
+	@Override
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	@Override
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		TypeElement entity = processingEnv.getElementUtils().getTypeElement(ENTITY);
+		if (entity != null) {
+			for (Element e : roundEnv.getElementsAnnotatedWith(entity)) {
+				if (e.getKind() == ElementKind.CLASS) {
+					generateMapper((TypeElement) e);
+				}
+			}
+		}
+		if (!registryWritten && !mappers.isEmpty()) {
+			registryWritten = true;
+			generateRegistry();
+		}
+		return false;
+	}
+
+	private void generateMapper(TypeElement entity) {
+		List<Property> properties = findProperties(entity);
+		if (properties == null) {
+			return;
+		}
+		String entityName = entity.getQualifiedName().toString();
+		String packageName = processingEnv.getElementUtils().getPackageOf(entity).getQualifiedName().toString();
+		String mapperName = mapperName(entity);
+		StringBuilder sb = new StringBuilder();
+		sb.append("package ").append(packageName).append(";\n\n");
+		sb.append("import android.content.ContentValues;\n");
+		sb.append("import android.database.Cursor;\n\n");
+		sb.append("import tw.tib.orb.EntityMapper;\n\n");
+		sb.append("/**\n * Generated by ").append(getClass().getSimpleName()).append(" from {@link ")
+				.append(entityName).append("}, do not edit\n */\n");
+		sb.append("public final class ").append(mapperName).append(" implements EntityMapper<")
+				.append(entityName).append("> {\n\n");
+		sb.append("\tprivate static final String[] FIELDS = {");
+		for (int i = 0; i < properties.size(); i++) {
+			sb.append(i > 0 ? ", " : "").append('"').append(properties.get(i).name).append('"');
+		}
+		sb.append("};\n\n");
+
+		sb.append("\t@Override\n\tpublic ").append(entityName).append(" newInstance() {\n");
+		sb.append("\t\treturn new ").append(entityName).append("();\n\t}\n\n");
+
+		sb.append("\t@Override\n\tpublic String[] fields() {\n\t\treturn FIELDS;\n\t}\n\n");
+
+		sb.append("\t@Override\n\tpublic void read(").append(entityName).append(" e, int slot, Cursor c, int column) {\n");
+		sb.append("\t\tswitch (slot) {\n");
+		for (int i = 0; i < properties.size(); i++) {
+			Property p = properties.get(i);
+			if (p.kind != Kind.ENTITY) {
+				sb.append("\t\t\tcase ").append(i).append(": ").append(p.kind.read(p)).append(" break;\n");
+			}
+		}
+		sb.append("\t\t\tdefault: throw new IllegalArgumentException(\"Unknown slot \" + slot);\n\t\t}\n\t}\n\n");
+
+		sb.append("\t@Override\n\tpublic Object get(").append(entityName).append(" e, int slot) {\n");
+		sb.append("\t\tswitch (slot) {\n");
+		for (int i = 0; i < properties.size(); i++) {
+			sb.append("\t\t\tcase ").append(i).append(": return e.").append(properties.get(i).name).append(";\n");
+		}
+		sb.append("\t\t\tdefault: throw new IllegalArgumentException(\"Unknown slot \" + slot);\n\t\t}\n\t}\n\n");
+
+		sb.append("\t@Override\n\tpublic void set(").append(entityName).append(" e, int slot, Object value) {\n");
+		sb.append("\t\tswitch (slot) {\n");
+		for (int i = 0; i < properties.size(); i++) {
+			Property p = properties.get(i);
+			sb.append("\t\t\tcase ").append(i).append(": e.").append(p.name).append(" = (")
+					.append(p.boxedType).append(") value; break;\n");
+		}
+		sb.append("\t\t\tdefault: throw new IllegalArgumentException(\"Unknown slot \" + slot);\n\t\t}\n\t}\n\n");
+
+		sb.append("\t@Override\n\tpublic void write(").append(entityName).append(" e, ContentValues values) {\n");
+		for (Property p : properties) {
+			sb.append("\t\t").append(p.kind.write(p)).append("\n");
+		}
+		sb.append("\t}\n\n}\n");
+
+		write(packageName + "." + mapperName, sb, entity);
+		mappers.put(entityName, entity);
+	}
+
+	private void generateRegistry() {
+		String registry = processingEnv.getOptions().get(OPTION_REGISTRY);
+		if (registry == null) {
+			registry = "tw.tib.orb.EntityMappers_";
+		}
+		int dot = registry.lastIndexOf('.');
+		String packageName = registry.substring(0, dot);
+		String className = registry.substring(dot + 1);
+		StringBuilder sb = new StringBuilder();
+		sb.append("package ").append(packageName).append(";\n\n");
+		sb.append("import tw.tib.orb.EntityManager;\n\n");
+		sb.append("/**\n * Generated by ").append(getClass().getSimpleName()).append(", do not edit\n */\n");
+		sb.append("public final class ").append(className).append(" {\n\n");
+		sb.append("\tprivate ").append(className).append("() {\n\t}\n\n");
+		sb.append("\tpublic static void registerAll() {\n");
+		for (Map.Entry<String, TypeElement> e : mappers.entrySet()) {
+			String entityName = e.getKey();
+			String packageOfEntity = processingEnv.getElementUtils().getPackageOf(e.getValue()).getQualifiedName().toString();
+			sb.append("\t\tEntityManager.registerMapper(").append(entityName).append(".class, new ")
+					.append(packageOfEntity).append('.').append(mapperName(e.getValue())).append("());\n");
+		}
+		sb.append("\t}\n\n}\n");
+		write(registry, sb, mappers.values().toArray(new Element[0]));
+	}
+
+	private void write(String className, CharSequence source, Element... originatingElements) {
+		try {
+			JavaFileObject file = processingEnv.getFiler().createSourceFile(className, originatingElements);
+			try (Writer w = file.openWriter()) {
+				w.append(source);
+			}
+		} catch (IOException e) {
+			processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Unable to write " + className + ": " + e);
+		}
+	}
+
+	/**
+	 * Nested entities get the names of their enclosing classes, Outer.Inner is mapped by Outer_InnerMapper_
+	 */
+	private static String mapperName(TypeElement entity) {
+		StringBuilder sb = new StringBuilder(entity.getSimpleName());
+		Element e = entity.getEnclosingElement();
+		while (e.getKind().isClass() || e.getKind().isInterface()) {
+			sb.insert(0, e.getSimpleName() + "_");
+			e = e.getEnclosingElement();
+		}
+		return sb.append(SUFFIX).toString();
+	}
+
+	/**
+	 * @return persistent fields, the id first, or null if the entity can't be mapped without reflection
+	 */
+	private List<Property> findProperties(TypeElement entity) {
+		if (entity.getModifiers().contains(Modifier.ABSTRACT) || !entity.getModifiers().contains(Modifier.PUBLIC)
+				|| !hasPublicEmptyConstructor(entity)) {
+			note(entity, "needs to be public with a public empty constructor");
+			return null;
+		}
+		DeclaredType entityType = (DeclaredType) entity.asType();
+		List<Property> properties = new ArrayList<>();
+		List<String> names = new ArrayList<>();
+		boolean hasId = false;
+		for (VariableElement f : allPublicFields(entity)) {
+			if (has(f, TRANSIENT)) {
+				continue;
+			}
+			if (names.contains(f.getSimpleName().toString())) {
+				note(entity, "hides inherited field " + f.getSimpleName());
+				return null;
+			}
+			names.add(f.getSimpleName().toString());
+			TypeMirror type = processingEnv.getTypeUtils().asMemberOf(entityType, f);
+			Property p;
+			if (has(f, JOIN_COLUMN)) {
+				String id = idOf(type);
+				if (id == null) {
+					note(entity, "joins " + f.getSimpleName() + " which has no @Id field");
+					return null;
+				}
+				p = new Property(f.getSimpleName().toString(), stringValue(f, JOIN_COLUMN, "name"), Kind.ENTITY, boxed(type), false, id);
+			} else {
+				Kind kind = Kind.of(type);
+				if (kind == null) {
+					note(entity, "has field " + f.getSimpleName() + " of unsupported type " + type);
+					return null;
+				}
+				String column = stringValue(f, COLUMN, "name");
+				if (column == null) {
+					column = f.getSimpleName().toString().toUpperCase();
+				}
+				p = new Property(f.getSimpleName().toString(), column, kind, boxed(type), type.getKind().isPrimitive(), null);
+			}
+			if (has(f, ID) && !hasId) {
+				hasId = true;
+				properties.add(0, p);
+			} else {
+				properties.add(p);
+			}
+		}
+		if (!hasId) {
+			note(entity, "has no @Id field");
+			return null;
+		}
+		return properties;
+	}
+
+	private boolean hasPublicEmptyConstructor(TypeElement entity) {
+		for (ExecutableElement c : ElementFilter.constructorsIn(entity.getEnclosedElements())) {
+			if (c.getParameters().isEmpty() && c.getModifiers().contains(Modifier.PUBLIC)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Same fields as Class.getFields(), own fields first, hidden ones included
+	 */
+	private List<VariableElement> allPublicFields(TypeElement type) {
+		List<VariableElement> fields = new ArrayList<>();
+		for (TypeElement t = type; t != null; t = superclassOf(t)) {
+			for (VariableElement f : ElementFilter.fieldsIn(t.getEnclosedElements())) {
+				Set<Modifier> modifiers = f.getModifiers();
+				if (modifiers.contains(Modifier.PUBLIC) && !modifiers.contains(Modifier.STATIC)) {
+					fields.add(f);
+				}
+			}
+		}
+		return fields;
+	}
+
+	private String idOf(TypeMirror type) {
+		if (type.getKind() != TypeKind.DECLARED) {
+			return null;
+		}
+		for (VariableElement f : allPublicFields((TypeElement) ((DeclaredType) type).asElement())) {
+			if (has(f, ID)) {
+				return f.getSimpleName().toString();
+			}
+		}
+		return null;
+	}
+
+	private static TypeElement superclassOf(TypeElement t) {
+		TypeMirror s = t.getSuperclass();
+		if (s.getKind() != TypeKind.DECLARED) {
+			return null;
+		}
+		TypeElement e = (TypeElement) ((DeclaredType) s).asElement();
+		return "java.lang.Object".equals(e.getQualifiedName().toString()) ? null : e;
+	}
+
+	private String boxed(TypeMirror type) {
+		if (type.getKind().isPrimitive()) {
+			return processingEnv.getTypeUtils().boxedClass((PrimitiveType) type).getQualifiedName().toString();
+		}
+		return processingEnv.getTypeUtils().erasure(type).toString();
+	}
+
+	private static boolean has(Element e, String annotation) {
+		return annotation(e, annotation) != null;
+	}
+
+	private static AnnotationMirror annotation(Element e, String annotation) {
+		for (AnnotationMirror a : e.getAnnotationMirrors()) {
+			if (((TypeElement) a.getAnnotationType().asElement()).getQualifiedName().contentEquals(annotation)) {
+				return a;
+			}
+		}
+		return null;
+	}
+
+	private String stringValue(Element e, String annotation, String name) {
+		AnnotationMirror a = annotation(e, annotation);
+		if (a == null) {
+			return null;
+		}
+		for (Map.Entry<? extends ExecutableElement, ? extends AnnotationValue> v
+				: processingEnv.getElementUtils().getElementValuesWithDefaults(a).entrySet()) {
+			if (v.getKey().getSimpleName().contentEquals(name)) {
+				return (String) v.getValue().getValue();
+			}
+		}
+		return null;
+	}
+
+	private void note(TypeElement entity, String message) {
+		processingEnv.getMessager().printMessage(Diagnostic.Kind.NOTE,
+				entity.getQualifiedName() + " " + message + ", it is mapped by reflection", entity);
+	}
+
+	private static final class Property {
+
+		final String name;
+		final String column;
+		final Kind kind;
+		// for casts in set, also the class of an enum or a joined entity
+		final String boxedType;
+		// id field of a joined entity
+		final boolean primitive;
+		final String joinId;
+
+		Property(String name, String column, Kind kind, String boxedType, boolean primitive, String joinId) {
+			this.name = name;
+			this.column = column;
+			this.kind = kind;
+			this.boxedType = boxedType;
+			this.primitive = primitive;
+			this.joinId = joinId;
+		}
+
+		String field() {
+			return "e." + name;
+		}
+
+		String column() {
+			return '"' + column.replace("\\", "\\\\").replace("\"", "\\\"") + '"';
+		}
+
+	}
+
+	/**
+	 * Conversions of FieldType: booleans are stored as 1 and 0, dates as millis with 0 read as null, enums by name
+	 */
+	private enum Kind {
+
+		DOUBLE(TypeKind.DOUBLE, "java.lang.Double", "getDouble"),
+		FLOAT(TypeKind.FLOAT, "java.lang.Float", "getFloat"),
+		INT(TypeKind.INT, "java.lang.Integer", "getInt"),
+		LONG(TypeKind.LONG, "java.lang.Long", "getLong"),
+		SHORT(TypeKind.SHORT, "java.lang.Short", "getShort"),
+		STRING(null, "java.lang.String", "getString"),
+		BOOLEAN(TypeKind.BOOLEAN, "java.lang.Boolean", null) {
+			@Override
+			String read(Property p) {
+				return p.field() + " = c.getInt(column) == 1;";
+			}
+			@Override
+			String write(Property p) {
+				String value = "values.put(" + p.column() + ", " + (p.primitive ? p.field() : "Boolean.TRUE.equals(" + p.field() + ")") + " ? 1 : 0);";
+				return p.primitive ? value : nullable(p, value);
+			}
+		},
+		DATE(null, "java.util.Date", null) {
+			@Override
+			String read(Property p) {
+				return "{ long d = c.getLong(column); " + p.field() + " = d == 0 ? null : new java.util.Date(d); }";
+			}
+			@Override
+			String write(Property p) {
+				return nullable(p, "values.put(" + p.column() + ", " + p.field() + ".getTime());");
+			}
+		},
+		ENUM(null, null, null) {
+			@Override
+			String read(Property p) {
+				return "{ String s = c.getString(column); " + p.field() + " = s == null ? null : " + p.boxedType + ".valueOf(s); }";
+			}
+			@Override
+			String write(Property p) {
+				return nullable(p, "values.put(" + p.column() + ", " + p.field() + ".name());");
+			}
+		},
+		ENTITY(null, null, null) {
+			@Override
+			String read(Property p) {
+				throw new UnsupportedOperationException();
+			}
+			@Override
+			String write(Property p) {
+				return nullable(p, "values.put(" + p.column() + ", " + p.field() + "." + p.joinId + ");");
+			}
+		};
+
+		final TypeKind primitive;
+		final String className;
+		final String getter;
+
+		Kind(TypeKind primitive, String className, String getter) {
+			this.primitive = primitive;
+			this.className = className;
+			this.getter = getter;
+		}
+
+		String read(Property p) {
+			return p.field() + " = c." + getter + "(column);";
+		}
+
+		String write(Property p) {
+			String value = "values.put(" + p.column() + ", " + p.field() + ");";
+			return p.primitive ? value : nullable(p, value);
+		}
+
+		static String nullable(Property p, String put) {
+			return "if (" + p.field() + " == null) values.putNull(" + p.column() + "); else " + put;
+		}
+
+		static Kind of(TypeMirror type) {
+			for (Kind k : values()) {
+				if (k.primitive != null && k.primitive == type.getKind()) {
+					return k;
+				}
+			}
+			if (type.getKind() != TypeKind.DECLARED) {
+				return null;
+			}
+			TypeElement e = (TypeElement) ((DeclaredType) type).asElement();
+			if (e.getKind() == ElementKind.ENUM) {
+				return ENUM;
+			}
+			String name = e.getQualifiedName().toString();
+			for (Kind k : values()) {
+				if (name.equals(k.className)) {
+					return k;
+				}
+			}
+			return null;
+		}
+
+	}
+
+}